@@ -0,0 +1,65 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.diff.EditScript;
+import com.alensoft.automator42.model.diff.FlowDiff;
+import com.alensoft.automator42.model.diff.FlowMerge;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение и трехстороннее слияние версий сгенерированной схемы. Обе версии
+ * получены из одной базы своими потоками случайных правок (вставки, вставки в ветку,
+ * удаления) по edits правок каждая.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+@State(Scope.Benchmark)
+public class DiffBenchmark {
+
+    @Param({"mixed"})
+    public String shape;
+
+    @Param({"10000", "100000"})
+    public int steps;
+
+    @Param({"1000"})
+    public int edits;
+
+    private FlowGraph base;
+    private FlowGraph ours;
+    private FlowGraph theirs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HeadlessFx.start();
+        FlowchartGenerator.Shape form = FlowchartGenerator.Shape.of(shape);
+        // Генератор с тем же seed дает ту же схему с теми же id - это база обеих версий
+        FlowchartGenerator.Generated first = new FlowchartGenerator(42).generate(form, steps);
+        base = first.canvas().getGraph().copy();
+        ours = edit(new FlowchartGenerator(42).workload(first));
+        FlowchartGenerator.Generated second = new FlowchartGenerator(42).generate(form, steps);
+        theirs = edit(new FlowchartGenerator(7).workload(second));
+    }
+
+    private FlowGraph edit(FlowchartGenerator.Workload workload) {
+        for (int i = 0; i < edits; i++) {
+            workload.step();
+        }
+        return workload.canvas().getGraph().copy();
+    }
+
+    @Benchmark
+    public EditScript diff() {
+        return FlowDiff.diff(base, ours);
+    }
+
+    @Benchmark
+    public FlowMerge.Result merge() {
+        return FlowMerge.merge(base, ours, theirs);
+    }
+}
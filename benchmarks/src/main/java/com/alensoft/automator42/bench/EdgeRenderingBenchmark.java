@@ -0,0 +1,84 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.canvas.Canvas;
+import com.alensoft.automator42.model.step.Step;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стрелки узлами Arrow против одного слоя EdgeLayer (с шаблонами ArrowType и с
+ * OrthogonalRouter): сдвиг 100 случайных узлов
+ * и приведение стрелок в актуальное состояние (для Arrow - проход раскладки, для
+ * слоя - flush с перерисовкой грязной области). Канвас показан в окне 1200x800
+ * (Monocle Headless), поэтому пульсы забирают нарисованное.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class EdgeRenderingBenchmark {
+
+    private static final int MOVED = 100;
+
+    @Param({"ARROWS", "LAYER", "ROUTED"})
+    public Canvas.EdgeMode mode;
+
+    @Param({"1000", "10000"})
+    public int steps;
+
+    private Canvas canvas;
+    private Step[] moved;
+    private Stage stage;
+    private double shift = 1;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HeadlessFx.start();
+        HeadlessFx.call(() -> {
+            Fixtures.Edited edited = Fixtures.canvas(steps, mode);
+            canvas = edited.canvas();
+            List<Step> all = edited.processes();
+            Random random = new Random(42);
+            moved = new Step[MOVED];
+            for (int i = 0; i < MOVED; i++) {
+                moved[i] = all.get(random.nextInt(all.size()));
+            }
+            stage = new Stage();
+            stage.setScene(new Scene(canvas, 1200, 800));
+            stage.show();
+            return null;
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HeadlessFx.call(() -> {
+            stage.close();
+            return null;
+        });
+    }
+
+    @Benchmark
+    public Canvas moveSteps() {
+        return HeadlessFx.call(() -> {
+            shift = -shift;
+            for (Step step : moved) {
+                step.moveTo(step.getLayoutX() + shift, step.getLayoutY());
+            }
+            if (canvas.getEdgeLayer() != null) {
+                canvas.getEdgeLayer().flush();
+            } else {
+                // Стрелки пересчитываются в проходе раскладки - выполнить его сразу
+                canvas.layout();
+            }
+            return canvas;
+        });
+    }
+}
@@ -0,0 +1,227 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.canvas.Canvas;
+import com.alensoft.automator42.model.connection.ConManager;
+import com.alensoft.automator42.model.connection.ConType;
+import com.alensoft.automator42.model.connection.Connect;
+import com.alensoft.automator42.model.step.Branch;
+import com.alensoft.automator42.model.step.Process;
+import com.alensoft.automator42.model.step.Step;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Задержка одной структурной правки канваса (вместе с раскладкой) от 1k до 100k узлов,
+ * а также ее отмены и повтора.
+ * SampleTime дает перцентили p50/p90/p99; аллокации на операцию - запуск с {@code -prof gc}.
+ * <p>
+ * Каждая правка откатывается обратной вне замера (Level.Invocation), поэтому размер
+ * схемы за итерацию не меняется. Место правки - случайный узел, seed фиксирован.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class EditBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Diagram {
+        @Param({"1000", "10000", "100000"})
+        public int steps;
+
+        Canvas canvas;
+        ConManager conManager;
+        List<Step> processes;
+        List<Step> branches;
+        final Random random = new Random(42);
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            HeadlessFx.start();
+            Fixtures.Edited edited = Fixtures.canvas(steps);
+            canvas = edited.canvas();
+            conManager = canvas.getConManager();
+            processes = edited.processes();
+            branches = edited.branches();
+        }
+
+        Step anyProcess() {
+            return processes.get(random.nextInt(processes.size()));
+        }
+
+        Step anyBranch() {
+            return branches.get(random.nextInt(branches.size()));
+        }
+    }
+
+    /**
+     * Новый узел и место вставки; после замера узел удаляется
+     */
+    @State(Scope.Thread)
+    public static class Insertion {
+        Step anchor;
+        Step step;
+
+        @Setup(Level.Invocation)
+        public void prepare(Diagram diagram) {
+            anchor = diagram.anyProcess();
+            step = new Process("new");
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Diagram diagram) {
+            diagram.canvas.removeStep(step);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BranchInsertion {
+        Step branch;
+        Step step;
+
+        @Setup(Level.Invocation)
+        public void prepare(Diagram diagram) {
+            branch = diagram.anyBranch();
+            step = new Process("new");
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Diagram diagram) {
+            diagram.canvas.removeStep(step);
+        }
+    }
+
+    /**
+     * Узел (или Branch с тремя узлами в ветке IN), который замер удалит
+     */
+    @State(Scope.Thread)
+    public static class Removal {
+        Step step;
+        Step branch;
+
+        @Setup(Level.Invocation)
+        public void prepare(Diagram diagram) {
+            Canvas canvas = diagram.canvas;
+            Step anchor = diagram.anyProcess();
+            step = canvas.addStep(anchor, new Process("old"));
+            branch = canvas.addStep(step, new Branch("old"));
+            for (int i = 0; i < 3; i++) {
+                canvas.insertInBranch(branch, new Process("old" + i));
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void cleanUp(Diagram diagram) {
+            if (branch.getGraph() != null) diagram.canvas.removeStep(branch);
+            if (step.getGraph() != null) diagram.canvas.removeStep(step);
+        }
+    }
+
+    /**
+     * Исходящая связь случайного узла к следующему. Для замера createCon она снимается
+     * заранее, для замера removeCon - возвращается после
+     */
+    @State(Scope.Thread)
+    public static class Link {
+        Connect con;
+
+        @Setup(Level.Invocation)
+        public void prepare(Diagram diagram) {
+            con = diagram.conManager.getConByType(diagram.anyProcess(), ConType.OK, ConType.OUT).orElseThrow();
+        }
+
+        @TearDown(Level.Invocation)
+        public void restore(Diagram diagram) {
+            diagram.conManager.createCon(con.getSource(), con.getTarget(), con.getType());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Unlinked {
+        Connect con;
+
+        @Setup(Level.Invocation)
+        public void prepare(Diagram diagram) {
+            con = diagram.conManager.getConByType(diagram.anyProcess(), ConType.OK, ConType.OUT).orElseThrow();
+            diagram.conManager.removeCon(con);
+        }
+    }
+
+    /**
+     * Случайный Branch со своей веткой, удаленный перед замером отмены
+     */
+    @State(Scope.Thread)
+    public static class Removed {
+        @Setup(Level.Invocation)
+        public void prepare(Diagram diagram) {
+            diagram.canvas.removeStep(diagram.anyBranch());
+        }
+    }
+
+    /**
+     * Удаление Branch, отмененное перед замером повтора; после замера отменяется снова
+     */
+    @State(Scope.Thread)
+    public static class Undone {
+        @Setup(Level.Invocation)
+        public void prepare(Diagram diagram) {
+            diagram.canvas.removeStep(diagram.anyBranch());
+            diagram.canvas.undo();
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Diagram diagram) {
+            diagram.canvas.undo();
+        }
+    }
+
+    @Benchmark
+    public Step addStep(Diagram diagram, Insertion insertion) {
+        return diagram.canvas.addStep(insertion.anchor, insertion.step);
+    }
+
+    @Benchmark
+    public Step insertInBranch(Diagram diagram, BranchInsertion insertion) {
+        return diagram.canvas.insertInBranch(insertion.branch, insertion.step);
+    }
+
+    @Benchmark
+    public void removeStep(Diagram diagram, Removal removal) {
+        diagram.canvas.removeStep(removal.step);
+    }
+
+    @Benchmark
+    public void removeBranch(Diagram diagram, Removal removal) {
+        diagram.canvas.removeStep(removal.branch);
+    }
+
+    @Benchmark
+    public Connect createCon(Diagram diagram, Unlinked link) {
+        Connect con = link.con;
+        return diagram.conManager.createCon(con.getSource(), con.getTarget(), con.getType());
+    }
+
+    @Benchmark
+    public void removeCon(Diagram diagram, Link link) {
+        diagram.conManager.removeCon(link.con);
+    }
+
+    @Benchmark
+    public boolean undoRemoveBranch(Diagram diagram, Removed removed) {
+        return diagram.canvas.undo();
+    }
+
+    @Benchmark
+    public boolean redoRemoveBranch(Diagram diagram, Undone undone) {
+        return diagram.canvas.redo();
+    }
+
+    @Benchmark
+    public boolean validateAST(Diagram diagram) {
+        return diagram.canvas.validateAST();
+    }
+}
@@ -0,0 +1,104 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.canvas.Canvas;
+import com.alensoft.automator42.model.canvas.CanvasBuilder;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.io.FlowFormat;
+import com.alensoft.automator42.model.io.FlowJson;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сохранение и загрузка двоичного формата и JSON на разложенных сгенерированных схемах,
+ * плюс импорт JSON в канвас через {@link CanvasBuilder}.
+ * Счетчик bytes дает пропускную способность в байтах в секунду.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FileFormatBenchmark {
+
+    @Param({"mixed"})
+    public String shape;
+
+    @Param({"10000", "200000"})
+    public int steps;
+
+    private FlowGraph graph;
+    private byte[] file;
+    private byte[] json;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        HeadlessFx.start();
+        FlowchartGenerator generator = new FlowchartGenerator(42);
+        graph = generator.generate(FlowchartGenerator.Shape.of(shape), steps).canvas().getGraph();
+        FlowFormat.write(graph, out);
+        file = out.toByteArray();
+        out.reset();
+        saveJson(new Bytes());
+        json = out.toByteArray();
+    }
+
+    @Benchmark
+    public int save(Bytes counter) throws IOException {
+        out.reset();
+        FlowFormat.write(graph, out);
+        counter.bytes += out.size();
+        return out.size();
+    }
+
+    @Benchmark
+    public FlowGraph load(Bytes counter) throws IOException {
+        FlowGraph loaded = FlowFormat.read(new ByteArrayInputStream(file));
+        counter.bytes += file.length;
+        return loaded;
+    }
+
+    @Benchmark
+    public int saveJson(Bytes counter) throws IOException {
+        out.reset();
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        FlowJson.write(graph, writer);
+        counter.bytes += out.size();
+        return out.size();
+    }
+
+    @Benchmark
+    public FlowGraph loadJson(Bytes counter) throws IOException {
+        FlowGraph loaded = FlowJson.read(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+        counter.bytes += json.length;
+        return loaded;
+    }
+
+    @Benchmark
+    public Canvas importJson(Bytes counter) throws IOException {
+        CanvasBuilder builder = new CanvasBuilder(Canvas.EdgeMode.LAYER);
+        FlowJson.read(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8), builder);
+        counter.bytes += json.length;
+        return builder.build();
+    }
+}
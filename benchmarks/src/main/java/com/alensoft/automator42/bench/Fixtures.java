@@ -0,0 +1,154 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.canvas.Canvas;
+import com.alensoft.automator42.model.connection.ConManager;
+import com.alensoft.automator42.model.connection.ConType;
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.StepKind;
+import com.alensoft.automator42.model.step.Begin;
+import com.alensoft.automator42.model.step.Branch;
+import com.alensoft.automator42.model.step.End;
+import com.alensoft.automator42.model.step.Process;
+import com.alensoft.automator42.model.step.Step;
+import javafx.scene.layout.Pane;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Схемы для бенчмарков: с представлениями - через ConManager (без раскладки на каждый шаг),
+ * headless - прямо в FlowGraph. Корень headless-схем - узел 0.
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    public record Edited(Canvas canvas, List<Step> processes, List<Step> branches) {
+    }
+
+    public record Diagram(Pane pane, FlowGraph graph, ConManager conManager, Step[] steps) {
+        public Step root() {
+            return steps[0];
+        }
+    }
+
+    /**
+     * "Шампур" из Process, каждый пятый узел - Branch с одним узлом в ветке IN
+     */
+    public static Diagram chainWithBranches(int size) {
+        Pane pane = new Pane();
+        FlowGraph graph = new FlowGraph(size);
+        ConManager conManager = new ConManager(pane, graph);
+        Step[] steps = new Step[size];
+
+        steps[0] = attach(new Begin("Start"), graph);
+        int i = 1;
+        while (i < size - 1) {
+            if (i % 5 == 0 && i + 2 < size - 1) {
+                Step branch = attach(new Branch("b" + i), graph);
+                Step side = attach(new Process("i" + (i + 1)), graph);
+                Step merge = attach(new Process("p" + (i + 2)), graph);
+                conManager.createCon(steps[i - 1], branch, ConType.OK);
+                conManager.createCon(branch, merge, ConType.OK);
+                conManager.createCon(branch, side, ConType.IN);
+                conManager.createCon(side, merge, ConType.OUT);
+                steps[i] = branch;
+                steps[i + 1] = side;
+                steps[i + 2] = merge;
+                i += 3;
+            } else {
+                steps[i] = attach(new Process("p" + i), graph);
+                conManager.createCon(steps[i - 1], steps[i], ConType.OK);
+                i++;
+            }
+        }
+        steps[i] = attach(new End("End"), graph);
+        conManager.createCon(steps[i - 1], steps[i], ConType.OK);
+        return new Diagram(pane, graph, conManager, steps);
+    }
+
+    /**
+     * Канвас примерно из size узлов, собранный его же правками (одной транзакцией):
+     * "шампур" из Process, каждый пятый - Branch с одним Process в ветке IN
+     */
+    public static Edited canvas(int size) {
+        return canvas(size, Canvas.EdgeMode.ARROWS);
+    }
+
+    public static Edited canvas(int size, Canvas.EdgeMode edgeMode) {
+        Canvas canvas = new Canvas(400, 20, edgeMode);
+        List<Step> processes = new ArrayList<>();
+        List<Step> branches = new ArrayList<>();
+        canvas.batch(() -> {
+            Step prev = canvas.getSelectedStep();
+            for (int i = 2; i < size; i++) {
+                if (i % 5 == 0 && i + 1 < size) {
+                    Step branch = canvas.addStep(prev, new Branch("b" + i));
+                    processes.add(canvas.insertInBranch(branch, new Process("i" + (++i))));
+                    branches.add(branch);
+                    prev = branch;
+                } else {
+                    prev = canvas.addStep(prev, new Process("p" + i));
+                    processes.add(prev);
+                }
+            }
+        });
+        return new Edited(canvas, processes, branches);
+    }
+
+    /**
+     * Headless: цепочка из count ромбов Branch/слияние; ветка IN длиннее ветки OUT
+     */
+    public static FlowGraph diamondChain(int count) {
+        FlowGraph graph = new FlowGraph(count * 4 + 2);
+        int prev = graph.addStep(StepKind.BEGIN, "Start");
+        for (int i = 0; i < count; i++) {
+            int branch = graph.addStep(StepKind.BRANCH, "b" + i);
+            int first = graph.addStep(StepKind.PROCESS, "i" + i);
+            int second = graph.addStep(StepKind.PROCESS, "j" + i);
+            int merge = graph.addStep(StepKind.PROCESS, "m" + i);
+            graph.connect(prev, branch, EdgeType.OK);
+            graph.connect(branch, first, EdgeType.IN);
+            graph.connect(first, second, EdgeType.OK);
+            graph.connect(second, merge, EdgeType.OK);
+            graph.connect(branch, merge, EdgeType.OUT);
+            prev = merge;
+        }
+        graph.connect(prev, graph.addStep(StepKind.END, "End"), EdgeType.OK);
+        return graph;
+    }
+
+    /**
+     * Headless: depth вложенных друг в друга Branch, каждый со своим слиянием
+     */
+    public static FlowGraph nestedBranches(int depth) {
+        FlowGraph graph = new FlowGraph(depth * 2 + 3);
+        int prev = graph.addStep(StepKind.BEGIN, "Start");
+        int[] branches = new int[depth];
+        EdgeType via = EdgeType.OK;
+        for (int d = 0; d < depth; d++) {
+            branches[d] = graph.addStep(StepKind.BRANCH, "b" + d);
+            graph.connect(prev, branches[d], via);
+            prev = branches[d];
+            via = EdgeType.IN;
+        }
+        int inner = graph.addStep(StepKind.PROCESS, "inner");
+        graph.connect(prev, inner, via);
+        prev = inner;
+        for (int d = depth - 1; d >= 0; d--) {
+            int merge = graph.addStep(StepKind.PROCESS, "m" + d);
+            graph.connect(prev, merge, EdgeType.OK);
+            graph.connect(branches[d], merge, EdgeType.OUT);
+            prev = merge;
+        }
+        graph.connect(prev, graph.addStep(StepKind.END, "End"), EdgeType.OK);
+        return graph;
+    }
+
+    private static Step attach(Step step, FlowGraph graph) {
+        step.attach(graph);
+        return step;
+    }
+}
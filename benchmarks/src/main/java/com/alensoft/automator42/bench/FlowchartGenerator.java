@@ -0,0 +1,234 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.canvas.Canvas;
+import com.alensoft.automator42.model.step.Branch;
+import com.alensoft.automator42.model.step.Connector;
+import com.alensoft.automator42.model.step.Process;
+import com.alensoft.automator42.model.step.Step;
+import com.alensoft.automator42.model.step.UserIO;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Синтетические ДРАКОН-схемы для нагрузочных тестов, собранные правками самого канваса
+ * (одной транзакцией), поэтому всегда допустимы по его правилам. Одинаковый seed -
+ * одинаковая схема и одинаковый поток правок.
+ * <p>
+ * Ветвление строится как ромб: сначала узел слияния, затем перед ним Branch, ветка IN
+ * и ветка OK сходятся в слиянии. Вложенность - стек открытых веток.
+ */
+public final class FlowchartGenerator {
+
+    /**
+     * Форма схемы: веса "продолжить цепочку / открыть Branch / закрыть ветку",
+     * предел вложенности и доли UserIO и Connector среди простых узлов (в процентах)
+     */
+    public record Shape(int chain, int branch, int close, int maxDepth, int userIO, int connector) {
+        /** Длинный "шампур" почти без ветвлений */
+        public static final Shape CHAIN = new Shape(97, 3, 100, 1, 10, 2);
+        /** Глубоко вложенные ветвления */
+        public static final Shape DEEP = new Shape(30, 60, 10, 256, 10, 2);
+        /** Много неглубоких ромбов подряд */
+        public static final Shape WIDE = new Shape(30, 40, 30, 3, 10, 2);
+        /** Смесь всего */
+        public static final Shape MIXED = new Shape(60, 25, 15, 32, 20, 5);
+
+        public static Shape of(String name) {
+            return switch (name) {
+                case "chain" -> CHAIN;
+                case "deep" -> DEEP;
+                case "wide" -> WIDE;
+                case "mixed" -> MIXED;
+                default -> throw new IllegalArgumentException("Unknown shape: " + name);
+            };
+        }
+    }
+
+    /**
+     * Сгенерированная схема и узлы, которые можно править (без Begin/End)
+     */
+    public record Generated(Canvas canvas, List<Step> steps, List<Step> branches) {
+    }
+
+    // Открытая ветка: Branch, если еще предстоит ветка OK, и слияние, куда вернуться
+    private record Frame(Step okSide, Step merge) {
+    }
+
+    private final long seed;
+
+    public FlowchartGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Схема примерно из size узлов (с Begin и End) заданной формы
+     */
+    public Generated generate(Shape shape, int size) {
+        Random random = new Random(seed);
+        Canvas canvas = new Canvas(400, 20);
+        List<Step> steps = new ArrayList<>(size);
+        List<Step> branches = new ArrayList<>(size / 4);
+        canvas.batch(() -> {
+            Deque<Frame> open = new ArrayDeque<>();
+            Step cursor = canvas.getSelectedStep();
+            int count = canvas.getGraph().stepCount();
+            while (count < size) {
+                int total = shape.chain() + shape.branch() + (open.isEmpty() ? 0 : shape.close());
+                int roll = random.nextInt(total);
+                if (roll < shape.chain() || count + 3 > size) {
+                    cursor = canvas.addStep(cursor, leaf(random, shape, count));
+                    steps.add(cursor);
+                    count++;
+                } else if (roll < shape.chain() + shape.branch() && open.size() < shape.maxDepth()) {
+                    Step merge = canvas.addStep(cursor, new Process("m" + count));
+                    Step branch = canvas.addStep(cursor, new Branch("b" + count + "?"));
+                    Step in = canvas.insertInBranch(branch, leaf(random, shape, count + 2));
+                    steps.add(merge);
+                    steps.add(branch);
+                    steps.add(in);
+                    branches.add(branch);
+                    count += 3;
+                    // Сначала заполняется ветка IN, затем ветка OK, затем продолжение за слиянием
+                    open.push(new Frame(branch, merge));
+                    cursor = in;
+                } else if (!open.isEmpty()) {
+                    Frame frame = open.pop();
+                    if (frame.okSide() != null) {
+                        open.push(new Frame(null, frame.merge()));
+                        cursor = frame.okSide();
+                    } else {
+                        cursor = frame.merge();
+                    }
+                }
+            }
+        });
+        return new Generated(canvas, steps, branches);
+    }
+
+    /**
+     * Поток случайных допустимых правок над схемой, воспроизводимый по seed
+     */
+    public Workload workload(Generated generated) {
+        return new Workload(generated, new Random(seed * 31 + 17));
+    }
+
+    private static Step leaf(Random random, Shape shape, int index) {
+        int roll = random.nextInt(100);
+        if (roll < shape.connector()) return new Connector();
+        if (roll < shape.connector() + shape.userIO()) return new UserIO("io" + index);
+        return new Process("p" + index);
+    }
+
+    /**
+     * Одна структурная правка канваса
+     */
+    public sealed interface Edit {
+        Step apply(Canvas canvas);
+    }
+
+    public record AddStep(Step prev, Step step) implements Edit {
+        @Override
+        public Step apply(Canvas canvas) {
+            return canvas.addStep(prev, step);
+        }
+    }
+
+    public record InsertInBranch(Step branch, Step step) implements Edit {
+        @Override
+        public Step apply(Canvas canvas) {
+            return canvas.insertInBranch(branch, step);
+        }
+    }
+
+    public record RemoveStep(Step step) implements Edit {
+        @Override
+        public Step apply(Canvas canvas) {
+            canvas.removeStep(step);
+            return step;
+        }
+    }
+
+    /**
+     * Генератор правок: каждая следующая выбирается по текущему состоянию схемы,
+     * поэтому правки надо применять через {@link #apply(Edit)} по порядку.
+     * Вставки и удаления равновероятны - размер схемы в среднем не меняется.
+     */
+    public static final class Workload {
+        private final Canvas canvas;
+        private final List<Step> steps;
+        private final List<Step> branches;
+        private final Random random;
+        private int created;
+
+        private Workload(Generated generated, Random random) {
+            this.canvas = generated.canvas();
+            this.steps = new ArrayList<>(generated.steps());
+            this.branches = new ArrayList<>(generated.branches());
+            this.random = random;
+        }
+
+        public Canvas canvas() {
+            return canvas;
+        }
+
+        public Edit next() {
+            int roll = random.nextInt(100);
+            if (roll < 50 || steps.isEmpty()) {
+                Step branch = roll < 15 ? pick(branches) : null;
+                if (branch != null) {
+                    return new InsertInBranch(branch, newStep());
+                }
+                Step prev = pick(steps);
+                return new AddStep(prev != null ? prev : canvas.getSelectedStep(), newStep());
+            }
+            Step victim = pick(steps);
+            if (victim == null) {
+                return new AddStep(canvas.getSelectedStep(), newStep());
+            }
+            return new RemoveStep(victim);
+        }
+
+        public Step apply(Edit edit) {
+            Step step = edit.apply(canvas);
+            if (!(edit instanceof RemoveStep)) {
+                steps.add(step);
+                if (step instanceof Branch) branches.add(step);
+            }
+            return step;
+        }
+
+        /**
+         * Сгенерировать и применить следующую правку
+         */
+        public Edit step() {
+            Edit edit = next();
+            apply(edit);
+            return edit;
+        }
+
+        private Step newStep() {
+            int index = created++;
+            int roll = random.nextInt(100);
+            if (roll < 10) return new Branch("nb" + index + "?");
+            if (roll < 25) return new UserIO("nio" + index);
+            if (roll < 28) return new Connector();
+            return new Process("np" + index);
+        }
+
+        // Случайный живой узел; удаленные (в том числе вместе с веткой) выбрасываются по ходу
+        private Step pick(List<Step> from) {
+            while (!from.isEmpty()) {
+                int i = random.nextInt(from.size());
+                Step step = from.get(i);
+                if (step.getGraph() != null) return step;
+                Step last = from.removeLast();
+                if (i < from.size()) from.set(i, last);
+            }
+            return null;
+        }
+    }
+}
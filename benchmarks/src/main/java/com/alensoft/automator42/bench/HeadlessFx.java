@@ -0,0 +1,61 @@
+package com.alensoft.automator42.bench;
+
+import javafx.application.Platform;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Запуск JavaFX без дисплея (Monocle Headless): узлы-представления - это Control,
+ * их нельзя создать без запущенной платформы.
+ */
+public final class HeadlessFx {
+    private static boolean started;
+
+    private HeadlessFx() {
+    }
+
+    public static synchronized void start() {
+        if (started) return;
+        System.setProperty("glass.platform", "Monocle");
+        System.setProperty("monocle.platform", "Headless");
+        System.setProperty("prism.order", "sw");
+        System.setProperty("prism.text", "t2k");
+
+        CountDownLatch latch = new CountDownLatch(1);
+        Platform.startup(latch::countDown);
+        Platform.setImplicitExit(false);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("JavaFX startup interrupted", e);
+        }
+        started = true;
+    }
+
+    /**
+     * Выполнить в FX-потоке и дождаться результата: для замеров, где сцена сама
+     * планирует работу через Platform.runLater
+     */
+    public static <T> T call(Supplier<T> action) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(action.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for FX thread", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
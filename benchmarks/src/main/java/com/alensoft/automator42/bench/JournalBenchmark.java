@@ -0,0 +1,87 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.io.FlowJournal;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Журнал правок на разложенной сгенерированной схеме: цена одной правки в потоке
+ * графа (сдвиг или смена текста случайного узла; запись на диск - в фоне),
+ * правка с ожиданием fsync и восстановление схемы из снимка и журнала.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+    @Param({"mixed"})
+    public String shape;
+
+    @Param({"10000", "200000"})
+    public int steps;
+
+    private FlowGraph graph;
+    private int[] ids;
+    private Path directory;
+    private FlowJournal journal;
+    private final Random random = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        HeadlessFx.start();
+        FlowchartGenerator generator = new FlowchartGenerator(42);
+        graph = generator.generate(FlowchartGenerator.Shape.of(shape), steps).canvas().getGraph().copy();
+        ids = new int[graph.stepCount()];
+        int count = 0;
+        for (int id = 0; id < graph.stepCapacity(); id++) {
+            if (graph.contains(id)) ids[count++] = id;
+        }
+        directory = Files.createTempDirectory("journal");
+        journal = new FlowJournal(graph, directory);
+        journal.sync();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void edit() {
+        int step = ids[random.nextInt(ids.length)];
+        if (random.nextBoolean()) {
+            graph.setPosition(step, graph.x(step) + 1, graph.y(step));
+        } else {
+            graph.setText(step, graph.text(step));
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void editAndSync() throws IOException {
+        edit();
+        journal.sync();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public FlowGraph recover() throws IOException {
+        return FlowJournal.recover(directory);
+    }
+}
@@ -0,0 +1,69 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.canvas.LayoutContext;
+import com.alensoft.automator42.model.canvas.MaxPathTraversal;
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.IntQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Слои по самому длинному пути на ромбах и вложенных ветвлениях:
+ * топологический проход против прежней BFS-релаксации, которая заново
+ * обходит все ниже каждого слияния.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LayeringBenchmark {
+
+    private static final EdgeType[] FLOW = {EdgeType.OK, EdgeType.IN, EdgeType.OUT};
+
+    @Param({"diamonds", "nested"})
+    public String shape;
+
+    @Param({"500", "2000"})
+    public int branches;
+
+    private FlowGraph graph;
+    private final LayoutContext context = new LayoutContext();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        graph = shape.equals("nested") ? Fixtures.nestedBranches(branches) : Fixtures.diamondChain(branches);
+    }
+
+    @Benchmark
+    public int[][] topologicalOrder() {
+        return MaxPathTraversal.getMaxPathLayers(graph, 0, context);
+    }
+
+    @Benchmark
+    public int[] bfsRelaxation() {
+        int[] maxDepths = new int[graph.stepCapacity()];
+        Arrays.fill(maxDepths, -1);
+        IntQueue queue = new IntQueue();
+        maxDepths[0] = 0;
+        queue.offer(0);
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            int newDepth = maxDepths[current] + 1;
+            for (EdgeType type : FLOW) {
+                for (int e = graph.firstOut(current, type); e != FlowGraph.NONE; e = graph.nextInSlot(e)) {
+                    int next = graph.target(e);
+                    if (newDepth > maxDepths[next]) {
+                        maxDepths[next] = newDepth;
+                        queue.offer(next);
+                    }
+                }
+            }
+        }
+        return maxDepths;
+    }
+}
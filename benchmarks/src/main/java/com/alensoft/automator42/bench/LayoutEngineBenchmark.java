@@ -0,0 +1,51 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.canvas.LayoutContext;
+import com.alensoft.automator42.model.canvas.LayoutEngine;
+import com.alensoft.automator42.model.canvas.MaxPathTraversal;
+import com.alensoft.automator42.model.canvas.Render;
+import com.alensoft.automator42.model.canvas.Renderer;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Три движка раскладки на одной схеме (цепочка ромбов) от 100 до 1M узлов.
+ * Контекст переиспользуется, как в Canvas. Аллокации: запуск с {@code -prof gc}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LayoutEngineBenchmark {
+
+    @Param({"maxPath", "renderer", "render"})
+    public String engine;
+
+    @Param({"100", "10000", "1000000"})
+    public int steps;
+
+    private FlowGraph graph;
+    private LayoutEngine layoutEngine;
+    private final LayoutContext context = new LayoutContext();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Ромб - 4 узла, плюс начало и конец
+        graph = Fixtures.diamondChain(Math.max(1, (steps - 2) / 4));
+        layoutEngine = switch (engine) {
+            case "renderer" -> new Renderer();
+            case "render" -> new Render();
+            default -> new MaxPathTraversal();
+        };
+    }
+
+    @Benchmark
+    public LayoutContext layout() {
+        layoutEngine.layout(graph, 0, context);
+        return context;
+    }
+}
@@ -0,0 +1,85 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.io.MappedFlowFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Постраничный файл на разложенной сгенерированной схеме: открытие (только заголовок
+ * и отображение секций) и чтение одной видимой области - узлы, тексты и связи
+ * страниц экрана 1920x1080 в случайном месте схемы.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class MappedFileBenchmark {
+
+    @Param({"mixed"})
+    public String shape;
+
+    @Param({"10000", "200000"})
+    public int steps;
+
+    private Path path;
+    private MappedFlowFile file;
+    private double width;
+    private double height;
+    private final IntQueue pages = new IntQueue();
+    private final Random random = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        HeadlessFx.start();
+        FlowchartGenerator generator = new FlowchartGenerator(42);
+        FlowGraph graph = generator.generate(FlowchartGenerator.Shape.of(shape), steps).canvas().getGraph();
+        for (int id = 0; id < graph.stepCapacity(); id++) {
+            if (!graph.contains(id)) continue;
+            width = Math.max(width, graph.x(id));
+            height = Math.max(height, graph.y(id));
+        }
+        path = Files.createTempFile("flowchart", ".a42m");
+        MappedFlowFile.write(graph, path);
+        file = MappedFlowFile.open(path);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        file.close();
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        try (MappedFlowFile opened = MappedFlowFile.open(path)) {
+            return opened.stepCount();
+        }
+    }
+
+    @Benchmark
+    public int readViewport() {
+        double x = random.nextDouble() * width;
+        double y = random.nextDouble() * height;
+        pages.clear();
+        file.findPages(x, y, x + 1920, y + 1080, pages);
+        int sum = 0;
+        while (!pages.isEmpty()) {
+            int page = pages.poll();
+            for (int id = file.firstStep(page), end = id + file.pageSize(page); id < end; id++) {
+                String text = file.text(id);
+                sum += text == null ? 0 : text.length();
+                sum += file.outDegree(id) + file.inDegree(id) + (int) file.x(id);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,59 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.connection.ConType;
+import com.alensoft.automator42.model.connection.Connect;
+import com.alensoft.automator42.model.step.Step;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запросы соседей на весь граф, как их делает проход раскладки:
+ * кешированные представления Step против прежнего вычисления стримами.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NeighborQueryBenchmark {
+
+    @Param({"50000"})
+    public int steps;
+
+    private Step[] all;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HeadlessFx.start();
+        all = Fixtures.chainWithBranches(steps).steps();
+    }
+
+    @Benchmark
+    public void cachedViews(Blackhole bh) {
+        for (Step step : all) {
+            bh.consume(step.getNextSteps());
+            bh.consume(step.getPreviousSteps());
+        }
+    }
+
+    @Benchmark
+    public void streamedLists(Blackhole bh) {
+        for (Step step : all) {
+            bh.consume(step.out().stream()
+                    .filter(c -> c.getType() != ConType.EMPTY)
+                    .sorted()
+                    .distinct()
+                    .map(Connect::getTarget)
+                    .toList());
+            bh.consume(step.in().stream()
+                    .filter(c -> c.getType() != ConType.EMPTY)
+                    .sorted()
+                    .distinct()
+                    .map(Connect::getSource)
+                    .toList());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.line.OrthogonalRouter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ортогональная трассировка на разложенных сгенерированных схемах: все связи схемы
+ * с пустым кешем и пересчет после сдвига одного узла (только сброшенные коридоры).
+ * Трассировщик работает по координатам модели, сцена не нужна.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class RoutingBenchmark {
+
+    // Сдвиг узла при перетаскивании: сбивает выравнивание по сетке раскладки
+    private static final double SHIFT = 15;
+
+    @Param({"chain", "deep", "mixed"})
+    public String shape;
+
+    @Param({"1000", "20000"})
+    public int steps;
+
+    private FlowGraph graph;
+    private OrthogonalRouter router;
+    private int[] ids;
+    private final Random random = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HeadlessFx.start();
+        FlowchartGenerator generator = new FlowchartGenerator(42);
+        graph = generator.generate(FlowchartGenerator.Shape.of(shape), steps).canvas().getGraph();
+        router = new OrthogonalRouter(graph);
+        graph.addListener(router);
+        router.update();
+        ids = new int[graph.stepCount()];
+        int count = 0;
+        for (int id = 0; id < graph.stepCapacity(); id++) {
+            if (graph.contains(id)) ids[count++] = id;
+        }
+    }
+
+    @Benchmark
+    public int routeAll() {
+        router.invalidateAll();
+        return router.update();
+    }
+
+    @Benchmark
+    public int moveStep() {
+        int id = ids[random.nextInt(ids.length)];
+        double x = graph.x(id);
+        double y = graph.y(id);
+        graph.setPosition(id, x + SHIFT, y + SHIFT);
+        int routed = router.update();
+        graph.setPosition(id, x, y);
+        return routed + router.update();
+    }
+}
@@ -0,0 +1,40 @@
+package com.alensoft.automator42.bench;
+
+import com.alensoft.automator42.model.step.Step;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Случайные правки (вставка, вставка в ветку, удаление) вместе с раскладкой на
+ * сгенерированных схемах разной формы. Поток правок воспроизводится по seed;
+ * вставки и удаления равновероятны, размер схемы держится около заданного.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx8g")
+@State(Scope.Benchmark)
+public class WorkloadBenchmark {
+
+    @Param({"chain", "deep", "wide", "mixed"})
+    public String shape;
+
+    @Param({"1000", "10000", "100000"})
+    public int steps;
+
+    private FlowchartGenerator.Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HeadlessFx.start();
+        FlowchartGenerator generator = new FlowchartGenerator(42);
+        workload = generator.workload(generator.generate(FlowchartGenerator.Shape.of(shape), steps));
+    }
+
+    @Benchmark
+    public Step edit() {
+        return workload.apply(workload.next());
+    }
+}
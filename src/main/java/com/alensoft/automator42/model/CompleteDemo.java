@@ -165,13 +165,22 @@ public class CompleteDemo extends Application {
         deleteBtn.setStyle("-fx-background-color: #ffebee; -fx-text-fill: #c62828;");
         deleteBtn.setOnAction(e -> deleteSelected());
 
+        Button undoBtn = new Button("↶ Undo");
+        undoBtn.setOnAction(e -> updateStatus(canvas.undo() ? "Undone" : "Nothing to undo"));
+
+        Button redoBtn = new Button("↷ Redo");
+        redoBtn.setOnAction(e -> updateStatus(canvas.redo() ? "Redone" : "Nothing to redo"));
+
         panel.getChildren().addAll(
                 new Label("Insert mode:"),
                 insertProcessBtn,
                 insertDecisionBtn,
                 insertIOBtn,
                 new Separator(),
-                deleteBtn
+                deleteBtn,
+                new Separator(),
+                undoBtn,
+                redoBtn
         );
 
         return panel;
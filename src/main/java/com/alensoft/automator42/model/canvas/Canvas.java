@@ -1,30 +1,123 @@
 package com.alensoft.automator42.model.canvas;
 
+import com.alensoft.automator42.model.connection.ArrowHost;
+import com.alensoft.automator42.model.connection.ConListener;
 import com.alensoft.automator42.model.connection.ConManager;
 import com.alensoft.automator42.model.connection.ConType;
 import com.alensoft.automator42.model.connection.Connect;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.line.Arrow;
+import com.alensoft.automator42.model.line.ArrowType;
+import com.alensoft.automator42.model.line.EdgeLayer;
+import com.alensoft.automator42.model.line.OrthogonalRouter;
 import com.alensoft.automator42.model.step.*;
+import javafx.application.Platform;
+import javafx.beans.value.ObservableObjectValue;
+import javafx.geometry.Bounds;
+import javafx.geometry.HPos;
+import javafx.geometry.Point2D;
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.Node;
 import javafx.scene.layout.Pane;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class Canvas extends Pane {
 
+    /**
+     * Как рисуются стрелки: узлом {@link Arrow} на каждое соединение, все сразу
+     * одним слоем {@link EdgeLayer} или слоем с путями в обход узлов ({@link OrthogonalRouter})
+     */
+    public enum EdgeMode {
+        ARROWS, LAYER, ROUTED
+    }
+
     private final Begin root;
     private Step selectedStep;
+    private final Selection selection = new Selection();
     private final ConManager conManager;
+    private final FlowGraph graph = new FlowGraph();
+    private final IncrementalLayout layout;
+    private final StepIndex stepIndex;
+    private final EdgeLayer edgeLayer;
+    private LayoutEngine layoutEngine = new MaxPathTraversal();
+    private final LayoutContext layoutContext = new LayoutContext();
+    private boolean incremental = true;
+
+    // Фоновая раскладка: снимок -> расчет в executor -> одно применение в FX-потоке
+    private Executor layoutExecutor;
+    private CompletableFuture<?> pendingLayout;
+    private int layoutGeneration;
+    private int[] movedSteps = new int[16];
+
+    // Виртуальный режим: в сцене только узлы и стрелки видимой области
+    private Viewport viewport;
+    private Bounds viewportArea;
+
+    // Пакетное редактирование: отложенные изменения детей, раскладки и журнал отката
+    private int batchDepth;
+    private boolean layoutPending;
+    private boolean rollingBack;
+    private final Set<Node> addedArrows = new LinkedHashSet<>();
+    private final Set<Node> addedSteps = new LinkedHashSet<>();
+    private final Set<Node> removedNodes = new HashSet<>();
+    private Deque<Runnable> undoLog = new ArrayDeque<>();
+    // Журналы отката зафиксированных транзакций - правки для undo/redo
+    private final EditHistory history = new EditHistory();
+    // Перетаскивание узла мышью - правка для отмены
+    private final DragListener dragListener = this::recordMove;
 
     public Canvas(int x, int y) {
+        this(x, y, EdgeMode.ARROWS);
+    }
+
+    public Canvas(int x, int y, EdgeMode edgeMode) {
+        this(edgeMode, begin(x, y));
+        End end = new End("End");
+        addStep(root, end);
+        history.clear();
+    }
+
+    private static Begin begin(int x, int y) {
+        Begin begin = new Begin("Start");
+        begin.relocate(x, y);
+        return begin;
+    }
+
+    /**
+     * Канвас с одним корнем: остальное добавляет {@link CanvasBuilder}
+     */
+    Canvas(EdgeMode edgeMode, Begin root) {
         this.setPrefSize(1000, 700);
         this.setStyle("-fx-background-color: linear-gradient(#f8f8f8, #e8eef8);");
-        conManager = new ConManager(this);
+        if (edgeMode != EdgeMode.ARROWS) {
+            OrthogonalRouter router = null;
+            if (edgeMode == EdgeMode.ROUTED) {
+                router = new OrthogonalRouter(graph);
+                graph.addListener(router);
+            }
+            edgeLayer = new EdgeLayer(graph, router);
+            graph.addListener(edgeLayer);
+            getChildren().add(edgeLayer);
+            widthProperty().addListener(o -> resizeEdgeLayer());
+            heightProperty().addListener(o -> resizeEdgeLayer());
+        } else {
+            edgeLayer = null;
+        }
+        conManager = new ConManager(new ArrowLayer(), graph);
+        conManager.addListener(new UndoRecorder());
+        stepIndex = new StepIndex(getChildren());
+        getChildren().addListener(stepIndex.childrenListener());
 
-        root = new Begin("Start");
-        root.relocate(x, y);
+        this.root = root;
         getChildren().add(root);
-
-        End end = new End("End");
-        addStep(root, end);
+        root.attach(graph);
+        root.setDragListener(dragListener);
+        layout = new IncrementalLayout(graph, root.getStepId());
+        graph.addListener(layout);
         selectedStep = root;
     }
 
@@ -36,17 +129,71 @@ public class Canvas extends Pane {
         this.selectedStep = currentStep;
     }
 
+    /**
+     * Выделенные узлы для групповых операций. {@link #getSelectedStep()} - отдельно,
+     * это узел, после которого вставляются новые.
+     */
+    public Selection getSelection() {
+        return selection;
+    }
+
     public ConManager getConManager() {
         return conManager;
     }
 
+    /**
+     * Слой стрелок (режимы {@link EdgeMode#LAYER} и {@link EdgeMode#ROUTED}) или null, если у каждой связи свой узел
+     */
+    public EdgeLayer getEdgeLayer() {
+        return edgeLayer;
+    }
+
+    // Слой покрывает видимую область виртуального канваса или весь канвас
+    private void resizeEdgeLayer() {
+        if (edgeLayer == null) return;
+        if (viewportArea != null) {
+            edgeLayer.setArea(viewportArea.getMinX(), viewportArea.getMinY(),
+                    viewportArea.getWidth(), viewportArea.getHeight());
+        } else {
+            edgeLayer.setArea(0, 0, getWidth(), getHeight());
+        }
+    }
+
+    /**
+     * Headless-модель схемы, которую отображает канвас
+     */
+    public FlowGraph getGraph() {
+        return graph;
+    }
+
     // ============= ДОБАВЛЕНИЕ УЗЛОВ =============
 
+    /**
+     * Массовая загрузка готовой схемы одной транзакцией: узлы и соединения добавляются
+     * как есть, без логики вставки addStep и без раскладки - координаты узлов сохраняются
+     * до первой правки. Тип связи i - types[i].
+     */
+    void load(List<Step> steps, int[] sources, int[] targets, ConType[] types, int edgeCount) {
+        batch(() -> {
+            for (Step step : steps) {
+                if (step == root) continue;
+                addNode(step);
+                attachStep(step);
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                conManager.createCon(steps.get(sources[i]), steps.get(targets[i]), types[i]);
+            }
+        });
+        // Загруженная схема - начальное состояние, а не правка
+        history.clear();
+    }
+
     /**
      * Добавить узел в основную цепочку (MAIN flow)
      */
     public Step addStep(final Step prev, final Step step) {
-        return newStep(prev, step, ConType.OK);
+        batch(() -> newStep(prev, step, ConType.OK));
+        return step;
     }
 
 
@@ -54,6 +201,11 @@ public class Canvas extends Pane {
         if (!(branch instanceof Branch)) {
             throw new IllegalArgumentException("Step must be a Decision");
         }
+        batch(() -> newBranchStep(branch, step));
+        return step;
+    }
+
+    private void newBranchStep(final Step branch, final Step step) {
         var optCon = conManager.getConByType(branch, ConType.EMPTY);
         ConType outType;
         if (optCon.isPresent()) {
@@ -64,13 +216,13 @@ public class Canvas extends Pane {
         }
         Connect con = optCon.orElseThrow();
         Step next = con.getTarget();
+        attachStep(step);
         conManager.removeCon(con);
         conManager.createCon(step, next, outType);
         newStep(branch, step, ConType.IN);
         if (branch.getNextSteps().size() < 2) {
             conManager.createCon(branch, next, ConType.OUT);
         }
-        return step;
     }
 
 
@@ -83,7 +235,8 @@ public class Canvas extends Pane {
         if (prev == null || step == null) {
             throw new IllegalArgumentException("Steps cannot be null");
         }
-        getChildren().add(step);
+        addNode(step);
+        attachStep(step);
 
         Connect prevCon = conManager.getConByType(prev, insertionType, ConType.OUT).orElse(null);
         // Найти соединение от prev
@@ -108,6 +261,23 @@ public class Canvas extends Pane {
     }
 
 
+    private void attachStep(Step step) {
+        if (step.getGraph() == null) {
+            step.attach(graph);
+            step.setDragListener(dragListener);
+            record(() -> detachStep(step));
+        }
+    }
+
+    private void detachStep(Step step) {
+        if (step.getGraph() == graph) {
+            step.detach();
+            step.setDragListener(null);
+            record(() -> attachStep(step));
+        }
+    }
+
+
     // ============= УДАЛЕНИЕ УЗЛОВ =============
     public void removeStep(Step step) {
         if (step == null) return;
@@ -116,10 +286,10 @@ public class Canvas extends Pane {
         if (step instanceof Begin || step instanceof End) {
             throw new IllegalArgumentException("Cannot remove Begin/End step");
         }
+        batch(() -> deleteStep(step));
+    }
 
-        // Получить входящие и исходящие соединения
-        List<Connect> incoming = step.in();
-        List<Connect> outgoing = step.out();
+    private void deleteStep(Step step) {
 
         // Если узел - Decision, удалить всю его NO ветку
         if (step instanceof Branch) {
@@ -142,6 +312,10 @@ public class Canvas extends Pane {
             }
         }
 
+        // Получить входящие и исходящие соединения (после удаления ветки)
+        List<Connect> incoming = step.in();
+        List<Connect> outgoing = step.out();
+
         // переподключить соседей
         if (!incoming.isEmpty() && !outgoing.isEmpty()) {
             reconnectNeighbors(incoming, outgoing);
@@ -149,7 +323,9 @@ public class Canvas extends Pane {
 
         // Удалить все соединения и сам узел
         conManager.removeAllCons(step);
-        getChildren().remove(step);
+        removeNode(step);
+        detachStep(step);
+        deselect(step);
         update();
         // Обновить lastStep если удалили его
         if (selectedStep == step) {
@@ -182,16 +358,6 @@ public class Canvas extends Pane {
     }
 
 
-    private void visit(Step step, Set<Step> visited, Queue<Step> queue) {
-        for (Connect conn : step.out()) {
-            Step child = conn.getTarget();
-            if (!visited.contains(child)) {
-                visited.add(child);
-                queue.add(child);
-            }
-        }
-    }
-
     /**
      * Найти новый lastStep после удаления текущего
      */
@@ -205,35 +371,775 @@ public class Canvas extends Pane {
                 .orElse(null);
     }
 
+    // ============= ГРУППОВЫЕ ОПЕРАЦИИ =============
+
+    /**
+     * Удалить все выделенные узлы одной транзакцией: раскладка и стрелки
+     * пересчитываются один раз. Begin и End пропускаются.
+     */
+    public void removeSelection() {
+        List<Step> steps = selection.getSteps();
+        batch(() -> {
+            for (Step step : steps) {
+                // Узел мог уйти вместе с веткой удаленного раньше Branch
+                if (step instanceof Begin || step instanceof End || step.getGraph() != graph) continue;
+                deleteStep(step);
+            }
+        });
+    }
+
+    private void deselect(Step step) {
+        if (selection.remove(step)) {
+            record(() -> reselect(step));
+        }
+    }
+
+    private void reselect(Step step) {
+        selection.add(step);
+        record(() -> deselect(step));
+    }
+
+    /**
+     * Сдвинуть все выделенные узлы. Каждая затронутая стрелка пересчитывается
+     * один раз, сколько бы ее концов ни сдвинулось.
+     */
+    public void moveSelection(double dx, double dy) {
+        Step[] steps = attachedSelection().toArray(new Step[0]);
+        double[] xs = new double[steps.length];
+        double[] ys = new double[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            int id = steps[i].getStepId();
+            xs[i] = graph.x(id) + dx;
+            ys[i] = graph.y(id) + dy;
+        }
+        batch(() -> moveSteps(steps, xs, ys));
+    }
+
+    /**
+     * Выровнять выделенные узлы по левому краю, центру или правому краю их общей рамки
+     */
+    public void alignSelection(HPos pos) {
+        List<Step> steps = attachedSelection();
+        if (steps.size() < 2) return;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (Step step : steps) {
+            double x = graph.x(step.getStepId());
+            min = Math.min(min, x);
+            max = Math.max(max, x + width(step));
+        }
+        Step[] moved = steps.toArray(new Step[0]);
+        double[] xs = new double[moved.length];
+        double[] ys = new double[moved.length];
+        for (int i = 0; i < moved.length; i++) {
+            Step step = moved[i];
+            xs[i] = switch (pos) {
+                case LEFT -> min;
+                case CENTER -> (min + max - width(step)) / 2;
+                case RIGHT -> max - width(step);
+            };
+            ys[i] = graph.y(step.getStepId());
+        }
+        batch(() -> moveSteps(moved, xs, ys));
+    }
+
+    /**
+     * Выровнять выделенные узлы по верхнему краю, середине или нижнему краю их общей рамки
+     */
+    public void alignSelection(VPos pos) {
+        if (pos == VPos.BASELINE) {
+            throw new IllegalArgumentException("Steps have no baseline: " + pos);
+        }
+        List<Step> steps = attachedSelection();
+        if (steps.size() < 2) return;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (Step step : steps) {
+            double y = graph.y(step.getStepId());
+            min = Math.min(min, y);
+            max = Math.max(max, y + height(step));
+        }
+        Step[] moved = steps.toArray(new Step[0]);
+        double[] xs = new double[moved.length];
+        double[] ys = new double[moved.length];
+        for (int i = 0; i < moved.length; i++) {
+            Step step = moved[i];
+            xs[i] = graph.x(step.getStepId());
+            ys[i] = switch (pos) {
+                case TOP -> min;
+                case BOTTOM -> max - height(step);
+                default -> (min + max - height(step)) / 2;
+            };
+        }
+        batch(() -> moveSteps(moved, xs, ys));
+    }
+
+    /**
+     * Сдвинуть узлы в точки (xs[i], ys[i]) и записать в журнал прежние координаты
+     */
+    private void moveSteps(Step[] steps, double[] xs, double[] ys) {
+        double[] oldXs = new double[steps.length];
+        double[] oldYs = new double[steps.length];
+        int count = 0;
+        int[] ids = movedSteps(steps.length);
+        for (int i = 0; i < steps.length; i++) {
+            Step step = steps[i];
+            if (step.getGraph() == graph) {
+                int id = step.getStepId();
+                oldXs[i] = graph.x(id);
+                oldYs[i] = graph.y(id);
+                graph.setPosition(id, xs[i], ys[i]);
+                ids[count++] = id;
+            } else {
+                // Снятый со схемы узел вернется туда, где его оставили
+                oldXs[i] = step.getLayoutX();
+                oldYs[i] = step.getLayoutY();
+                step.moveTo(xs[i], ys[i]);
+            }
+        }
+        record(new Move(steps, oldXs, oldYs));
+        moveViews(ids, count);
+    }
+
+    /**
+     * Занести в историю сдвиг узла, который уже сделан в обход канваса
+     * (перетаскивание мышью): from - где узел был до сдвига
+     */
+    public void recordMove(Step step, double fromX, double fromY) {
+        if (step.getGraph() != graph) return;
+        Move move = new Move(new Step[]{step}, new double[]{fromX}, new double[]{fromY});
+        if (batchDepth > 0) {
+            record(move);
+        } else {
+            Deque<Runnable> edit = new ArrayDeque<>();
+            edit.push(move);
+            history.add(edit);
+        }
+    }
+
+    private List<Step> attachedSelection() {
+        List<Step> steps = selection.getSteps();
+        steps.removeIf(step -> step.getGraph() != graph);
+        return steps;
+    }
+
+    // До первого прохода раскладки размер еще не назначен - берем предпочтительный
+    private static double width(Step step) {
+        return step.getWidth() > 0 ? step.getWidth() : step.getPrefWidth();
+    }
+
+    private static double height(Step step) {
+        return step.getHeight() > 0 ? step.getHeight() : step.getPrefHeight();
+    }
+
 // ============= СЛУЖЕБНЫЕ МЕТОДЫ =============
 
+    /**
+     * Узел под точкой в координатах канваса или null. Поиск по пространственному
+     * индексу, не зависит от числа узлов.
+     */
+    public Step findStepAt(double x, double y) {
+        return stepIndex.find(x, y);
+    }
+
+    /**
+     * Узлы, пересекающие область в координатах канваса (например, рамка выделения)
+     */
+    public List<Step> findSteps(Bounds area) {
+        return stepIndex.find(area);
+    }
+
 
     /**
      * Проверить валидность AST (все узлы связаны, от Begin можно дойти до End)
      */
     public boolean validateAST() {
-        if (root == null) return false;
+        return root != null && graph.validate(root.getStepId());
+    }
 
-        Set<Step> reachable = new HashSet<>();
-        Queue<Step> queue = new LinkedList<>();
+    /**
+     * Пересчитать раскладку. Внутри batch - один раз при фиксации.
+     * Движок по умолчанию ({@link MaxPathTraversal}) пересчитывает только затронутую
+     * правками область; если задан executor раскладки, расчет уходит в фон,
+     * а координаты применяются позже.
+     */
+    public void update() {
+        if (batchDepth > 0) {
+            layoutPending = true;
+            return;
+        }
+        if (layoutExecutor != null) {
+            scheduleLayout();
+            return;
+        }
+        if (incremental) {
+            layout.update();
+            int count = layout.changedCount();
+            int[] ids = movedSteps(count);
+            for (int i = 0; i < count; i++) {
+                ids[i] = layout.changedStep(i);
+            }
+            moveViews(ids, count);
+            return;
+        }
+        layoutEngine.layout(graph, root.getStepId(), layoutContext);
+        applyResult(layoutContext);
+    }
+
+    /**
+     * Выбрать алгоритм раскладки этого канваса и сразу разложить схему заново
+     */
+    public void setLayoutEngine(LayoutEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("Layout engine cannot be null");
+        }
+        layoutEngine = engine;
+        configureLayout();
+        update();
+    }
 
-        queue.add(root);
-        reachable.add(root);
+    public LayoutEngine getLayoutEngine() {
+        return layoutEngine;
+    }
 
-        while (!queue.isEmpty()) {
-            Step current = queue.poll();
-            visit(current, reachable, queue);
+    /**
+     * Считать раскладку в фоне на executor (null - синхронно в FX-потоке, по умолчанию).
+     * Полный проход по снимку графа не блокирует UI; результат, устаревший из-за
+     * более новой правки, отбрасывается.
+     */
+    public void setLayoutExecutor(Executor executor) {
+        if (executor == layoutExecutor) return;
+        if (pendingLayout != null) {
+            pendingLayout.cancel(false);
+            pendingLayout = null;
         }
+        layoutGeneration++;
+        layoutExecutor = executor;
+        configureLayout();
+    }
 
-        // Все узлы должны быть достижимы из Begin
-        long totalSteps = getChildren().stream()
-                .filter(step -> step instanceof Step)
-                .count();
+    public Executor getLayoutExecutor() {
+        return layoutExecutor;
+    }
 
-        return reachable.size() == totalSteps;
+    /**
+     * Есть ли посчитанная, но еще не примененная фоновая раскладка
+     */
+    public boolean isLayoutPending() {
+        return pendingLayout != null && !pendingLayout.isDone();
     }
 
-    public void update() {
-        MaxPathTraversal.updateLayout(root);
+    // Инкрементальный пересчет возможен только для синхронного MaxPathTraversal
+    private void configureLayout() {
+        boolean use = layoutExecutor == null && layoutEngine instanceof MaxPathTraversal;
+        if (use == incremental) return;
+        incremental = use;
+        if (use) {
+            graph.addListener(layout);
+            layout.invalidate();
+        } else {
+            graph.removeListener(layout);
+        }
+    }
+
+    private void scheduleLayout() {
+        if (pendingLayout != null) {
+            pendingLayout.cancel(false);
+        }
+        int generation = ++layoutGeneration;
+        // 1. Снимок топологии - копия массивов, дальше с графом работает только FX-поток
+        FlowGraph snapshot = graph.copy();
+        int rootId = root.getStepId();
+        LayoutEngine engine = layoutEngine;
+        // 2. Расчет в фоне, 3. применение одним Platform.runLater
+        pendingLayout = CompletableFuture
+                .supplyAsync(() -> {
+                    LayoutContext result = new LayoutContext();
+                    engine.layout(snapshot, rootId, result);
+                    return result;
+                }, layoutExecutor)
+                .thenAccept(result -> Platform.runLater(() -> {
+                    // Правка после снимка уже запустила новый расчет - этот результат устарел
+                    if (generation != layoutGeneration) return;
+                    if (snapshot.modCount() != graph.modCount()) {
+                        // Граф меняли в обход update() (например, ConTool) - пересчитать заново
+                        scheduleLayout();
+                        return;
+                    }
+                    applyResult(result);
+                }));
+    }
+
+    /**
+     * Записать размещенные движком узлы в модель и на представления
+     */
+    private void applyResult(LayoutContext result) {
+        int count = 0;
+        int[] ids = movedSteps(result.capacity());
+        for (int id = 0; id < result.capacity(); id++) {
+            if (!result.isPlaced(id) || !graph.contains(id)) continue;
+            double x = result.x(id);
+            double y = result.y(id);
+            if (x != graph.x(id) || y != graph.y(id)) {
+                graph.setPosition(id, x, y);
+            }
+            ids[count++] = id;
+        }
+        moveViews(ids, count);
+    }
+
+    /**
+     * Перенести координаты из модели на узлы-представления. Стрелки сдвинутых
+     * узлов придерживаются до конца, поэтому каждая пересчитывается один раз.
+     */
+    private void moveViews(int[] ids, int count) {
+        List<Arrow> held = new ArrayList<>();
+        int moved = 0;
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            // Скрытые узлы виртуального канваса получат координаты при появлении в сцене
+            if (graph.attachment(id) instanceof Step step && (viewport == null || step.getParent() == this)
+                    && (step.getLayoutX() != graph.x(id) || step.getLayoutY() != graph.y(id))) {
+                holdArrows(id, held);
+                ids[moved++] = id;
+            }
+        }
+        for (int i = 0; i < moved; i++) {
+            int id = ids[i];
+            ((Step) graph.attachment(id)).moveTo(graph.x(id), graph.y(id));
+        }
+        for (Arrow arrow : held) {
+            arrow.release();
+        }
+        if (viewport != null && batchDepth == 0) {
+            refreshViewport();
+        }
+    }
+
+    // ============= ВИРТУАЛЬНЫЙ РЕЖИМ =============
+
+    /**
+     * Включить виртуальный режим для видимой области (в координатах канваса) или
+     * выключить его (null). Модель остается целиком, а в сцене - только узлы и стрелки,
+     * пересекающие область с запасом: JavaFX не раскладывает, не стилизует и не рисует
+     * остальное. Хост вызывает метод при прокрутке и масштабировании.
+     */
+    public void setViewport(Bounds area) {
+        if (area == null) {
+            if (viewport == null) return;
+            graph.removeListener(viewport);
+            viewport = null;
+            viewportArea = null;
+            showAll();
+            resizeEdgeLayer();
+            return;
+        }
+        if (viewport == null) {
+            hideAll();
+            viewport = new Viewport(graph);
+            graph.addListener(viewport);
+        }
+        viewportArea = area;
+        resizeEdgeLayer();
+        if (batchDepth == 0) {
+            refreshViewport();
+        }
+    }
+
+    public Bounds getViewport() {
+        return viewportArea;
+    }
+
+    public boolean isVirtualized() {
+        return viewport != null;
+    }
+
+    private void refreshViewport() {
+        List<Node> shown = new ArrayList<>();
+        List<Node> hidden = new ArrayList<>();
+        viewport.refresh(viewportArea, shown, hidden);
+        if (!hidden.isEmpty()) {
+            Set<Node> remove = new HashSet<>(hidden);
+            remove.removeIf(node -> node.getParent() != this);
+            getChildren().removeAll(remove);
+        }
+        if (shown.isEmpty()) return;
+        List<Arrow> held = new ArrayList<>();
+        List<Node> arrows = new ArrayList<>();
+        List<Node> steps = new ArrayList<>();
+        for (Node node : shown) {
+            if (node instanceof Step step) {
+                holdArrows(step.getStepId(), held);
+                steps.add(step);
+            } else {
+                arrows.add(node);
+            }
+        }
+        // Пока узел был скрыт, раскладка двигала только модель
+        for (Node node : steps) {
+            Step step = (Step) node;
+            int id = step.getStepId();
+            if (step.getLayoutX() != graph.x(id) || step.getLayoutY() != graph.y(id)) {
+                step.moveTo(graph.x(id), graph.y(id));
+            }
+        }
+        for (Arrow arrow : held) {
+            arrow.release();
+        }
+        getChildren().addAll(0, arrows);
+        getChildren().addAll(steps);
+    }
+
+    // Вход в виртуальный режим: убрать из сцены все узлы и стрелки модели
+    private void hideAll() {
+        Set<Node> remove = new HashSet<>();
+        for (int id = 0; id < graph.stepCapacity(); id++) {
+            if (graph.attachment(id) instanceof Step step && step.getParent() == this) {
+                remove.add(step);
+            }
+        }
+        for (int edge = 0; edge < graph.edgeCapacity(); edge++) {
+            if (graph.containsEdge(edge) && graph.edgeAttachment(edge) instanceof Connect con
+                    && con.getArrow() != null && con.getArrow().getParent() == this) {
+                remove.add(con.getArrow());
+            }
+        }
+        getChildren().removeAll(remove);
+    }
+
+    // Выход из виртуального режима: вернуть в сцену все узлы и стрелки модели
+    private void showAll() {
+        List<Node> arrows = new ArrayList<>();
+        List<Node> steps = new ArrayList<>();
+        List<Arrow> held = new ArrayList<>();
+        for (int id = 0; id < graph.stepCapacity(); id++) {
+            if (graph.attachment(id) instanceof Step step && step.getParent() != this) {
+                holdArrows(id, held);
+                step.moveTo(graph.x(id), graph.y(id));
+                steps.add(step);
+            }
+        }
+        for (Arrow arrow : held) {
+            arrow.release();
+        }
+        for (int edge = 0; edge < graph.edgeCapacity(); edge++) {
+            if (graph.containsEdge(edge) && graph.edgeAttachment(edge) instanceof Connect con
+                    && con.getArrow() != null && con.getArrow().getParent() != this) {
+                arrows.add(con.getArrow());
+            }
+        }
+        getChildren().addAll(0, arrows);
+        getChildren().addAll(steps);
+    }
+
+    private void holdArrows(int id, List<Arrow> held) {
+        for (int e = graph.firstOut(id); e != FlowGraph.NONE; e = graph.nextOut(e)) {
+            hold(graph.edgeAttachment(e), held);
+        }
+        for (int e = graph.firstIn(id); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+            hold(graph.edgeAttachment(e), held);
+        }
+    }
+
+    private static void hold(Object attachment, List<Arrow> held) {
+        if (attachment instanceof Connect con && con.getArrow() instanceof Arrow arrow) {
+            arrow.hold();
+            held.add(arrow);
+        }
+    }
+
+    private int[] movedSteps(int count) {
+        if (movedSteps.length < count) {
+            movedSteps = new int[Math.max(count, movedSteps.length * 2)];
+        }
+        return movedSteps;
+    }
+
+    // ============= ОТМЕНА И ПОВТОР =============
+
+    /**
+     * Отменить последнюю правку (транзакцию {@link #batch} или сдвиг узлов).
+     * Выполняются только записанные обратные действия, раскладка - инкрементальная,
+     * поэтому время пропорционально правке, а не схеме.
+     *
+     * @return false, если отменять нечего
+     */
+    public boolean undo() {
+        return replay(history.undo(), true);
+    }
+
+    /**
+     * Повторить последнюю отмененную правку
+     *
+     * @return false, если повторять нечего
+     */
+    public boolean redo() {
+        return replay(history.redo(), false);
+    }
+
+    public boolean canUndo() {
+        return history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return history.canRedo();
+    }
+
+    public void clearHistory() {
+        history.clear();
+    }
+
+    /**
+     * Сколько последних правок помнить для отмены (0 - не помнить)
+     */
+    public void setHistoryLimit(int limit) {
+        history.setLimit(limit);
+    }
+
+    public int getHistoryLimit() {
+        return history.getLimit();
+    }
+
+    /**
+     * Выполнить журнал правки как транзакцию. Действия журнала сами записывают
+     * обратные - из них получается правка для противоположной операции.
+     */
+    private boolean replay(Deque<Runnable> edit, boolean undo) {
+        if (batchDepth > 0) {
+            throw new IllegalStateException("Cannot undo or redo inside a batch");
+        }
+        if (edit == null) return false;
+        batchDepth = 1;
+        Step selected = selectedStep;
+        int modCount = graph.modCount();
+        boolean done = false;
+        try {
+            while (!edit.isEmpty()) {
+                edit.pop().run();
+            }
+            done = true;
+        } catch (Throwable e) {
+            // Схему меняли в обход канваса и история с ней разошлась: вернуть как было
+            try {
+                rollback();
+            } catch (Throwable suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            history.clear();
+            selectedStep = selected;
+            throw e;
+        } finally {
+            Deque<Runnable> inverse = undoLog;
+            undoLog = new ArrayDeque<>();
+            if (done) {
+                if (undo) {
+                    history.undone(inverse);
+                } else {
+                    history.redone(inverse);
+                }
+            }
+            if (graph.modCount() != modCount) {
+                layoutPending = true;
+            }
+            if (selectedStep != null && selectedStep.getGraph() != graph) {
+                selectedStep = root;
+            }
+            batchDepth = 0;
+            commit();
+        }
+        return true;
+    }
+
+    /**
+     * Обратное действие сдвига: вернуть узлы в прежние точки
+     */
+    private final class Move implements Runnable {
+        private final Step[] steps;
+        private final double[] xs;
+        private final double[] ys;
+
+        Move(Step[] steps, double[] xs, double[] ys) {
+            this.steps = steps;
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        @Override
+        public void run() {
+            moveSteps(steps, xs, ys);
+        }
+    }
+
+    // ============= ПАКЕТНОЕ РЕДАКТИРОВАНИЕ =============
+
+    /**
+     * Выполнить правки одной транзакцией: изменения детей канваса копятся и
+     * применяются одним обновлением списка, раскладка считается один раз в конце.
+     * Если из edits вылетело исключение или ошибка, все структурные правки откатываются,
+     * иначе журнал отката транзакции становится правкой для {@link #undo()}.
+     * Вложенные вызовы становятся частью внешней транзакции.
+     */
+    public void batch(Runnable edits) {
+        if (batchDepth > 0) {
+            edits.run();
+            return;
+        }
+        batchDepth = 1;
+        Step selected = selectedStep;
+        boolean done = false;
+        try {
+            edits.run();
+            done = true;
+        } catch (Throwable e) {
+            // Откатываются и Error (StackOverflowError, AssertionError) - иначе в истории
+            // осталась бы наполовину примененная правка
+            try {
+                rollback();
+            } catch (Throwable suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            selectedStep = selected;
+            throw e;
+        } finally {
+            // Журнал неудачной транзакции (после сбоя отката - ее остаток) в историю не идет
+            if (!undoLog.isEmpty()) {
+                if (done) history.add(undoLog);
+                undoLog = new ArrayDeque<>();
+            }
+            batchDepth = 0;
+            commit();
+        }
+    }
+
+    public boolean isBatching() {
+        return batchDepth > 0;
+    }
+
+    private void rollback() {
+        rollingBack = true;
+        try {
+            while (!undoLog.isEmpty()) {
+                undoLog.pop().run();
+            }
+        } finally {
+            rollingBack = false;
+        }
+    }
+
+    private void commit() {
+        if (!removedNodes.isEmpty()) {
+            getChildren().removeAll(removedNodes);
+            removedNodes.clear();
+        }
+        if (viewport != null) {
+            // Режим включили внутри транзакции: в сцену попадет только видимое
+            addedArrows.clear();
+            addedSteps.clear();
+        }
+        if (!addedArrows.isEmpty()) {
+            // Стрелки за узлами: последняя добавленная - самая нижняя, как при toBack()
+            List<Node> arrows = new ArrayList<>(addedArrows);
+            Collections.reverse(arrows);
+            getChildren().addAll(0, arrows);
+            addedArrows.clear();
+        }
+        if (!addedSteps.isEmpty()) {
+            getChildren().addAll(addedSteps);
+            addedSteps.clear();
+        }
+        if (layoutPending) {
+            layoutPending = false;
+            update();
+        } else if (viewport != null) {
+            refreshViewport();
+        }
+    }
+
+    private void record(Runnable undo) {
+        if (batchDepth > 0 && !rollingBack) {
+            undoLog.push(undo);
+        }
+    }
+
+    private void addNode(Node node) {
+        if (node.getParent() == this && !removedNodes.contains(node) || addedSteps.contains(node)) {
+            throw new IllegalArgumentException("Step is already on canvas: " + node);
+        }
+        if (viewport != null) {
+            // В сцену узел добавит refreshViewport, если он окажется в видимой области
+            record(() -> removeNode(node));
+            return;
+        }
+        if (batchDepth == 0) {
+            getChildren().add(node);
+            return;
+        }
+        if (!removedNodes.remove(node)) {
+            addedSteps.add(node);
+        }
+        record(() -> removeNode(node));
+    }
+
+    private void removeNode(Node node) {
+        if (batchDepth == 0) {
+            getChildren().remove(node);
+            return;
+        }
+        boolean removed = addedSteps.remove(node) || addedArrows.remove(node);
+        if (!removed && node.getParent() == this) {
+            removed = removedNodes.add(node);
+        }
+        if (removed && node instanceof Step) {
+            record(() -> addNode(node));
+        }
+    }
+
+    /**
+     * Стрелки соединений идут в дети канваса через очередь транзакции
+     */
+    private class ArrowLayer implements ArrowHost {
+        @Override
+        public Group createArrow(ObservableObjectValue<Point2D> start, ObservableObjectValue<Point2D> end, ArrowType direction) {
+            return edgeLayer != null ? null : ArrowHost.super.createArrow(start, end, direction);
+        }
+
+        @Override
+        public void addArrow(Node arrow) {
+            if (viewport != null) {
+                // Связь добавлена в обход транзакции (ConTool): ее концы видны, раз их соединили
+                if (batchDepth == 0) {
+                    getChildren().add(0, arrow);
+                    viewport.attached().add(arrow);
+                }
+            } else if (batchDepth == 0) {
+                getChildren().add(arrow);
+                arrow.toBack(); // Стрелки за узлами
+            } else if (!removedNodes.remove(arrow)) {
+                addedArrows.add(arrow);
+            }
+        }
+
+        @Override
+        public void removeArrow(Node arrow) {
+            removeNode(arrow);
+        }
+    }
+
+    /**
+     * Журнал отката соединений: откат создания - удаление, удаления - создание заново.
+     * Соединение ищется заново по (source, target, type): при откате объект Connect
+     * мог быть уже пересоздан.
+     */
+    private class UndoRecorder implements ConListener {
+        @Override
+        public void conCreated(Connect con) {
+            record(() -> conManager.getCon(con.getSource(), con.getTarget(), con.getType())
+                    .ifPresent(conManager::removeCon));
+        }
+
+        @Override
+        public void conRemoved(Connect con) {
+            record(() -> conManager.createCon(con.getSource(), con.getTarget(), con.getType()));
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,93 @@
+package com.alensoft.automator42.model.canvas;
+
+import com.alensoft.automator42.model.connection.ConType;
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.StepKind;
+import com.alensoft.automator42.model.io.FlowSink;
+import com.alensoft.automator42.model.step.Begin;
+import com.alensoft.automator42.model.step.Step;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Сборка канваса из готовой схемы (импорт): узлы и соединения копятся, а
+ * {@link #build()} добавляет их в новый канвас одной транзакцией - без логики
+ * вставки {@link Canvas#addStep} и раскладки на каждый узел.
+ * Корень канваса - первый узел Begin.
+ * <pre>
+ * CanvasBuilder builder = new CanvasBuilder(Canvas.EdgeMode.LAYER);
+ * FlowJson.read(reader, builder);
+ * Canvas canvas = builder.build();
+ * </pre>
+ */
+public class CanvasBuilder implements FlowSink {
+    private final Canvas.EdgeMode edgeMode;
+    private final List<Step> steps = new ArrayList<>();
+    private int[] sources = new int[16];
+    private int[] targets = new int[16];
+    private ConType[] types = new ConType[16];
+    private int edgeCount;
+    private boolean built;
+
+    public CanvasBuilder() {
+        this(Canvas.EdgeMode.ARROWS);
+    }
+
+    public CanvasBuilder(Canvas.EdgeMode edgeMode) {
+        this.edgeMode = edgeMode;
+    }
+
+    @Override
+    public int step(StepKind kind, String text, double x, double y) {
+        checkNotBuilt();
+        Step step = Step.create(kind, text);
+        step.moveTo(x, y);
+        steps.add(step);
+        return steps.size() - 1;
+    }
+
+    @Override
+    public void edge(int source, int target, EdgeType type) {
+        checkNotBuilt();
+        if (source < 0 || source >= steps.size() || target < 0 || target >= steps.size()) {
+            throw new IllegalArgumentException("Connection refers to an unknown step: " + source + " -> " + target);
+        }
+        if (edgeCount == sources.length) {
+            sources = Arrays.copyOf(sources, edgeCount * 2);
+            targets = Arrays.copyOf(targets, edgeCount * 2);
+            types = Arrays.copyOf(types, edgeCount * 2);
+        }
+        sources[edgeCount] = source;
+        targets[edgeCount] = target;
+        types[edgeCount++] = ConType.of(type);
+    }
+
+    /**
+     * Создать канвас со всеми принятыми узлами и соединениями. Вызывается один раз.
+     */
+    public Canvas build() {
+        checkNotBuilt();
+        Begin root = null;
+        for (Step step : steps) {
+            if (step instanceof Begin begin) {
+                root = begin;
+                break;
+            }
+        }
+        if (root == null) {
+            throw new IllegalStateException("Flowchart has no Begin step");
+        }
+        built = true;
+        Canvas canvas = new Canvas(edgeMode, root);
+        canvas.load(steps, sources, targets, types, edgeCount);
+        return canvas;
+    }
+
+    private void checkNotBuilt() {
+        if (built) {
+            throw new IllegalStateException("Canvas is already built");
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.alensoft.automator42.model.canvas;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Стеки отмены и повтора канваса. Правка - журнал обратных действий одной
+ * транзакции {@link Canvas#batch}: он ссылается на те же узлы и соединения, что и
+ * схема, и не копирует ее, поэтому правка занимает память по размеру изменения.
+ * <p>
+ * Выполненный журнал сам записывает обратный: журнал отмены дает правку для
+ * повтора и наоборот.
+ */
+class EditHistory {
+    static final int DEFAULT_LIMIT = 100;
+
+    private final Deque<Deque<Runnable>> undo = new ArrayDeque<>();
+    private final Deque<Deque<Runnable>> redo = new ArrayDeque<>();
+    private int limit = DEFAULT_LIMIT;
+
+    /**
+     * Новая правка: повторять больше нечего. Правки не сливаются: перетаскивание
+     * и так приходит одной правкой, а два отдельных сдвига - две отмены.
+     */
+    void add(Deque<Runnable> edit) {
+        redo.clear();
+        push(undo, edit);
+    }
+
+    Deque<Runnable> undo() {
+        return undo.poll();
+    }
+
+    Deque<Runnable> redo() {
+        return redo.poll();
+    }
+
+    /**
+     * Правка отменена, inverse - ее журнал для повтора
+     */
+    void undone(Deque<Runnable> inverse) {
+        push(redo, inverse);
+    }
+
+    /**
+     * Правка повторена, inverse - ее журнал для отмены
+     */
+    void redone(Deque<Runnable> inverse) {
+        push(undo, inverse);
+    }
+
+    boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    void clear() {
+        undo.clear();
+        redo.clear();
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    void setLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("History limit cannot be negative: " + limit);
+        }
+        this.limit = limit;
+        trim(undo);
+        trim(redo);
+    }
+
+    private void push(Deque<Deque<Runnable>> stack, Deque<Runnable> edit) {
+        if (edit.isEmpty()) return;
+        stack.push(edit);
+        trim(stack);
+    }
+
+    // Самые старые правки забываются
+    private void trim(Deque<Deque<Runnable>> stack) {
+        while (stack.size() > limit) {
+            stack.removeLast();
+        }
+    }
+}
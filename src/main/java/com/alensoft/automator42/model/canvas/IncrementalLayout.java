@@ -0,0 +1,333 @@
+package com.alensoft.automator42.model.canvas;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.GraphListener;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.step.Step;
+
+import java.util.Arrays;
+
+/**
+ * Инкрементальная раскладка по самому длинному пути: результат тот же, что у
+ * {@link MaxPathTraversal}, но пересчитывается только "грязная" область.
+ * <p>
+ * Глубина и X узлов хранятся между проходами. Правка графа помечает концы
+ * затронутых связей, а {@link #update()} распространяет изменения вниз по потоку,
+ * пока значения действительно меняются: вставка в короткую ветку останавливается
+ * на точке слияния, если максимальная глубина слияния не изменилась.
+ * Перемещение корня или ручное перетаскивание узлов тоже учитываются.
+ * <p>
+ * Полный проход (первый, после перемещения корня или при циклах в графе) делает
+ * {@link MaxPathTraversal} за O(V+E). Пока в графе есть цикл, каждый проход полный:
+ * обратные связи определяет только обход от корня.
+ */
+public class IncrementalLayout implements GraphListener {
+
+    private static final EdgeType[] FLOW = {EdgeType.OK, EdgeType.IN, EdgeType.OUT};
+    private static final double STEP_X = Step.WIDTH + Step.STEP;
+    private static final double STEP_Y = Step.HEIGHT + Step.STEP;
+
+    private final FlowGraph graph;
+    private final int root;
+    private int[] depths = new int[0];
+    private double[] xs = new double[0];
+
+    // Очереди пересчета; флаги не дают поставить узел в очередь дважды
+    private final IntQueue depthQueue = new IntQueue();
+    private final IntQueue xQueue = new IntQueue();
+    private boolean[] inDepthQueue = new boolean[0];
+    private boolean[] inXQueue = new boolean[0];
+
+    // Узлы, координаты которых изменились в последнем проходе
+    private int[] changed = new int[16];
+    private int changedCount;
+    private boolean[] isChanged = new boolean[0];
+    private boolean resultShown; // changed хранит итог прошлого прохода
+
+    private double rootX;         // положение корня на момент последнего прохода
+    private double rootY;
+    private boolean fullPending = true;
+    private boolean cyclic;       // прошлый полный проход нашел обратные связи
+    private boolean applying;
+    private final LayoutContext context = new LayoutContext();
+
+    public IncrementalLayout(FlowGraph graph, int root) {
+        this.graph = graph;
+        this.root = root;
+    }
+
+    /**
+     * Пересчитать раскладку и записать новые координаты в модель.
+     * Первый проход и проход после перемещения корня - полные.
+     */
+    public void update() {
+        clearResult();
+        if (!graph.contains(root)) return;
+        ensureCapacity(graph.stepCapacity());
+        if (!fullPending && !cyclic) {
+            relaxDepths();
+            // Глубины сдались - полный проход пересчитает и x, частичный был бы лишним
+            if (!fullPending) {
+                relaxXs();
+            }
+        }
+        if (fullPending || cyclic) {
+            relayoutAll();
+        }
+        apply();
+    }
+
+    /**
+     * Сбросить накопленное состояние: следующий {@link #update()} будет полным
+     */
+    public void invalidate() {
+        fullPending = true;
+    }
+
+    /**
+     * Сколько узлов получили новые координаты в последнем {@link #update()}
+     */
+    public int changedCount() {
+        return changedCount;
+    }
+
+    public int changedStep(int index) {
+        return changed[index];
+    }
+
+    // ============= СОБЫТИЯ ГРАФА =============
+
+    @Override
+    public void stepRemoved(int step) {
+        if (step < depths.length) {
+            depths[step] = -1;
+            xs[step] = Double.NaN;
+        }
+    }
+
+    @Override
+    public void edgeAdded(int edge) {
+        EdgeType type = graph.type(edge);
+        if (type.isFlow()) {
+            int source = graph.source(edge);
+            int target = graph.target(edge);
+            flowChanged(source, target);
+            // Связь вверх по слоям: либо цель уедет вниз, либо замкнулся цикл - проще пересчитать все
+            if (depths[source] >= 0 && depths[target] >= 0 && depths[target] <= depths[source]) {
+                fullPending = true;
+            }
+        }
+    }
+
+    @Override
+    public void edgeRemoved(int edge, int source, int target, EdgeType type) {
+        if (type.isFlow()) {
+            flowChanged(source, target);
+        }
+    }
+
+    @Override
+    public void stepMoved(int step) {
+        if (applying || fullPending) return;
+        if (step == root) {
+            fullPending = graph.x(root) != rootX || graph.y(root) != rootY;
+            return;
+        }
+        // Узел сдвинули вручную - вернуть его на место при следующем проходе
+        ensureCapacity(graph.stepCapacity());
+        if (depths[step] >= 0 && (graph.x(step) != xs[step] || graph.y(step) != y(step))) {
+            markChanged(step);
+        }
+    }
+
+    private void flowChanged(int source, int target) {
+        ensureCapacity(graph.stepCapacity());
+        offerDepth(target);
+        // У остальных целей источника мог сдвинуться индекс ответвления
+        offerX(target);
+        offerTargets(source, xQueue, inXQueue);
+    }
+
+    // ============= ПЕРЕСЧЕТ =============
+
+    private void relaxDepths() {
+        int limit = graph.stepCount();
+        while (!depthQueue.isEmpty()) {
+            int step = depthQueue.poll();
+            inDepthQueue[step] = false;
+            if (!graph.contains(step)) continue;
+
+            int depth = -1;
+            if (step == root) {
+                depth = 0;
+            } else {
+                for (int e = graph.firstIn(step); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+                    int source = graph.source(e);
+                    if (graph.type(e).isFlow() && depths[source] >= 0) {
+                        depth = Math.max(depth, depths[source] + 1);
+                    }
+                }
+            }
+            if (depth > limit || changedCount > limit / 4) {
+                // Глубина больше числа узлов - цикл; или сдвигается большая часть схемы -
+                // полный линейный проход дешевле
+                fullPending = true;
+                return;
+            }
+            if (depth != depths[step]) {
+                depths[step] = depth;
+                markChanged(step);
+                offerX(step);
+                offerTargets(step, depthQueue, inDepthQueue);
+            }
+        }
+    }
+
+    private void relaxXs() {
+        while (!xQueue.isEmpty()) {
+            int step = xQueue.poll();
+            inXQueue[step] = false;
+            if (!graph.contains(step)) continue;
+
+            double x = Double.NaN;
+            if (step == root) {
+                x = graph.x(root);
+            } else if (depths[step] >= 0) {
+                for (int e = graph.firstIn(step); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+                    int source = graph.source(e);
+                    if (graph.type(e).isFlow() && depths[source] >= 0 && !Double.isNaN(xs[source])) {
+                        double nextX = branchX(source, e);
+                        if (Double.isNaN(x) || nextX < x) {
+                            x = nextX;
+                        }
+                    }
+                }
+            }
+            if (Double.compare(x, xs[step]) != 0) {
+                xs[step] = x;
+                markChanged(step);
+                offerTargets(step, xQueue, inXQueue);
+            }
+        }
+    }
+
+    private void relayoutAll() {
+        fullPending = false;
+        depthQueue.clear();
+        xQueue.clear();
+        Arrays.fill(inDepthQueue, false);
+        Arrays.fill(inXQueue, false);
+
+        MaxPathTraversal.compute(graph, root, context);
+        cyclic = context.backEdgeCount() > 0;
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            int depth = context.maxDepths[step];
+            double x = depth >= 0 ? context.x(step) : Double.NaN;
+            // Корень мог сдвинуться - достигнутые узлы применяются все
+            if (depth >= 0 || depths[step] >= 0) {
+                markChanged(step);
+            }
+            depths[step] = depth;
+            xs[step] = x;
+        }
+    }
+
+    /**
+     * X цели связи: основной путь (индекс 0) под источником, ответвления правее.
+     * Сумма считается так же, как в {@link MaxPathTraversal}, чтобы совпадать до бита.
+     */
+    private double branchX(int source, int edge) {
+        double baseX = xs[source];
+        double branchOffset = 0;
+        int i = 0;
+        for (EdgeType type : FLOW) {
+            for (int e = graph.firstOut(source, type); e != FlowGraph.NONE; e = graph.nextInSlot(e), i++) {
+                if (i > 0) {
+                    branchOffset += STEP_X;
+                }
+                if (e == edge) {
+                    return i == 0 ? baseX : baseX + branchOffset;
+                }
+            }
+        }
+        throw new IllegalStateException("Edge is not an output of its source: " + edge);
+    }
+
+    private void apply() {
+        rootX = graph.x(root);
+        rootY = graph.y(root);
+        applying = true;
+        try {
+            for (int i = 0; i < changedCount; i++) {
+                int step = changed[i];
+                isChanged[step] = false;
+                if (graph.contains(step) && depths[step] >= 0) {
+                    graph.setPosition(step, xs[step], y(step));
+                }
+            }
+        } finally {
+            applying = false;
+        }
+        resultShown = true;
+    }
+
+    // ============= СЛУЖЕБНЫЕ МЕТОДЫ =============
+
+    private double y(int step) {
+        return rootY + depths[step] * STEP_Y;
+    }
+
+    private void offerTargets(int step, IntQueue queue, boolean[] queued) {
+        for (EdgeType type : FLOW) {
+            for (int e = graph.firstOut(step, type); e != FlowGraph.NONE; e = graph.nextInSlot(e)) {
+                offer(graph.target(e), queue, queued);
+            }
+        }
+    }
+
+    private void offerDepth(int step) {
+        offer(step, depthQueue, inDepthQueue);
+    }
+
+    private void offerX(int step) {
+        offer(step, xQueue, inXQueue);
+    }
+
+    private static void offer(int step, IntQueue queue, boolean[] queued) {
+        if (!queued[step]) {
+            queued[step] = true;
+            queue.offer(step);
+        }
+    }
+
+    private void clearResult() {
+        if (resultShown) {
+            resultShown = false;
+            changedCount = 0;
+        }
+    }
+
+    private void markChanged(int step) {
+        clearResult();
+        if (isChanged[step]) return;
+        isChanged[step] = true;
+        if (changedCount == changed.length) {
+            changed = Arrays.copyOf(changed, changedCount * 2);
+        }
+        changed[changedCount++] = step;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= depths.length) return;
+        int size = Math.max(capacity, depths.length * 2);
+        int old = depths.length;
+        depths = Arrays.copyOf(depths, size);
+        xs = Arrays.copyOf(xs, size);
+        Arrays.fill(depths, old, size, -1);
+        Arrays.fill(xs, old, size, Double.NaN);
+        inDepthQueue = Arrays.copyOf(inDepthQueue, size);
+        inXQueue = Arrays.copyOf(inXQueue, size);
+        isChanged = Arrays.copyOf(isChanged, size);
+    }
+}
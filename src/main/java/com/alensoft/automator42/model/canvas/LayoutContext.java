@@ -0,0 +1,121 @@
+package com.alensoft.automator42.model.canvas;
+
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.IntQueue;
+
+import java.util.Arrays;
+
+/**
+ * Буфер результата раскладки (координаты по id узла) и рабочие массивы прохода.
+ * Между проходами переиспользуется, поэтому повторная раскладка не выделяет память заново.
+ * <p>
+ * Общего статического состояния у раскладки нет: независимые схемы можно
+ * раскладывать параллельно, если у каждого потока свой контекст.
+ * Сам контекст не потокобезопасен.
+ */
+public class LayoutContext {
+
+    // Результат
+    double[] xs = new double[0];
+    double[] ys = new double[0];
+    boolean[] placed = new boolean[0];
+    private int capacity;
+
+    // Рабочие массивы по узлам
+    int[] maxDepths = new int[0];
+    byte[] marks = new byte[0];     // состояние DFS: не посещен / на стеке / готов
+    int[] inDegrees = new int[0];
+    int[] stackSteps = new int[0];
+    int[] stackEdges = new int[0];  // следующая исходящая связь узла на стеке
+    final IntQueue queue = new IntQueue();
+
+    // По связям
+    boolean[] backEdges = new boolean[0];
+    int backEdgeCount;
+
+    // Рабочие массивы Render и Renderer: engine сам очищает то, что использует
+    boolean[] flags = new boolean[0];   // точки слияния (Renderer) или узлы в очереди слияний (Render)
+    int[] gridXs = new int[0];
+    int[] gridYs = new int[0];
+    Render.Frames renderFrames;         // стеки кадров создаются при первой раскладке
+    Renderer.Frames rendererFrames;
+
+    /**
+     * Подготовить буферы к проходу по графу: результат пуст, ни один узел не размещен
+     */
+    public void reset(FlowGraph graph) {
+        int stepCapacity = graph.stepCapacity();
+        int edgeCapacity = graph.edgeCapacity();
+        if (maxDepths.length < stepCapacity) {
+            int size = Math.max(stepCapacity, maxDepths.length * 2);
+            xs = new double[size];
+            ys = new double[size];
+            placed = new boolean[size];
+            maxDepths = new int[size];
+            marks = new byte[size];
+            inDegrees = new int[size];
+            stackSteps = new int[size];
+            stackEdges = new int[size];
+            flags = new boolean[size];
+            gridXs = new int[size];
+            gridYs = new int[size];
+        }
+        if (backEdges.length < edgeCapacity) {
+            backEdges = new boolean[Math.max(edgeCapacity, backEdges.length * 2)];
+        }
+        capacity = stepCapacity;
+        Arrays.fill(placed, 0, stepCapacity, false);
+        Arrays.fill(maxDepths, 0, stepCapacity, -1);
+        Arrays.fill(marks, 0, stepCapacity, (byte) 0);
+        Arrays.fill(inDegrees, 0, stepCapacity, 0);
+        Arrays.fill(backEdges, 0, edgeCapacity, false);
+        backEdgeCount = 0;
+        queue.clear();
+    }
+
+    /**
+     * Записать координаты узла в результат
+     */
+    public void place(int step, double x, double y) {
+        xs[step] = x;
+        ys[step] = y;
+        placed[step] = true;
+    }
+
+    /**
+     * Емкость по id узлов последнего прохода
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isPlaced(int step) {
+        return step >= 0 && step < capacity && placed[step];
+    }
+
+    public double x(int step) {
+        return xs[step];
+    }
+
+    public double y(int step) {
+        return ys[step];
+    }
+
+    /**
+     * Записать размещенные узлы в модель
+     */
+    public void applyTo(FlowGraph graph) {
+        for (int step = 0; step < capacity; step++) {
+            if (placed[step] && graph.contains(step)) {
+                graph.setPosition(step, xs[step], ys[step]);
+            }
+        }
+    }
+
+    /**
+     * Сколько обратных связей (циклов) пропустил последний проход {@link MaxPathTraversal}
+     */
+    public int backEdgeCount() {
+        return backEdgeCount;
+    }
+}
@@ -0,0 +1,18 @@
+package com.alensoft.automator42.model.canvas;
+
+import com.alensoft.automator42.model.graph.FlowGraph;
+
+/**
+ * Алгоритм раскладки. Читает только FlowGraph и пишет координаты в буфер
+ * результата {@link LayoutContext}, узлы и граф не меняет.
+ * <p>
+ * Реализации не хранят состояние прохода: один экземпляр можно использовать
+ * из разных потоков, если у каждого потока свой контекст.
+ */
+public interface LayoutEngine {
+
+    /**
+     * Разложить узлы, достижимые из root. Координаты абсолютные: от положения root в графе.
+     */
+    void layout(FlowGraph graph, int root, LayoutContext context);
+}
@@ -0,0 +1,238 @@
+package com.alensoft.automator42.model.canvas;
+
+import com.alensoft.automator42.model.connection.ConType;
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.graph.StepKind;
+import com.alensoft.automator42.model.io.MappedFlowFile;
+import com.alensoft.automator42.model.line.Arrow;
+import com.alensoft.automator42.model.line.EdgeLayer;
+import com.alensoft.automator42.model.step.Connector;
+import com.alensoft.automator42.model.step.Step;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Просмотр очень большой схемы прямо из {@link MappedFlowFile}, без загрузки в граф.
+ * Узлы-представления строятся только для страниц файла, которых коснулась видимая
+ * область или запрос ({@link #getStep}, {@link #findStepAt}, {@link #findSteps});
+ * построенные страницы вне области держатся в LRU-кеше из {@link #PAGE_CACHE} страниц,
+ * остальные отбрасываются. Память растет с видимым, а не с размером файла.
+ * <p>
+ * Стрелки рисуются одним слоем по координатам из файла: исходящие и входящие связи
+ * узлов видимых страниц. Связь, у которой оба конца за пределами области, не рисуется.
+ * Просмотр только для чтения; для правки схема загружается через {@link MappedFlowFile#toGraph()}.
+ */
+public class MappedChart extends Pane {
+    // Построенных страниц вне видимой области, которые не отбрасываются сразу
+    public static final int PAGE_CACHE = 64;
+    static final double MARGIN = Viewport.MARGIN;
+
+    private final MappedFlowFile file;
+    // Построенные страницы в порядке последнего обращения
+    private final LinkedHashMap<Integer, Step[]> built = new LinkedHashMap<>(16, 0.75f, true);
+    private Set<Integer> shown = new HashSet<>();
+    private final javafx.scene.canvas.Canvas edges = new javafx.scene.canvas.Canvas();
+    private final IntQueue found = new IntQueue();
+    private final double[] buffer = new double[Arrow.MAX_POINTS * 2];
+    private final double[] xs = new double[Arrow.MAX_POINTS];
+    private final double[] ys = new double[Arrow.MAX_POINTS];
+    private Bounds area;
+
+    public MappedChart(MappedFlowFile file) {
+        this.file = file;
+        edges.setMouseTransparent(true);
+        getChildren().add(edges);
+    }
+
+    public MappedFlowFile getFile() {
+        return file;
+    }
+
+    /**
+     * Показать область схемы (координаты канваса): строятся узлы новых страниц,
+     * страницы вне области уходят из сцены, стрелки перерисовываются.
+     * Хост вызывает метод при прокрутке и масштабировании.
+     */
+    public void setViewport(Bounds area) {
+        this.area = area;
+        Set<Integer> visible = new HashSet<>();
+        findPages(area.getMinX() - MARGIN, area.getMinY() - MARGIN,
+                area.getMaxX() + MARGIN, area.getMaxY() + MARGIN);
+        while (!found.isEmpty()) {
+            visible.add(found.poll());
+        }
+
+        List<Node> hidden = new ArrayList<>();
+        for (int page : shown) {
+            if (!visible.contains(page)) {
+                hidden.addAll(List.of(built.get(page)));
+            }
+        }
+        getChildren().removeAll(new HashSet<>(hidden));
+        List<Node> added = new ArrayList<>();
+        for (int page : visible) {
+            Step[] steps = build(page);
+            if (!shown.contains(page)) {
+                added.addAll(List.of(steps));
+            }
+        }
+        getChildren().addAll(added);
+        shown = visible;
+        evict();
+        drawEdges();
+    }
+
+    public Bounds getViewport() {
+        return area;
+    }
+
+    /**
+     * Узел-представление по id в файле; строит его страницу, если нужно.
+     * Узел не в сцене, пока его страница не попала в видимую область.
+     */
+    public Step getStep(int step) {
+        int page = file.pageOf(step);
+        Step[] steps = build(page);
+        evict();
+        return steps[step - file.firstStep(page)];
+    }
+
+    /**
+     * Узел под точкой в координатах канваса или null
+     */
+    public Step findStepAt(double x, double y) {
+        List<Step> steps = findSteps(new BoundingBox(x, y, 0, 0));
+        return steps.isEmpty() ? null : steps.getFirst();
+    }
+
+    /**
+     * Узлы, пересекающие область в координатах канваса; строит затронутые страницы
+     */
+    public List<Step> findSteps(Bounds area) {
+        List<Step> result = new ArrayList<>();
+        findPages(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY());
+        while (!found.isEmpty()) {
+            int page = found.poll();
+            Step[] steps = build(page);
+            int first = file.firstStep(page);
+            for (int i = 0; i < steps.length; i++) {
+                int id = first + i;
+                double x = file.x(id);
+                double y = file.y(id);
+                if (x <= area.getMaxX() && x + width(file.kind(id)) >= area.getMinX()
+                        && y <= area.getMaxY() && y + height(file.kind(id)) >= area.getMinY()) {
+                    result.add(steps[i]);
+                }
+            }
+        }
+        evict();
+        return result;
+    }
+
+    /**
+     * Сколько страниц сейчас держат построенные узлы (видимые и кеш)
+     */
+    public int builtPageCount() {
+        return built.size();
+    }
+
+    // Страницы по левому верхнему углу узла: область расширяется на размер узла
+    private void findPages(double minX, double minY, double maxX, double maxY) {
+        found.clear();
+        file.findPages(minX - Step.WIDTH, minY - Step.HEIGHT, maxX, maxY, found);
+    }
+
+    private Step[] build(int page) {
+        Step[] steps = built.get(page);
+        if (steps != null) return steps;
+        int first = file.firstStep(page);
+        steps = new Step[file.pageSize(page)];
+        for (int i = 0; i < steps.length; i++) {
+            int id = first + i;
+            Step step = Step.create(file.kind(id), file.text(id));
+            step.moveTo(file.x(id), file.y(id));
+            step.setMouseTransparent(true);
+            steps[i] = step;
+        }
+        built.put(page, steps);
+        return steps;
+    }
+
+    // Отбросить самые давние невидимые страницы сверх кеша
+    private void evict() {
+        int extra = built.size() - shown.size() - PAGE_CACHE;
+        for (Iterator<Map.Entry<Integer, Step[]>> it = built.entrySet().iterator(); extra > 0 && it.hasNext(); ) {
+            if (!shown.contains(it.next().getKey())) {
+                it.remove();
+                extra--;
+            }
+        }
+    }
+
+    private void drawEdges() {
+        edges.relocate(area.getMinX(), area.getMinY());
+        edges.setWidth(area.getWidth());
+        edges.setHeight(area.getHeight());
+        GraphicsContext gc = edges.getGraphicsContext2D();
+        gc.clearRect(0, 0, area.getWidth(), area.getHeight());
+        gc.save();
+        gc.translate(-area.getMinX(), -area.getMinY());
+        gc.setStroke(EdgeLayer.COLOR);
+        gc.setFill(EdgeLayer.COLOR);
+        gc.setLineWidth(2);
+        Map<Integer, Boolean> pageShown = new HashMap<>();
+        for (int page : shown) {
+            int first = file.firstStep(page);
+            for (int id = first, end = first + file.pageSize(page); id < end; id++) {
+                for (int i = 0, n = file.outDegree(id); i < n; i++) {
+                    drawEdge(gc, id, file.outTarget(id, i), file.outType(id, i));
+                }
+                // Входящая связь с видимой страницы уже нарисована как исходящая
+                for (int i = 0, n = file.inDegree(id); i < n; i++) {
+                    int source = file.inSource(id, i);
+                    if (!pageShown.computeIfAbsent(file.pageOf(source), shown::contains)) {
+                        drawEdge(gc, source, id, file.inType(id, i));
+                    }
+                }
+            }
+        }
+        gc.restore();
+    }
+
+    private void drawEdge(GraphicsContext gc, int source, int target, EdgeType edgeType) {
+        ConType type = ConType.of(edgeType);
+        StepKind sourceKind = file.kind(source);
+        StepKind targetKind = file.kind(target);
+        double sx = file.x(source) + width(sourceKind) * type.getSourceAnchor().fx();
+        double sy = file.y(source) + height(sourceKind) * type.getSourceAnchor().fy();
+        double ex = file.x(target) + width(targetKind) * type.getTargetAnchor().fx();
+        double ey = file.y(target) + height(targetKind) * type.getTargetAnchor().fy();
+        int count = Arrow.route(sx, sy, ex, ey, type.getDirection(), buffer);
+        for (int i = 0; i < count; i++) {
+            xs[i] = buffer[i * 2];
+            ys[i] = buffer[i * 2 + 1];
+        }
+        EdgeLayer.draw(gc, xs, ys, count);
+    }
+
+    private static double width(StepKind kind) {
+        return kind == StepKind.CONNECTOR ? Connector.SIZE : Step.WIDTH;
+    }
+
+    private static double height(StepKind kind) {
+        return kind == StepKind.CONNECTOR ? Connector.SIZE : Step.HEIGHT;
+    }
+}
@@ -1,131 +1,187 @@
 package com.alensoft.automator42.model.canvas;
 
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.IntQueue;
 import com.alensoft.automator42.model.step.Step;
 
-import java.util.*;
-
-class MaxPathTraversal {
-
-    // Статические поля для хранения результатов обхода
-    private static final Map<Step, Integer> maxDepths = new HashMap<>(); // Для расчета Y
-    private static final Map<Step, Double> finalXMap = new HashMap<>(); // Для расчета X
-    private static final Queue<Step> queue = new LinkedList<>(); // Для обхода
-
-    // Метод, запускающий обход и устанавливающий координаты
-    public static void updateLayout(Step root) {
-        if (root == null) return;
-
-        maxDepths.clear();
-        finalXMap.clear();
-        queue.clear();
-
-        // 1. Расчет Y (Max Depth)
-        calculateMaxDepth(root);
-
-        // 2. Группировка по Y
-        List<List<Step>> maxPathLayers = groupStepsByDepth();
-
-        // 3. Расчет X (Дракон-схема) и применение координат
-        assignXCoordinates(root, maxPathLayers);
+/**
+ * Раскладка по самому длинному пути. Работает только с FlowGraph, поэтому
+ * годится и для headless-режима (без JavaFX toolkit).
+ * <p>
+ * Проход линейный, O(V+E): DFS от корня находит достижимые узлы и обратные связи
+ * (циклы, которые может создать ConTool), затем глубина и X считаются в
+ * топологическом порядке (алгоритм Кана) без обратных связей.
+ * <p>
+ * Состояние прохода живет в {@link LayoutContext}: методы без контекста создают
+ * временный, для повторных раскладок контекст лучше держать и передавать.
+ */
+public class MaxPathTraversal implements LayoutEngine {
+
+    private static final EdgeType[] FLOW = {EdgeType.OK, EdgeType.IN, EdgeType.OUT};
+    private static final byte UNSEEN = 0;
+    private static final byte ON_STACK = 1;
+    private static final byte DONE = 2;
+
+    // Метод, запускающий обход и устанавливающий координаты в модель
+    public static void updateLayout(FlowGraph graph, int root) {
+        updateLayout(graph, root, new LayoutContext());
     }
 
-    // 1. Расчет Y (Max Depth) - Итеративный обход для поиска самого длинного пути
-    public static List<List<Step>> getMaxPathLayers(Step root) {
-        if (root == null) return Collections.emptyList();
-        maxDepths.clear();
-        queue.clear();
-        calculateMaxDepth(root);
-        return groupStepsByDepth();
+    public static void updateLayout(FlowGraph graph, int root, LayoutContext context) {
+        if (!graph.contains(root)) return;
+        new MaxPathTraversal().layout(graph, root, context);
+        context.applyTo(graph);
     }
 
-    private static void calculateMaxDepth(Step root) {
-        maxDepths.put(root, 0);
-        queue.offer(root);
-
-        while (!queue.isEmpty()) {
-            Step current = queue.poll();
-            int currentDepth = maxDepths.get(current);
-
-            for (Step next : current.getNextSteps()) {
-                int newDepth = currentDepth + 1;
+    @Override
+    public void layout(FlowGraph graph, int root, LayoutContext context) {
+        if (!graph.contains(root)) {
+            context.reset(graph);
+            return;
+        }
+        // 1. Глубина и X за один топологический проход
+        compute(graph, root, context);
 
-                if (newDepth > maxDepths.getOrDefault(next, -1)) {
-                    maxDepths.put(next, newDepth);
-                    queue.offer(next);
-                }
+        // 2. Y по глубине: слой узла - его максимальная глубина
+        double rootY = graph.y(root);
+        double stepY = Step.HEIGHT + Step.STEP;
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            int depth = context.maxDepths[step];
+            if (depth >= 0) {
+                context.ys[step] = rootY + depth * stepY;
             }
         }
     }
 
-    // 2. Группировка узлов по их финальной максимальной глубине (Y)
-    private static List<List<Step>> groupStepsByDepth() {
-        if (maxDepths.isEmpty()) return Collections.emptyList();
+    // Слои по самому длинному пути: индекс слоя - глубина узла
+    public static int[][] getMaxPathLayers(FlowGraph graph, int root) {
+        return getMaxPathLayers(graph, root, new LayoutContext());
+    }
 
-        int maxDepth = maxDepths.values().stream().max(Integer::compare).orElse(-1);
+    public static int[][] getMaxPathLayers(FlowGraph graph, int root, LayoutContext context) {
+        if (!graph.contains(root)) return new int[0][];
+        compute(graph, root, context);
+        return groupStepsByDepth(context.maxDepths, graph.stepCapacity());
+    }
 
-        List<List<Step>> layers = new ArrayList<>();
-        for (int i = 0; i <= maxDepth; i++) {
-            layers.add(new ArrayList<>());
-        }
+    /**
+     * Посчитать глубины и X в context.maxDepths / context.xs (placed - достигнут из root)
+     */
+    static void compute(FlowGraph graph, int root, LayoutContext context) {
+        context.reset(graph);
+        markBackEdges(graph, root, context);
+        layoutInTopologicalOrder(graph, root, context);
+    }
 
-        for (Map.Entry<Step, Integer> entry : maxDepths.entrySet()) {
-            layers.get(entry.getValue()).add(entry.getKey());
+    // 1. DFS: достижимые узлы, обратные связи и входящие степени без них
+    private static void markBackEdges(FlowGraph graph, int root, LayoutContext context) {
+        byte[] marks = context.marks;
+        int[] stackSteps = context.stackSteps;
+        int[] stackEdges = context.stackEdges;
+        int top = 0;
+        marks[root] = ON_STACK;
+        stackSteps[top] = root;
+        stackEdges[top++] = graph.firstOut(root);
+
+        while (top > 0) {
+            int current = stackSteps[top - 1];
+            int e = stackEdges[top - 1];
+            while (e != FlowGraph.NONE && !graph.type(e).isFlow()) {
+                e = graph.nextOut(e);
+            }
+            if (e == FlowGraph.NONE) {
+                marks[current] = DONE;
+                top--;
+                continue;
+            }
+            stackEdges[top - 1] = graph.nextOut(e);
+
+            int next = graph.target(e);
+            if (marks[next] == ON_STACK) {
+                // Связь назад по текущему пути - цикл, в раскладке не участвует
+                context.backEdges[e] = true;
+                context.backEdgeCount++;
+                continue;
+            }
+            context.inDegrees[next]++;
+            if (marks[next] == UNSEEN) {
+                marks[next] = ON_STACK;
+                stackSteps[top] = next;
+                stackEdges[top++] = graph.firstOut(next);
+            }
         }
-
-        return layers;
     }
 
-    // 3. Расчет X (Дракон-схема) и применение X/Y координат
-    private static void assignXCoordinates(Step root, List<List<Step>> layers) {
-        double currentY = root.getLayoutY();
-        double stepY = Step.HEIGHT + Step.STEP;
+    // 2. Алгоритм Кана: узел обрабатывается, когда обработаны все его предшественники
+    private static void layoutInTopologicalOrder(FlowGraph graph, int root, LayoutContext context) {
         double stepX = Step.WIDTH + Step.STEP;
+        int[] maxDepths = context.maxDepths;
+        double[] finalX = context.xs;
+        boolean[] placed = context.placed;
+        int[] inDegrees = context.inDegrees;
+        IntQueue queue = context.queue;
+
+        maxDepths[root] = 0;
+        finalX[root] = graph.x(root);
+        placed[root] = true;
+        queue.offer(root);
 
-        finalXMap.put(root, root.getLayoutX());
-        Queue<Step> queueX = new LinkedList<>();
-        queueX.offer(root);
-
-        // Обход для установки X
-        while (!queueX.isEmpty()) {
-            Step current = queueX.poll();
-            double baseX = finalXMap.get(current);
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            int newDepth = maxDepths[current] + 1;
+            double baseX = finalX[current];
             double branchOffset = 0;
+            int i = 0;
 
-            for (int i = 0; i < current.getNextSteps().size(); i++) {
-                Step next = current.getNextSteps().get(i);
-                double nextX;
-
-                if (i == 0) {
-                    // Основной путь (индекс 0)
-                    nextX = baseX;
-                } else {
-                    // Ответвления (индекс > 0)
-                    branchOffset += stepX;
-                    nextX = baseX + branchOffset;
-                }
+            for (EdgeType type : FLOW) {
+                for (int e = graph.firstOut(current, type); e != FlowGraph.NONE; e = graph.nextInSlot(e), i++) {
+                    // Индекс ответвления считается по всем связям, как и раньше
+                    if (i > 0) {
+                        branchOffset += stepX;
+                    }
+                    if (context.backEdges[e]) continue;
 
-                // Обработка слияния:
-                if (finalXMap.containsKey(next)) {
-                    // Если новая X меньше (левее) уже установленной, обновляем
-                    if (nextX < finalXMap.get(next)) {
-                        finalXMap.put(next, nextX);
-                        queueX.offer(next);
+                    int next = graph.target(e);
+                    if (newDepth > maxDepths[next]) {
+                        maxDepths[next] = newDepth;
+                    }
+                    // Основной путь (индекс 0) под узлом, ответвления правее; при слиянии - самый левый
+                    double nextX = i == 0 ? baseX : baseX + branchOffset;
+                    if (!placed[next] || nextX < finalX[next]) {
+                        finalX[next] = nextX;
+                        placed[next] = true;
+                    }
+                    if (--inDegrees[next] == 0) {
+                        queue.offer(next);
                     }
-                } else {
-                    // Узел посещен впервые
-                    finalXMap.put(next, nextX);
-                    queueX.offer(next);
                 }
             }
         }
+    }
+
+    // Группировка узлов по их финальной максимальной глубине (Y)
+    private static int[][] groupStepsByDepth(int[] maxDepths, int count) {
+        int maxDepth = -1;
+        for (int step = 0; step < count; step++) {
+            maxDepth = Math.max(maxDepth, maxDepths[step]);
+        }
 
-        // Применение X и Y к узлам
-        for (List<Step> layer : layers) {
-            for (Step step : layer) {
-                step.setLayoutX(finalXMap.getOrDefault(step, root.getLayoutX()));
-                step.setLayoutY(currentY);
+        int[] sizes = new int[maxDepth + 1];
+        for (int step = 0; step < count; step++) {
+            if (maxDepths[step] >= 0) sizes[maxDepths[step]]++;
+        }
+        int[][] layers = new int[maxDepth + 1][];
+        for (int i = 0; i <= maxDepth; i++) {
+            layers[i] = new int[sizes[i]];
+            sizes[i] = 0;
+        }
+        for (int step = 0; step < count; step++) {
+            int depth = maxDepths[step];
+            if (depth >= 0) {
+                layers[depth][sizes[depth]++] = step;
             }
-            currentY += stepY;
         }
+        return layers;
     }
-}
\ No newline at end of file
+}
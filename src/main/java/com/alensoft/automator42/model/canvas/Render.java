@@ -1,126 +1,188 @@
 package com.alensoft.automator42.model.canvas;
 
-import com.alensoft.automator42.model.step.Branch;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.graph.StepKind;
 import com.alensoft.automator42.model.step.Step;
 
-import java.util.*;
-
-public class Render {
+import java.util.Arrays;
+
+/**
+ * Раскладка "шампуром": узлы идут вниз, у Branch ветка NO правее, узлы слияния
+ * откладываются и выстраиваются в очередь под самой нижней точкой схемы.
+ * <p>
+ * Обход итеративный (явный стек), поэтому глубина схемы не ограничена стеком потока.
+ */
+public class Render implements LayoutEngine {
+
+    private static final double W = Step.WIDTH;
+    private static final double H = Step.HEIGHT;
+    private static final double S = Step.STEP;
+
+    // Фазы кадра обхода
+    private static final int ENTER = 0;
+    private static final int NEGATIVE = 1;
+    private static final int POSITIVE = 2;
+    private static final int SEQUENCE = 3;
+
+    @Override
+    public void layout(FlowGraph graph, int root, LayoutContext context) {
+        context.reset(graph);
+        if (!graph.contains(root)) return;
+
+        boolean[] waiting = context.flags;
+        Arrays.fill(waiting, 0, graph.stepCapacity(), false);
+        IntQueue waitingQueue = context.queue;
+        if (context.renderFrames == null) {
+            context.renderFrames = new Frames();
+        }
 
-    private record Point(double x, double y, double width, double height, double maxY) {
+        // 1. Отрисовка основной структуры и заполнение очереди
+        double maxY = draw(graph, root, context, waiting, waitingQueue);
 
-        static Point of(double x, double y, double width, double height, double maxY) {
-            return new Point(x, y, width, height, maxY);
-        }
+        // 2. Начальная Y для очереди слияний - maxY последнего нарисованного узла
+        double x = graph.x(root);
+        double y = maxY + S;
 
-        static Point of(double x, double y) {
-            return new Point(x, y, 0, 0, y);
-        }
-    }
+        // 3. Отрисовка узлов слияния ("шампур" из точек слияния)
+        while (!waitingQueue.isEmpty()) {
+            int mergeNode = waitingQueue.poll();
 
-    public static void updateLayout(Step root) {
-        Set<Step> visited = new HashSet<>();
-        Deque<Step> waiting = new ArrayDeque<>();
-
-        Point currentPoint = Point.of(root.getLayoutX(), root.getLayoutY());
-
-        // 1. Рекурсивная отрисовка основной структуры и заполнение очереди
-        Point resultPoint = draw(root, currentPoint, visited, waiting);
-
-        // --- Исправление #1: Учет максимального Y для начала отрисовки очереди ---
-        // Начальная Y-координата для очереди слияний - это maxY последнего нарисованного узла.
-        double startYForMerge = resultPoint.maxY() + Step.STEP;
-
-        // Обновляем текущую позицию Y
-        currentPoint = Point.of(resultPoint.x(),
-                startYForMerge,
-                Step.WIDTH,
-                0,
-                startYForMerge);
-
-        // 2. Отрисовка узлов слияния ("шампур" из точек слияния)
-        while (!waiting.isEmpty()) {
-            Step mergeNode = waiting.pollFirst();
-
-            // Если узел уже нарисован (посещен), просто сдвигаем Y под него
-            if (mergeNode.getLayoutY() != 0 || mergeNode.getLayoutX() != 0) {
-                currentPoint = Point.of(currentPoint.x(),
-                        mergeNode.getLayoutY() + Step.HEIGHT + Step.STEP,
-                        Step.WIDTH,
-                        0,
-                        mergeNode.getLayoutY() + Step.HEIGHT);
+            // Если узел уже нарисован, просто сдвигаем Y под него
+            if (context.isPlaced(mergeNode)) {
+                y = context.y(mergeNode) + H + S;
                 continue;
             }
-
-            // --- Исправление #2: Гарантированная установка координат ---
-            // Отрисовываем узел слияния, который не был отрисован (он должен быть на текущем Y)
-            mergeNode.setLayoutX(currentPoint.x());
-            mergeNode.setLayoutY(currentPoint.y());
-
-            // Продвигаем Y-координату для следующего элемента в очереди
-            double nextY = currentPoint.y() + Step.HEIGHT + Step.STEP;
-            currentPoint = Point.of(currentPoint.x(),
-                    nextY,
-                    Step.WIDTH,
-                    0,
-                    nextY - Step.STEP);
+            context.place(mergeNode, x, y);
+            y += H + S;
         }
     }
 
-    private static Point draw(final Step step, final Point p, Set<Step> visited, Deque<Step> waiting) {
-        if (visited.contains(step)) {
-            // Если узел посещен, возвращаем его положение и нулевую высоту
-            return Point.of(step.getLayoutX(), step.getLayoutY(), Step.WIDTH, 0, step.getLayoutY() + Step.HEIGHT);
-        }
-
-        step.setLayoutX(p.x);
-        step.setLayoutY(p.y);
-        visited.add(step);
-
-        List<Step> nextSteps = step.getNextSteps();
-
-        if (nextSteps.isEmpty()) {
-            // Конечный узел: возвращаем его высоту и maxY
-            return Point.of(p.x, p.y, Step.WIDTH, Step.HEIGHT, p.y + Step.HEIGHT);
+    /**
+     * Нарисовать подграф от root. Кадр возвращает ширину, высоту и maxY
+     * через регистры retWidth/retHeight/retMaxY; результат - maxY корня.
+     */
+    private static double draw(FlowGraph graph, int root, LayoutContext context,
+                               boolean[] waiting, IntQueue waitingQueue) {
+        Frames f = context.renderFrames;
+        f.top = 0;
+        double retWidth = 0;
+        double retHeight = 0;
+        double retMaxY = 0;
+        f.push(root, graph.x(root), graph.y(root));
+
+        while (f.top > 0) {
+            int i = f.top - 1;
+            int step = f.steps[i];
+            double x = f.xs[i];
+            double y = f.ys[i];
+
+            switch (f.phases[i]) {
+                case ENTER -> {
+                    if (context.isPlaced(step)) {
+                        // Узел уже нарисован: его положение и нулевая высота
+                        retWidth = W;
+                        retHeight = 0;
+                        retMaxY = context.y(step) + H;
+                        f.top--;
+                        continue;
+                    }
+                    context.place(step, x, y);
+
+                    int e = graph.firstFlow(step);
+                    if (e == FlowGraph.NONE) {
+                        // Конечный узел
+                        retWidth = W;
+                        retHeight = H;
+                        retMaxY = y + H;
+                        f.top--;
+                        continue;
+                    }
+                    int next = graph.target(e);
+                    int second = graph.nextFlow(e);
+
+                    if (graph.kind(step) == StepKind.BRANCH && second != FlowGraph.NONE) {
+                        // Ветвление: сначала ветка NO правее, затем YES под узлом
+                        f.nexts[i] = next;
+                        f.phases[i] = NEGATIVE;
+                        f.push(graph.target(second), x + W + S, y + H + S);
+                    } else if (flowInCount(graph, next) > 1) {
+                        // Слияние откладывается
+                        if (!waiting[next]) {
+                            waiting[next] = true;
+                            waitingQueue.offer(next);
+                        }
+                        retWidth = W;
+                        retHeight = H;
+                        retMaxY = y + H;
+                        f.top--;
+                    } else {
+                        // "Шампур"
+                        f.phases[i] = SEQUENCE;
+                        f.push(next, x, y + H + S);
+                    }
+                }
+                case NEGATIVE -> {
+                    f.negativeWidths[i] = retWidth;
+                    f.negativeHeights[i] = retHeight;
+                    f.phases[i] = POSITIVE;
+                    f.push(f.nexts[i], x, y + H + S);
+                }
+                case POSITIVE -> {
+                    double totalHeight = H + S + Math.max(retHeight, f.negativeHeights[i]);
+                    retWidth = W + S + f.negativeWidths[i];
+                    retHeight = totalHeight;
+                    retMaxY = y + totalHeight;
+                    f.top--;
+                }
+                default -> {
+                    // SEQUENCE: текущий шаг плюс результат продолжения
+                    retWidth = W;
+                    retHeight = H + S + retHeight;
+                    f.top--;
+                }
+            }
         }
+        return retMaxY;
+    }
 
-        Step nextStep = nextSteps.getFirst();
-
-        // --- 1. Обработка ветвления (Branch) ---
-        if (step instanceof Branch && nextSteps.size() >= 2) {
-
-            double negativeX = p.x + Step.WIDTH + Step.STEP;
-            Point negStart = Point.of(negativeX, p.y + Step.HEIGHT + Step.STEP);
-            Point negBranch = draw(nextSteps.get(1), negStart, visited, waiting);
-
-            Point posStart = Point.of(p.x, p.y + Step.HEIGHT + Step.STEP);
-            Point posBranch = draw(nextStep, posStart, visited, waiting);
-
-            double totalHeight = Step.HEIGHT + Step.STEP + Math.max(posBranch.height, negBranch.height);
-            double totalWidth = Step.WIDTH + Step.STEP + negBranch.width;
-
-            // Максимальный Y - это Y начала + общая высота
-            double maxY = p.y + totalHeight;
-
-            return Point.of(p.x, p.y, totalWidth, totalHeight, maxY);
+    private static int flowInCount(FlowGraph graph, int step) {
+        int count = 0;
+        for (int e = graph.firstIn(step); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+            if (graph.type(e).isFlow()) count++;
         }
+        return count;
+    }
 
-        // --- 2. Обработка слияния (Merge Point) ---
-        if (nextStep.getPreviousSteps().size() > 1) {
-            if (!waiting.contains(nextStep)) {
-                waiting.add(nextStep);
+    /**
+     * Стек кадров обхода в параллельных массивах, живет в {@link LayoutContext}
+     */
+    static class Frames {
+        int top;
+        int[] steps = new int[64];
+        double[] xs = new double[64];
+        double[] ys = new double[64];
+        int[] phases = new int[64];
+        int[] nexts = new int[64];
+        double[] negativeWidths = new double[64];
+        double[] negativeHeights = new double[64];
+
+        void push(int step, double x, double y) {
+            if (top == steps.length) {
+                int size = top * 2;
+                steps = Arrays.copyOf(steps, size);
+                xs = Arrays.copyOf(xs, size);
+                ys = Arrays.copyOf(ys, size);
+                phases = Arrays.copyOf(phases, size);
+                nexts = Arrays.copyOf(nexts, size);
+                negativeWidths = Arrays.copyOf(negativeWidths, size);
+                negativeHeights = Arrays.copyOf(negativeHeights, size);
             }
-            // Узел слияния откладывается, возвращаем высоту текущего узла и его maxY
-            return Point.of(p.x, p.y, Step.WIDTH, Step.HEIGHT, p.y + Step.HEIGHT);
+            steps[top] = step;
+            xs[top] = x;
+            ys[top] = y;
+            phases[top] = ENTER;
+            top++;
         }
-
-        // --- 3. Обработка "Шампура" (Sequential Step) ---
-        Point nextP = Point.of(p.x, p.y + Step.HEIGHT + Step.STEP);
-        Point result = draw(nextStep, nextP, visited, waiting);
-
-        // Объединяем текущий шаг с результатом рекурсии
-        double totalHeight = Step.HEIGHT + Step.STEP + result.height;
-        // Максимальный Y - это maxY, возвращенный рекурсией
-        return Point.of(p.x, p.y, Step.WIDTH, totalHeight, result.maxY);
     }
-}
\ No newline at end of file
+}
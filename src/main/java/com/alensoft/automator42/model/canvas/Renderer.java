@@ -1,150 +1,208 @@
 package com.alensoft.automator42.model.canvas;
 
 
+import com.alensoft.automator42.model.graph.FlowGraph;
 import com.alensoft.automator42.model.step.Step;
 
-import java.util.*;
-
-class Renderer {
-
-    private static class Tab {
-        int gridX = -1;
-        int gridY = -1;
-    }
-
-    private static class LayoutResult {
-        final int nextY; // Следующая доступная Y-координата (самая низкая точка)
-        final int maxX;  // Самый правый использованный X в подграфе
-        LayoutResult(int nextY, int maxX) {
-            this.nextY = nextY;
-            this.maxX = maxX;
+import java.util.Arrays;
+
+/**
+ * Раскладка по сетке обходом в глубину: главная ветка (индекс 0) под узлом,
+ * боковые ветки правее самой правой занятой колонки, узел слияния - под самой
+ * длинной веткой. Шаг сетки по X - 130.
+ * <p>
+ * Обход итеративный (явный стек), поэтому глубина схемы не ограничена стеком потока.
+ */
+public class Renderer implements LayoutEngine {
+
+    private static final double X_STEP = 130.0;
+    private static final double Y_STEP = Step.HEIGHT + Step.STEP;
+
+    // Фазы кадра обхода
+    private static final int ENTER = 0;
+    private static final int PRIMARY = 1;
+    private static final int SIDE = 2;
+
+    private static final byte DONE = 2;
+
+    @Override
+    public void layout(FlowGraph graph, int root, LayoutContext context) {
+        context.reset(graph);
+        if (!graph.contains(root)) return;
+
+        int capacity = graph.stepCapacity();
+        boolean[] mergePoints = context.flags;
+        int[] gridX = context.gridXs;
+        int[] gridY = context.gridYs;
+        Arrays.fill(mergePoints, 0, capacity, false);
+        Arrays.fill(gridX, 0, capacity, -1);
+        Arrays.fill(gridY, 0, capacity, -1);
+        if (context.rendererFrames == null) {
+            context.rendererFrames = new Frames();
         }
-    }
-
-    private static Map<Step, Tab> dataMap;
-    private static Set<Step> visited;
-    private static Set<Step> mergePoints;
-
-    public static void updateLayout(Step root) {
-        if (root == null) return;
-
-        dataMap = new HashMap<>();
-        mergePoints = new HashSet<>();
 
-        collectAllStepsAndMerges(root);
-
-        visited = new HashSet<>();
-        placeRecursive(root, 0, 0);
-
-        applyLayoutCoordinates(root, dataMap);
+        collectMerges(graph, root, context, mergePoints);
+        place(graph, root, context, mergePoints, gridX, gridY);
+        applyLayoutCoordinates(graph, root, context, gridX, gridY, capacity);
     }
 
-    // --- Шаг 1: Сбор данных и точек слияния ---
-    private static void collectAllStepsAndMerges(Step step) {
-        if (dataMap.containsKey(step)) return;
-        dataMap.put(step, new Tab());
-
-        for (Step child : step.getNextSteps()) {
-            if (dataMap.containsKey(child)) {
-                mergePoints.add(child);
+    // --- Шаг 1: Точки слияния - узлы, в которые DFS приходит повторно ---
+    private static void collectMerges(FlowGraph graph, int root, LayoutContext context, boolean[] mergePoints) {
+        byte[] seen = context.marks;
+        int[] stackSteps = context.stackSteps;
+        int[] stackEdges = context.stackEdges;
+        int top = 0;
+        seen[root] = 1;
+        stackSteps[top] = root;
+        stackEdges[top++] = graph.firstFlow(root);
+
+        while (top > 0) {
+            int e = stackEdges[top - 1];
+            if (e == FlowGraph.NONE) {
+                top--;
+                continue;
+            }
+            stackEdges[top - 1] = graph.nextFlow(e);
+            int child = graph.target(e);
+            if (seen[child] != 0) {
+                mergePoints[child] = true;
+            } else {
+                seen[child] = 1;
+                stackSteps[top] = child;
+                stackEdges[top++] = graph.firstFlow(child);
             }
-            collectAllStepsAndMerges(child);
         }
     }
 
-    // --- Шаг 2: Рекурсивная раскладка (DFS) ---
-    private static LayoutResult placeRecursive(Step current, int currentX, int currentY) {
-        Tab currentData = dataMap.get(current);
-
-        // A. Слияние (Повторное посещение):
-        if (visited.contains(current)) {
-            // Если мы пришли сюда второй раз, это узел слияния.
-            // Обновляем его Y, если текущая ветка длиннее.
-            if (currentY > currentData.gridY) {
-                currentData.gridY = currentY;
+    // --- Шаг 2: Раскладка (DFS). Кадр возвращает (nextY, maxX) через retY/retX ---
+    private static void place(FlowGraph graph, int root, LayoutContext context,
+                              boolean[] mergePoints, int[] gridX, int[] gridY) {
+        Frames f = context.rendererFrames;
+        f.top = 0;
+        // Шаг 1 пометил достижимые узлы единицей, размещенные получают DONE
+        byte[] marks = context.marks;
+        int retY = 0;
+        int retX = 0;
+        f.push(root, 0, 0);
+
+        while (f.top > 0) {
+            int i = f.top - 1;
+            int current = f.steps[i];
+            int currentX = f.xs[i];
+            int currentY = f.ys[i];
+
+            if (f.phases[i] == ENTER) {
+                // A. Слияние (повторное посещение): поднять Y, если текущая ветка длиннее
+                if (marks[current] == DONE) {
+                    if (currentY > gridY[current]) {
+                        gridY[current] = currentY;
+                    }
+                    retY = gridY[current];
+                    retX = currentX;
+                    f.top--;
+                    continue;
+                }
+                marks[current] = DONE;
+
+                // 1. Размещение (X и Y)
+                gridX[current] = currentX;
+                gridY[current] = currentY;
+
+                // 2. Конечный узел
+                int e = graph.firstFlow(current);
+                if (e == FlowGraph.NONE) {
+                    retY = currentY + 1;
+                    retX = currentX;
+                    f.top--;
+                    continue;
+                }
+
+                // 3. Главная ветка (индекс 0)
+                f.edges[i] = e;
+                f.primaries[i] = graph.target(e);
+                f.phases[i] = PRIMARY;
+                f.push(f.primaries[i], currentX, currentY + 1);
+                continue;
             }
-            // Возвращаем его Y и X (без изменения).
-            // Это гарантирует, что следующая боковая ветка начнет выравниваться с этой точкой.
-            return new LayoutResult(currentData.gridY, currentX);
-        }
-        visited.add(current);
-
-        // 1. Размещение (X и Y)
-        currentData.gridX = currentX;
-        currentData.gridY = currentY;
-
-        // 2. Конечный узел
-        if (current.getNextSteps().isEmpty()) {
-            return new LayoutResult(currentY + 1, currentX);
-        }
-
-        List<Step> children = current.getNextSteps();
-        int nextY = currentY + 1;
-
-        // 3. Обработка Главной/Текущей Ветки (Индекс 0)
-        Step primaryChild = children.get(0);
-        LayoutResult primaryResult = placeRecursive(primaryChild, currentX, nextY);
-
-        int nextAvailableY = primaryResult.nextY; // Y после главной ветки
-        int maxX = primaryResult.maxX;
 
-        // 4. Обработка Боковых Веток (Индекс 1+)
-        if (children.size() > 1) {
-
-            // X для первой боковой ветки:
-            // Самая правая точка, достигнутая в основной ветке (maxX) + 1 (зазор).
-            int nextBranchX = maxX + 1;
-
-            for (int i = 1; i < children.size(); i++) {
-                Step sideChild = children.get(i);
-
-                LayoutResult sideResult = placeRecursive(sideChild, nextBranchX, nextY);
+            if (f.phases[i] == PRIMARY) {
+                f.nextAvailableYs[i] = retY;
+                f.maxXs[i] = retX;
+                f.nextBranchXs[i] = retX + 1;
+            } else {
+                // Боковая ветка вернулась: самый низкий Y и следующая колонка
+                f.nextAvailableYs[i] = Math.max(f.nextAvailableYs[i], retY);
+                f.nextBranchXs[i] = retX + 1;
+                f.maxXs[i] = f.nextBranchXs[i] - 1;
+            }
 
-                // Обновляем Y: берем самый низкий Y
-                nextAvailableY = Math.max(nextAvailableY, sideResult.nextY);
+            // 4. Боковые ветки (индекс 1+)
+            int side = graph.nextFlow(f.edges[i]);
+            if (side != FlowGraph.NONE) {
+                f.edges[i] = side;
+                f.phases[i] = SIDE;
+                f.push(graph.target(side), f.nextBranchXs[i], currentY + 1);
+                continue;
+            }
 
-                // Обновляем X для следующей боковой ветки:
-                nextBranchX = sideResult.maxX + 1;
+            // 5. Узел слияния получает самый низкий Y
+            int primary = f.primaries[i];
+            if (mergePoints[primary] && (gridY[primary] == -1 || f.nextAvailableYs[i] > gridY[primary] + 1)) {
+                gridY[primary] = f.nextAvailableYs[i];
             }
-            // Обновляем maxX: он равен самой правой точке, достигнутой в боковых ветках
-            maxX = nextBranchX - 1;
+
+            // 6. Возврат: самый низкий Y и самый правый X
+            retY = gridY[primary];
+            retX = f.maxXs[i];
+            f.top--;
         }
+    }
 
-        // 5. Размещение узла слияния (`end`)
-        // Если следующий узел является слиянием, устанавливаем его Y на nextAvailableY.
-        // Это гарантирует, что end не "убежит" вверх.
-        Step nextStep = primaryChild;
-        if (mergePoints.contains(nextStep)) {
-            Tab mergeData = dataMap.get(nextStep);
-            if (mergeData.gridY == -1 || nextAvailableY > mergeData.gridY+1) {
-                // ПРИСВОЕНИЕ: Узел слияния получает самый низкий Y
-                mergeData.gridY = nextAvailableY;
+    // --- Шаг 3: Координаты в результат ---
+    private static void applyLayoutCoordinates(FlowGraph graph, int root, LayoutContext context,
+                                               int[] gridX, int[] gridY, int capacity) {
+        double rootX = graph.x(root);
+        double rootY = graph.y(root);
+        for (int step = 0; step < capacity; step++) {
+            if (gridX[step] != -1 && gridY[step] != -1) {
+                context.place(step, rootX + gridX[step] * X_STEP, rootY + gridY[step] * Y_STEP);
             }
-        } else {
-            // КЛЮЧЕВОЕ ИСПРАВЛЕНИЕ: Если следующий узел НЕ слияние,
-            // он уже был размещен главной веткой. Нам не нужно тут ничего делать.
         }
-
-        // 6. Возврат
-        // Возвращаем самый низкий Y и самый правый X
-        return new LayoutResult(dataMap.get(nextStep).gridY, maxX);
     }
 
-
-    // --- Шаг 3: Применение координат ---
-    private static void applyLayoutCoordinates(Step root, Map<Step, Tab> dataMap) {
-        Set<Step> allSteps = dataMap.keySet();
-
-        final double X_STEP = 130.0;
-        final double Y_STEP = Step.HEIGHT + Step.STEP;
-
-        for (Step step : allSteps) {
-            Tab data = dataMap.get(step);
-
-            if (data.gridX != -1 && data.gridY != -1) {
-                step.setLayoutX(root.getLayoutX() + data.gridX * X_STEP);
-                step.setLayoutY(root.getLayoutY() + data.gridY * Y_STEP);
+    /**
+     * Стек кадров обхода в параллельных массивах, живет в {@link LayoutContext}
+     */
+    static class Frames {
+        int top;
+        int[] steps = new int[64];
+        int[] xs = new int[64];
+        int[] ys = new int[64];
+        int[] phases = new int[64];
+        int[] edges = new int[64];
+        int[] primaries = new int[64];
+        int[] nextAvailableYs = new int[64];
+        int[] maxXs = new int[64];
+        int[] nextBranchXs = new int[64];
+
+        void push(int step, int x, int y) {
+            if (top == steps.length) {
+                int size = top * 2;
+                steps = Arrays.copyOf(steps, size);
+                xs = Arrays.copyOf(xs, size);
+                ys = Arrays.copyOf(ys, size);
+                phases = Arrays.copyOf(phases, size);
+                edges = Arrays.copyOf(edges, size);
+                primaries = Arrays.copyOf(primaries, size);
+                nextAvailableYs = Arrays.copyOf(nextAvailableYs, size);
+                maxXs = Arrays.copyOf(maxXs, size);
+                nextBranchXs = Arrays.copyOf(nextBranchXs, size);
             }
+            steps[top] = step;
+            xs[top] = x;
+            ys[top] = y;
+            phases[top] = ENTER;
+            top++;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,74 @@
+package com.alensoft.automator42.model.canvas;
+
+import com.alensoft.automator42.model.step.Step;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Выделенные узлы канваса (в порядке выделения). Групповые операции над ними -
+ * {@link Canvas#moveSelection}, {@link Canvas#alignSelection}, {@link Canvas#removeSelection}.
+ * <p>
+ * Удаленный со схемы узел выходит из выделения сам.
+ */
+public class Selection {
+    private final Set<Step> steps = new LinkedHashSet<>();
+
+    Selection() {
+    }
+
+    public void add(Step step) {
+        if (step != null) steps.add(step);
+    }
+
+    public void addAll(Collection<? extends Step> steps) {
+        for (Step step : steps) {
+            add(step);
+        }
+    }
+
+    public boolean remove(Step step) {
+        return steps.remove(step);
+    }
+
+    /**
+     * Добавить узел, если его нет в выделении, иначе убрать (щелчок с Ctrl)
+     */
+    public void toggle(Step step) {
+        if (!steps.remove(step)) add(step);
+    }
+
+    /**
+     * Заменить выделение (например, узлами из {@link Canvas#findSteps})
+     */
+    public void setAll(Collection<? extends Step> steps) {
+        this.steps.clear();
+        addAll(steps);
+    }
+
+    public void clear() {
+        steps.clear();
+    }
+
+    public boolean contains(Step step) {
+        return steps.contains(step);
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * Снимок выделенных узлов: его можно обходить, меняя схему
+     */
+    public List<Step> getSteps() {
+        return new ArrayList<>(steps);
+    }
+}
@@ -0,0 +1,116 @@
+package com.alensoft.automator42.model.canvas;
+
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.graph.SpatialGrid;
+import com.alensoft.automator42.model.step.Step;
+import javafx.beans.InvalidationListener;
+import javafx.beans.property.ReadOnlyProperty;
+import javafx.collections.ListChangeListener;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Пространственный индекс узлов-представлений канваса для поиска по точке и области.
+ * <p>
+ * Следит за детьми канваса: узел попадает в индекс, когда добавлен в дети, и
+ * выходит при удалении. Любой сдвиг или изменение размера (раскладка, перетаскивание)
+ * приходит одним общим слушателем boundsInParent и обновляет только этот узел.
+ */
+class StepIndex {
+    // Ячейка чуть больше самого крупного узла: точка проверяется в 1-4 ячейках
+    private static final double CELL_WIDTH = 2 * Step.WIDTH;
+    private static final double CELL_HEIGHT = 2 * Step.HEIGHT;
+
+    private final SpatialGrid grid = new SpatialGrid(CELL_WIDTH, CELL_HEIGHT);
+    private final Map<Step, Integer> slots = new HashMap<>();
+    private Step[] steps = new Step[16];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int top;
+    private final IntQueue found = new IntQueue();
+
+    private final InvalidationListener boundsListener =
+            obs -> moved((Step) ((ReadOnlyProperty<?>) obs).getBean());
+
+    StepIndex(List<Node> children) {
+        for (Node node : children) {
+            if (node instanceof Step step) added(step);
+        }
+    }
+
+    ListChangeListener<Node> childrenListener() {
+        return change -> {
+            while (change.next()) {
+                if (change.wasPermutated()) continue;
+                for (Node node : change.getRemoved()) {
+                    if (node instanceof Step step) removed(step);
+                }
+                for (Node node : change.getAddedSubList()) {
+                    if (node instanceof Step step) added(step);
+                }
+            }
+        };
+    }
+
+    /**
+     * Узел, содержащий точку в координатах канваса, или null
+     */
+    Step find(double x, double y) {
+        int slot = grid.find(x, y);
+        return slot == FlowGraph.NONE ? null : steps[slot];
+    }
+
+    /**
+     * Узлы, пересекающие область в координатах канваса
+     */
+    List<Step> find(Bounds area) {
+        found.clear();
+        grid.query(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY(), found);
+        List<Step> result = new ArrayList<>(found.size());
+        while (!found.isEmpty()) {
+            result.add(steps[found.poll()]);
+        }
+        return result;
+    }
+
+    private void added(Step step) {
+        if (slots.containsKey(step)) {
+            moved(step);
+            return;
+        }
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : top++;
+        if (slot == steps.length) {
+            steps = Arrays.copyOf(steps, slot * 2);
+        }
+        steps[slot] = step;
+        slots.put(step, slot);
+        step.boundsInParentProperty().addListener(boundsListener);
+        moved(step);
+    }
+
+    private void removed(Step step) {
+        Integer slot = slots.remove(step);
+        if (slot == null) return;
+        step.boundsInParentProperty().removeListener(boundsListener);
+        grid.remove(slot);
+        steps[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void moved(Step step) {
+        Integer slot = slots.get(step);
+        if (slot == null) return;
+        Bounds b = step.getBoundsInParent();
+        grid.put(slot, b.getMinX(), b.getMinY(), b.getWidth(), b.getHeight());
+    }
+}
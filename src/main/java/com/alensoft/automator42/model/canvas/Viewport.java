@@ -0,0 +1,176 @@
+package com.alensoft.automator42.model.canvas;
+
+import com.alensoft.automator42.model.connection.Connect;
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.GraphListener;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.graph.SpatialGrid;
+import com.alensoft.automator42.model.step.Step;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Видимая область виртуального канваса: какие узлы и стрелки сейчас должны быть
+ * в сцене. Модель (граф, узлы-представления, соединения) остается целиком, в детях
+ * канваса - только то, что пересекает область с запасом {@link #MARGIN}.
+ * <p>
+ * Узлы ищутся по сетке над координатами из графа, стрелки - как связи видимых
+ * узлов плюс "длинные" связи (концы дальше запаса друг от друга), которые могут
+ * пересечь область, не имея в ней ни одного конца. {@link #refresh} стоит
+ * O(видимое + длинные связи), а не O(размер схемы).
+ */
+class Viewport implements GraphListener {
+    static final double MARGIN = 2 * Step.WIDTH;
+
+    private final FlowGraph graph;
+    private final SpatialGrid steps = new SpatialGrid(2 * Step.WIDTH, 2 * Step.HEIGHT);
+
+    // Длинные связи: список с индексом позиции для удаления за O(1)
+    private int[] longEdges = new int[16];
+    private int longCount;
+    private int[] longIndex = new int[0];
+
+    private Set<Node> attached = new HashSet<>();
+    private Set<Node> visible = new HashSet<>();
+    private final IntQueue found = new IntQueue();
+
+    Viewport(FlowGraph graph) {
+        this.graph = graph;
+        for (int id = 0; id < graph.stepCapacity(); id++) {
+            if (graph.contains(id)) stepMoved(id);
+        }
+        for (int edge = 0; edge < graph.edgeCapacity(); edge++) {
+            if (graph.containsEdge(edge)) checkLength(edge);
+        }
+    }
+
+    /**
+     * Пересчитать видимое для области (координаты канваса): что добавить в сцену
+     * и что из нее убрать по сравнению с прошлым разом
+     */
+    void refresh(Bounds area, List<Node> shown, List<Node> hidden) {
+        double minX = area.getMinX() - MARGIN;
+        double minY = area.getMinY() - MARGIN;
+        double maxX = area.getMaxX() + MARGIN;
+        double maxY = area.getMaxY() + MARGIN;
+
+        visible.clear();
+        found.clear();
+        steps.query(minX, minY, maxX, maxY, found);
+        while (!found.isEmpty()) {
+            int id = found.poll();
+            if (!(graph.attachment(id) instanceof Step step)) continue;
+            visible.add(step);
+            for (int e = graph.firstOut(id); e != FlowGraph.NONE; e = graph.nextOut(e)) {
+                addArrow(e);
+            }
+            for (int e = graph.firstIn(id); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+                addArrow(e);
+            }
+        }
+        for (int i = 0; i < longCount; i++) {
+            int edge = longEdges[i];
+            int source = graph.source(edge);
+            int target = graph.target(edge);
+            if (Math.min(graph.x(source), graph.x(target)) <= maxX
+                    && Math.max(graph.x(source), graph.x(target)) + Step.WIDTH >= minX
+                    && Math.min(graph.y(source), graph.y(target)) <= maxY
+                    && Math.max(graph.y(source), graph.y(target)) + Step.HEIGHT >= minY) {
+                addArrow(edge);
+            }
+        }
+
+        for (Node node : attached) {
+            if (!visible.contains(node)) hidden.add(node);
+        }
+        for (Node node : visible) {
+            if (!attached.contains(node)) shown.add(node);
+        }
+        Set<Node> previous = attached;
+        attached = visible;
+        visible = previous;
+    }
+
+    /**
+     * Все, что сейчас показано. Узел, добавленный в сцену в обход refresh, надо добавить сюда.
+     */
+    Set<Node> attached() {
+        return attached;
+    }
+
+    private void addArrow(int edge) {
+        if (graph.edgeAttachment(edge) instanceof Connect con && con.getArrow() != null) {
+            visible.add(con.getArrow());
+        }
+    }
+
+    // ============= СОБЫТИЯ ГРАФА =============
+
+    @Override
+    public void stepMoved(int step) {
+        steps.put(step, graph.x(step), graph.y(step), Step.WIDTH, Step.HEIGHT);
+        for (int e = graph.firstOut(step); e != FlowGraph.NONE; e = graph.nextOut(e)) {
+            checkLength(e);
+        }
+        for (int e = graph.firstIn(step); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+            checkLength(e);
+        }
+    }
+
+    @Override
+    public void stepAdded(int step) {
+        stepMoved(step);
+    }
+
+    @Override
+    public void stepRemoved(int step) {
+        steps.remove(step);
+    }
+
+    @Override
+    public void edgeAdded(int edge) {
+        checkLength(edge);
+    }
+
+    @Override
+    public void edgeRemoved(int edge, int source, int target, EdgeType type) {
+        dropLong(edge);
+    }
+
+    private void checkLength(int edge) {
+        int source = graph.source(edge);
+        int target = graph.target(edge);
+        boolean isLong = Math.abs(graph.x(source) - graph.x(target)) > MARGIN
+                || Math.abs(graph.y(source) - graph.y(target)) > MARGIN;
+        if (edge >= longIndex.length) {
+            int size = Math.max(edge + 1, longIndex.length * 2);
+            int from = longIndex.length;
+            longIndex = Arrays.copyOf(longIndex, size);
+            Arrays.fill(longIndex, from, size, -1);
+        }
+        if (isLong && longIndex[edge] < 0) {
+            if (longCount == longEdges.length) {
+                longEdges = Arrays.copyOf(longEdges, longCount * 2);
+            }
+            longIndex[edge] = longCount;
+            longEdges[longCount++] = edge;
+        } else if (!isLong) {
+            dropLong(edge);
+        }
+    }
+
+    private void dropLong(int edge) {
+        if (edge >= longIndex.length || longIndex[edge] < 0) return;
+        int at = longIndex[edge];
+        int last = longEdges[--longCount];
+        longEdges[at] = last;
+        longIndex[last] = at;
+        longIndex[edge] = -1;
+    }
+}
@@ -0,0 +1,45 @@
+package com.alensoft.automator42.model.connection;
+
+import com.alensoft.automator42.model.line.Arrow;
+import com.alensoft.automator42.model.line.ArrowType;
+import javafx.beans.value.ObservableObjectValue;
+import javafx.geometry.Point2D;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.layout.Pane;
+
+/**
+ * Куда ConManager добавляет стрелки соединений и откуда их убирает
+ */
+public interface ArrowHost {
+
+    void addArrow(Node arrow);
+
+    void removeArrow(Node arrow);
+
+    /**
+     * Узел стрелки для нового соединения. null - стрелки рисует кто-то другой
+     * (например, {@link com.alensoft.automator42.model.line.EdgeLayer}), соединение без узла.
+     */
+    default Group createArrow(ObservableObjectValue<Point2D> start, ObservableObjectValue<Point2D> end, ArrowType direction) {
+        return new Arrow(start, end, direction);
+    }
+
+    /**
+     * Стрелки сразу в детях панели, за узлами
+     */
+    static ArrowHost of(Pane pane) {
+        return new ArrowHost() {
+            @Override
+            public void addArrow(Node arrow) {
+                pane.getChildren().add(arrow);
+                arrow.toBack(); // Стрелки за узлами
+            }
+
+            @Override
+            public void removeArrow(Node arrow) {
+                pane.getChildren().remove(arrow);
+            }
+        };
+    }
+}
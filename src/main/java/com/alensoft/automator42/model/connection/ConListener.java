@@ -0,0 +1,11 @@
+package com.alensoft.automator42.model.connection;
+
+/**
+ * Наблюдатель за созданием и удалением соединений в ConManager
+ */
+public interface ConListener {
+
+    void conCreated(Connect con);
+
+    void conRemoved(Connect con);
+}
@@ -1,23 +1,36 @@
 package com.alensoft.automator42.model.connection;
 
-import com.alensoft.automator42.model.line.Arrow;
+import com.alensoft.automator42.model.graph.FlowGraph;
 import com.alensoft.automator42.model.step.Step;
-import javafx.beans.property.ObjectProperty;
+import javafx.beans.value.ObservableObjectValue;
 import javafx.geometry.Point2D;
 import javafx.scene.Group;
 import javafx.scene.layout.Pane;
 
-import java.util.Arrays;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Stream;
 
 public class ConManager {
-    private final Pane canvas;
+    private final ArrowHost host;
+    private final FlowGraph graph;
+    private final List<ConListener> listeners = new ArrayList<>();
 
-    public ConManager(Pane canvas) {
-        this.canvas = canvas;
+    public ConManager(Pane canvas, FlowGraph graph) {
+        this(ArrowHost.of(canvas), graph);
+    }
+
+    public ConManager(ArrowHost host, FlowGraph graph) {
+        this.host = host;
+        this.graph = graph;
+    }
+
+    public void addListener(ConListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ConListener listener) {
+        listeners.remove(listener);
     }
 
     public Connect createCon(Step source, Step target, ConType type) {
@@ -28,27 +41,31 @@ public class ConManager {
         if (source == target) {
             throw new IllegalArgumentException("Cannot connect step to itself");
         }
-        Optional<Connect> exists = getCon(source, target, type);
-        // Проверка на дублирование
-        if (exists.isPresent()) {
-            return exists.get();
+        // Проверка на дублирование (O(1) по индексу графа)
+        int exists = graph.find(source.getStepId(), target.getStepId(), type.getEdgeType());
+        if (exists != FlowGraph.NONE && graph.edgeAttachment(exists) instanceof Connect con) {
+            return con;
         }
 
+        // Сохранить связь в граф (проверит, что оба узла в нем)
+        int edge = graph.connect(source.getStepId(), target.getStepId(), type.getEdgeType());
+
         // Получить точки подключения
-        ObjectProperty<Point2D> startPoint = type.getSourcePoint(source);
-        ObjectProperty<Point2D> endPoint = type.getTargetPoint(target);
+        ObservableObjectValue<Point2D> startPoint = type.getSourcePoint(source);
+        ObservableObjectValue<Point2D> endPoint = type.getTargetPoint(target);
 
         // Создать стрелку
-        Group arrow = new Arrow(startPoint, endPoint, type.getDirection());
-        canvas.getChildren().add(arrow);
-        arrow.toBack(); // Стрелки за узлами
+        Group arrow = host.createArrow(startPoint, endPoint, type.getDirection());
+        if (arrow != null) {
+            host.addArrow(arrow);
+        }
 
         // Создать соединение
-        Connect con = new Connect(source, target, type, arrow);
-
-        // Сохранить в карты
-        source.out().add(con);
-        target.in().add(con);
+        Connect con = new Connect(source, target, type, arrow, edge);
+        graph.setEdgeAttachment(edge, con);
+        for (ConListener listener : listeners) {
+            listener.conCreated(con);
+        }
         return con;
     }
 
@@ -58,56 +75,92 @@ public class ConManager {
     public void removeCon(Connect con) {
         if (con == null) return;
 
-        Step source = con.getSource();
-        Step target = con.getTarget();
+        // Id связи может быть уже переиспользован - удаляем только свою
+        if (graph.edgeAttachment(con.getEdge()) != con) return;
+        graph.disconnect(con.getEdge());
 
-        if (source != null) {
-            source.out().remove(con);
+        // Удалить с канваса
+        if (con.getArrow() != null) {
+            host.removeArrow(con.getArrow());
         }
-
-        if (target != null) {
-            target.in().remove(con);
+        for (ConListener listener : listeners) {
+            listener.conRemoved(con);
         }
-
-        // Удалить с канваса
-        canvas.getChildren().remove(con.getArrow());
     }
 
     /**
      * Удалить все соединения узла
      */
     public void removeAllCons(Step step) {
-        if (step == null) return;
-        List<Connect> prepareAll = Stream.of(step.in(), step.out())
-                .flatMap(Collection::stream)
-                .toList();
-        //not merge! Concurrent modification exception
-        prepareAll.forEach(this::removeCon);
+        if (step == null || step.getGraph() != graph) return;
+        int id = step.getStepId();
+        while (graph.firstIn(id) != FlowGraph.NONE) {
+            removeEdge(graph.firstIn(id));
+        }
+        while (graph.firstOut(id) != FlowGraph.NONE) {
+            removeEdge(graph.firstOut(id));
+        }
+    }
+
+    private void removeEdge(int edge) {
+        if (graph.edgeAttachment(edge) instanceof Connect con) {
+            removeCon(con);
+        } else {
+            graph.disconnect(edge);
+        }
     }
 
 
     /**
-     * Получить конкретное соединение
+     * Получить конкретное соединение (O(1) по индексу графа)
      */
     public Optional<Connect> getCon(Step source, Step target, ConType type) {
         return source == null || target == null
                 ? Optional.empty()
-                : source.out().stream()
-                .filter(c -> c.getTarget().equals(target) && c.getType() == type)
-                .findAny();
+                : toCon(graph.find(source.getStepId(), target.getStepId(), type.getEdgeType()));
     }
 
     /**
-     * Получить соединение определенного типа от узла
+     * Получить соединение определенного типа от узла (без аллокаций)
      */
-    public Optional<Connect> getConByType(Step source, ConType... types) {
-        return source == null
-                ? Optional.empty()
-                : source.out().stream()
-                .filter(c -> Arrays.asList(types).contains(c.getType()))
-                .findFirst();
+    public Optional<Connect> getConByType(Step source, ConType type) {
+        return isOwn(source)
+                ? toCon(graph.firstOut(source.getStepId(), type.getEdgeType()))
+                : Optional.empty();
+    }
+
+    /**
+     * Первое по созданию соединение одного из двух типов (без аллокаций)
+     */
+    public Optional<Connect> getConByType(Step source, ConType first, ConType second) {
+        return isOwn(source)
+                ? toCon(graph.firstOut(source.getStepId(), first.getEdgeType(), second.getEdgeType()))
+                : Optional.empty();
+    }
 
+    /**
+     * Получить соединение определенного типа от узла: первое по созданию среди типов
+     */
+    public Optional<Connect> getConByType(Step source, ConType... types) {
+        if (!isOwn(source)) return Optional.empty();
+        int found = FlowGraph.NONE;
+        for (ConType type : types) {
+            int edge = graph.firstOut(source.getStepId(), type.getEdgeType());
+            if (edge != FlowGraph.NONE
+                && (found == FlowGraph.NONE || graph.serial(edge) - graph.serial(found) < 0)) {
+                found = edge;
+            }
+        }
+        return toCon(found);
     }
 
+    private boolean isOwn(Step step) {
+        return step != null && step.getGraph() == graph;
+    }
 
-}
\ No newline at end of file
+    private Optional<Connect> toCon(int edge) {
+        return edge != FlowGraph.NONE && graph.edgeAttachment(edge) instanceof Connect con
+                ? con.asOptional()
+                : Optional.empty();
+    }
+}
@@ -89,7 +89,8 @@ public class ConTool {
 
         if (targetStep != null && targetStep != sourceStep) {
             try {
-                conManager.createCon(sourceStep, targetStep, conType);
+                // Через транзакцию канваса - связь можно отменить
+                canvas.batch(() -> conManager.createCon(sourceStep, targetStep, conType));
             } catch (IllegalArgumentException ex) {
                 System.err.println("Cannot create con: " + ex.getMessage());
             }
@@ -120,12 +121,8 @@ public class ConTool {
      * Найти узел в указанных координатах
      */
     private Step findStepAt(double sceneX, double sceneY) {
-        return canvas.getChildren().stream()
-                .filter(step -> step instanceof Step)
-                .map(step -> (Step) step)
-                .filter(step -> step.getBoundsInParent().contains(sceneX, sceneY))
-                .findFirst()
-                .orElse(null);
+        Point2D point = canvas.sceneToLocal(sceneX, sceneY);
+        return canvas.findStepAt(point.getX(), point.getY());
     }
 
     /**
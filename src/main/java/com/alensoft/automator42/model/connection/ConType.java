@@ -1,8 +1,9 @@
 package com.alensoft.automator42.model.connection;
 
+import com.alensoft.automator42.model.graph.EdgeType;
 import com.alensoft.automator42.model.step.Step;
 import com.alensoft.automator42.model.line.ArrowType;
-import javafx.beans.property.ObjectProperty;
+import javafx.beans.value.ObservableObjectValue;
 import javafx.geometry.Point2D;
 
 /**
@@ -37,43 +38,79 @@ public enum ConType implements Comparable<ConType> {
         return label;
     }
 
-    public ObjectProperty<Point2D> getSourcePoint(Step step) {
+    /**
+     * Тип связи в headless-графе (совпадает по имени и порядку)
+     */
+    public EdgeType getEdgeType() {
+        return EdgeType.values()[ordinal()];
+    }
+
+    public static ConType of(EdgeType type) {
+        return values()[type.ordinal()];
+    }
+
+    public ObservableObjectValue<Point2D> getSourcePoint(Step step) {
         return sourceAnchor.getPoint(step);
     }
 
-    public ObjectProperty<Point2D> getTargetPoint(Step step) {
+    public ObservableObjectValue<Point2D> getTargetPoint(Step step) {
         return targetAnchor.getPoint(step);
     }
 
+    public AnchorPoint getSourceAnchor() {
+        return sourceAnchor;
+    }
+
+    public AnchorPoint getTargetAnchor() {
+        return targetAnchor;
+    }
+
     /**
-     * Точки подключения на узле
+     * Точки подключения на узле. Доли ширины и высоты (fx, fy) - для расчетов
+     * по координатам модели, без узла-представления.
      */
     public enum AnchorPoint {
-        TOP {
+        TOP(0.5, 0) {
             @Override
-            public ObjectProperty<Point2D> getPoint(Step step) {
+            public ObservableObjectValue<Point2D> getPoint(Step step) {
                 return step.getTop();
             }
         },
-        BOTTOM {
+        BOTTOM(0.5, 1) {
             @Override
-            public ObjectProperty<Point2D> getPoint(Step step) {
+            public ObservableObjectValue<Point2D> getPoint(Step step) {
                 return step.getBottom();
             }
         },
-        LEFT {
+        LEFT(0, 0.5) {
             @Override
-            public ObjectProperty<Point2D> getPoint(Step step) {
+            public ObservableObjectValue<Point2D> getPoint(Step step) {
                 return step.getLeft();
             }
         },
-        RIGHT {
+        RIGHT(1, 0.5) {
             @Override
-            public ObjectProperty<Point2D> getPoint(Step step) {
+            public ObservableObjectValue<Point2D> getPoint(Step step) {
                 return step.getRight();
             }
         };
 
-        public abstract ObjectProperty<Point2D> getPoint(Step step);
+        private final double fx;
+        private final double fy;
+
+        AnchorPoint(double fx, double fy) {
+            this.fx = fx;
+            this.fy = fy;
+        }
+
+        public double fx() {
+            return fx;
+        }
+
+        public double fy() {
+            return fy;
+        }
+
+        public abstract ObservableObjectValue<Point2D> getPoint(Step step);
     }
 }
\ No newline at end of file
@@ -3,17 +3,23 @@ package com.alensoft.automator42.model.connection;
 import com.alensoft.automator42.model.step.Step;
 import javafx.scene.Group;
 
+import java.util.Optional;
+
 /**
  * Представляет соединение между двумя узлами.
  * Отделяет логику связей от узлов (SRP).
+ * Сама связь хранится в FlowGraph, здесь - ее представление со стрелкой.
  */
 public class Connect implements Comparable<Connect> {
     private final Step source;
     private final Step target;
     private final ConType type;
     private final Group arrow;
+    private final int edge;
+    // Готовый Optional для поиска без аллокаций в ConManager
+    private final Optional<Connect> optional = Optional.of(this);
 
-    public Connect(Step source, Step target, ConType type, Group arrow) {
+    public Connect(Step source, Step target, ConType type, Group arrow, int edge) {
         if (source == null || target == null) {
             throw new IllegalArgumentException("Source and target steps cannot be null");
         }
@@ -21,6 +27,7 @@ public class Connect implements Comparable<Connect> {
         this.target = target;
         this.type = type;
         this.arrow = arrow;
+        this.edge = edge;
     }
 
     public Step getSource() {
@@ -39,6 +46,17 @@ public class Connect implements Comparable<Connect> {
         return arrow;
     }
 
+    /**
+     * Id связи в FlowGraph
+     */
+    public int getEdge() {
+        return edge;
+    }
+
+    Optional<Connect> asOptional() {
+        return optional;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
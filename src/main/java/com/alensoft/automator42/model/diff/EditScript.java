@@ -0,0 +1,228 @@
+package com.alensoft.automator42.model.diff;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.StepKind;
+
+import java.util.Arrays;
+
+/**
+ * Сценарий правок, переводящий одну версию схемы в другую ({@link FlowDiff#diff}).
+ * Операции идут в порядке применения: снятие связей, удаление узлов, смена текстов,
+ * новые узлы, новые связи. Связи удаленных узлов отдельно не снимаются.
+ * <p>
+ * Узел в операции - id в исходном графе или ссылка на новый узел сценария
+ * ({@link #added(int)}); отличить их можно через {@link #isAdded(int)}.
+ * Операции хранятся в параллельных массивах.
+ */
+public final class EditScript {
+
+    public enum Op {
+        DISCONNECT, REMOVE_STEP, RELABEL, ADD_STEP, CONNECT
+    }
+
+    private static final Op[] OPS = Op.values();
+    private static final StepKind[] STEP_KINDS = StepKind.values();
+    private static final EdgeType[] EDGE_TYPES = EdgeType.values();
+
+    private byte[] ops = new byte[16];
+    private int[] firsts = new int[16];     // узел или source
+    private int[] seconds = new int[16];    // target
+    private byte[] kinds = new byte[16];    // StepKind для ADD_STEP, EdgeType для связей
+    private String[] texts = new String[16];
+    private double[] xs = new double[16];
+    private double[] ys = new double[16];
+    private int size;
+    private int addedCount;
+
+    EditScript() {
+    }
+
+    /**
+     * Ссылка на index-й новый узел сценария
+     */
+    public static int added(int index) {
+        return -2 - index;
+    }
+
+    public static boolean isAdded(int step) {
+        return step < FlowGraph.NONE;
+    }
+
+    public static int addedIndex(int step) {
+        return -2 - step;
+    }
+
+    // ============= ЗАПИСЬ =============
+
+    void disconnect(int source, int target, EdgeType type) {
+        append(Op.DISCONNECT, source, target, type.ordinal(), null, 0, 0);
+    }
+
+    void removeStep(int step) {
+        append(Op.REMOVE_STEP, step, FlowGraph.NONE, 0, null, 0, 0);
+    }
+
+    void relabel(int step, String text) {
+        append(Op.RELABEL, step, FlowGraph.NONE, 0, text, 0, 0);
+    }
+
+    /**
+     * @return ссылка на новый узел для последующих {@link #connect}
+     */
+    int addStep(StepKind kind, String text, double x, double y) {
+        int step = added(addedCount++);
+        append(Op.ADD_STEP, step, FlowGraph.NONE, kind.ordinal(), text, x, y);
+        return step;
+    }
+
+    void connect(int source, int target, EdgeType type) {
+        append(Op.CONNECT, source, target, type.ordinal(), null, 0, 0);
+    }
+
+    private void append(Op op, int first, int second, int kind, String text, double x, double y) {
+        if (size == ops.length) {
+            int capacity = size * 2;
+            ops = Arrays.copyOf(ops, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            seconds = Arrays.copyOf(seconds, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+        }
+        ops[size] = (byte) op.ordinal();
+        firsts[size] = first;
+        seconds[size] = second;
+        kinds[size] = (byte) kind;
+        texts[size] = text;
+        xs[size] = x;
+        ys[size++] = y;
+    }
+
+    // ============= ЧТЕНИЕ =============
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Сколько новых узлов создает сценарий
+     */
+    public int addedCount() {
+        return addedCount;
+    }
+
+    public Op op(int i) {
+        return OPS[ops[i]];
+    }
+
+    /**
+     * Узел операции над узлом (для ADD_STEP - ссылка {@link #added})
+     */
+    public int step(int i) {
+        return firsts[i];
+    }
+
+    public int source(int i) {
+        return firsts[i];
+    }
+
+    public int target(int i) {
+        return seconds[i];
+    }
+
+    public EdgeType edgeType(int i) {
+        return EDGE_TYPES[kinds[i]];
+    }
+
+    public StepKind stepKind(int i) {
+        return STEP_KINDS[kinds[i]];
+    }
+
+    /**
+     * Текст нового узла или новый текст для RELABEL
+     */
+    public String text(int i) {
+        return texts[i];
+    }
+
+    public double x(int i) {
+        return xs[i];
+    }
+
+    public double y(int i) {
+        return ys[i];
+    }
+
+    // ============= ПРИМЕНЕНИЕ =============
+
+    /**
+     * Применить сценарий к исходному графу (или его копии - id те же)
+     *
+     * @return id новых узлов в графе по номерам {@link #addedIndex}
+     * @throws IllegalArgumentException если граф не совпадает с исходным сценария
+     */
+    public int[] apply(FlowGraph graph) {
+        int[] added = new int[addedCount];
+        for (int i = 0; i < size; i++) {
+            switch (op(i)) {
+                case DISCONNECT -> {
+                    int edge = graph.find(firsts[i], seconds[i], edgeType(i));
+                    if (edge == FlowGraph.NONE) {
+                        throw new IllegalArgumentException("Graph has no connection " + firsts[i]
+                                + " -> " + seconds[i] + " " + edgeType(i));
+                    }
+                    graph.disconnect(edge);
+                }
+                case REMOVE_STEP -> graph.removeStep(existing(graph, firsts[i]));
+                case RELABEL -> graph.setText(existing(graph, firsts[i]), texts[i]);
+                case ADD_STEP -> {
+                    int id = graph.addStep(stepKind(i), texts[i]);
+                    graph.setPosition(id, xs[i], ys[i]);
+                    added[addedIndex(firsts[i])] = id;
+                }
+                case CONNECT -> graph.connect(resolve(graph, firsts[i], added),
+                        resolve(graph, seconds[i], added), edgeType(i));
+            }
+        }
+        return added;
+    }
+
+    private static int resolve(FlowGraph graph, int step, int[] added) {
+        return isAdded(step) ? added[addedIndex(step)] : existing(graph, step);
+    }
+
+    private static int existing(FlowGraph graph, int step) {
+        if (!graph.contains(step)) {
+            throw new IllegalArgumentException("Graph has no step " + step);
+        }
+        return step;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("EditScript{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(op(i)).append(' ');
+            switch (op(i)) {
+                case DISCONNECT, CONNECT -> sb.append(ref(firsts[i])).append("->").append(ref(seconds[i]))
+                        .append(' ').append(edgeType(i));
+                case REMOVE_STEP -> sb.append(ref(firsts[i]));
+                case RELABEL -> sb.append(ref(firsts[i])).append(" \"").append(texts[i]).append('"');
+                case ADD_STEP -> sb.append(ref(firsts[i])).append(' ').append(stepKind(i))
+                        .append(" \"").append(texts[i]).append('"');
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String ref(int step) {
+        return isAdded(step) ? "+" + addedIndex(step) : String.valueOf(step);
+    }
+}
@@ -0,0 +1,359 @@
+package com.alensoft.automator42.model.diff;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.graph.LongIntMap;
+import com.alensoft.automator42.model.graph.StepKind;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Структурное сравнение двух версий схемы за почти линейное время.
+ * <p>
+ * Узлы версий сопоставляются так:
+ * <ol>
+ *   <li>якоря - единственные Begin и End, а также узлы, чья метка уникальна в обеих версиях:
+ *   сначала (вид, текст), затем окрестность все большего радиуса ({@link #labels});</li>
+ *   <li>от сопоставленных пар обход по связям одного типа в обе стороны: соседи-одиночки
+ *   сопоставляются, если совпадают их метки - сначала самые глубокие, затем все мельче,
+ *   а при нескольких связях одного типа - по уникальному тексту;</li>
+ *   <li>когда таких пар не осталось, одиночки сопоставляются по одному виду - это узлы
+ *   со сменой текста; от них снова идет строгий обход.</li>
+ * </ol>
+ * Каждая пара расширяется не больше LEVELS + 1 раз, поэтому время - O(LEVELS * (узлы + связи))
+ * плюс хеширование текстов. Несопоставленные узлы считаются удаленными и добавленными.
+ * Координаты не сравниваются - их задает раскладка.
+ */
+public final class FlowDiff {
+    private static final EdgeType[] EDGE_TYPES = EdgeType.values();
+    // Уровни меток окрестности: 0 - сам узел, LEVELS - 1 - радиус LEVELS - 1
+    static final int LEVELS = 8;
+
+    private FlowDiff() {
+    }
+
+    /**
+     * Сценарий, переводящий from в to. Применяется к from или его копии.
+     */
+    public static EditScript diff(FlowGraph from, FlowGraph to) {
+        int[] toB = match(from, to);
+        int[] toA = new int[to.stepCapacity()];
+        Arrays.fill(toA, FlowGraph.NONE);
+        for (int step = 0; step < toB.length; step++) {
+            if (toB[step] != FlowGraph.NONE) toA[toB[step]] = step;
+        }
+        EditScript script = new EditScript();
+
+        // Снять связи между сохраненными узлами, которых в to нет (связи удаленных уйдут с ними).
+        // Хватает наличия: FlowGraph.connect не создает вторую связь того же типа между парой узлов
+        for (int edge = 0; edge < from.edgeCapacity(); edge++) {
+            if (!from.containsEdge(edge)) continue;
+            int source = toB[from.source(edge)];
+            int target = toB[from.target(edge)];
+            if (source != FlowGraph.NONE && target != FlowGraph.NONE
+                    && to.find(source, target, from.type(edge)) == FlowGraph.NONE) {
+                script.disconnect(from.source(edge), from.target(edge), from.type(edge));
+            }
+        }
+        for (int step = 0; step < from.stepCapacity(); step++) {
+            if (from.contains(step) && toB[step] == FlowGraph.NONE) {
+                script.removeStep(step);
+            }
+        }
+        for (int step = 0; step < from.stepCapacity(); step++) {
+            if (from.contains(step) && toB[step] != FlowGraph.NONE
+                    && !Objects.equals(from.text(step), to.text(toB[step]))) {
+                script.relabel(step, to.text(toB[step]));
+            }
+        }
+
+        // Новые узлы; дальше toA ссылается на сохраненный узел from или новый узел сценария
+        for (int step = 0; step < to.stepCapacity(); step++) {
+            if (to.contains(step) && toA[step] == FlowGraph.NONE) {
+                toA[step] = script.addStep(to.kind(step), to.text(step), to.x(step), to.y(step));
+            }
+        }
+        // Новые связи - в порядке создания в to: первая связь слота остается первой
+        long[] added = new long[16];
+        int count = 0;
+        for (int edge = 0; edge < to.edgeCapacity(); edge++) {
+            if (!to.containsEdge(edge)) continue;
+            int source = toA[to.source(edge)];
+            int target = toA[to.target(edge)];
+            if (EditScript.isAdded(source) || EditScript.isAdded(target)
+                    || from.find(source, target, to.type(edge)) == FlowGraph.NONE) {
+                if (count == added.length) {
+                    added = Arrays.copyOf(added, count * 2);
+                }
+                added[count++] = (long) to.serial(edge) << 32 | edge;
+            }
+        }
+        Arrays.sort(added, 0, count);
+        for (int i = 0; i < count; i++) {
+            int edge = (int) added[i];
+            script.connect(toA[to.source(edge)], toA[to.target(edge)], to.type(edge));
+        }
+        return script;
+    }
+
+    /**
+     * Сопоставить узлы версий
+     *
+     * @return для каждого id узла from - id узла to или NONE
+     */
+    public static int[] match(FlowGraph from, FlowGraph to) {
+        Matcher matcher = new Matcher(from, to);
+        matcher.anchor();
+        matcher.propagate();
+        return matcher.toB;
+    }
+
+    /**
+     * Метки окрестностей узлов: level 0 - (вид, текст), level k - метка k-1 вместе с
+     * метками k-1 соседей по типам связей (уточнение Вейсфейлера - Лемана). Равные
+     * метки уровня k - одинаковая окрестность радиуса k (с точностью до коллизий хеша).
+     */
+    static long[][] labels(FlowGraph graph) {
+        int capacity = graph.stepCapacity();
+        long[][] labels = new long[LEVELS][capacity];
+        for (int step = 0; step < capacity; step++) {
+            if (!graph.contains(step)) continue;
+            String text = graph.text(step);
+            labels[0][step] = mix((long) graph.kind(step).ordinal() << 32 | (text == null ? 0 : text.hashCode()) & 0xFFFFFFFFL);
+        }
+        for (int level = 1; level < LEVELS; level++) {
+            long[] previous = labels[level - 1];
+            long[] next = labels[level];
+            for (int step = 0; step < capacity; step++) {
+                if (!graph.contains(step)) continue;
+                // Сумма - метка не зависит от порядка связей
+                long around = 0;
+                for (int e = graph.firstOut(step); e != FlowGraph.NONE; e = graph.nextOut(e)) {
+                    around += mix(previous[graph.target(e)] + graph.type(e).ordinal() + 1);
+                }
+                for (int e = graph.firstIn(step); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+                    around += mix(previous[graph.source(e)] - graph.type(e).ordinal() - 1);
+                }
+                next[step] = mix(previous[step] * 31 + around);
+            }
+        }
+        for (long[] level : labels) {
+            for (int step = 0; step < capacity; step++) {
+                // Long.MIN_VALUE - пустой ключ LongIntMap
+                if (level[step] == Long.MIN_VALUE) level[step]++;
+            }
+        }
+        return labels;
+    }
+
+    // Финализатор SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private record Key(StepKind kind, String text) {
+    }
+
+    private static final class Matcher {
+        private static final int DUPLICATE = -2;
+        // Очереди пар по строгости: уровни меток от глубокого к 0, затем только вид
+        private static final int RELAXED = LEVELS;
+
+        final FlowGraph a;
+        final FlowGraph b;
+        final long[][] labelsA;
+        final long[][] labelsB;
+        final int[] toB;
+        final int[] toA;
+        final IntQueue[] queues = new IntQueue[LEVELS + 1];
+        // Несопоставленные соседи пары по одному типу связи
+        int[] neighborsA = new int[8];
+        int[] neighborsB = new int[8];
+        int countA;
+        int countB;
+
+        Matcher(FlowGraph a, FlowGraph b) {
+            this.a = a;
+            this.b = b;
+            labelsA = labels(a);
+            labelsB = labels(b);
+            toB = new int[a.stepCapacity()];
+            toA = new int[b.stepCapacity()];
+            Arrays.fill(toB, FlowGraph.NONE);
+            Arrays.fill(toA, FlowGraph.NONE);
+            for (int i = 0; i < queues.length; i++) {
+                queues[i] = new IntQueue();
+            }
+        }
+
+        /**
+         * Якоря: единственные Begin и End, затем узлы с меткой, уникальной в обеих
+         * версиях - сначала по тексту, потом по все большей окрестности
+         */
+        void anchor() {
+            anchorSingle(StepKind.BEGIN);
+            anchorSingle(StepKind.END);
+            for (int level = 0; level < LEVELS; level++) {
+                LongIntMap uniqueA = unique(a, labelsA[level]);
+                LongIntMap uniqueB = unique(b, labelsB[level]);
+                for (int p = 0; p < a.stepCapacity(); p++) {
+                    if (!a.contains(p) || toB[p] != FlowGraph.NONE) continue;
+                    long label = labelsA[level][p];
+                    if (uniqueA.get(label) != p) continue;
+                    int q = uniqueB.get(label);
+                    if (q >= 0 && toA[q] == FlowGraph.NONE && sameStep(p, q)) {
+                        match(p, q);
+                    }
+                }
+            }
+        }
+
+        private void anchorSingle(StepKind kind) {
+            int p = single(a, kind);
+            int q = single(b, kind);
+            if (p != FlowGraph.NONE && q != FlowGraph.NONE) {
+                match(p, q);
+            }
+        }
+
+        private static int single(FlowGraph graph, StepKind kind) {
+            int found = FlowGraph.NONE;
+            for (int step = 0; step < graph.stepCapacity(); step++) {
+                if (!graph.contains(step) || graph.kind(step) != kind) continue;
+                if (found != FlowGraph.NONE) return FlowGraph.NONE;
+                found = step;
+            }
+            return found;
+        }
+
+        private static LongIntMap unique(FlowGraph graph, long[] labels) {
+            LongIntMap unique = new LongIntMap(graph.stepCount(), FlowGraph.NONE);
+            for (int step = 0; step < graph.stepCapacity(); step++) {
+                if (!graph.contains(step)) continue;
+                unique.put(labels[step], unique.get(labels[step]) == FlowGraph.NONE ? step : DUPLICATE);
+            }
+            return unique;
+        }
+
+        /**
+         * Обход от сопоставленных пар: пара расширяется сначала по самым строгим меткам,
+         * затем по все более мягким. Новая пара сразу идет в самую строгую очередь,
+         * поэтому мягкие совпадения добираются только там, где строгих не осталось.
+         */
+        void propagate() {
+            int strictness = 0;
+            while (strictness <= RELAXED) {
+                IntQueue queue = queues[strictness];
+                if (queue.isEmpty()) {
+                    strictness++;
+                    continue;
+                }
+                int p = queue.poll();
+                int q = queue.poll();
+                expand(p, q, strictness);
+                if (strictness < RELAXED) {
+                    queues[strictness + 1].offer(p);
+                    queues[strictness + 1].offer(q);
+                }
+                strictness = firstNonEmpty();
+            }
+        }
+
+        private int firstNonEmpty() {
+            for (int i = 0; i < queues.length; i++) {
+                if (!queues[i].isEmpty()) return i;
+            }
+            return queues.length;
+        }
+
+        private void match(int p, int q) {
+            toB[p] = q;
+            toA[q] = p;
+            queues[0].offer(p);
+            queues[0].offer(q);
+        }
+
+        private boolean sameStep(int p, int q) {
+            return a.kind(p) == b.kind(q) && Objects.equals(a.text(p), b.text(q));
+        }
+
+        // Сопоставить несопоставленных соседей пары по каждому типу связи, вперед и назад
+        private void expand(int p, int q, int strictness) {
+            for (EdgeType type : EDGE_TYPES) {
+                countA = 0;
+                for (int e = a.firstOut(p, type); e != FlowGraph.NONE; e = a.nextInSlot(e)) {
+                    if (toB[a.target(e)] == FlowGraph.NONE) addA(a.target(e));
+                }
+                countB = 0;
+                for (int e = b.firstOut(q, type); e != FlowGraph.NONE; e = b.nextInSlot(e)) {
+                    if (toA[b.target(e)] == FlowGraph.NONE) addB(b.target(e));
+                }
+                pair(strictness);
+
+                countA = 0;
+                for (int e = a.firstIn(p); e != FlowGraph.NONE; e = a.nextIn(e)) {
+                    if (a.type(e) == type && toB[a.source(e)] == FlowGraph.NONE) addA(a.source(e));
+                }
+                countB = 0;
+                for (int e = b.firstIn(q); e != FlowGraph.NONE; e = b.nextIn(e)) {
+                    if (b.type(e) == type && toA[b.source(e)] == FlowGraph.NONE) addB(b.source(e));
+                }
+                pair(strictness);
+            }
+        }
+
+        private void pair(int strictness) {
+            if (countA == 0 || countB == 0) return;
+            if (countA == 1 && countB == 1) {
+                int p = neighborsA[0];
+                int q = neighborsB[0];
+                if (strictness == RELAXED) {
+                    if (a.kind(p) == b.kind(q)) match(p, q);
+                } else {
+                    int level = LEVELS - 1 - strictness;
+                    if (labelsA[level][p] == labelsB[level][q] && sameStep(p, q)) match(p, q);
+                }
+                return;
+            }
+            // Несколько связей одного типа (ConTool, слияния): только по уникальному тексту
+            if (strictness != RELAXED - 1) return;
+            Map<Key, Integer> keys = new HashMap<>();
+            for (int i = 0; i < countB; i++) {
+                int q = neighborsB[i];
+                keys.merge(new Key(b.kind(q), b.text(q)), q, (old, id) -> DUPLICATE);
+            }
+            Map<Key, Integer> seen = new HashMap<>();
+            for (int i = 0; i < countA; i++) {
+                int p = neighborsA[i];
+                seen.merge(new Key(a.kind(p), a.text(p)), p, (old, id) -> DUPLICATE);
+            }
+            for (Map.Entry<Key, Integer> entry : seen.entrySet()) {
+                int p = entry.getValue();
+                Integer q = keys.get(entry.getKey());
+                if (p != DUPLICATE && q != null && q != DUPLICATE) {
+                    match(p, q);
+                }
+            }
+        }
+
+        private void addA(int step) {
+            if (countA == neighborsA.length) {
+                neighborsA = Arrays.copyOf(neighborsA, countA * 2);
+            }
+            neighborsA[countA++] = step;
+        }
+
+        private void addB(int step) {
+            if (countB == neighborsB.length) {
+                neighborsB = Arrays.copyOf(neighborsB, countB * 2);
+            }
+            neighborsB[countB++] = step;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.alensoft.automator42.model.diff;
+
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.LongIntMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Трехстороннее слияние версий схемы: сценарии base -> ours и base -> theirs
+ * ({@link FlowDiff}) применяются к копии base вместе. Узлы base сохраняют id,
+ * новые узлы обеих сторон добавляются.
+ * <p>
+ * Конфликты не останавливают слияние, а попадают в список:
+ * <ul>
+ *   <li>{@link ConflictType#TEXT} - обе стороны по-разному сменили текст, остается наш;</li>
+ *   <li>{@link ConflictType#REMOVED_AND_EDITED} - одна сторона удалила узел, другая его
+ *   правила или связала с ним: узел остается;</li>
+ *   <li>{@link ConflictType#CONCURRENT_INSERT} - обе стороны добавили связь одного типа из
+ *   одного узла (например, вставили узел в одно место): остаются обе, слот узла
+ *   становится неоднозначным.</li>
+ * </ul>
+ * Собрать канвас из результата можно через CanvasBuilder.addAll.
+ */
+public final class FlowMerge {
+
+    public enum ConflictType {
+        TEXT, REMOVED_AND_EDITED, CONCURRENT_INSERT
+    }
+
+    /**
+     * Конфликт у узла step (id в слитом графе)
+     */
+    public record Conflict(ConflictType type, int step) {
+    }
+
+    public record Result(FlowGraph graph, List<Conflict> conflicts) {
+        public boolean isClean() {
+            return conflicts.isEmpty();
+        }
+    }
+
+    private FlowMerge() {
+    }
+
+    public static Result merge(FlowGraph base, FlowGraph ours, FlowGraph theirs) {
+        return merge(base, FlowDiff.diff(base, ours), FlowDiff.diff(base, theirs));
+    }
+
+    /**
+     * Слить два сценария, построенных от одного base
+     */
+    public static Result merge(FlowGraph base, EditScript ours, EditScript theirs) {
+        int capacity = base.stepCapacity();
+        Side our = new Side(ours, capacity);
+        Side their = new Side(theirs, capacity);
+        List<Conflict> conflicts = new ArrayList<>();
+        FlowGraph merged = base.copy();
+
+        // Удаление против правки той же стороны не бывает, против чужой - узел остается
+        boolean[] removed = new boolean[capacity];
+        for (int step = 0; step < capacity; step++) {
+            if (!base.contains(step)) continue;
+            boolean edited = our.removed[step] ? their.edited(step) : their.removed[step] && our.edited(step);
+            if (edited) {
+                conflicts.add(new Conflict(ConflictType.REMOVED_AND_EDITED, step));
+            } else {
+                removed[step] = our.removed[step] || their.removed[step];
+            }
+        }
+
+        for (int i = 0; i < ours.size(); i++) {
+            if (ours.op(i) == EditScript.Op.DISCONNECT) disconnect(merged, ours, i);
+        }
+        for (int i = 0; i < theirs.size(); i++) {
+            if (theirs.op(i) == EditScript.Op.DISCONNECT) disconnect(merged, theirs, i);
+        }
+        for (int step = 0; step < capacity; step++) {
+            if (removed[step]) merged.removeStep(step);
+        }
+        for (int step = 0; step < capacity; step++) {
+            if (removed[step] || !base.contains(step)) continue;
+            if (our.relabeled[step]) {
+                merged.setText(step, our.texts[step]);
+                if (their.relabeled[step] && !Objects.equals(our.texts[step], their.texts[step])) {
+                    conflicts.add(new Conflict(ConflictType.TEXT, step));
+                }
+            } else if (their.relabeled[step]) {
+                merged.setText(step, their.texts[step]);
+            }
+        }
+
+        int[] ourAdded = addSteps(merged, ours);
+        int[] theirAdded = addSteps(merged, theirs);
+        // Новые связи из узла base: (source, тип) -> цель у нашей стороны
+        LongIntMap ourSlots = new LongIntMap(64, FlowGraph.NONE);
+        for (int i = 0; i < ours.size(); i++) {
+            if (ours.op(i) != EditScript.Op.CONNECT) continue;
+            int source = resolve(ours, ours.source(i), ourAdded);
+            int target = resolve(ours, ours.target(i), ourAdded);
+            merged.connect(source, target, ours.edgeType(i));
+            if (!EditScript.isAdded(ours.source(i))) {
+                ourSlots.put(slot(source, i, ours), target);
+            }
+        }
+        for (int i = 0; i < theirs.size(); i++) {
+            if (theirs.op(i) != EditScript.Op.CONNECT) continue;
+            int source = resolve(theirs, theirs.source(i), theirAdded);
+            int target = resolve(theirs, theirs.target(i), theirAdded);
+            // Та же связь добавлена обеими сторонами - одна на две
+            if (merged.find(source, target, theirs.edgeType(i)) != FlowGraph.NONE) continue;
+            int ourTarget = EditScript.isAdded(theirs.source(i)) ? FlowGraph.NONE
+                    : ourSlots.get(slot(source, i, theirs));
+            if (ourTarget != FlowGraph.NONE && ourTarget != target) {
+                conflicts.add(new Conflict(ConflictType.CONCURRENT_INSERT, source));
+            }
+            merged.connect(source, target, theirs.edgeType(i));
+        }
+        return new Result(merged, conflicts);
+    }
+
+    private static void disconnect(FlowGraph merged, EditScript script, int i) {
+        // Обе стороны могли снять одну и ту же связь
+        int edge = merged.find(script.source(i), script.target(i), script.edgeType(i));
+        if (edge != FlowGraph.NONE) merged.disconnect(edge);
+    }
+
+    private static int[] addSteps(FlowGraph merged, EditScript script) {
+        int[] added = new int[script.addedCount()];
+        for (int i = 0; i < script.size(); i++) {
+            if (script.op(i) != EditScript.Op.ADD_STEP) continue;
+            int id = merged.addStep(script.stepKind(i), script.text(i));
+            merged.setPosition(id, script.x(i), script.y(i));
+            added[EditScript.addedIndex(script.step(i))] = id;
+        }
+        return added;
+    }
+
+    private static int resolve(EditScript script, int step, int[] added) {
+        return EditScript.isAdded(step) ? added[EditScript.addedIndex(step)] : step;
+    }
+
+    private static long slot(int source, int i, EditScript script) {
+        return (long) source << 8 | script.edgeType(i).ordinal();
+    }
+
+    /**
+     * Что одна сторона сделала с узлами base
+     */
+    private static final class Side {
+        final boolean[] removed;
+        final boolean[] relabeled;
+        final boolean[] connected;   // узел - конец новой связи
+        final String[] texts;
+
+        Side(EditScript script, int capacity) {
+            removed = new boolean[capacity];
+            relabeled = new boolean[capacity];
+            connected = new boolean[capacity];
+            texts = new String[capacity];
+            for (int i = 0; i < script.size(); i++) {
+                switch (script.op(i)) {
+                    case REMOVE_STEP -> removed[script.step(i)] = true;
+                    case RELABEL -> {
+                        relabeled[script.step(i)] = true;
+                        texts[script.step(i)] = script.text(i);
+                    }
+                    case CONNECT -> {
+                        if (!EditScript.isAdded(script.source(i))) connected[script.source(i)] = true;
+                        if (!EditScript.isAdded(script.target(i))) connected[script.target(i)] = true;
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        boolean edited(int step) {
+            return relabeled[step] || connected[step];
+        }
+    }
+}
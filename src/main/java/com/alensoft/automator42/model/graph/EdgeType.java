@@ -0,0 +1,19 @@
+package com.alensoft.automator42.model.graph;
+
+/**
+ * Тип связи в headless-графе.
+ * Порядок совпадает с ConType: он же задает порядок обхода исходящих слотов.
+ */
+public enum EdgeType {
+    OK,
+    IN,
+    EMPTY,
+    OUT;
+
+    /**
+     * EMPTY - служебная связь пустой ветки, в потоке управления не участвует
+     */
+    public boolean isFlow() {
+        return this != EMPTY;
+    }
+}
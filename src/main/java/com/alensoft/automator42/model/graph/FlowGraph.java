@@ -0,0 +1,648 @@
+package com.alensoft.automator42.model.graph;
+
+import java.util.Arrays;
+
+/**
+ * Headless-модель блок-схемы: узлы и связи - это int id в примитивных массивах.
+ * <p>
+ * У каждого узла фиксированный набор исходящих слотов (по одному на {@link EdgeType}),
+ * как в CSR с постоянной степенью. Обычно в слоте одна связь, дополнительные связи того же
+ * типа (например, от ConTool) продолжают цепочку слота. Кроме того, исходящие и входящие
+ * связи узла хранятся двусвязными списками в порядке создания прямо в таблице связей.
+ * Связь ищется по (source, target, type) через хеш-индекс за O(1).
+ * <p>
+ * Id удаленных узлов и связей переиспользуются. Класс не потокобезопасен.
+ */
+public class FlowGraph {
+
+    public static final int NONE = -1;
+
+    private static final int SLOTS = EdgeType.values().length;
+    private static final EdgeType[] EDGE_TYPES = EdgeType.values();
+    private static final StepKind[] STEP_KINDS = StepKind.values();
+    private static final byte FREE = -1;
+
+    // ============= ТАБЛИЦА УЗЛОВ =============
+    private byte[] kinds;
+    private String[] texts;
+    private double[] xs;
+    private double[] ys;
+    private int[] slotHeads;      // step * SLOTS + type -> первая связь слота
+    private int[] slotTails;
+    private int[] outHeads;
+    private int[] outTails;
+    private int[] inHeads;
+    private int[] inTails;
+    private Object[] stepAttachments;
+    private int[] versions;       // меняется при любом изменении связей узла
+    private int stepTop;          // все id узлов меньше stepTop
+    private int stepCount;
+    private int[] freeSteps;
+    private int freeStepCount;
+
+    // ============= ТАБЛИЦА СВЯЗЕЙ =============
+    private int[] sources;
+    private int[] targets;
+    private byte[] types;
+    private int[] serials;        // порядковый номер создания связи
+    private int[] nextInSlots;
+    private int[] prevInSlots;
+    private int[] nextOuts;
+    private int[] prevOuts;
+    private int[] nextIns;
+    private int[] prevIns;
+    private Object[] edgeAttachments;
+    private int edgeTop;
+    private int edgeCount;
+    private int[] freeEdges;
+    private int freeEdgeCount;
+    private int nextSerial;
+    private final LongIntMap edgeIndex;
+    private int modCount;
+    private GraphListener[] listeners = new GraphListener[0];
+
+    public FlowGraph() {
+        this(16);
+    }
+
+    public FlowGraph(int expectedSteps) {
+        this(expectedSteps, expectedSteps + expectedSteps / 4);
+    }
+
+    /**
+     * Граф с массивами под заданное число узлов и связей (например, при загрузке из файла)
+     */
+    public FlowGraph(int expectedSteps, int expectedEdges) {
+        int steps = Math.max(4, expectedSteps);
+        kinds = new byte[steps];
+        texts = new String[steps];
+        xs = new double[steps];
+        ys = new double[steps];
+        slotHeads = new int[steps * SLOTS];
+        slotTails = new int[steps * SLOTS];
+        outHeads = new int[steps];
+        outTails = new int[steps];
+        inHeads = new int[steps];
+        inTails = new int[steps];
+        stepAttachments = new Object[steps];
+        versions = new int[steps];
+        freeSteps = new int[4];
+
+        int edges = Math.max(4, expectedEdges);
+        sources = new int[edges];
+        targets = new int[edges];
+        types = new byte[edges];
+        serials = new int[edges];
+        nextInSlots = new int[edges];
+        prevInSlots = new int[edges];
+        nextOuts = new int[edges];
+        prevOuts = new int[edges];
+        nextIns = new int[edges];
+        prevIns = new int[edges];
+        edgeAttachments = new Object[edges];
+        freeEdges = new int[4];
+        edgeIndex = new LongIntMap(edges, NONE);
+    }
+
+    /**
+     * Снимок: копия топологии, текстов и координат без вложений и наблюдателей.
+     * Копируются только массивы, поэтому снимок дешев, и его можно отдать
+     * в другой поток, пока исходный граф продолжает меняться.
+     */
+    public FlowGraph copy() {
+        return new FlowGraph(this);
+    }
+
+    private FlowGraph(FlowGraph source) {
+        kinds = source.kinds.clone();
+        texts = source.texts.clone();
+        xs = source.xs.clone();
+        ys = source.ys.clone();
+        slotHeads = source.slotHeads.clone();
+        slotTails = source.slotTails.clone();
+        outHeads = source.outHeads.clone();
+        outTails = source.outTails.clone();
+        inHeads = source.inHeads.clone();
+        inTails = source.inTails.clone();
+        stepAttachments = new Object[kinds.length];
+        versions = source.versions.clone();
+        stepTop = source.stepTop;
+        stepCount = source.stepCount;
+        freeSteps = source.freeSteps.clone();
+        freeStepCount = source.freeStepCount;
+
+        sources = source.sources.clone();
+        targets = source.targets.clone();
+        types = source.types.clone();
+        serials = source.serials.clone();
+        nextInSlots = source.nextInSlots.clone();
+        prevInSlots = source.prevInSlots.clone();
+        nextOuts = source.nextOuts.clone();
+        prevOuts = source.prevOuts.clone();
+        nextIns = source.nextIns.clone();
+        prevIns = source.prevIns.clone();
+        edgeAttachments = new Object[sources.length];
+        edgeTop = source.edgeTop;
+        edgeCount = source.edgeCount;
+        freeEdges = source.freeEdges.clone();
+        freeEdgeCount = source.freeEdgeCount;
+        nextSerial = source.nextSerial;
+        edgeIndex = source.edgeIndex.copy();
+        modCount = source.modCount;
+    }
+
+    // ============= УЗЛЫ =============
+
+    public int addStep(StepKind kind, String text) {
+        if (kind == null) {
+            throw new IllegalArgumentException("Step kind cannot be null");
+        }
+        int id;
+        if (freeStepCount > 0) {
+            id = freeSteps[--freeStepCount];
+        } else {
+            if (stepTop == kinds.length) {
+                growSteps();
+            }
+            id = stepTop++;
+        }
+        kinds[id] = (byte) kind.ordinal();
+        texts[id] = text;
+        xs[id] = 0;
+        ys[id] = 0;
+        Arrays.fill(slotHeads, id * SLOTS, id * SLOTS + SLOTS, NONE);
+        Arrays.fill(slotTails, id * SLOTS, id * SLOTS + SLOTS, NONE);
+        outHeads[id] = NONE;
+        outTails[id] = NONE;
+        inHeads[id] = NONE;
+        inTails[id] = NONE;
+        versions[id]++;
+        modCount++;
+        stepCount++;
+        for (GraphListener listener : listeners) {
+            listener.stepAdded(id);
+        }
+        return id;
+    }
+
+    /**
+     * Удалить узел вместе со всеми его связями
+     */
+    public void removeStep(int step) {
+        checkStep(step);
+        while (outHeads[step] != NONE) {
+            disconnect(outHeads[step]);
+        }
+        while (inHeads[step] != NONE) {
+            disconnect(inHeads[step]);
+        }
+        kinds[step] = FREE;
+        texts[step] = null;
+        stepAttachments[step] = null;
+        if (freeStepCount == freeSteps.length) {
+            freeSteps = Arrays.copyOf(freeSteps, freeSteps.length * 2);
+        }
+        freeSteps[freeStepCount++] = step;
+        versions[step]++;
+        modCount++;
+        stepCount--;
+        for (GraphListener listener : listeners) {
+            listener.stepRemoved(step);
+        }
+    }
+
+    public boolean contains(int step) {
+        return step >= 0 && step < stepTop && kinds[step] != FREE;
+    }
+
+    public StepKind kind(int step) {
+        checkStep(step);
+        return STEP_KINDS[kinds[step]];
+    }
+
+    public String text(int step) {
+        checkStep(step);
+        return texts[step];
+    }
+
+    public void setText(int step, String text) {
+        checkStep(step);
+        texts[step] = text;
+        for (GraphListener listener : listeners) {
+            listener.textChanged(step);
+        }
+    }
+
+    public double x(int step) {
+        return xs[step];
+    }
+
+    public double y(int step) {
+        return ys[step];
+    }
+
+    public void setPosition(int step, double x, double y) {
+        checkStep(step);
+        xs[step] = x;
+        ys[step] = y;
+        for (GraphListener listener : listeners) {
+            listener.stepMoved(step);
+        }
+    }
+
+    public Object attachment(int step) {
+        return contains(step) ? stepAttachments[step] : null;
+    }
+
+    public void setAttachment(int step, Object attachment) {
+        checkStep(step);
+        stepAttachments[step] = attachment;
+    }
+
+    /**
+     * Количество живых узлов
+     */
+    public int stepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Верхняя граница id узлов: подходит как размер массивов, индексируемых id
+     */
+    public int stepCapacity() {
+        return stepTop;
+    }
+
+    // ============= СВЯЗИ =============
+
+    /**
+     * Создать связь. Если такая связь уже есть - вернуть ее id.
+     */
+    public int connect(int source, int target, EdgeType type) {
+        checkStep(source);
+        checkStep(target);
+        if (type == null) {
+            throw new IllegalArgumentException("Edge type cannot be null");
+        }
+        if (source == target) {
+            throw new IllegalArgumentException("Cannot connect step to itself");
+        }
+        int exists = find(source, target, type);
+        if (exists != NONE) {
+            return exists;
+        }
+
+        int edge;
+        if (freeEdgeCount > 0) {
+            edge = freeEdges[--freeEdgeCount];
+        } else {
+            if (edgeTop == sources.length) {
+                growEdges();
+            }
+            edge = edgeTop++;
+        }
+        sources[edge] = source;
+        targets[edge] = target;
+        types[edge] = (byte) type.ordinal();
+        serials[edge] = nextSerial++;
+        edgeIndex.put(key(source, target, type.ordinal()), edge);
+
+        // В конец цепочки слота: порядок вставки сохраняется
+        int slot = source * SLOTS + type.ordinal();
+        nextInSlots[edge] = NONE;
+        prevInSlots[edge] = slotTails[slot];
+        if (slotTails[slot] == NONE) {
+            slotHeads[slot] = edge;
+        } else {
+            nextInSlots[slotTails[slot]] = edge;
+        }
+        slotTails[slot] = edge;
+
+        nextOuts[edge] = NONE;
+        prevOuts[edge] = outTails[source];
+        if (outTails[source] == NONE) {
+            outHeads[source] = edge;
+        } else {
+            nextOuts[outTails[source]] = edge;
+        }
+        outTails[source] = edge;
+
+        nextIns[edge] = NONE;
+        prevIns[edge] = inTails[target];
+        if (inTails[target] == NONE) {
+            inHeads[target] = edge;
+        } else {
+            nextIns[inTails[target]] = edge;
+        }
+        inTails[target] = edge;
+        touch(source, target);
+        edgeCount++;
+        for (GraphListener listener : listeners) {
+            listener.edgeAdded(edge);
+        }
+        return edge;
+    }
+
+    public void disconnect(int edge) {
+        checkEdge(edge);
+        int source = sources[edge];
+        int target = targets[edge];
+
+        int slot = source * SLOTS + types[edge];
+        edgeIndex.remove(key(source, target, types[edge]));
+
+        int next = nextInSlots[edge];
+        int prev = prevInSlots[edge];
+        if (prev == NONE) {
+            slotHeads[slot] = next;
+        } else {
+            nextInSlots[prev] = next;
+        }
+        if (next == NONE) {
+            slotTails[slot] = prev;
+        } else {
+            prevInSlots[next] = prev;
+        }
+
+        next = nextOuts[edge];
+        prev = prevOuts[edge];
+        if (prev == NONE) {
+            outHeads[source] = next;
+        } else {
+            nextOuts[prev] = next;
+        }
+        if (next == NONE) {
+            outTails[source] = prev;
+        } else {
+            prevOuts[next] = prev;
+        }
+
+        next = nextIns[edge];
+        prev = prevIns[edge];
+        if (prev == NONE) {
+            inHeads[target] = next;
+        } else {
+            nextIns[prev] = next;
+        }
+        if (next == NONE) {
+            inTails[target] = prev;
+        } else {
+            prevIns[next] = prev;
+        }
+
+        types[edge] = FREE;
+        edgeAttachments[edge] = null;
+        if (freeEdgeCount == freeEdges.length) {
+            freeEdges = Arrays.copyOf(freeEdges, freeEdges.length * 2);
+        }
+        freeEdges[freeEdgeCount++] = edge;
+        touch(source, target);
+        edgeCount--;
+        EdgeType type = EDGE_TYPES[slot - source * SLOTS];
+        for (GraphListener listener : listeners) {
+            listener.edgeRemoved(edge, source, target, type);
+        }
+    }
+
+    /**
+     * Найти связь source -> target заданного типа
+     */
+    public int find(int source, int target, EdgeType type) {
+        if (!contains(source) || !contains(target)) return NONE;
+        return edgeIndex.get(key(source, target, type.ordinal()));
+    }
+
+    /**
+     * Самая ранняя по созданию связь одного из двух типов (как первая подходящая в out)
+     */
+    public int firstOut(int step, EdgeType first, EdgeType second) {
+        int a = firstOut(step, first);
+        int b = firstOut(step, second);
+        if (a == NONE) return b;
+        if (b == NONE) return a;
+        return serials[a] - serials[b] <= 0 ? a : b;
+    }
+
+    /**
+     * Первая исходящая связь слота (или NONE)
+     */
+    public int firstOut(int step, EdgeType type) {
+        checkStep(step);
+        return slotHeads[step * SLOTS + type.ordinal()];
+    }
+
+    /**
+     * Следующая связь в том же слоте
+     */
+    public int nextInSlot(int edge) {
+        return nextInSlots[edge];
+    }
+
+    /**
+     * Первая исходящая связь потока (без EMPTY) в порядке слотов OK, IN, OUT -
+     * в этом порядке раскладка нумерует основной путь и ответвления
+     */
+    public int firstFlow(int step) {
+        checkStep(step);
+        return flowFrom(step, 0);
+    }
+
+    public int nextFlow(int edge) {
+        int next = nextInSlots[edge];
+        return next != NONE ? next : flowFrom(sources[edge], types[edge] + 1);
+    }
+
+    private int flowFrom(int step, int type) {
+        for (int t = type; t < SLOTS; t++) {
+            int head = slotHeads[step * SLOTS + t];
+            if (head != NONE && EDGE_TYPES[t].isFlow()) return head;
+        }
+        return NONE;
+    }
+
+    /**
+     * Первая исходящая связь узла в порядке создания (любого типа)
+     */
+    public int firstOut(int step) {
+        checkStep(step);
+        return outHeads[step];
+    }
+
+    public int nextOut(int edge) {
+        return nextOuts[edge];
+    }
+
+    public int firstIn(int step) {
+        checkStep(step);
+        return inHeads[step];
+    }
+
+    public int nextIn(int edge) {
+        return nextIns[edge];
+    }
+
+    public boolean containsEdge(int edge) {
+        return edge >= 0 && edge < edgeTop && types[edge] != FREE;
+    }
+
+    public int source(int edge) {
+        return sources[edge];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    public EdgeType type(int edge) {
+        checkEdge(edge);
+        return EDGE_TYPES[types[edge]];
+    }
+
+    /**
+     * Порядковый номер создания: чем меньше, тем раньше создана связь
+     */
+    public int serial(int edge) {
+        return serials[edge];
+    }
+
+    public Object edgeAttachment(int edge) {
+        return containsEdge(edge) ? edgeAttachments[edge] : null;
+    }
+
+    public void setEdgeAttachment(int edge, Object attachment) {
+        checkEdge(edge);
+        edgeAttachments[edge] = attachment;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    // ============= НАБЛЮДАТЕЛИ =============
+
+    public void addListener(GraphListener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    public void removeListener(GraphListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                GraphListener[] rest = new GraphListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, rest, 0, i);
+                System.arraycopy(listeners, i + 1, rest, i, rest.length - i);
+                listeners = rest;
+                return;
+            }
+        }
+    }
+
+    // ============= ВЕРСИИ =============
+
+    /**
+     * Счетчик изменений связей узла: по нему узлы-представления проверяют свои кеши
+     */
+    public int version(int step) {
+        return versions[step];
+    }
+
+    /**
+     * Общий счетчик структурных изменений графа
+     */
+    public int modCount() {
+        return modCount;
+    }
+
+    private void touch(int source, int target) {
+        versions[source]++;
+        versions[target]++;
+        modCount++;
+    }
+
+    public int edgeCapacity() {
+        return edgeTop;
+    }
+
+    // ============= ПРОВЕРКА =============
+
+    /**
+     * Все узлы достижимы из root (от Begin можно дойти до каждого узла)
+     */
+    public boolean validate(int root) {
+        if (!contains(root)) return false;
+
+        boolean[] reachable = new boolean[stepTop];
+        IntQueue queue = new IntQueue();
+        reachable[root] = true;
+        queue.offer(root);
+        int reached = 1;
+
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            for (int e = outHeads[current]; e != NONE; e = nextOuts[e]) {
+                int child = targets[e];
+                if (!reachable[child]) {
+                    reachable[child] = true;
+                    reached++;
+                    queue.offer(child);
+                }
+            }
+        }
+        return reached == stepCount;
+    }
+
+    // ============= СЛУЖЕБНЫЕ МЕТОДЫ =============
+
+    // Ключ индекса: source в старших 32 битах, target и тип - в младших
+    private static long key(int source, int target, int type) {
+        return ((long) source << 32) | (((long) target * SLOTS + type) & 0xFFFFFFFFL);
+    }
+
+    private void checkStep(int step) {
+        if (!contains(step)) {
+            throw new IllegalArgumentException("Unknown step id: " + step);
+        }
+    }
+
+    private void checkEdge(int edge) {
+        if (!containsEdge(edge)) {
+            throw new IllegalArgumentException("Unknown edge id: " + edge);
+        }
+    }
+
+    private void growSteps() {
+        int size = kinds.length * 2;
+        kinds = Arrays.copyOf(kinds, size);
+        texts = Arrays.copyOf(texts, size);
+        xs = Arrays.copyOf(xs, size);
+        ys = Arrays.copyOf(ys, size);
+        slotHeads = Arrays.copyOf(slotHeads, size * SLOTS);
+        slotTails = Arrays.copyOf(slotTails, size * SLOTS);
+        outHeads = Arrays.copyOf(outHeads, size);
+        outTails = Arrays.copyOf(outTails, size);
+        inHeads = Arrays.copyOf(inHeads, size);
+        inTails = Arrays.copyOf(inTails, size);
+        stepAttachments = Arrays.copyOf(stepAttachments, size);
+        versions = Arrays.copyOf(versions, size);
+    }
+
+    private void growEdges() {
+        int size = sources.length * 2;
+        sources = Arrays.copyOf(sources, size);
+        targets = Arrays.copyOf(targets, size);
+        types = Arrays.copyOf(types, size);
+        serials = Arrays.copyOf(serials, size);
+        nextInSlots = Arrays.copyOf(nextInSlots, size);
+        prevInSlots = Arrays.copyOf(prevInSlots, size);
+        nextOuts = Arrays.copyOf(nextOuts, size);
+        prevOuts = Arrays.copyOf(prevOuts, size);
+        nextIns = Arrays.copyOf(nextIns, size);
+        prevIns = Arrays.copyOf(prevIns, size);
+        edgeAttachments = Arrays.copyOf(edgeAttachments, size);
+    }
+
+    @Override
+    public String toString() {
+        return "FlowGraph (" + stepCount + " steps, " + edgeCount + " edges)";
+    }
+}
@@ -0,0 +1,31 @@
+package com.alensoft.automator42.model.graph;
+
+/**
+ * Наблюдатель за изменениями FlowGraph. Вызывается синхронно, сразу после изменения.
+ */
+public interface GraphListener {
+
+    default void stepAdded(int step) {
+    }
+
+    /**
+     * Вызывается после удаления всех связей узла, id уже свободен
+     */
+    default void stepRemoved(int step) {
+    }
+
+    default void edgeAdded(int edge) {
+    }
+
+    /**
+     * Связь уже отцеплена, id свободен: концы и тип передаются явно
+     */
+    default void edgeRemoved(int edge, int source, int target, EdgeType type) {
+    }
+
+    default void stepMoved(int step) {
+    }
+
+    default void textChanged(int step) {
+    }
+}
@@ -0,0 +1,69 @@
+package com.alensoft.automator42.model.graph;
+
+import java.util.Arrays;
+
+/**
+ * Растущая кольцевая очередь int без упаковки в Integer
+ */
+public class IntQueue {
+    private int[] items;
+    private int head;
+    private int size;
+
+    public IntQueue() {
+        this(16);
+    }
+
+    public IntQueue(int capacity) {
+        items = new int[Math.max(4, capacity)];
+    }
+
+    public void offer(int value) {
+        if (size == items.length) {
+            grow();
+        }
+        items[(head + size) % items.length] = value;
+        size++;
+    }
+
+    public int poll() {
+        if (size == 0) {
+            throw new IllegalStateException("Queue is empty");
+        }
+        int value = items[head];
+        head = (head + 1) % items.length;
+        size--;
+        return value;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        int[] bigger = new int[items.length * 2];
+        int tail = items.length - head;
+        System.arraycopy(items, head, bigger, 0, tail);
+        System.arraycopy(items, 0, bigger, tail, head);
+        items = bigger;
+        head = 0;
+    }
+
+    @Override
+    public String toString() {
+        int[] copy = new int[size];
+        for (int i = 0; i < size; i++) {
+            copy[i] = items[(head + i) % items.length];
+        }
+        return Arrays.toString(copy);
+    }
+}
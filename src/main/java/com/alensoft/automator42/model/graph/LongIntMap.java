@@ -0,0 +1,119 @@
+package com.alensoft.automator42.model.graph;
+
+import java.util.Arrays;
+
+/**
+ * Хеш-таблица long -> int с открытой адресацией (линейное пробирование)
+ * без упаковки ключей и значений. Удаление - обратным сдвигом, без "надгробий".
+ */
+public class LongIntMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final int missing;
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * @param missing значение, которое возвращается для отсутствующего ключа
+     */
+    public LongIntMap(int expected, int missing) {
+        this.missing = missing;
+        int capacity = Integer.highestOneBit(Math.max(8, expected * 2) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private LongIntMap(LongIntMap source) {
+        missing = source.missing;
+        keys = source.keys.clone();
+        values = source.values.clone();
+        size = source.size;
+        mask = source.mask;
+    }
+
+    public LongIntMap copy() {
+        return new LongIntMap(this);
+    }
+
+    public int get(long key) {
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) return values[i];
+            if (k == EMPTY) return missing;
+        }
+    }
+
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Reserved key: " + key);
+        }
+        int i = index(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > keys.length / 2) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    public int remove(long key) {
+        int i = index(key);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) return missing;
+            i = (i + 1) & mask;
+        }
+        int removed = values[i];
+        // Обратный сдвиг: подтянуть ключи, которые "перепрыгнули" освободившуюся ячейку
+        int gap = i;
+        for (int j = (gap + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = index(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = EMPTY;
+        size--;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private int index(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.alensoft.automator42.model.graph;
+
+import java.util.Arrays;
+
+/**
+ * Равномерная сетка над прямоугольниками с int id (индекс для поиска узла по точке).
+ * <p>
+ * Прямоугольник лежит в одной ячейке - той, где его левый верхний угол; ячейки
+ * хранятся в хеш-таблице (ключ - пара индексов), внутри ячейки - двусвязный список id.
+ * Запрос расширяется влево-вверх на самый большой размер прямоугольника, поэтому
+ * при ячейке не меньше узла точка проверяется не более чем в четырех ячейках.
+ * Вставка, перемещение и удаление - O(1). Класс не потокобезопасен.
+ */
+public class SpatialGrid {
+
+    private final double cellWidth;
+    private final double cellHeight;
+    private final LongIntMap cells = new LongIntMap(64, FlowGraph.NONE); // ячейка -> первый id
+
+    private double[] minXs;
+    private double[] minYs;
+    private double[] widths;
+    private double[] heights;
+    private long[] cellKeys;
+    private int[] nexts;
+    private int[] prevs;
+    private boolean[] present;
+    private int size;
+    private double maxWidth;
+    private double maxHeight;
+
+    public SpatialGrid(double cellWidth, double cellHeight) {
+        if (cellWidth <= 0 || cellHeight <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        allocate(16);
+    }
+
+    /**
+     * Добавить прямоугольник id или сдвинуть/изменить уже добавленный
+     */
+    public void put(int id, double minX, double minY, double width, double height) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative id: " + id);
+        }
+        ensureCapacity(id + 1);
+        long key = key(cell(minX, cellWidth), cell(minY, cellHeight));
+        if (present[id]) {
+            if (cellKeys[id] != key) {
+                unlink(id);
+                link(id, key);
+            }
+        } else {
+            present[id] = true;
+            size++;
+            link(id, key);
+        }
+        minXs[id] = minX;
+        minYs[id] = minY;
+        widths[id] = width;
+        heights[id] = height;
+        maxWidth = Math.max(maxWidth, width);
+        maxHeight = Math.max(maxHeight, height);
+    }
+
+    public void remove(int id) {
+        if (!contains(id)) return;
+        unlink(id);
+        present[id] = false;
+        size--;
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < present.length && present[id];
+    }
+
+    public double minX(int id) {
+        return minXs[id];
+    }
+
+    public double minY(int id) {
+        return minYs[id];
+    }
+
+    public double width(int id) {
+        return widths[id];
+    }
+
+    public double height(int id) {
+        return heights[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        cells.clear();
+        Arrays.fill(present, false);
+        size = 0;
+        maxWidth = 0;
+        maxHeight = 0;
+    }
+
+    /**
+     * Какой-нибудь прямоугольник, содержащий точку (границы включительно), или NONE
+     */
+    public int find(double x, double y) {
+        int fromX = cell(x - maxWidth, cellWidth);
+        int toX = cell(x, cellWidth);
+        int fromY = cell(y - maxHeight, cellHeight);
+        int toY = cell(y, cellHeight);
+        for (int cy = fromY; cy <= toY; cy++) {
+            for (int cx = fromX; cx <= toX; cx++) {
+                for (int id = cells.get(key(cx, cy)); id != FlowGraph.NONE; id = nexts[id]) {
+                    if (x >= minXs[id] && x <= minXs[id] + widths[id]
+                            && y >= minYs[id] && y <= minYs[id] + heights[id]) {
+                        return id;
+                    }
+                }
+            }
+        }
+        return FlowGraph.NONE;
+    }
+
+    /**
+     * Все прямоугольники, пересекающие область (границы включительно), - в out.
+     * Время пропорционально числу ячеек области и найденному, а не размеру индекса.
+     */
+    public void query(double minX, double minY, double maxX, double maxY, IntQueue out) {
+        int fromX = cell(minX - maxWidth, cellWidth);
+        int toX = cell(maxX, cellWidth);
+        int fromY = cell(minY - maxHeight, cellHeight);
+        int toY = cell(maxY, cellHeight);
+        for (int cy = fromY; cy <= toY; cy++) {
+            for (int cx = fromX; cx <= toX; cx++) {
+                for (int id = cells.get(key(cx, cy)); id != FlowGraph.NONE; id = nexts[id]) {
+                    if (minXs[id] <= maxX && minXs[id] + widths[id] >= minX
+                            && minYs[id] <= maxY && minYs[id] + heights[id] >= minY) {
+                        out.offer(id);
+                    }
+                }
+            }
+        }
+    }
+
+    private void link(int id, long key) {
+        int head = cells.get(key);
+        prevs[id] = FlowGraph.NONE;
+        nexts[id] = head;
+        if (head != FlowGraph.NONE) {
+            prevs[head] = id;
+        }
+        cells.put(key, id);
+        cellKeys[id] = key;
+    }
+
+    private void unlink(int id) {
+        int prev = prevs[id];
+        int next = nexts[id];
+        if (next != FlowGraph.NONE) {
+            prevs[next] = prev;
+        }
+        if (prev != FlowGraph.NONE) {
+            nexts[prev] = next;
+        } else if (next != FlowGraph.NONE) {
+            cells.put(cellKeys[id], next);
+        } else {
+            cells.remove(cellKeys[id]);
+        }
+    }
+
+    private static int cell(double coordinate, double cellSize) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > present.length) {
+            allocate(Math.max(capacity, present.length * 2));
+        }
+    }
+
+    private void allocate(int capacity) {
+        minXs = minXs == null ? new double[capacity] : Arrays.copyOf(minXs, capacity);
+        minYs = minYs == null ? new double[capacity] : Arrays.copyOf(minYs, capacity);
+        widths = widths == null ? new double[capacity] : Arrays.copyOf(widths, capacity);
+        heights = heights == null ? new double[capacity] : Arrays.copyOf(heights, capacity);
+        cellKeys = cellKeys == null ? new long[capacity] : Arrays.copyOf(cellKeys, capacity);
+        nexts = nexts == null ? new int[capacity] : Arrays.copyOf(nexts, capacity);
+        prevs = prevs == null ? new int[capacity] : Arrays.copyOf(prevs, capacity);
+        present = present == null ? new boolean[capacity] : Arrays.copyOf(present, capacity);
+    }
+}
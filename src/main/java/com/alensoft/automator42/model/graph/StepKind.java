@@ -0,0 +1,13 @@
+package com.alensoft.automator42.model.graph;
+
+/**
+ * Вид узла в headless-графе (без привязки к JavaFX)
+ */
+public enum StepKind {
+    BEGIN,
+    END,
+    PROCESS,
+    BRANCH,
+    USER_IO,
+    CONNECTOR
+}
@@ -0,0 +1,129 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.FlowGraph;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Двоичный формат блок-схемы: поток записей, пишется и читается за один
+ * последовательный проход без промежуточного дерева.
+ * <pre>
+ * файл    := MAGIC "A42F", версия (varint), [SIZE], запись*, END
+ * SIZE    := 0x01, число узлов, число связей (varint) - подсказка для читателя
+ * узел    := 0x10 | вид, текст, dx, dy (zigzag varint от координат прошлого узла)
+ *          | 0x20 | вид, текст, x, y (double) - для нецелых координат
+ * связь   := 0x30 | тип, source (zigzag от source прошлой связи), target (zigzag от source)
+ * текст   := 0 - null | 1, длина, UTF-8 - новая строка | n - строка n-2 из таблицы
+ * END     := 0x00
+ * </pre>
+ * Id узлов в файле - порядковые номера записей узлов; связь ссылается только на
+ * уже записанные узлы. Таблица строк строится по ходу записи: каждая строка
+ * пишется целиком один раз, дальше - ссылкой.
+ */
+public final class FlowFormat {
+    static final byte[] MAGIC = {'A', '4', '2', 'F'};
+    public static final int VERSION = 1;
+
+    static final int END = 0x00;
+    static final int SIZE = 0x01;
+    static final int STEP = 0x10;
+    static final int STEP_DOUBLE = 0x20;
+    static final int EDGE = 0x30;
+    static final int TAG_MASK = 0xF0;
+
+    // Подсказке размера из файла не верим: по ней только предвыделяем, дальше массивы растут
+    private static final int MAX_PRESIZE = 1 << 16;
+
+    static final int TEXT_NULL = 0;
+    static final int TEXT_NEW = 1;
+    static final int TEXT_REF = 2;
+
+    private FlowFormat() {
+    }
+
+    /**
+     * Записать граф: узлы в порядке id, связи в порядке создания (от него зависит
+     * порядок обхода слотов). Поток не закрывается.
+     */
+    public static void write(FlowGraph graph, OutputStream out) throws IOException {
+        FlowWriter writer = new FlowWriter(out);
+        writer.sizeHint(graph.stepCount(), graph.edgeCount());
+        int[] fileIds = new int[graph.stepCapacity()];
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (graph.contains(step)) {
+                fileIds[step] = writer.step(graph.kind(step), graph.text(step), graph.x(step), graph.y(step));
+            }
+        }
+        for (int edge : edgeOrder(graph)) {
+            writer.edge(fileIds[graph.source(edge)], fileIds[graph.target(edge)], graph.type(edge));
+        }
+        writer.finish();
+    }
+
+    /**
+     * Живые связи графа в порядке создания: от него зависит порядок обхода слотов,
+     * поэтому все форматы пишут связи так
+     */
+    static int[] edgeOrder(FlowGraph graph) {
+        long[] order = new long[graph.edgeCount()];
+        int count = 0;
+        for (int edge = 0; edge < graph.edgeCapacity(); edge++) {
+            if (graph.containsEdge(edge)) {
+                order[count++] = (long) graph.serial(edge) << 32 | edge;
+            }
+        }
+        Arrays.sort(order, 0, count);
+        int[] edges = new int[count];
+        for (int i = 0; i < count; i++) {
+            edges[i] = (int) order[i];
+        }
+        return edges;
+    }
+
+    /**
+     * Прочитать граф целиком. Поток не закрывается.
+     */
+    public static FlowGraph read(InputStream in) throws IOException {
+        FlowReader reader = new FlowReader(in);
+        FlowGraph graph = new FlowGraph(presize(reader.stepHint()), presize(reader.edgeHint()));
+        int[] ids = new int[Math.max(16, presize(reader.stepHint()))];
+        for (FlowReader.Record record = reader.next(); record != FlowReader.Record.END; record = reader.next()) {
+            if (record == FlowReader.Record.STEP) {
+                int id = graph.addStep(reader.kind(), reader.text());
+                graph.setPosition(id, reader.x(), reader.y());
+                if (reader.stepId() == ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                }
+                ids[reader.stepId()] = id;
+            } else {
+                graph.connect(ids[reader.source()], ids[reader.target()], reader.edgeType());
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Прочитать схему и отдать узлы и связи приемнику по мере разбора. Поток не закрывается.
+     */
+    public static void read(InputStream in, FlowSink sink) throws IOException {
+        FlowReader reader = new FlowReader(in);
+        int[] ids = new int[Math.max(16, presize(reader.stepHint()))];
+        for (FlowReader.Record record = reader.next(); record != FlowReader.Record.END; record = reader.next()) {
+            if (record == FlowReader.Record.STEP) {
+                if (reader.stepId() == ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                }
+                ids[reader.stepId()] = sink.step(reader.kind(), reader.text(), reader.x(), reader.y());
+            } else {
+                sink.edge(ids[reader.source()], ids[reader.target()], reader.edgeType());
+            }
+        }
+    }
+
+    private static int presize(int hint) {
+        return Math.min(hint, MAX_PRESIZE);
+    }
+}
@@ -0,0 +1,700 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.GraphListener;
+import com.alensoft.automator42.model.graph.StepKind;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал правок схемы в каталоге: снимок ({@link FlowFormat}) плюс журнал
+ * дописываемых записей о каждом изменении графа после снимка. Полное сохранение
+ * после каждой правки не нужно - правка стоит одну короткую запись.
+ * <p>
+ * Записи копятся в буфере в потоке графа; фоновый поток раз в
+ * {@link #COMMIT_INTERVAL_MILLIS} дописывает накопленное одним кадром и делает один
+ * fsync на всю группу. {@link #sync()} ждет, пока долетят все правки до вызова.
+ * Повторные сдвиги узла в пределах группы переписывают одну запись.
+ * <p>
+ * Когда журнал перерастает снимок, он сжимается: копия графа пишется новым снимком,
+ * записи начинаются с нового журнала, старые файлы удаляются. Номера узлов в
+ * журнале - номера в снимке, новые узлы получают следующие, поэтому при
+ * восстановлении не важно, как граф переиспользует id.
+ * <pre>
+ * FlowGraph saved = FlowJournal.recover(dir);          // null - журнала нет
+ * ... собрать канвас из saved (CanvasBuilder.addAll) ...
+ * FlowJournal journal = new FlowJournal(canvas.getGraph(), dir);
+ * </pre>
+ * Кадр журнала: длина, CRC32, записи. Оборванный последним кадр при восстановлении
+ * отбрасывается. Слушатель вызывается в потоке графа; класс в остальном потокобезопасен.
+ */
+public final class FlowJournal implements GraphListener, Closeable {
+    public static final long COMMIT_INTERVAL_MILLIS = 20;
+    // Журнал сжимается, когда перерастет и этот размер, и COMPACT_RATIO байт на узел и связь
+    static final long MIN_COMPACT_BYTES = 8 << 20;
+    static final int COMPACT_RATIO = 16;
+    // Большая группа (импорт) уходит на диск, не дожидаясь интервала
+    static final int FLUSH_BYTES = 1 << 20;
+
+    static final byte[] MAGIC = {'A', '4', '2', 'L'};
+    static final int VERSION = 1;
+    static final String SNAPSHOT = "snapshot-";
+    static final String LOG = "journal-";
+    static final String SNAPSHOT_SUFFIX = ".a42f";
+    static final String LOG_SUFFIX = ".log";
+
+    // Записи: тег, затем номера узлов в журнале (varint)
+    static final int TEXT = 0x01;      // узел, текст
+    static final int MOVE = 0x02;      // узел, x, y (double)
+    static final int REMOVE = 0x03;    // узел
+    static final int STEP = 0x10;      // | вид; текст - узел получает следующий номер
+    static final int EDGE = 0x20;      // | тип; source, target
+    static final int UNEDGE = 0x30;    // | тип; source, target
+    static final int TAG_MASK = 0xF0;
+
+    private static final StepKind[] STEP_KINDS = StepKind.values();
+    private static final EdgeType[] EDGE_TYPES = EdgeType.values();
+
+    private final FlowGraph graph;
+    private final Path directory;
+    private final Thread flusher;
+
+    // ---- под lock: буфер группы и номера узлов (пишет поток графа) ----
+    private final Object lock = new Object();
+    private byte[] batch = new byte[1 << 12];
+    private int batchSize;
+    private int[] journalIds = new int[0];   // id в графе -> номер в журнале
+    private int nextJournalId;
+    private int[] moveOffsets = new int[0];  // номер в журнале -> смещение x последнего сдвига в группе
+    private int[] moveEpochs = new int[0];
+    private int epoch = 1;                   // меняется с каждой новой группой
+    private int generation;
+    private long logBytes;
+    private long compactAt;
+    private long appended;                   // всего байт записей
+    private long durable;                    // из них уже на диске
+    private final ArrayDeque<Object> tasks = new ArrayDeque<>();
+    private boolean syncRequested;
+    private boolean closed;
+    private IOException failure;
+
+    // ---- только фоновый поток ----
+    private FileChannel log;
+    private int logGeneration = -1;
+    private final CRC32 crc = new CRC32();
+
+    private record Frame(int generation, byte[] data, int size, long end) {
+    }
+
+    private record Snapshot(int generation, FlowGraph copy, long end) {
+    }
+
+    /**
+     * Начать журнал графа в каталоге: первым делом пишется снимок текущего графа
+     * (старые снимки и журналы каталога удаляются после него)
+     */
+    public FlowJournal(FlowGraph graph, Path directory) throws IOException {
+        this.graph = graph;
+        this.directory = directory;
+        Files.createDirectories(directory);
+        generation = latestGeneration(directory, LOG, LOG_SUFFIX);
+        generation = Math.max(generation, latestGeneration(directory, SNAPSHOT, SNAPSHOT_SUFFIX));
+        compact();
+        graph.addListener(this);
+        flusher = new Thread(this::flushLoop, "flow-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // ============= ВОССТАНОВЛЕНИЕ =============
+
+    /**
+     * Восстановить граф из каталога: последний снимок и журнал после него.
+     * Оборванный хвост журнала (сбой посреди записи) отбрасывается.
+     *
+     * @return граф или null, если в каталоге нет снимка
+     */
+    public static FlowGraph recover(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) return null;
+        int generation = latestGeneration(directory, SNAPSHOT, SNAPSHOT_SUFFIX);
+        if (generation < 0) return null;
+        FlowGraph graph;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshotPath(directory, generation)))) {
+            graph = FlowFormat.read(in);
+        }
+        // Новый граф выдает id подряд, так что id узла снимка = его номер в журнале
+        int[] ids = new int[Math.max(16, graph.stepCount())];
+        for (int i = 0; i < graph.stepCount(); i++) {
+            ids[i] = i;
+        }
+        Path logPath = logPath(directory, generation);
+        if (Files.exists(logPath)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+                replay(in, Files.size(logPath), graph, ids, graph.stepCount());
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * @param length размер файла журнала: длина кадра из оборванного заголовка
+     *               может быть любой, и кадр, не влезающий в остаток файла, - конец журнала
+     */
+    private static void replay(DataInputStream in, long length, FlowGraph graph, int[] ids, int count)
+            throws IOException {
+        byte[] header = new byte[MAGIC.length + 1];
+        if (in.readNBytes(header, 0, header.length) < header.length) return;
+        long left = length - header.length;
+        if (!Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IOException("Not a flowchart journal");
+        }
+        if (header[MAGIC.length] > VERSION) {
+            throw new IOException("Unsupported flowchart journal version: " + header[MAGIC.length]);
+        }
+        CRC32 crc = new CRC32();
+        byte[] frame = new byte[0];
+        while (true) {
+            int size;
+            int checksum;
+            try {
+                size = in.readInt();
+                checksum = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            left -= 8;
+            if (size < 0 || size > left) return;                // оборванный кадр
+            left -= size;
+            if (frame.length < size) {
+                frame = new byte[size];
+            }
+            if (in.readNBytes(frame, 0, size) < size) return;
+            crc.reset();
+            crc.update(frame, 0, size);
+            if ((int) crc.getValue() != checksum) return;        // недописанный кадр
+            Replay records = new Replay(graph, ids, count, frame, size);
+            records.run();
+            ids = records.ids;
+            count = records.count;
+        }
+    }
+
+    /**
+     * Применение записей одного кадра
+     */
+    private static final class Replay {
+        private final FlowGraph graph;
+        private final byte[] data;
+        private final int size;
+        private int position;
+        int[] ids;
+        int count;
+
+        Replay(FlowGraph graph, int[] ids, int count, byte[] data, int size) {
+            this.graph = graph;
+            this.ids = ids;
+            this.count = count;
+            this.data = data;
+            this.size = size;
+        }
+
+        void run() throws IOException {
+            while (position < size) {
+                int tag = data[position++] & 0xFF;
+                switch (tag & TAG_MASK) {
+                    case STEP -> {
+                        int kind = tag & ~TAG_MASK;
+                        if (kind >= STEP_KINDS.length) throw corrupted();
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                        }
+                        ids[count++] = graph.addStep(STEP_KINDS[kind], readText());
+                    }
+                    case EDGE, UNEDGE -> {
+                        int type = tag & ~TAG_MASK;
+                        if (type >= EDGE_TYPES.length) throw corrupted();
+                        int source = step();
+                        int target = step();
+                        if ((tag & TAG_MASK) == EDGE) {
+                            graph.connect(source, target, EDGE_TYPES[type]);
+                        } else {
+                            int edge = graph.find(source, target, EDGE_TYPES[type]);
+                            if (edge == FlowGraph.NONE) throw corrupted();
+                            graph.disconnect(edge);
+                        }
+                    }
+                    default -> {
+                        switch (tag) {
+                            case TEXT -> {
+                                int step = step();
+                                graph.setText(step, readText());
+                            }
+                            case MOVE -> {
+                                int step = step();
+                                if (size - position < 16) throw corrupted();
+                                graph.setPosition(step, readDouble(), readDouble());
+                            }
+                            case REMOVE -> graph.removeStep(step());
+                            default -> throw corrupted();
+                        }
+                    }
+                }
+            }
+        }
+
+        private int step() throws IOException {
+            int id = readVarint();
+            if (id < 0 || id >= count || !graph.contains(ids[id])) throw corrupted();
+            return ids[id];
+        }
+
+        private String readText() throws IOException {
+            int length = readVarint() - 1;
+            if (length < 0) return null;
+            if (length > size - position) throw corrupted();
+            String text = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return text;
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35 && position < size; shift += 7) {
+                int b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw corrupted();
+        }
+
+        private double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = bits << 8 | data[position++] & 0xFF;
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        private static IOException corrupted() {
+            return new IOException("Corrupted flowchart journal");
+        }
+    }
+
+    // ============= СОБЫТИЯ ГРАФА =============
+
+    @Override
+    public void stepAdded(int step) {
+        synchronized (lock) {
+            if (closed) return;
+            if (step >= journalIds.length) {
+                journalIds = Arrays.copyOf(journalIds, Math.max(step + 1, journalIds.length * 2));
+            }
+            journalIds[step] = nextJournalId++;
+            int start = batchSize;
+            putByte(STEP | graph.kind(step).ordinal());
+            putText(graph.text(step));
+            appendedRecord(start);
+        }
+    }
+
+    @Override
+    public void stepRemoved(int step) {
+        synchronized (lock) {
+            if (closed) return;
+            int start = batchSize;
+            putByte(REMOVE);
+            putVarint(journalIds[step]);
+            appendedRecord(start);
+        }
+    }
+
+    @Override
+    public void stepMoved(int step) {
+        synchronized (lock) {
+            if (closed) return;
+            int id = journalIds[step];
+            if (id < moveEpochs.length && moveEpochs[id] == epoch) {
+                // Сдвиг уже есть в этой группе: позиция на структуру не влияет, переписываем
+                int at = moveOffsets[id];
+                putDouble(at, graph.x(step));
+                putDouble(at + 8, graph.y(step));
+                return;
+            }
+            int start = batchSize;
+            putByte(MOVE);
+            putVarint(id);
+            if (id >= moveEpochs.length) {
+                int size = Math.max(id + 1, moveEpochs.length * 2);
+                moveEpochs = Arrays.copyOf(moveEpochs, size);
+                moveOffsets = Arrays.copyOf(moveOffsets, size);
+            }
+            moveEpochs[id] = epoch;
+            moveOffsets[id] = batchSize;
+            ensure(16);
+            putDouble(batchSize, graph.x(step));
+            putDouble(batchSize + 8, graph.y(step));
+            batchSize += 16;
+            appendedRecord(start);
+        }
+    }
+
+    @Override
+    public void textChanged(int step) {
+        synchronized (lock) {
+            if (closed) return;
+            int start = batchSize;
+            putByte(TEXT);
+            putVarint(journalIds[step]);
+            putText(graph.text(step));
+            appendedRecord(start);
+        }
+    }
+
+    @Override
+    public void edgeAdded(int edge) {
+        synchronized (lock) {
+            if (closed) return;
+            int start = batchSize;
+            putByte(EDGE | graph.type(edge).ordinal());
+            putVarint(journalIds[graph.source(edge)]);
+            putVarint(journalIds[graph.target(edge)]);
+            appendedRecord(start);
+        }
+    }
+
+    @Override
+    public void edgeRemoved(int edge, int source, int target, EdgeType type) {
+        synchronized (lock) {
+            if (closed) return;
+            int start = batchSize;
+            putByte(UNEDGE | type.ordinal());
+            putVarint(journalIds[source]);
+            putVarint(journalIds[target]);
+            appendedRecord(start);
+        }
+    }
+
+    // Вызывается под lock после каждой новой записи
+    private void appendedRecord(int start) {
+        int bytes = batchSize - start;
+        appended += bytes;
+        logBytes += bytes;
+        // Первая запись пакета запускает отсчет интервала, полный пакет уходит сразу
+        if (start == 0 || batchSize >= FLUSH_BYTES) {
+            lock.notifyAll();
+        }
+        if (logBytes >= compactAt) {
+            compact();
+        }
+    }
+
+    // ============= СЖАТИЕ И СБРОС =============
+
+    /**
+     * Сжать журнал сейчас: снимок копии графа и новый пустой журнал. Вызывается
+     * в потоке графа; копия снимается сразу, пишется в фоне.
+     */
+    public void compact() {
+        synchronized (lock) {
+            if (closed) return;
+            FlowGraph copy = graph.copy();
+            queueBatch();
+            generation++;
+            tasks.add(new Snapshot(generation, copy, appended));
+            // Номера узлов в новом журнале - номера в снимке (узлы снимка идут по возрастанию id)
+            if (journalIds.length < copy.stepCapacity()) {
+                journalIds = new int[copy.stepCapacity()];
+            }
+            int count = 0;
+            for (int id = 0; id < copy.stepCapacity(); id++) {
+                if (copy.contains(id)) journalIds[id] = count++;
+            }
+            nextJournalId = count;
+            logBytes = 0;
+            compactAt = Math.max(MIN_COMPACT_BYTES, (long) COMPACT_RATIO * (copy.stepCount() + copy.edgeCount()));
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Дождаться, пока все правки до этого вызова будут на диске
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            long target = appended;
+            syncRequested = true;
+            lock.notifyAll();
+            try {
+                while (durable < target && failure == null && !(closed && !flusher.isAlive())) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while syncing the journal");
+            }
+            if (failure != null) {
+                throw new IOException("Flowchart journal write failed", failure);
+            }
+        }
+    }
+
+    /**
+     * Отписаться от графа, дописать накопленное и остановить фоновый поток
+     */
+    @Override
+    public void close() throws IOException {
+        graph.removeListener(this);
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the journal");
+        }
+        synchronized (lock) {
+            if (failure != null) {
+                throw new IOException("Flowchart journal write failed", failure);
+            }
+        }
+    }
+
+    // Под lock: текущая группа уходит в очередь фонового потока
+    private void queueBatch() {
+        if (batchSize == 0) return;
+        tasks.add(new Frame(generation, batch, batchSize, appended));
+        batch = new byte[Math.max(1 << 12, Math.min(batchSize, FLUSH_BYTES))];
+        batchSize = 0;
+        epoch++;
+    }
+
+    private void flushLoop() {
+        try {
+            while (true) {
+                List<Object> work;
+                synchronized (lock) {
+                    while (!closed && !syncRequested && batchSize == 0 && tasks.isEmpty()) {
+                        lock.wait();
+                    }
+                    // Групповая фиксация: правки за интервал уходят одним кадром и одним fsync
+                    long deadline = System.nanoTime() + COMMIT_INTERVAL_MILLIS * 1_000_000;
+                    long left;
+                    while (!closed && !syncRequested && batchSize < FLUSH_BYTES
+                            && (left = deadline - System.nanoTime()) > 0) {
+                        lock.wait(Math.max(1, left / 1_000_000));
+                    }
+                    queueBatch();
+                    syncRequested = false;
+                    work = new ArrayList<>(tasks);
+                    tasks.clear();
+                    if (work.isEmpty() && closed) return;
+                }
+                long end = process(work);
+                synchronized (lock) {
+                    durable = Math.max(durable, end);
+                    lock.notifyAll();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (lock) {
+                failure = e instanceof IOException io ? io : new IOException(e);
+                closed = true;
+                lock.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeLog();
+        }
+    }
+
+    // Фоновый поток: дописать кадры и снимки по порядку, один fsync на журнал
+    private long process(List<Object> work) throws IOException {
+        long end = 0;
+        for (Object task : work) {
+            if (task instanceof Frame frame) {
+                writeFrame(frame);
+                end = frame.end();
+            } else if (task instanceof Snapshot snapshot) {
+                forceLog();
+                writeSnapshot(snapshot);
+                end = snapshot.end();
+            }
+        }
+        forceLog();
+        return end;
+    }
+
+    private void writeFrame(Frame frame) throws IOException {
+        if (logGeneration != frame.generation()) {
+            forceLog();
+            closeLog();
+            log = FileChannel.open(logPath(directory, frame.generation()),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            logGeneration = frame.generation();
+            if (log.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1);
+                header.put(MAGIC).put((byte) VERSION).flip();
+                writeFully(header);
+            }
+        }
+        crc.reset();
+        crc.update(frame.data(), 0, frame.size());
+        ByteBuffer head = ByteBuffer.allocate(8).putInt(frame.size()).putInt((int) crc.getValue()).flip();
+        writeFully(head);
+        writeFully(ByteBuffer.wrap(frame.data(), 0, frame.size()));
+    }
+
+    private void writeSnapshot(Snapshot snapshot) throws IOException {
+        Path target = snapshotPath(directory, snapshot.generation());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            FlowFormat.write(snapshot.copy(), out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+        // Новый снимок на диске - все предыдущие поколения больше не нужны
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                int fileGeneration = Math.max(generationOf(path, SNAPSHOT, SNAPSHOT_SUFFIX),
+                        generationOf(path, LOG, LOG_SUFFIX));
+                if (fileGeneration >= 0 && fileGeneration < snapshot.generation()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+    }
+
+    private void forceLog() throws IOException {
+        if (log != null) {
+            log.force(false);
+        }
+    }
+
+    private void closeLog() {
+        if (log == null) return;
+        try {
+            log.close();
+        } catch (IOException ignored) {
+            // Все, что важно, уже прошло force
+        }
+        log = null;
+        logGeneration = -1;
+    }
+
+    // Переименование снимка переживает сбой только после fsync каталога (где ОС это умеет)
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // Windows не открывает каталог как файл
+        }
+    }
+
+    // ============= КОДИРОВАНИЕ (под lock) =============
+
+    private void putByte(int value) {
+        ensure(1);
+        batch[batchSize++] = (byte) value;
+    }
+
+    private void putVarint(int value) {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            batch[batchSize++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        batch[batchSize++] = (byte) value;
+    }
+
+    private void putText(String text) {
+        if (text == null) {
+            putVarint(0);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        putVarint(bytes.length + 1);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, batch, batchSize, bytes.length);
+        batchSize += bytes.length;
+    }
+
+    private void putDouble(int at, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            batch[at + i] = (byte) (bits >>> 56 - i * 8);
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (batch.length - batchSize < bytes) {
+            batch = Arrays.copyOf(batch, Math.max(batchSize + bytes, batch.length * 2));
+        }
+    }
+
+    // ============= ФАЙЛЫ =============
+
+    static Path snapshotPath(Path directory, int generation) {
+        return directory.resolve(SNAPSHOT + generation + SNAPSHOT_SUFFIX);
+    }
+
+    static Path logPath(Path directory, int generation) {
+        return directory.resolve(LOG + generation + LOG_SUFFIX);
+    }
+
+    private static int latestGeneration(Path directory, String prefix, String suffix) throws IOException {
+        int latest = -1;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                latest = Math.max(latest, generationOf(path, prefix, suffix));
+            }
+        }
+        return latest;
+    }
+
+    private static int generationOf(Path path, String prefix, String suffix) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) return -1;
+        try {
+            return Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.LongIntMap;
+import com.alensoft.automator42.model.graph.StepKind;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Обмен схемами в JSON с другими инструментами. Запись и чтение потоковые
+ * ({@link JsonWriter}, {@link JsonReader}): дерево документа в памяти не строится.
+ * <pre>
+ * {"format": "automator42-flowchart", "version": 1,
+ *  "steps": [{"id": 0, "type": "Begin", "text": "Start", "x": 0, "y": 0}, ...],
+ *  "connections": [{"source": 0, "target": 1, "type": "OK"}, ...]}
+ * </pre>
+ * Типы узлов - имена классов представлений (Begin, End, Process, Branch, UserIO,
+ * Connector), типы соединений - имена ConType. Массив steps идет раньше connections;
+ * id узлов - любые целые, уникальные в документе. Неизвестные поля пропускаются.
+ */
+public final class FlowJson {
+    public static final String FORMAT = "automator42-flowchart";
+    public static final int VERSION = 1;
+
+    // Имена по порядку StepKind
+    private static final String[] STEP_TYPES = {"Begin", "End", "Process", "Branch", "UserIO", "Connector"};
+    private static final StepKind[] STEP_KINDS = StepKind.values();
+    private static final EdgeType[] EDGE_TYPES = EdgeType.values();
+
+    private FlowJson() {
+    }
+
+    /**
+     * Записать граф: узлы в порядке id, соединения в порядке создания.
+     * Поток сбрасывается, но не закрывается.
+     *
+     * @throws IllegalArgumentException если у узла координата NaN или бесконечность: в JSON
+     *                                  таких чисел нет (двоичный {@link FlowFormat} их хранит).
+     *                                  Проверка идет до записи, в поток ничего не попадает
+     */
+    public static void write(FlowGraph graph, Writer out) throws IOException {
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (graph.contains(step) && !(Double.isFinite(graph.x(step)) && Double.isFinite(graph.y(step)))) {
+                throw new IllegalArgumentException("Step " + step + " has a non-finite position: "
+                        + graph.x(step) + ", " + graph.y(step));
+            }
+        }
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        json.name("format").value(FORMAT);
+        json.name("version").value(VERSION);
+
+        json.name("steps").beginArray();
+        int[] fileIds = new int[graph.stepCapacity()];
+        int count = 0;
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (!graph.contains(step)) continue;
+            fileIds[step] = count;
+            json.beginObject();
+            json.name("id").value(count++);
+            json.name("type").value(STEP_TYPES[graph.kind(step).ordinal()]);
+            json.name("text").value(graph.text(step));
+            json.name("x").value(graph.x(step));
+            json.name("y").value(graph.y(step));
+            json.endObject();
+        }
+        json.endArray();
+
+        json.name("connections").beginArray();
+        for (int edge : FlowFormat.edgeOrder(graph)) {
+            json.beginObject();
+            json.name("source").value(fileIds[graph.source(edge)]);
+            json.name("target").value(fileIds[graph.target(edge)]);
+            json.name("type").value(graph.type(edge).name());
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Прочитать схему в новый граф. Поток не закрывается.
+     */
+    public static FlowGraph read(Reader in) throws IOException {
+        FlowGraph graph = new FlowGraph();
+        read(in, FlowSink.of(graph));
+        return graph;
+    }
+
+    /**
+     * Прочитать схему и отдать узлы и соединения приемнику по мере разбора.
+     * Поток не закрывается.
+     */
+    public static void read(Reader in, FlowSink sink) throws IOException {
+        JsonReader json = new JsonReader(in);
+        LongIntMap ids = new LongIntMap(1024, FlowGraph.NONE);
+        boolean stepsRead = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "format" -> {
+                    String format = json.nextString();
+                    if (!FORMAT.equals(format)) {
+                        throw new IOException("Not a flowchart document: " + format);
+                    }
+                }
+                case "version" -> {
+                    int version = json.nextInt();
+                    if (version > VERSION) {
+                        throw new IOException("Unsupported flowchart document version: " + version);
+                    }
+                }
+                case "steps" -> {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        readStep(json, sink, ids);
+                    }
+                    json.endArray();
+                    stepsRead = true;
+                }
+                case "connections" -> {
+                    if (!stepsRead) {
+                        throw new IOException("Connections must follow steps");
+                    }
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        readConnection(json, sink, ids);
+                    }
+                    json.endArray();
+                }
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        if (json.peek() != JsonReader.Token.END_DOCUMENT) {
+            throw new IOException("Unexpected data after the flowchart document");
+        }
+    }
+
+    private static void readStep(JsonReader json, FlowSink sink, LongIntMap ids) throws IOException {
+        Integer id = null;
+        StepKind kind = null;
+        String text = null;
+        double x = 0;
+        double y = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id" -> id = json.nextInt();
+                case "type" -> kind = stepKind(json.nextString());
+                case "text" -> text = json.nextString();
+                case "x" -> x = json.nextDouble();
+                case "y" -> y = json.nextDouble();
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        if (id == null || kind == null) {
+            throw new IOException("Step needs an id and a type");
+        }
+        if (ids.get(id) != FlowGraph.NONE) {
+            throw new IOException("Duplicate step id: " + id);
+        }
+        ids.put(id, sink.step(kind, text, x, y));
+    }
+
+    private static void readConnection(JsonReader json, FlowSink sink, LongIntMap ids) throws IOException {
+        Integer source = null;
+        Integer target = null;
+        EdgeType type = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "source" -> source = json.nextInt();
+                case "target" -> target = json.nextInt();
+                case "type" -> type = edgeType(json.nextString());
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        if (source == null || target == null || type == null) {
+            throw new IOException("Connection needs a source, a target and a type");
+        }
+        int from = ids.get(source);
+        int to = ids.get(target);
+        if (from == FlowGraph.NONE || to == FlowGraph.NONE) {
+            throw new IOException("Connection refers to an unknown step: " + source + " -> " + target);
+        }
+        if (from == to) {
+            throw new IOException("Connection from a step to itself: " + source);
+        }
+        sink.edge(from, to, type);
+    }
+
+    private static StepKind stepKind(String name) throws IOException {
+        for (int i = 0; i < STEP_TYPES.length; i++) {
+            if (STEP_TYPES[i].equals(name)) return STEP_KINDS[i];
+        }
+        throw new IOException("Unknown step type: " + name);
+    }
+
+    private static EdgeType edgeType(String name) throws IOException {
+        for (EdgeType type : EDGE_TYPES) {
+            if (type.name().equals(name)) return type;
+        }
+        throw new IOException("Unknown connection type: " + name);
+    }
+}
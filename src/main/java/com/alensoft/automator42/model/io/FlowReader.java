@@ -0,0 +1,274 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.StepKind;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковое чтение {@link FlowFormat}: {@link #next()} читает одну запись, ее поля
+ * доступны до следующего вызова. В памяти - только буфер и таблица строк.
+ * Класс не потокобезопасен.
+ */
+public class FlowReader implements Closeable {
+    private static final StepKind[] STEP_KINDS = StepKind.values();
+    private static final EdgeType[] EDGE_TYPES = EdgeType.values();
+
+    /**
+     * Вид прочитанной записи
+     */
+    public enum Record {
+        STEP, EDGE, END
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position;
+    private int limit;
+    private final List<String> strings = new ArrayList<>();
+    private int stepHint;
+    private int edgeHint;
+    private Record record;
+
+    // Поля текущей записи
+    private StepKind kind;
+    private String text;
+    private double x;
+    private double y;
+    private int steps;
+    private int source;
+    private int target;
+    private EdgeType edgeType;
+
+    public FlowReader(InputStream in) throws IOException {
+        this.in = in;
+        for (byte b : FlowFormat.MAGIC) {
+            if (readByte() != b) {
+                throw new IOException("Not a flowchart file");
+            }
+        }
+        int version = readVarint();
+        if (version > FlowFormat.VERSION) {
+            throw new IOException("Unsupported flowchart file version: " + version);
+        }
+        if (peekByte() == FlowFormat.SIZE) {
+            position++;
+            stepHint = readVarint();
+            edgeHint = readVarint();
+            if (stepHint < 0 || edgeHint < 0) {
+                throw new IOException("Malformed size hint");
+            }
+        }
+    }
+
+    /**
+     * Сколько узлов обещал писатель (0 - не сказал)
+     */
+    public int stepHint() {
+        return stepHint;
+    }
+
+    public int edgeHint() {
+        return edgeHint;
+    }
+
+    /**
+     * Прочитать следующую запись. После END ничего не читается.
+     */
+    public Record next() throws IOException {
+        if (record == Record.END) return Record.END;
+        if (record == Record.STEP) {
+            steps++;
+        }
+        int tag = readByte() & 0xFF;
+        switch (tag & FlowFormat.TAG_MASK) {
+            case FlowFormat.STEP -> {
+                readStepHead(tag);
+                x = (long) x + unzigzag(readVarlong());
+                y = (long) y + unzigzag(readVarlong());
+                record = Record.STEP;
+            }
+            case FlowFormat.STEP_DOUBLE -> {
+                readStepHead(tag);
+                x = Double.longBitsToDouble(readLong());
+                y = Double.longBitsToDouble(readLong());
+                record = Record.STEP;
+            }
+            case FlowFormat.EDGE -> {
+                int type = tag & ~FlowFormat.TAG_MASK;
+                if (type >= EDGE_TYPES.length) {
+                    throw new IOException("Unknown edge type: " + type);
+                }
+                edgeType = EDGE_TYPES[type];
+                source += unzigzag(readVarint());
+                target = source + unzigzag(readVarint());
+                if (source < 0 || source >= steps || target < 0 || target >= steps) {
+                    throw new IOException("Edge refers to an unknown step: " + source + " -> " + target);
+                }
+                record = Record.EDGE;
+            }
+            default -> {
+                if (tag != FlowFormat.END) {
+                    throw new IOException("Unknown record: 0x" + Integer.toHexString(tag));
+                }
+                record = Record.END;
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Id прочитанного узла в файле (порядковый номер записи узла)
+     */
+    public int stepId() {
+        return steps;
+    }
+
+    public StepKind kind() {
+        return kind;
+    }
+
+    public String text() {
+        return text;
+    }
+
+    public double x() {
+        return x;
+    }
+
+    public double y() {
+        return y;
+    }
+
+    public int source() {
+        return source;
+    }
+
+    public int target() {
+        return target;
+    }
+
+    public EdgeType edgeType() {
+        return edgeType;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readStepHead(int tag) throws IOException {
+        int ordinal = tag & ~FlowFormat.TAG_MASK;
+        if (ordinal >= STEP_KINDS.length) {
+            throw new IOException("Unknown step kind: " + ordinal);
+        }
+        kind = STEP_KINDS[ordinal];
+        text = readText();
+    }
+
+    private String readText() throws IOException {
+        int ref = readVarint();
+        if (ref == FlowFormat.TEXT_NULL) return null;
+        if (ref != FlowFormat.TEXT_NEW) {
+            int index = ref - FlowFormat.TEXT_REF;
+            if (index >= strings.size()) {
+                throw new IOException("Unknown string: " + index);
+            }
+            return strings.get(index);
+        }
+        int length = readVarint();
+        if (length < 0) {
+            throw new IOException("Malformed string length: " + length);
+        }
+        String value;
+        if (length <= buffer.length) {
+            require(length);
+            value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+        } else {
+            // Длина из файла не проверена: массив растет по мере чтения, а не выделяется сразу
+            int copied = limit - position;
+            byte[] tail = in.readNBytes(length - copied);
+            if (tail.length != length - copied) {
+                throw new EOFException("Truncated flowchart file");
+            }
+            byte[] bytes = new byte[length];
+            System.arraycopy(buffer, position, bytes, 0, copied);
+            System.arraycopy(tail, 0, bytes, copied, tail.length);
+            position = limit;
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        strings.add(value);
+        return value;
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private long readVarlong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private long readLong() throws IOException {
+        require(8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | buffer[position++] & 0xFF;
+        }
+        return value;
+    }
+
+    private byte readByte() throws IOException {
+        if (position == limit) {
+            require(1);
+        }
+        return buffer[position++];
+    }
+
+    private int peekByte() throws IOException {
+        require(1);
+        return buffer[position];
+    }
+
+    // Дочитать в буфер, чтобы в нем было не меньше bytes непрочитанных байт
+    private void require(int bytes) throws IOException {
+        if (limit - position >= bytes) return;
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        while (limit < bytes) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                throw new EOFException("Truncated flowchart file");
+            }
+            limit += read;
+        }
+    }
+
+    private static int unzigzag(int value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+}
@@ -0,0 +1,59 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.StepKind;
+
+/**
+ * Приемник схемы при импорте: читатель формата отдает узлы и связи по одному,
+ * а приемник сам решает, во что их собрать (граф, канвас).
+ * Связь всегда приходит после обоих своих узлов.
+ */
+public interface FlowSink {
+
+    /**
+     * Принять узел
+     *
+     * @return id узла в приемнике - на него ссылаются связи
+     */
+    int step(StepKind kind, String text, double x, double y);
+
+    /**
+     * Принять связь между узлами с id из {@link #step}
+     */
+    void edge(int source, int target, EdgeType type);
+
+    /**
+     * Принять все узлы (в порядке id) и связи (в порядке создания) графа
+     */
+    default void addAll(FlowGraph graph) {
+        int[] ids = new int[graph.stepCapacity()];
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (graph.contains(step)) {
+                ids[step] = step(graph.kind(step), graph.text(step), graph.x(step), graph.y(step));
+            }
+        }
+        for (int edge : FlowFormat.edgeOrder(graph)) {
+            edge(ids[graph.source(edge)], ids[graph.target(edge)], graph.type(edge));
+        }
+    }
+
+    /**
+     * Приемник, который добавляет узлы и связи в граф
+     */
+    static FlowSink of(FlowGraph graph) {
+        return new FlowSink() {
+            @Override
+            public int step(StepKind kind, String text, double x, double y) {
+                int id = graph.addStep(kind, text);
+                graph.setPosition(id, x, y);
+                return id;
+            }
+
+            @Override
+            public void edge(int source, int target, EdgeType type) {
+                graph.connect(source, target, type);
+            }
+        };
+    }
+}
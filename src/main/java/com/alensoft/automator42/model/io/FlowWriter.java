@@ -0,0 +1,196 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.StepKind;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Потоковая запись {@link FlowFormat}: каждая запись сразу уходит в буфер и дальше
+ * в поток, в памяти остаются только таблица строк и координаты прошлого узла.
+ * Класс не потокобезопасен.
+ */
+public class FlowWriter implements Closeable {
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+    private static final double MAX_EXACT = 1L << 52;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private int steps;
+    private int edges;
+    private double lastX;
+    private double lastY;
+    private int lastSource;
+    private boolean finished;
+
+    public FlowWriter(OutputStream out) throws IOException {
+        this.out = out;
+        System.arraycopy(FlowFormat.MAGIC, 0, buffer, 0, FlowFormat.MAGIC.length);
+        position = FlowFormat.MAGIC.length;
+        writeVarint(FlowFormat.VERSION);
+    }
+
+    /**
+     * Сколько будет узлов и связей: читатель заранее выделит массивы. Только до первого узла.
+     */
+    public void sizeHint(int stepCount, int edgeCount) throws IOException {
+        if (steps > 0 || edges > 0) {
+            throw new IllegalStateException("Size hint must precede steps");
+        }
+        ensure(11);
+        buffer[position++] = FlowFormat.SIZE;
+        writeVarint(stepCount);
+        writeVarint(edgeCount);
+    }
+
+    /**
+     * Записать узел
+     *
+     * @return id узла в файле - на него ссылаются связи
+     */
+    public int step(StepKind kind, String text, double x, double y) throws IOException {
+        checkOpen();
+        boolean integral = isIntegral(x) && isIntegral(y);
+        ensure(1);
+        buffer[position++] = (byte) ((integral ? FlowFormat.STEP : FlowFormat.STEP_DOUBLE) | kind.ordinal());
+        writeText(text);
+        if (integral) {
+            ensure(20);
+            writeVarlong(zigzag((long) x - (long) lastX));
+            writeVarlong(zigzag((long) y - (long) lastY));
+        } else {
+            ensure(16);
+            writeLong(Double.doubleToRawLongBits(x));
+            writeLong(Double.doubleToRawLongBits(y));
+        }
+        lastX = x;
+        lastY = y;
+        return steps++;
+    }
+
+    /**
+     * Записать связь между уже записанными узлами (id из {@link #step})
+     */
+    public void edge(int source, int target, EdgeType type) throws IOException {
+        checkOpen();
+        if (source < 0 || source >= steps || target < 0 || target >= steps) {
+            throw new IllegalArgumentException("Edge refers to an unwritten step: " + source + " -> " + target);
+        }
+        ensure(11);
+        buffer[position++] = (byte) (FlowFormat.EDGE | type.ordinal());
+        writeVarint(zigzag(source - lastSource));
+        writeVarint(zigzag(target - source));
+        lastSource = source;
+        edges++;
+    }
+
+    /**
+     * Записать конец файла и сбросить буфер; поток остается открытым
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        ensure(1);
+        buffer[position++] = FlowFormat.END;
+        flushBuffer();
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeText(String text) throws IOException {
+        if (text == null) {
+            ensure(1);
+            buffer[position++] = FlowFormat.TEXT_NULL;
+            return;
+        }
+        Integer index = strings.get(text);
+        if (index != null) {
+            ensure(5);
+            writeVarint(index + FlowFormat.TEXT_REF);
+            return;
+        }
+        strings.put(text, strings.size());
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ensure(6);
+        buffer[position++] = FlowFormat.TEXT_NEW;
+        writeVarint(bytes.length);
+        if (bytes.length > buffer.length - position) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    // Вызывающий заранее освобождает место через ensure
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeVarlong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.length - position < bytes) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("Writer is finished");
+        }
+    }
+
+    // Целые координаты (обычные для раскладки) пишутся разностями varint
+    private static boolean isIntegral(double value) {
+        return value == Math.rint(value) && Math.abs(value) < MAX_EXACT
+                && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO;
+    }
+
+    private static int zigzag(int value) {
+        return value << 1 ^ value >> 31;
+    }
+
+    private static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+}
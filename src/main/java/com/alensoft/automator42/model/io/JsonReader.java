@@ -0,0 +1,351 @@
+package com.alensoft.automator42.model.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Потоковый (pull) разбор JSON без зависимостей: {@link #peek()} показывает следующий
+ * токен, next-методы его забирают. В памяти - буфер, стек вложенности и текущая строка,
+ * дерево документа не строится. Ошибки формата - {@link IOException} с номером строки
+ * и столбца. Класс не потокобезопасен.
+ */
+public class JsonReader implements Closeable {
+
+    /**
+     * Вид следующего токена
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // Состояние уровня вложенности
+    private static final byte DOCUMENT = 0;
+    private static final byte EMPTY_ARRAY = 1;
+    private static final byte ARRAY = 2;
+    private static final byte EMPTY_OBJECT = 3;
+    private static final byte OBJECT = 4;    // ждем ',' или '}'
+    private static final byte NAME = 5;      // имя прочитано, ждем ':' и значение
+    private static final byte DONE = 6;      // корневое значение прочитано
+
+    private final Reader in;
+    private final char[] buffer = new char[1 << 13];
+    private int position;
+    private int limit;
+    private int line = 1;
+    private int lineStart;  // смещение начала строки относительно buffer
+    private byte[] stack = new byte[16];
+    private int depth = 1;
+
+    private Token peeked;
+    private final StringBuilder value = new StringBuilder();
+
+    public JsonReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Следующий токен без его чтения
+     */
+    public Token peek() throws IOException {
+        if (peeked != null) return peeked;
+        byte state = stack[depth - 1];
+        switch (state) {
+            case EMPTY_ARRAY -> stack[depth - 1] = ARRAY;
+            case ARRAY -> {
+                int c = nextNonSpace();
+                if (c == ']') return peeked = Token.END_ARRAY;
+                if (c != ',') throw syntax("Expected ',' or ']'");
+            }
+            case EMPTY_OBJECT, OBJECT -> {
+                int c = nextNonSpace();
+                if (c == '}') return peeked = Token.END_OBJECT;
+                if (state == OBJECT && c != ',') throw syntax("Expected ',' or '}'");
+                if (state == OBJECT) c = nextNonSpace();
+                if (c != '"') throw syntax("Expected a name");
+                readString();
+                stack[depth - 1] = NAME;
+                return peeked = Token.NAME;
+            }
+            case NAME -> {
+                if (nextNonSpace() != ':') throw syntax("Expected ':'");
+                stack[depth - 1] = OBJECT;
+            }
+            case DOCUMENT -> stack[depth - 1] = DONE;
+            case DONE -> {
+                if (skipSpace()) throw syntax("Unexpected data after the root value");
+                return peeked = Token.END_DOCUMENT;
+            }
+            default -> throw new IllegalStateException("Unknown state " + state);
+        }
+
+        int c = nextNonSpace();
+        if (c == ']' && state == EMPTY_ARRAY) {
+            return peeked = Token.END_ARRAY;
+        }
+        return peeked = switch (c) {
+            case '{' -> Token.BEGIN_OBJECT;
+            case '[' -> Token.BEGIN_ARRAY;
+            case '"' -> {
+                readString();
+                yield Token.STRING;
+            }
+            case 't' -> keyword("rue", Token.BOOLEAN, "true");
+            case 'f' -> keyword("alse", Token.BOOLEAN, "false");
+            case 'n' -> keyword("ull", Token.NULL, "null");
+            default -> {
+                if (c != '-' && (c < '0' || c > '9')) throw syntax("Unexpected character '" + (char) c + "'");
+                readNumber(c);
+                yield Token.NUMBER;
+            }
+        };
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * Есть ли еще элементы в текущем массиве или объекте
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return value.toString();
+    }
+
+    /**
+     * Строка; null, если в документе null
+     */
+    public String nextString() throws IOException {
+        if (peek() == Token.NULL) {
+            peeked = null;
+            return null;
+        }
+        expect(Token.STRING);
+        return value.toString();
+    }
+
+    public double nextDouble() throws IOException {
+        expect(Token.NUMBER);
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            throw syntax("Malformed number " + value);
+        }
+    }
+
+    public int nextInt() throws IOException {
+        double number = nextDouble();
+        if (number != (int) number) {
+            throw syntax("Expected an integer, got " + value);
+        }
+        return (int) number;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return value.charAt(0) == 't';
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Пропустить следующее значение целиком (с вложенными), например неизвестное поле
+     */
+    public void skipValue() throws IOException {
+        int level = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT -> {
+                    beginObject();
+                    level++;
+                }
+                case BEGIN_ARRAY -> {
+                    beginArray();
+                    level++;
+                }
+                case END_OBJECT -> {
+                    endObject();
+                    level--;
+                }
+                case END_ARRAY -> {
+                    endArray();
+                    level--;
+                }
+                case END_DOCUMENT -> throw syntax("Unexpected end of document");
+                default -> peeked = null;
+            }
+        } while (level > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token token) throws IOException {
+        Token actual = peek();
+        if (actual != token) {
+            throw syntax("Expected " + token + " but was " + actual);
+        }
+        peeked = null;
+    }
+
+    private void push(byte state) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = state;
+    }
+
+    private Token keyword(String rest, Token token, String text) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) throw syntax("Expected " + text);
+        }
+        value.setLength(0);
+        value.append(text);
+        return token;
+    }
+
+    // Первый символ (кавычка) уже прочитан
+    private void readString() throws IOException {
+        value.setLength(0);
+        while (true) {
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == '"' || c == '\\' || c < 0x20) break;
+                position++;
+            }
+            value.append(buffer, start, position - start);
+            if (position == limit) {
+                if (!fill()) throw new EOFException("Unterminated string at line " + line);
+                continue;
+            }
+            char c = buffer[position++];
+            if (c == '"') return;
+            if (c != '\\') throw syntax("Control character in string");
+            int escaped = read();
+            switch (escaped) {
+                case '"', '\\', '/' -> value.append((char) escaped);
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'u' -> {
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(read(), 16);
+                        if (digit < 0) throw syntax("Malformed \\u escape");
+                        code = code << 4 | digit;
+                    }
+                    value.append((char) code);
+                }
+                default -> throw syntax("Unknown escape \\" + (char) escaped);
+            }
+        }
+    }
+
+    // Число проверяется по грамматике JSON, значение разбирает nextDouble
+    private void readNumber(int first) throws IOException {
+        value.setLength(0);
+        value.append((char) first);
+        while (true) {
+            if (position == limit && !fill()) break;
+            char c = buffer[position];
+            if ((c < '0' || c > '9') && c != '.' && c != 'e' && c != 'E' && c != '+' && c != '-') break;
+            value.append(c);
+            position++;
+        }
+        if (!isNumber(value)) throw syntax("Malformed number " + value);
+    }
+
+    private static boolean isNumber(CharSequence s) {
+        int i = 0;
+        int n = s.length();
+        if (i < n && s.charAt(i) == '-') i++;
+        if (i == n) return false;
+        if (s.charAt(i) == '0') {
+            i++;
+        } else {
+            int start = i;
+            while (i < n && Character.isDigit(s.charAt(i))) i++;
+            if (i == start) return false;
+        }
+        if (i < n && s.charAt(i) == '.') {
+            int start = ++i;
+            while (i < n && Character.isDigit(s.charAt(i))) i++;
+            if (i == start) return false;
+        }
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+            int start = i;
+            while (i < n && Character.isDigit(s.charAt(i))) i++;
+            if (i == start) return false;
+        }
+        return i == n;
+    }
+
+    private int nextNonSpace() throws IOException {
+        if (!skipSpace()) throw new EOFException("Unexpected end of JSON at line " + line);
+        return buffer[position++];
+    }
+
+    // Пропустить пробелы; false - конец потока
+    private boolean skipSpace() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) return false;
+            char c = buffer[position];
+            if (c == '\n') {
+                line++;
+                lineStart = position + 1;
+            } else if (c != ' ' && c != '\t' && c != '\r') {
+                return true;
+            }
+            position++;
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) throw new EOFException("Unexpected end of JSON at line " + line);
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        lineStart -= position;
+        position = 0;
+        limit = Math.max(0, in.read(buffer, 0, buffer.length));
+        return limit > 0;
+    }
+
+    private IOException syntax(String message) {
+        return new IOException(message + " at line " + line + " column " + (position - lineStart));
+    }
+}
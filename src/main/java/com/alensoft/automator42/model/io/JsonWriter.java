@@ -0,0 +1,218 @@
+package com.alensoft.automator42.model.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Потоковая запись JSON без зависимостей: значения сразу уходят в буфер и дальше
+ * в {@link Writer}, дерево документа не строится. Помнится только стек вложенности.
+ * Неверный порядок вызовов (значение без имени в объекте, лишний end) -
+ * {@link IllegalStateException}. Класс не потокобезопасен.
+ */
+public class JsonWriter implements Closeable, Flushable {
+    // Состояние уровня вложенности
+    private static final byte DOCUMENT = 0;
+    private static final byte EMPTY_ARRAY = 1;
+    private static final byte ARRAY = 2;
+    private static final byte EMPTY_OBJECT = 3;
+    private static final byte OBJECT = 4;
+    private static final byte NAME = 5;      // имя записано, ждем значение
+    private static final byte DONE = 6;      // корневое значение записано
+
+    private final Writer out;
+    private final char[] buffer = new char[1 << 13];
+    private int position;
+    private byte[] stack = new byte[16];
+    private int depth = 1;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        write('{');
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        byte state = stack[depth - 1];
+        if (state != EMPTY_OBJECT && state != OBJECT) {
+            throw new IllegalStateException("Not inside an object");
+        }
+        depth--;
+        write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        write('[');
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        byte state = stack[depth - 1];
+        if (state != EMPTY_ARRAY && state != ARRAY) {
+            throw new IllegalStateException("Not inside an array");
+        }
+        depth--;
+        write(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        byte state = stack[depth - 1];
+        if (state == OBJECT) {
+            write(',');
+        } else if (state != EMPTY_OBJECT) {
+            throw new IllegalStateException("Name outside an object");
+        }
+        stack[depth - 1] = NAME;
+        string(name);
+        write(':');
+        return this;
+    }
+
+    /**
+     * Строка или null
+     */
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            literal("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        literal(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Число; целое пишется без дробной части. NaN и бесконечности в JSON не бывает.
+     */
+    public JsonWriter value(double value) throws IOException {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("JSON number must be finite: " + value);
+        }
+        beforeValue();
+        if (value == (long) value && Math.abs(value) < 1L << 53
+                && Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0)) {
+            literal(Long.toString((long) value));
+        } else {
+            literal(Double.toString(value));
+        }
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        literal(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Сбросить буфер в поток
+     */
+    @Override
+    public void flush() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+        out.flush();
+    }
+
+    /**
+     * Сбросить буфер и закрыть поток. Документ должен быть завершен.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+        if (depth > 1 || stack[0] != DONE) {
+            throw new IOException("Incomplete JSON document");
+        }
+    }
+
+    private void beforeValue() throws IOException {
+        switch (stack[depth - 1]) {
+            case DOCUMENT -> stack[depth - 1] = DONE;
+            case EMPTY_ARRAY -> stack[depth - 1] = ARRAY;
+            case ARRAY -> write(',');
+            case NAME -> stack[depth - 1] = OBJECT;
+            case DONE -> throw new IllegalStateException("JSON document already has a root value");
+            default -> throw new IllegalStateException("Value inside an object needs a name");
+        }
+    }
+
+    private void push(byte state) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = state;
+    }
+
+    private void string(String value) throws IOException {
+        write('"');
+        int plain = 0;  // начало еще не скопированного куска без экранирования
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') continue;
+            chars(value, plain, i);
+            plain = i + 1;
+            switch (c) {
+                case '"' -> literal("\\\"");
+                case '\\' -> literal("\\\\");
+                case '\n' -> literal("\\n");
+                case '\r' -> literal("\\r");
+                case '\t' -> literal("\\t");
+                case '\b' -> literal("\\b");
+                case '\f' -> literal("\\f");
+                // Разделители строк U+2028/2029 ломают JavaScript-парсеры
+                case '\u2028' -> literal("\\u2028");
+                case '\u2029' -> literal("\\u2029");
+                default -> literal(String.format("\\u%04x", (int) c));
+            }
+        }
+        chars(value, plain, value.length());
+        write('"');
+    }
+
+    private void literal(String text) throws IOException {
+        chars(text, 0, text.length());
+    }
+
+    // Скопировать text[from, to) в буфер кусками по размеру буфера
+    private void chars(String text, int from, int to) throws IOException {
+        while (from < to) {
+            if (position == buffer.length) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+            int count = Math.min(to - from, buffer.length - position);
+            text.getChars(from, from + count, buffer, position);
+            position += count;
+            from += count;
+        }
+    }
+
+    private void write(char c) throws IOException {
+        if (position == buffer.length) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        buffer[position++] = c;
+    }
+}
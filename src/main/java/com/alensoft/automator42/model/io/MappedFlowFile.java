@@ -0,0 +1,502 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.graph.StepKind;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Схема в файле с постраничной раскладкой, которая читается через {@link FileChannel#map}
+ * без загрузки: открытие читает только заголовок, остальное подтягивает ОС по мере обращения.
+ * <pre>
+ * заголовок (64 байта)  MAGIC "A42M", версия, число узлов, связей, страниц, размер страницы, размер кучи
+ * страницы  (16 байт)   col, row, первый узел, число узлов - по возрастанию (row, col)
+ * узлы      (40 байт)   x, y, текст (смещение в куче или -1), вид, первая/число исходящих, первая/число входящих
+ * исходящие (8 байт)    target, тип - сгруппированы по source, внутри в порядке создания
+ * входящие  (8 байт)    source, тип - сгруппированы по target
+ * куча строк            длина (int), UTF-8; одинаковые строки хранятся один раз
+ * </pre>
+ * Страница - клетка сетки {@link #pageWidth()} x {@link #pageHeight()} по левому верхнему
+ * углу узла; узлы одной страницы лежат в таблице подряд, id узла - номер записи.
+ * Поэтому видимая область читает только свои страницы, а не файл целиком.
+ * Порядок байт - little-endian. Класс не потокобезопасен.
+ */
+public final class MappedFlowFile implements Closeable {
+    public static final int MAGIC = 'A' | '4' << 8 | '2' << 16 | 'M' << 24;
+    public static final int VERSION = 1;
+    public static final double DEFAULT_PAGE_WIDTH = 2048;
+    public static final double DEFAULT_PAGE_HEIGHT = 1024;
+
+    static final int HEADER_BYTES = 64;
+    static final int PAGE_BYTES = 16;
+    static final int STEP_BYTES = 40;
+    static final int EDGE_BYTES = 8;
+
+    private static final StepKind[] STEP_KINDS = StepKind.values();
+    private static final EdgeType[] EDGE_TYPES = EdgeType.values();
+
+    private final FileChannel channel;
+    private final int stepCount;
+    private final int edgeCount;
+    private final int pageCount;
+    private final double pageWidth;
+    private final double pageHeight;
+    private final ByteBuffer pages;
+    private final ByteBuffer steps;
+    private final ByteBuffer outs;
+    private final ByteBuffer ins;
+    private final ByteBuffer heap;
+
+    private MappedFlowFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Not a mapped flowchart file");
+            }
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a mapped flowchart file");
+        }
+        int version = header.getInt(4);
+        if (version > VERSION) {
+            throw new IOException("Unsupported mapped flowchart file version: " + version);
+        }
+        stepCount = header.getInt(8);
+        edgeCount = header.getInt(12);
+        pageCount = header.getInt(16);
+        pageWidth = header.getDouble(24);
+        pageHeight = header.getDouble(32);
+        long heapBytes = header.getLong(40);
+        if (stepCount < 0 || edgeCount < 0 || pageCount < 0 || heapBytes < 0
+                || !(pageWidth > 0) || !(pageHeight > 0)) {
+            throw new IOException("Corrupted mapped flowchart file header");
+        }
+
+        long offset = HEADER_BYTES;
+        pages = map(offset, (long) pageCount * PAGE_BYTES);
+        offset += (long) pageCount * PAGE_BYTES;
+        steps = map(offset, (long) stepCount * STEP_BYTES);
+        offset += (long) stepCount * STEP_BYTES;
+        outs = map(offset, (long) edgeCount * EDGE_BYTES);
+        offset += (long) edgeCount * EDGE_BYTES;
+        ins = map(offset, (long) edgeCount * EDGE_BYTES);
+        offset += (long) edgeCount * EDGE_BYTES;
+        heap = map(offset, heapBytes);
+        if (offset + heapBytes > channel.size()) {
+            throw new IOException("Truncated mapped flowchart file");
+        }
+    }
+
+    private ByteBuffer map(long offset, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Mapped flowchart section is too large: " + size + " bytes");
+        }
+        if (offset + size > channel.size()) {
+            throw new IOException("Truncated mapped flowchart file");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Открыть файл. Стоит O(1): читается заголовок, секции только отображаются в память.
+     */
+    public static MappedFlowFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MappedFlowFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Отображение освободит сборщик мусора, когда на буферы не останется ссылок
+        channel.close();
+    }
+
+    // ============= УЗЛЫ И СВЯЗИ =============
+
+    public int stepCount() {
+        return stepCount;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    public StepKind kind(int step) {
+        int ordinal = steps.getInt(stepOffset(step) + 20);
+        if (ordinal < 0 || ordinal >= STEP_KINDS.length) {
+            throw new IllegalStateException("Unknown step kind in mapped file: " + ordinal);
+        }
+        return STEP_KINDS[ordinal];
+    }
+
+    /**
+     * Текст узла. Строка декодируется из кучи при каждом вызове - кешировать вызывающему.
+     */
+    public String text(int step) {
+        int offset = steps.getInt(stepOffset(step) + 16);
+        if (offset < 0) return null;
+        int length = heap.getInt(offset);
+        byte[] bytes = new byte[length];
+        heap.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public double x(int step) {
+        return steps.getDouble(stepOffset(step));
+    }
+
+    public double y(int step) {
+        return steps.getDouble(stepOffset(step) + 8);
+    }
+
+    public int outDegree(int step) {
+        return steps.getInt(stepOffset(step) + 28);
+    }
+
+    /**
+     * Цель i-й исходящей связи узла (в порядке создания)
+     */
+    public int outTarget(int step, int i) {
+        return outs.getInt(outOffset(step, i));
+    }
+
+    public EdgeType outType(int step, int i) {
+        return edgeType(outs.getInt(outOffset(step, i) + 4));
+    }
+
+    public int inDegree(int step) {
+        return steps.getInt(stepOffset(step) + 36);
+    }
+
+    /**
+     * Источник i-й входящей связи узла
+     */
+    public int inSource(int step, int i) {
+        return ins.getInt(inOffset(step, i));
+    }
+
+    public EdgeType inType(int step, int i) {
+        return edgeType(ins.getInt(inOffset(step, i) + 4));
+    }
+
+    private int stepOffset(int step) {
+        if (step < 0 || step >= stepCount) {
+            throw new IndexOutOfBoundsException("Step " + step + " out of " + stepCount);
+        }
+        return step * STEP_BYTES;
+    }
+
+    private int outOffset(int step, int i) {
+        int at = stepOffset(step);
+        if (i < 0 || i >= steps.getInt(at + 28)) {
+            throw new IndexOutOfBoundsException("Out edge " + i + " of step " + step);
+        }
+        return (steps.getInt(at + 24) + i) * EDGE_BYTES;
+    }
+
+    private int inOffset(int step, int i) {
+        int at = stepOffset(step);
+        if (i < 0 || i >= steps.getInt(at + 36)) {
+            throw new IndexOutOfBoundsException("In edge " + i + " of step " + step);
+        }
+        return (steps.getInt(at + 32) + i) * EDGE_BYTES;
+    }
+
+    private static EdgeType edgeType(int ordinal) {
+        if (ordinal < 0 || ordinal >= EDGE_TYPES.length) {
+            throw new IllegalStateException("Unknown edge type in mapped file: " + ordinal);
+        }
+        return EDGE_TYPES[ordinal];
+    }
+
+    // ============= СТРАНИЦЫ =============
+
+    public int pageCount() {
+        return pageCount;
+    }
+
+    public double pageWidth() {
+        return pageWidth;
+    }
+
+    public double pageHeight() {
+        return pageHeight;
+    }
+
+    /**
+     * Первый узел страницы; узлы страницы - firstStep .. firstStep + pageSize - 1
+     */
+    public int firstStep(int page) {
+        return pages.getInt(pageOffset(page) + 8);
+    }
+
+    public int pageSize(int page) {
+        return pages.getInt(pageOffset(page) + 12);
+    }
+
+    /**
+     * Страница, в которой лежит узел
+     */
+    public int pageOf(int step) {
+        stepOffset(step);
+        int low = 0;
+        int high = pageCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstStep(mid) <= step) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Страницы, в которых лежат левые верхние углы узлов из области. Чтобы найти все
+     * пересекающие область узлы, вызывающий расширяет ее влево и вверх на размер узла.
+     * Стоит O(строк области * log страниц + найденные страницы).
+     */
+    public void findPages(double minX, double minY, double maxX, double maxY, IntQueue out) {
+        if (pageCount == 0 || minX > maxX || minY > maxY) return;
+        int firstRow = Math.max(row(0), cell(minY, pageHeight));
+        int lastRow = Math.min(row(pageCount - 1), cell(maxY, pageHeight));
+        int firstCol = cell(minX, pageWidth);
+        int lastCol = cell(maxX, pageWidth);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int page = lowerBound(row, firstCol); page < pageCount; page++) {
+                if (row(page) != row || col(page) > lastCol) break;
+                out.offer(page);
+            }
+        }
+    }
+
+    private int lowerBound(int row, int col) {
+        int low = 0;
+        int high = pageCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int midRow = row(mid);
+            if (midRow < row || midRow == row && col(mid) < col) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int col(int page) {
+        return pages.getInt(page * PAGE_BYTES);
+    }
+
+    private int row(int page) {
+        return pages.getInt(page * PAGE_BYTES + 4);
+    }
+
+    private int pageOffset(int page) {
+        if (page < 0 || page >= pageCount) {
+            throw new IndexOutOfBoundsException("Page " + page + " out of " + pageCount);
+        }
+        return page * PAGE_BYTES;
+    }
+
+    private static int cell(double value, double size) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.floor(value / size)));
+    }
+
+    /**
+     * Загрузить схему целиком в граф: id узлов графа совпадают с id в файле
+     */
+    public FlowGraph toGraph() {
+        FlowGraph graph = new FlowGraph(stepCount, edgeCount);
+        for (int step = 0; step < stepCount; step++) {
+            int id = graph.addStep(kind(step), text(step));
+            graph.setPosition(id, x(step), y(step));
+        }
+        for (int step = 0; step < stepCount; step++) {
+            for (int i = 0, n = outDegree(step); i < n; i++) {
+                graph.connect(step, outTarget(step, i), outType(step, i));
+            }
+        }
+        return graph;
+    }
+
+    // ============= ЗАПИСЬ =============
+
+    public static void write(FlowGraph graph, Path path) throws IOException {
+        write(graph, path, DEFAULT_PAGE_WIDTH, DEFAULT_PAGE_HEIGHT);
+    }
+
+    /**
+     * Записать граф постранично. Узлы переупорядочиваются по страницам, поэтому
+     * id в файле не совпадают с id графа; порядок связей каждого узла сохраняется.
+     */
+    public static void write(FlowGraph graph, Path path, double pageWidth, double pageHeight) throws IOException {
+        if (!(pageWidth > 0) || !(pageHeight > 0)) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageWidth + " x " + pageHeight);
+        }
+        int stepCount = graph.stepCount();
+        int edgeCount = graph.edgeCount();
+
+        // 1. Страница каждого узла: (row, col) в одном long, сортировка дает порядок страниц
+        long[] cells = new long[stepCount];
+        int[] ids = new int[stepCount];
+        int count = 0;
+        for (int id = 0; id < graph.stepCapacity(); id++) {
+            if (!graph.contains(id)) continue;
+            ids[count] = id;
+            cells[count++] = cellKey(cell(graph.y(id), pageHeight), cell(graph.x(id), pageWidth));
+        }
+        long[] pageKeys = cells.clone();
+        Arrays.sort(pageKeys);
+        int pageCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || pageKeys[i] != pageKeys[pageCount - 1]) {
+                pageKeys[pageCount++] = pageKeys[i];
+            }
+        }
+        // 2. Порядок узлов в файле: по странице, внутри - по id графа
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (long) Arrays.binarySearch(pageKeys, 0, pageCount, cells[i]) << 32 | ids[i];
+        }
+        Arrays.sort(order);
+        int[] fileIds = new int[graph.stepCapacity()];
+        for (int i = 0; i < count; i++) {
+            ids[i] = (int) order[i];
+            fileIds[ids[i]] = i;
+        }
+
+        // 3. Куча строк
+        Map<String, Integer> strings = new HashMap<>();
+        int[] textOffsets = new int[count];
+        long heapBytes = 0;
+        for (int i = 0; i < count; i++) {
+            String text = graph.text(ids[i]);
+            if (text == null) {
+                textOffsets[i] = -1;
+                continue;
+            }
+            Integer offset = strings.get(text);
+            if (offset == null) {
+                if (heapBytes > Integer.MAX_VALUE) {
+                    throw new IOException("Too much text for a mapped flowchart file");
+                }
+                offset = (int) heapBytes;
+                strings.put(text, offset);
+                heapBytes += 4 + utf8Length(text);
+            }
+            textOffsets[i] = offset;
+        }
+
+        long pagesBytes = (long) pageCount * PAGE_BYTES;
+        long stepsBytes = (long) count * STEP_BYTES;
+        long edgesBytes = (long) edgeCount * EDGE_BYTES;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long offset = 0;
+            ByteBuffer header = section(channel, offset, HEADER_BYTES);
+            offset += HEADER_BYTES;
+            ByteBuffer pages = section(channel, offset, pagesBytes);
+            offset += pagesBytes;
+            ByteBuffer steps = section(channel, offset, stepsBytes);
+            offset += stepsBytes;
+            ByteBuffer outs = section(channel, offset, edgesBytes);
+            offset += edgesBytes;
+            ByteBuffer ins = section(channel, offset, edgesBytes);
+            offset += edgesBytes;
+            ByteBuffer heap = section(channel, offset, heapBytes);
+
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(edgeCount).putInt(pageCount).putInt(0)
+                    .putDouble(pageWidth).putDouble(pageHeight).putLong(heapBytes);
+
+            int page = -1;
+            int outCount = 0;
+            int inCount = 0;
+            for (int i = 0; i < count; i++) {
+                int id = ids[i];
+                int pageIndex = (int) (order[i] >>> 32);
+                if (pageIndex != page) {
+                    page = pageIndex;
+                    long key = pageKeys[page];
+                    pages.putInt((int) key ^ Integer.MIN_VALUE).putInt((int) (key >> 32)).putInt(i).putInt(0);
+                }
+                pages.putInt(page * PAGE_BYTES + 12, pages.getInt(page * PAGE_BYTES + 12) + 1);
+
+                int firstOut = outCount;
+                for (int e = graph.firstOut(id); e != FlowGraph.NONE; e = graph.nextOut(e)) {
+                    outs.putInt(fileIds[graph.target(e)]).putInt(graph.type(e).ordinal());
+                    outCount++;
+                }
+                int firstIn = inCount;
+                for (int e = graph.firstIn(id); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+                    ins.putInt(fileIds[graph.source(e)]).putInt(graph.type(e).ordinal());
+                    inCount++;
+                }
+                steps.putDouble(graph.x(id)).putDouble(graph.y(id)).putInt(textOffsets[i])
+                        .putInt(graph.kind(id).ordinal())
+                        .putInt(firstOut).putInt(outCount - firstOut)
+                        .putInt(firstIn).putInt(inCount - firstIn);
+            }
+
+            strings.forEach((text, at) -> {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                heap.putInt(at, bytes.length);
+                heap.put(at + 4, bytes);
+            });
+        }
+    }
+
+    // Строка страницы - старшие 32 бита со знаком, столбец - младшие со сдвигом, чтобы
+    // сортировка long совпадала с порядком (row, col)
+    private static long cellKey(int row, int col) {
+        return (long) row << 32 | (col ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+    }
+
+    private static ByteBuffer section(FileChannel channel, long offset, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Mapped flowchart section is too large: " + size + " bytes");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -1,151 +1,193 @@
 package com.alensoft.automator42.model.line;
 
-import javafx.beans.binding.Bindings;
-import javafx.beans.property.ObjectProperty;
+import javafx.beans.value.ObservableObjectValue;
 import javafx.geometry.Point2D;
 import javafx.scene.Group;
-import javafx.scene.control.Label;
 import javafx.scene.paint.Color;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
 import javafx.scene.shape.Polygon;
-import javafx.scene.shape.Polyline;
 
-import java.util.ArrayList;
 import java.util.List;
 
 
+/**
+ * Стрелка соединения: ломаная по шаблону {@link ArrowType} и наконечник.
+ * <p>
+ * Сдвиг концов только помечает стрелку; путь пересчитывается в проходе раскладки
+ * ближайшего пульса - один раз, сколько бы концов ни сдвинулось. Точки пути считаются
+ * в переиспользуемый буфер double[], элементы Path переиспользуются - без аллокаций,
+ * пока число точек не меняется.
+ */
 public class Arrow extends Group {
 
+    /**
+     * Наибольшее число точек пути (начало и по точке на пару в {@link ArrowType#dXY})
+     */
+    public static final int MAX_POINTS = 5;
 
-    private final Polyline polyline = new Polyline();
+    private final Path path = new Path();
+    private final MoveTo moveTo = new MoveTo();
+    private final LineTo[] lineTos = new LineTo[MAX_POINTS - 1];
     private final Polygon head = new Polygon();
-    private static final double V_SHORTEN = 3;
+    public static final double V_SHORTEN = 3;
     public static final double H_SHORTEN = 6;
     public static final double H_OFFSET = 10.0;
 
-    private final ObjectProperty<Point2D> startProperty;
-    private final ObjectProperty<Point2D> endProperty;
+    private final ObservableObjectValue<Point2D> startProperty;
+    private final ObservableObjectValue<Point2D> endProperty;
     private final ArrowType direction;
+    private final double[] points = new double[MAX_POINTS * 2];
+    private int holds;            // пока > 0, пересчет пути откладывается
+    private boolean dirty;
 
-    public Arrow(ObjectProperty<Point2D> start, ObjectProperty<Point2D> end, ArrowType direction) {
+    public Arrow(ObservableObjectValue<Point2D> start, ObservableObjectValue<Point2D> end, ArrowType direction) {
         this.startProperty = start;
         this.endProperty = end;
         this.direction = direction;
-        polyline.setStrokeWidth(2);
-        polyline.setStroke(Color.web("#2b2b2b"));
+        path.setStrokeWidth(2);
+        path.setStroke(Color.web("#2b2b2b"));
+        path.setFill(null);
+        for (int i = 0; i < lineTos.length; i++) {
+            lineTos[i] = new LineTo();
+        }
 
         head.getPoints().addAll(0.0, 0.0, -9.0, -4.0, -9.0, 4.0);
         head.setFill(Color.web("#2b2b2b"));
-        start.addListener((obs, oldV, newV) -> updateArrow());
-        end.addListener((obs, oldV, newV) -> updateArrow());
-        //add text OK at start
-        Label conLabel = new Label(direction.name());
-        conLabel.setStyle("-fx-font-size: 10px; -fx-text-fill: #2b2b2b;");
-        conLabel.textProperty().bind(Bindings.createStringBinding(direction::name));
-        conLabel.layoutXProperty().bind(Bindings.createDoubleBinding(() -> (start.getValue().getX()), startProperty, endProperty));
-        conLabel.layoutYProperty().bind(Bindings.createDoubleBinding(() -> (start.getValue().getY()), startProperty, endProperty));
-
-//        getChildren().add(conLabel);
-
-        getChildren().addAll(polyline, head);
+        // InvalidationListener не заставляет точки пересчитываться ради старого/нового значения
+        start.addListener(obs -> invalidate());
+        end.addListener(obs -> invalidate());
+
+        // Путь независим от раскладки родителя: стрелка - сама себе корень раскладки
+        setManaged(false);
+        getChildren().addAll(path, head);
         updateArrow();
     }
 
+    /**
+     * Отложить пересчет пути, пока двигаются концы стрелки. Вызовы парные с {@link #release()}.
+     */
+    public void hold() {
+        holds++;
+    }
+
+    /**
+     * Снять отложенный пересчет: если концы сдвинулись, путь пересчитается в ближайшем пульсе
+     */
+    public void release() {
+        if (holds > 0 && --holds == 0 && dirty) {
+            requestLayout();
+        }
+    }
+
+    private void invalidate() {
+        if (dirty) return;
+        dirty = true;
+        if (holds == 0) {
+            requestLayout();
+        }
+    }
+
+    @Override
+    protected void layoutChildren() {
+        if (dirty && holds == 0) {
+            updateArrow();
+        }
+    }
+
     private void updateArrow() {
+        dirty = false;
         Point2D start = startProperty.get();
         Point2D end = endProperty.get();
 
         if (start == null || end == null) {
-            polyline.getPoints().clear();
+            path.getElements().clear();
             head.setVisible(false);
             return;
         }
 
         head.setVisible(true);
 
-        List<Point2D> points = calculatePath(start, end, direction);
-        updateHead(points);
-
-        // Переводим точки в список Double для Polyline
-        List<Double> polylinePoints = new ArrayList<>();
-        points.forEach(p -> {
-            polylinePoints.add(p.getX());
-            polylinePoints.add(p.getY());
-        });
-        // Обновление наконечника
-        shortenLine(points, direction);
-        polyline.getPoints().setAll(polylinePoints);
+        int count = route(start.getX(), start.getY(), end.getX(), end.getY(), direction, points);
+        updateHead(count);
+        updatePath(count);
     }
 
-    private List<Point2D> calculatePath(Point2D start, Point2D end, ArrowType direction) {
-        List<Point2D> path = new ArrayList<>();
-        path.add(start);
+    // Элементы пути меняются только при смене числа точек (OUT <-> OUT_TOP)
+    private void updatePath(int count) {
+        List<PathElement> elements = path.getElements();
+        if (elements.size() != count) {
+            PathElement[] used = new PathElement[count];
+            used[0] = moveTo;
+            System.arraycopy(lineTos, 0, used, 1, count - 1);
+            elements.setAll(used);
+        }
+        moveTo.setX(points[0]);
+        moveTo.setY(points[1]);
+        for (int i = 1; i < count; i++) {
+            lineTos[i - 1].setX(points[i * 2]);
+            lineTos[i - 1].setY(points[i * 2 + 1]);
+        }
+    }
 
-        double sx = start.getX();
-        double sy = start.getY();
-        double ex = end.getX();
-        double ey = end.getY();
+    /**
+     * Ломаная стрелки от (sx, sy) до (ex, ey) по шаблону направления (общая для Arrow и EdgeLayer).
+     * Точки пишутся в out парами x, y; out - не меньше {@code MAX_POINTS * 2}.
+     *
+     * @return число точек
+     */
+    public static int route(double sx, double sy, double ex, double ey, ArrowType direction, double[] out) {
+        out[0] = sx;
+        out[1] = sy;
+        int count = 1;
 
         double x = sx;
         double y = sy;
-        direction = direction.update(start, end);
-        for (int i = 0; i < direction.dXY.length; i++) {
-            double delta = direction.dXY[i];
+        double[] dXY = direction.update(sy, ey).dXY;
+        for (int i = 0; i < dXY.length; i++) {
+            double delta = dXY[i];
             x = Math.abs(delta) <= 1.0001
                     ? x + (ex - x) * delta
                     : x + delta;
             //это последняя точка и есть изменение по X
-            if (i == direction.dXY.length - 2 && direction.dXY[i] != 0) {
+            if (i == dXY.length - 2 && dXY[i] != 0) {
                 x = (sx > ex) ? x + H_SHORTEN : x - H_SHORTEN;
             }
 
             i++;
-            delta = direction.dXY[i];
+            delta = dXY[i];
             y = Math.abs(delta) <= 1.0001
                     ? y + (ey - y) * delta
                     : y + delta;
             //это предпоследняя точка и нет изменения по Y на последней точке
-            if (i == direction.dXY.length - 3 && direction.dXY[i + 1] == 1 && direction.dXY[i + 2] == 0) {
+            if (i == dXY.length - 3 && dXY[i + 1] == 1 && dXY[i + 2] == 0) {
                 y = (sx > ex) ? y - H_OFFSET : y + H_OFFSET;
             }
             //это последняя точка и есть изменение по Y
-            if (i == direction.dXY.length - 1 && direction.dXY[i] != 0) {
+            if (i == dXY.length - 1 && dXY[i] != 0) {
                 y = (sy > ey) ? y + V_SHORTEN : y - V_SHORTEN;
             }
 
-            path.add(new Point2D(x, y));
+            out[count * 2] = x;
+            out[count * 2 + 1] = y;
+            count++;
         }
-        return path;
+        return count;
     }
 
-    private void shortenLine(List<Point2D> path, ArrowType direction) {
-        Point2D last = path.get(path.size() - 1);
-        if (direction == ArrowType.IN || direction == ArrowType.NORMAL) {
-            last = new Point2D(last.getX(), last.getY() - 4);
-        } else {
-            last = new Point2D(last.getX() + 4, last.getY());
-        }
-        path.set(path.size() - 1, last);
-    }
-
-
-    private void updateHead(List<Point2D> path) {
-        Point2D last = path.get(path.size() - 1);
-        Point2D prev = path.get(path.size() - 2);
-        double sx = prev.getX();
-        double sy = prev.getY();
-        double ex = last.getX();
-        double ey = last.getY();
+    private void updateHead(int count) {
+        double sx = points[count * 2 - 4];
+        double sy = points[count * 2 - 3];
+        double ex = points[count * 2 - 2];
+        double ey = points[count * 2 - 1];
         double angle = Math.atan2(ey - sy, ex - sx);
 
-        double offset = 0; // Изменено на 0, так как линия уже укорочена
-
-        double hx = ex - Math.cos(angle) * offset;
-        double hy = ey - Math.sin(angle) * offset;
-
-        head.setLayoutX(hx + 4);
-        head.setLayoutY(hy - 1);
+        head.setLayoutX(ex + 4);
+        head.setLayoutY(ey - 1);
 
         head.setRotate(Math.toDegrees(angle));
     }
 
-}
\ No newline at end of file
+}
@@ -1,7 +1,6 @@
 package com.alensoft.automator42.model.line;
 
 import com.alensoft.automator42.model.step.Step;
-import javafx.geometry.Point2D;
 
 public enum ArrowType {
 
@@ -19,11 +18,14 @@ public enum ArrowType {
         this.dXY = dXY;
     }
 
-    public ArrowType update(Point2D start, Point2D end) {
+    /**
+     * Шаблон для концов с координатами Y startY и endY: выход OUT вверх идет в обход
+     */
+    public ArrowType update(double startY, double endY) {
         if (this == NORMAL || this == IN || this == EMPTY) {
             return this;
         }
-        if (start.getY() > end.getY()) {
+        if (startY > endY) {
             return OUT_TOP;
         } else { //down out
             return OUT;
@@ -0,0 +1,359 @@
+package com.alensoft.automator42.model.line;
+
+import com.alensoft.automator42.model.connection.ConType;
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.GraphListener;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.graph.SpatialGrid;
+import com.alensoft.automator42.model.step.Step;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.property.ReadOnlyProperty;
+import javafx.geometry.Point2D;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+
+/**
+ * Все стрелки схемы одним узлом сцены: рисуются проходом по связям графа на
+ * {@link Canvas} вместо отдельной группы {@link Arrow} (ломаная + наконечник) на связь.
+ * <p>
+ * Путь каждой связи кешируется. Сдвиг узла (раскладка, перетаскивание) помечает его
+ * связи; в ближайшем пульсе пути пересчитываются, а перерисовывается только
+ * прямоугольник, покрывающий старые и новые пути - с отсечением по нему
+ * и только теми связями, что его пересекают. Связи для перерисовки ищутся по
+ * сетке {@link SpatialGrid} над рамками путей, а не перебором всех связей.
+ * <p>
+ * Слой рисует область {@link #setArea}; для очень больших схем это видимая область,
+ * а не вся схема (размер текстуры ограничен).
+ * <p>
+ * С {@link OrthogonalRouter} пути берутся из него (в обход узлов) вместо шаблонов
+ * {@link ArrowType}; связи, чей путь сброшен трассировщиком, перерисовываются так же.
+ */
+public class EdgeLayer extends Canvas implements GraphListener {
+    public static final Color COLOR = Color.web("#2b2b2b");
+    private static final double PAD = 10; // наконечник и толщина линии за пределами пути
+    // Наконечник Arrow относительно центра своих границ
+    private static final double[] HEAD_XS = {4.5, -4.5, -4.5};
+    private static final double[] HEAD_YS = {0, -4, 4};
+    private static final double CELL = 256;
+    // Рамка длиннее - в отдельный список: иначе запрос к сетке расширялся бы на нее
+    private static final double LARGE = CELL * 4;
+
+    private final FlowGraph graph;
+    private final OrthogonalRouter router;
+
+    // Кеш путей по id связи; null - путь не посчитан
+    private double[][] routeXs = new double[0][];
+    private double[][] routeYs = new double[0][];
+    private double[] boxes = new double[0];     // minX, minY, maxX, maxY на связь
+    private boolean[] queued = new boolean[0];
+    private final SpatialGrid routeGrid = new SpatialGrid(CELL, CELL);
+    private int[] large = new int[16];          // связи с большой рамкой
+    private int largeCount;
+    private int[] largeIndexes = new int[0];    // позиция связи в large или -1
+    private final IntQueue hits = new IntQueue();
+    private final IntQueue dirtyEdges = new IntQueue();
+    private final double[] buffer = new double[Arrow.MAX_POINTS * 2];
+
+    // Узлы, за сдвигом которых следим, по id узла
+    private Step[] watched = new Step[0];
+    private final InvalidationListener stepListener =
+            obs -> stepChanged((Step) ((ReadOnlyProperty<?>) obs).getBean());
+
+    // Грязный прямоугольник в координатах схемы
+    private double dirtyMinX = Double.POSITIVE_INFINITY;
+    private double dirtyMinY = Double.POSITIVE_INFINITY;
+    private double dirtyMaxX = Double.NEGATIVE_INFINITY;
+    private double dirtyMaxY = Double.NEGATIVE_INFINITY;
+    private boolean scheduled;
+
+    public EdgeLayer(FlowGraph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * @param router трассировщик путей (слушатель того же графа) или null - шаблоны ArrowType
+     */
+    public EdgeLayer(FlowGraph graph, OrthogonalRouter router) {
+        this.graph = graph;
+        this.router = router;
+        if (router != null) {
+            // Путь мог сброситься из-за узла в коридоре, а не сдвига концов связи
+            router.setOnInvalidated(this::markEdge);
+        }
+        setMouseTransparent(true);
+        for (int edge = 0; edge < graph.edgeCapacity(); edge++) {
+            if (graph.containsEdge(edge)) edgeAdded(edge);
+        }
+    }
+
+    /**
+     * Какую область схемы покрывает слой (координаты родителя). Перерисовывается целиком.
+     */
+    public void setArea(double x, double y, double width, double height) {
+        relocate(x, y);
+        setWidth(width);
+        setHeight(height);
+        expandDirty(x, y, x + width, y + height);
+        schedule();
+    }
+
+    /**
+     * Пересчитать пути помеченных связей и перерисовать грязную область сейчас, не дожидаясь пульса
+     */
+    public void flush() {
+        scheduled = false;
+        if (router != null) {
+            router.update();
+        }
+        while (!dirtyEdges.isEmpty()) {
+            int edge = dirtyEdges.poll();
+            queued[edge] = false;
+            if (graph.containsEdge(edge)) {
+                computeRoute(edge);
+            }
+        }
+        if (dirtyMinX > dirtyMaxX) return;
+
+        double ox = getLayoutX();
+        double oy = getLayoutY();
+        double minX = Math.max(dirtyMinX - PAD, ox);
+        double minY = Math.max(dirtyMinY - PAD, oy);
+        double maxX = Math.min(dirtyMaxX + PAD, ox + getWidth());
+        double maxY = Math.min(dirtyMaxY + PAD, oy + getHeight());
+        dirtyMinX = Double.POSITIVE_INFINITY;
+        dirtyMinY = Double.POSITIVE_INFINITY;
+        dirtyMaxX = Double.NEGATIVE_INFINITY;
+        dirtyMaxY = Double.NEGATIVE_INFINITY;
+        if (minX >= maxX || minY >= maxY) return;
+
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.save();
+        gc.translate(-ox, -oy);
+        gc.beginPath();
+        gc.rect(minX, minY, maxX - minX, maxY - minY);
+        gc.clip();
+        gc.clearRect(minX, minY, maxX - minX, maxY - minY);
+        gc.setStroke(COLOR);
+        gc.setFill(COLOR);
+        gc.setLineWidth(2);
+        routeGrid.query(minX - PAD, minY - PAD, maxX + PAD, maxY + PAD, hits);
+        while (!hits.isEmpty()) {
+            int edge = hits.poll();
+            draw(gc, routeXs[edge], routeYs[edge], routeXs[edge].length);
+        }
+        for (int i = 0; i < largeCount; i++) {
+            int edge = large[i];
+            int b = edge * 4;
+            if (boxes[b] - PAD <= maxX && boxes[b + 2] + PAD >= minX
+                    && boxes[b + 1] - PAD <= maxY && boxes[b + 3] + PAD >= minY) {
+                draw(gc, routeXs[edge], routeYs[edge], routeXs[edge].length);
+            }
+        }
+        gc.restore();
+    }
+
+    /**
+     * Нарисовать ломаную из count точек с наконечником как у {@link Arrow}. Цвет и толщину задает вызывающий.
+     */
+    public static void draw(GraphicsContext gc, double[] xs, double[] ys, int count) {
+        int last = count - 1;
+        gc.strokePolyline(xs, ys, count);
+        // Наконечник как у Arrow: треугольник, повернутый вокруг центра своих границ
+        double angle = Math.toDegrees(Math.atan2(ys[last] - ys[last - 1], xs[last] - xs[last - 1]));
+        gc.save();
+        gc.translate(xs[last] + 4 - 4.5, ys[last] - 1);
+        gc.rotate(angle);
+        gc.fillPolygon(HEAD_XS, HEAD_YS, HEAD_XS.length);
+        gc.restore();
+    }
+
+    private void computeRoute(int edge) {
+        double[] points;
+        int count;
+        if (router != null) {
+            points = router.route(edge);
+            count = points.length / 2;
+        } else {
+            ConType type = ConType.of(graph.type(edge));
+            if (!(graph.attachment(graph.source(edge)) instanceof Step source)
+                    || !(graph.attachment(graph.target(edge)) instanceof Step target)) {
+                return;
+            }
+            Point2D start = type.getSourcePoint(source).get();
+            Point2D end = type.getTargetPoint(target).get();
+            if (start == null || end == null) {
+                forget(edge);
+                return;
+            }
+            points = buffer;
+            count = Arrow.route(start.getX(), start.getY(), end.getX(), end.getY(), type.getDirection(), buffer);
+        }
+        double[] xs = routeXs[edge];
+        double[] ys = routeYs[edge];
+        if (xs == null || xs.length != count) {
+            xs = new double[count];
+            ys = new double[count];
+        }
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double x = points[i * 2];
+            double y = points[i * 2 + 1];
+            xs[i] = x;
+            ys[i] = y;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        if (router != null) {
+            shortenEnd(xs, ys);
+        }
+        routeXs[edge] = xs;
+        routeYs[edge] = ys;
+        int b = edge * 4;
+        boxes[b] = minX;
+        boxes[b + 1] = minY;
+        boxes[b + 2] = maxX;
+        boxes[b + 3] = maxY;
+        index(edge, minX, minY, maxX, maxY);
+        expandDirty(minX, minY, maxX, maxY);
+    }
+
+    private void index(int edge, double minX, double minY, double maxX, double maxY) {
+        if (maxX - minX > LARGE || maxY - minY > LARGE) {
+            routeGrid.remove(edge);
+            if (largeIndexes[edge] < 0) {
+                if (largeCount == large.length) {
+                    large = Arrays.copyOf(large, largeCount * 2);
+                }
+                largeIndexes[edge] = largeCount;
+                large[largeCount++] = edge;
+            }
+        } else {
+            removeLarge(edge);
+            routeGrid.put(edge, minX, minY, maxX - minX, maxY - minY);
+        }
+    }
+
+    // Путь связи больше не рисуется
+    private void forget(int edge) {
+        routeXs[edge] = null;
+        routeYs[edge] = null;
+        routeGrid.remove(edge);
+        removeLarge(edge);
+    }
+
+    private void removeLarge(int edge) {
+        int index = largeIndexes[edge];
+        if (index < 0) return;
+        int last = large[--largeCount];
+        large[index] = last;
+        largeIndexes[last] = index;
+        largeIndexes[edge] = -1;
+    }
+
+    // Путь трассировщика упирается в узел - отступить под наконечник, как делает Arrow.route
+    private static void shortenEnd(double[] xs, double[] ys) {
+        int last = xs.length - 1;
+        double dx = xs[last] - xs[last - 1];
+        double dy = ys[last] - ys[last - 1];
+        double length = Math.abs(dx) + Math.abs(dy);  // отрезки ортогональные
+        if (length <= Arrow.V_SHORTEN) return;
+        xs[last] -= dx / length * Arrow.V_SHORTEN;
+        ys[last] -= dy / length * Arrow.V_SHORTEN;
+    }
+
+    // ============= СОБЫТИЯ ГРАФА =============
+
+    @Override
+    public void edgeAdded(int edge) {
+        watch(graph.source(edge));
+        watch(graph.target(edge));
+        markEdge(edge);
+    }
+
+    @Override
+    public void edgeRemoved(int edge, int source, int target, EdgeType type) {
+        if (edge < routeXs.length && routeXs[edge] != null) {
+            int b = edge * 4;
+            expandDirty(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]);
+            forget(edge);
+            schedule();
+        }
+    }
+
+    @Override
+    public void stepRemoved(int step) {
+        if (step < watched.length && watched[step] != null) {
+            watched[step].boundsInParentProperty().removeListener(stepListener);
+            watched[step] = null;
+        }
+    }
+
+    private void watch(int step) {
+        if (step >= watched.length) {
+            watched = Arrays.copyOf(watched, Math.max(step + 1, watched.length * 2));
+        }
+        if (watched[step] == null && graph.attachment(step) instanceof Step view) {
+            watched[step] = view;
+            view.boundsInParentProperty().addListener(stepListener);
+            view.getBoundsInParent();  // слушатель срабатывает только на валидном значении
+        }
+    }
+
+    // Узел сдвинулся или изменил размер - точки подключения его связей тоже
+    private void stepChanged(Step step) {
+        step.getBoundsInParent();
+        int id = step.getStepId();
+        if (id == FlowGraph.NONE || id >= watched.length || watched[id] != step) return;
+        for (int e = graph.firstOut(id); e != FlowGraph.NONE; e = graph.nextOut(e)) {
+            markEdge(e);
+        }
+        for (int e = graph.firstIn(id); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+            markEdge(e);
+        }
+    }
+
+    private void markEdge(int edge) {
+        if (edge >= routeXs.length) {
+            int size = Math.max(edge + 1, routeXs.length * 2);
+            routeXs = Arrays.copyOf(routeXs, size);
+            routeYs = Arrays.copyOf(routeYs, size);
+            boxes = Arrays.copyOf(boxes, size * 4);
+            queued = Arrays.copyOf(queued, size);
+            int from = largeIndexes.length;
+            largeIndexes = Arrays.copyOf(largeIndexes, size);
+            Arrays.fill(largeIndexes, from, size, -1);
+        }
+        if (queued[edge]) return;
+        if (routeXs[edge] != null) {
+            int b = edge * 4;
+            expandDirty(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]);
+        }
+        queued[edge] = true;
+        dirtyEdges.offer(edge);
+        schedule();
+    }
+
+    private void expandDirty(double minX, double minY, double maxX, double maxY) {
+        dirtyMinX = Math.min(dirtyMinX, minX);
+        dirtyMinY = Math.min(dirtyMinY, minY);
+        dirtyMaxX = Math.max(dirtyMaxX, maxX);
+        dirtyMaxY = Math.max(dirtyMaxY, maxY);
+    }
+
+    // Все пометки одного пульса - одна перерисовка
+    private void schedule() {
+        if (scheduled) return;
+        scheduled = true;
+        Platform.runLater(() -> {
+            if (scheduled) flush();
+        });
+    }
+}
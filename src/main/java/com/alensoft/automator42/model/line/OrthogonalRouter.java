@@ -0,0 +1,599 @@
+package com.alensoft.automator42.model.line;
+
+import com.alensoft.automator42.model.connection.ConType;
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.GraphListener;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.graph.SpatialGrid;
+import com.alensoft.automator42.model.graph.StepKind;
+import com.alensoft.automator42.model.step.Connector;
+import com.alensoft.automator42.model.step.Step;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Ортогональная трассировка связей в обход узлов - замена шаблонам {@link ArrowType},
+ * которые не знают о соседних узлах. Работает по координатам модели, без JavaFX.
+ * <p>
+ * Путь ищется A* по разреженной сетке внутри коридора - рамки концов связи с запасом.
+ * Линии сетки - края узлов в коридоре и концы связи (ортогональный граф видимости),
+ * поэтому число вершин зависит от узлов рядом со связью, а не от размера схемы.
+ * Цена пути - длина плюс штраф за каждый поворот. Путь может идти по границе узла,
+ * но не через его внутренность (раскладка ставит узлы вплотную).
+ * <p>
+ * Пути кешируются по id связи. Коридоры лежат в своей сетке: сдвиг, появление или
+ * удаление узла сбрасывает только связи, в коридор которых он попал (до или после
+ * сдвига), и связи самого узла. {@link #update()} пересчитывает только сброшенное.
+ */
+public class OrthogonalRouter implements GraphListener {
+    // Поворот стоит как столько пикселей пути: из близких по длине путей берется с меньшим числом изломов
+    private static final double BEND = Step.HEIGHT;
+    // Запас коридора вокруг концов; если пути в коридоре нет, запас растет
+    private static final double EXPAND_X = Step.WIDTH;
+    private static final double EXPAND_Y = Step.HEIGHT;
+    private static final double GROWTH = 4;
+    private static final int ATTEMPTS = 3;
+    // Коридоры крупнее - в отдельном списке, иначе выросли бы запросы к сетке коридоров
+    private static final double LONG_WIDTH = 4 * Step.WIDTH;
+    private static final double LONG_HEIGHT = 8 * Step.HEIGHT;
+
+    // Среди путей равной цены сначала раскрываются более близкие к цели - без этого A*
+    // обходит все равноценные варианты (их много, когда узлы стоят сеткой)
+    private static final double TIE_BREAK = 1e-6;
+
+    private static final int RIGHT = 0;
+    private static final int DOWN = 1;
+    private static final int LEFT = 2;
+    private static final int UP = 3;
+
+    private final FlowGraph graph;
+    private final SpatialGrid obstacles = new SpatialGrid(2 * Step.WIDTH, 2 * Step.HEIGHT);
+    private final SpatialGrid corridors = new SpatialGrid(LONG_WIDTH / 2, LONG_HEIGHT / 2);
+
+    // Кеш по id связи: точки пути парами x, y и коридор, в котором он найден
+    private double[][] routes = new double[0][];
+    private double[] boxes = new double[0];      // minX, minY, maxX, maxY на связь
+    private boolean[] valid = new boolean[0];
+    private boolean[] queued = new boolean[0];
+    private final IntQueue dirty = new IntQueue();
+    private IntConsumer onInvalidated;
+
+    // Длинные коридоры: список с индексом позиции для удаления за O(1)
+    private int[] longEdges = new int[16];
+    private int longCount;
+    private int[] longIndex = new int[0];
+
+    // Рабочие массивы поиска, переиспользуются между связями
+    private final IntQueue found = new IntQueue();
+    private final double[] template = new double[Arrow.MAX_POINTS * 2];
+    private int[] ids = new int[16];
+    private double[] xs = new double[16];
+    private double[] ys = new double[16];
+    private int nx;
+    private int ny;
+    private boolean[] hBlocked = new boolean[0]; // отрезок вершина -> вершина справа
+    private boolean[] vBlocked = new boolean[0]; // отрезок вершина -> вершина снизу
+    private double[] costs = new double[0];      // по состоянию: вершина * 4 + направление
+    private int[] parents = new int[0];
+    private int[] seen = new int[0];
+    private int[] closed = new int[0];
+    private int generation;
+    private int[] heapStates = new int[64];
+    private double[] heapKeys = new double[64];
+    private int heapSize;
+    private int[] path = new int[16];
+
+    public OrthogonalRouter(FlowGraph graph) {
+        this.graph = graph;
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (graph.contains(step)) putObstacle(step);
+        }
+        for (int edge = 0; edge < graph.edgeCapacity(); edge++) {
+            if (graph.containsEdge(edge)) invalidate(edge);
+        }
+    }
+
+    /**
+     * Кому сообщать о сброшенном пути (один раз до пересчета), например слою стрелок
+     */
+    public void setOnInvalidated(IntConsumer listener) {
+        onInvalidated = listener;
+    }
+
+    /**
+     * Путь связи парами x, y от точки выхода до точки входа; пересчитывается, если сброшен.
+     * Массив принадлежит кешу - не менять.
+     */
+    public double[] route(int edge) {
+        if (!graph.containsEdge(edge)) {
+            throw new IllegalArgumentException("No edge: " + edge);
+        }
+        ensureEdge(edge);
+        if (!valid[edge]) {
+            compute(edge);
+        }
+        return routes[edge];
+    }
+
+    /**
+     * Пересчитать все сброшенные пути
+     *
+     * @return сколько путей пересчитано
+     */
+    public int update() {
+        int count = 0;
+        while (!dirty.isEmpty()) {
+            int edge = dirty.poll();
+            if (!graph.containsEdge(edge)) {
+                queued[edge] = false;
+            } else if (!valid[edge]) {
+                compute(edge);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Сбросить все пути (следующий {@link #update()} трассирует схему целиком)
+     */
+    public void invalidateAll() {
+        for (int edge = 0; edge < graph.edgeCapacity(); edge++) {
+            if (graph.containsEdge(edge)) invalidate(edge);
+        }
+    }
+
+    public boolean isValid(int edge) {
+        return edge < valid.length && valid[edge];
+    }
+
+    // ============= ТРАССИРОВКА =============
+
+    private void compute(int edge) {
+        int source = graph.source(edge);
+        int target = graph.target(edge);
+        ConType type = ConType.of(graph.type(edge));
+        ConType.AnchorPoint from = type.getSourceAnchor();
+        ConType.AnchorPoint to = type.getTargetAnchor();
+        double sx = graph.x(source) + from.fx() * width(source);
+        double sy = graph.y(source) + from.fy() * height(source);
+        double ex = graph.x(target) + to.fx() * width(target);
+        double ey = graph.y(target) + to.fy() * height(target);
+        int startDir = outward(from);
+        int endDir = (outward(to) + 2) & 3;
+        valid[edge] = true;
+        queued[edge] = false;
+
+        int direct = direction(sx, sy, ex, ey);
+        if (direct == -2 || direct == startDir && direct == endDir && isClear(sx, sy, ex, ey)) {
+            routes[edge] = new double[]{sx, sy, ex, ey};
+            setCorridor(edge, Math.min(sx, ex), Math.min(sy, ey), Math.max(sx, ex), Math.max(sy, ey));
+            return;
+        }
+
+        double expandX = EXPAND_X;
+        double expandY = EXPAND_Y;
+        double minX = Math.min(sx, ex), minY = Math.min(sy, ey);
+        double maxX = Math.max(sx, ex), maxY = Math.max(sy, ey);
+        // Конец внутри чужого узла (узлы внахлест) - обхода нет ни в каком коридоре
+        int attempts = isClear(sx, sy, sx, sy) && isClear(ex, ey, ex, ey) ? ATTEMPTS : 0;
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            minX = Math.min(sx, ex) - expandX;
+            minY = Math.min(sy, ey) - expandY;
+            maxX = Math.max(sx, ex) + expandX;
+            maxY = Math.max(sy, ey) + expandY;
+            double[] route = search(sx, sy, startDir, ex, ey, endDir, minX, minY, maxX, maxY);
+            if (route != null) {
+                routes[edge] = route;
+                setCorridor(edge, minX, minY, maxX, maxY);
+                return;
+            }
+            expandX *= GROWTH;
+            expandY *= GROWTH;
+        }
+        // Обхода нет и в большом коридоре (узлы внахлест) - шаблон, как у Arrow
+        int count = Arrow.route(sx, sy, ex, ey, type.getDirection(), template);
+        routes[edge] = Arrays.copyOf(template, count * 2);
+        setCorridor(edge, minX, minY, maxX, maxY);
+    }
+
+    // Отрезок без узлов внутри (касание границы допустимо)
+    private boolean isClear(double x1, double y1, double x2, double y2) {
+        double minX = Math.min(x1, x2), minY = Math.min(y1, y2);
+        double maxX = Math.max(x1, x2), maxY = Math.max(y1, y2);
+        found.clear();
+        obstacles.query(minX, minY, maxX, maxY, found);
+        while (!found.isEmpty()) {
+            int id = found.poll();
+            double ox = obstacles.minX(id);
+            double oy = obstacles.minY(id);
+            if (ox < maxX && ox + obstacles.width(id) > minX
+                    && oy < maxY && oy + obstacles.height(id) > minY) {
+                found.clear();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double[] search(double sx, double sy, int startDir, double ex, double ey, int endDir,
+                            double minX, double minY, double maxX, double maxY) {
+        // 1. Линии сетки: границы коридора, концы связи и края узлов в коридоре
+        found.clear();
+        obstacles.query(minX, minY, maxX, maxY, found);
+        int count = found.size();
+        if (ids.length < count) ids = new int[Math.max(count, ids.length * 2)];
+        if (xs.length < 4 + 2 * count) {
+            xs = new double[4 + 4 * count];
+            ys = new double[4 + 4 * count];
+        }
+        nx = 0;
+        ny = 0;
+        xs[nx++] = minX;
+        xs[nx++] = maxX;
+        xs[nx++] = sx;
+        xs[nx++] = ex;
+        ys[ny++] = minY;
+        ys[ny++] = maxY;
+        ys[ny++] = sy;
+        ys[ny++] = ey;
+        for (int k = 0; k < count; k++) {
+            int id = found.poll();
+            ids[k] = id;
+            double ox = obstacles.minX(id);
+            double oy = obstacles.minY(id);
+            xs[nx++] = clamp(ox, minX, maxX);
+            xs[nx++] = clamp(ox + obstacles.width(id), minX, maxX);
+            ys[ny++] = clamp(oy, minY, maxY);
+            ys[ny++] = clamp(oy + obstacles.height(id), minY, maxY);
+        }
+        nx = sortUnique(xs, nx);
+        ny = sortUnique(ys, ny);
+
+        // 2. Отрезки сетки, проходящие через внутренность узла, закрыты
+        int nodes = nx * ny;
+        if (hBlocked.length < nodes) {
+            int size = Math.max(nodes, hBlocked.length * 2);
+            hBlocked = new boolean[size];
+            vBlocked = new boolean[size];
+        } else {
+            Arrays.fill(hBlocked, 0, nodes, false);
+            Arrays.fill(vBlocked, 0, nodes, false);
+        }
+        for (int k = 0; k < count; k++) {
+            int id = ids[k];
+            double l = obstacles.minX(id);
+            double t = obstacles.minY(id);
+            double r = l + obstacles.width(id);
+            double b = t + obstacles.height(id);
+            int i0 = ceilIndex(xs, nx, l);
+            int i1 = floorIndex(xs, nx, r);
+            int j0 = ceilIndex(ys, ny, t);
+            int j1 = floorIndex(ys, ny, b);
+            // Горизонтальные отрезки в пределах [l, r] на строках строго внутри (t, b)
+            for (int j = j0; j <= j1; j++) {
+                if (ys[j] == t || ys[j] == b) continue;
+                for (int i = i0; i < i1; i++) {
+                    hBlocked[j * nx + i] = true;
+                }
+            }
+            // Вертикальные отрезки в пределах [t, b] на столбцах строго внутри (l, r)
+            for (int i = i0; i <= i1; i++) {
+                if (xs[i] == l || xs[i] == r) continue;
+                for (int j = j0; j < j1; j++) {
+                    vBlocked[j * nx + i] = true;
+                }
+            }
+        }
+
+        // 3. A* по состояниям (вершина, направление прихода)
+        int start = Arrays.binarySearch(xs, 0, nx, sx) + Arrays.binarySearch(ys, 0, ny, sy) * nx;
+        int goal = Arrays.binarySearch(xs, 0, nx, ex) + Arrays.binarySearch(ys, 0, ny, ey) * nx;
+        int states = nodes * 4;
+        if (costs.length < states) {
+            int size = Math.max(states, costs.length * 2);
+            costs = new double[size];
+            parents = new int[size];
+            seen = new int[size];
+            closed = new int[size];
+            generation = 0;
+        }
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            generation = 1;
+        }
+        heapSize = 0;
+        int first = start * 4 + startDir;
+        costs[first] = 0;
+        parents[first] = FlowGraph.NONE;
+        seen[first] = generation;
+        push(first, Math.abs(ex - sx) + Math.abs(ey - sy));
+        while (heapSize > 0) {
+            int state = pop();
+            if (closed[state] == generation) continue;
+            closed[state] = generation;
+            int node = state >> 2;
+            if (node == goal) {
+                return path(state);
+            }
+            int dir = state & 3;
+            int i = node % nx;
+            int j = node / nx;
+            for (int next = 0; next < 4; next++) {
+                if (next == ((dir + 2) & 3)) continue;
+                int ti = i;
+                int tj = j;
+                if (next == RIGHT) {
+                    if (i == nx - 1 || hBlocked[node]) continue;
+                    ti++;
+                } else if (next == LEFT) {
+                    if (i == 0 || hBlocked[node - 1]) continue;
+                    ti--;
+                } else if (next == DOWN) {
+                    if (j == ny - 1 || vBlocked[node]) continue;
+                    tj++;
+                } else {
+                    if (j == 0 || vBlocked[node - nx]) continue;
+                    tj--;
+                }
+                int to = tj * nx + ti;
+                double cost = costs[state] + Math.abs(xs[ti] - xs[i]) + Math.abs(ys[tj] - ys[j]);
+                if (next != dir) cost += BEND;
+                // Вход в узел сбоку - это путь вдоль его границы: дороже любого поворота
+                if (to == goal && next != endDir) cost += 2 * BEND;
+                int nextState = to * 4 + next;
+                if (closed[nextState] == generation) continue;
+                if (seen[nextState] != generation || cost < costs[nextState]) {
+                    seen[nextState] = generation;
+                    costs[nextState] = cost;
+                    parents[nextState] = state;
+                    double rest = Math.abs(ex - xs[ti]) + Math.abs(ey - ys[tj]);
+                    push(nextState, cost + rest * (1 + TIE_BREAK));
+                }
+            }
+        }
+        return null;
+    }
+
+    // Точки пути - начало, изломы и конец
+    private double[] path(int last) {
+        int length = 0;
+        for (int state = last; state != FlowGraph.NONE; state = parents[state]) {
+            if (length == path.length) path = Arrays.copyOf(path, length * 2);
+            path[length++] = state;
+        }
+        int points = 2;
+        for (int k = length - 2; k > 0; k--) {
+            if ((path[k] & 3) != (path[k - 1] & 3)) points++;
+        }
+        double[] route = new double[points * 2];
+        int p = 0;
+        p = putPoint(route, p, path[length - 1] >> 2);
+        for (int k = length - 2; k > 0; k--) {
+            if ((path[k] & 3) != (path[k - 1] & 3)) p = putPoint(route, p, path[k] >> 2);
+        }
+        putPoint(route, p, last >> 2);
+        return route;
+    }
+
+    private int putPoint(double[] route, int p, int node) {
+        route[p] = xs[node % nx];
+        route[p + 1] = ys[node / nx];
+        return p + 2;
+    }
+
+    private void push(int state, double key) {
+        if (heapSize == heapStates.length) {
+            heapStates = Arrays.copyOf(heapStates, heapSize * 2);
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+        }
+        int k = heapSize++;
+        while (k > 0) {
+            int parent = (k - 1) >> 1;
+            if (heapKeys[parent] <= key) break;
+            heapStates[k] = heapStates[parent];
+            heapKeys[k] = heapKeys[parent];
+            k = parent;
+        }
+        heapStates[k] = state;
+        heapKeys[k] = key;
+    }
+
+    private int pop() {
+        int top = heapStates[0];
+        int state = heapStates[--heapSize];
+        double key = heapKeys[heapSize];
+        int k = 0;
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+            if (key <= heapKeys[child]) break;
+            heapStates[k] = heapStates[child];
+            heapKeys[k] = heapKeys[child];
+            k = child;
+        }
+        heapStates[k] = state;
+        heapKeys[k] = key;
+        return top;
+    }
+
+    // Направление выхода из точки подключения наружу узла
+    private static int outward(ConType.AnchorPoint anchor) {
+        if (anchor.fy() == 1) return DOWN;
+        if (anchor.fy() == 0) return UP;
+        return anchor.fx() == 1 ? RIGHT : LEFT;
+    }
+
+    // Направление прямого отрезка; -1 - концы не на одной линии, -2 - совпадают
+    private static int direction(double sx, double sy, double ex, double ey) {
+        if (sx == ex && sy == ey) return -2;
+        if (sx == ex) return ey > sy ? DOWN : UP;
+        if (sy == ey) return ex > sx ? RIGHT : LEFT;
+        return -1;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static int sortUnique(double[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int unique = 1;
+        for (int i = 1; i < count; i++) {
+            if (values[i] != values[unique - 1]) values[unique++] = values[i];
+        }
+        return unique;
+    }
+
+    // Первый индекс со значением >= value (count, если таких нет)
+    private static int ceilIndex(double[] values, int count, double value) {
+        int i = Arrays.binarySearch(values, 0, count, value);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    // Последний индекс со значением <= value (-1, если таких нет)
+    private static int floorIndex(double[] values, int count, double value) {
+        int i = Arrays.binarySearch(values, 0, count, value);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private double width(int step) {
+        return graph.kind(step) == StepKind.CONNECTOR ? Connector.SIZE : Step.WIDTH;
+    }
+
+    private double height(int step) {
+        return graph.kind(step) == StepKind.CONNECTOR ? Connector.SIZE : Step.HEIGHT;
+    }
+
+    // ============= КЕШ И КОРИДОРЫ =============
+
+    private void invalidate(int edge) {
+        ensureEdge(edge);
+        valid[edge] = false;
+        if (queued[edge]) return;
+        queued[edge] = true;
+        dirty.offer(edge);
+        if (onInvalidated != null) {
+            onInvalidated.accept(edge);
+        }
+    }
+
+    // Сбросить связи, в коридор которых попадает прямоугольник
+    private void invalidateArea(double minX, double minY, double maxX, double maxY) {
+        found.clear();
+        corridors.query(minX, minY, maxX, maxY, found);
+        while (!found.isEmpty()) {
+            invalidate(found.poll());
+        }
+        for (int i = 0; i < longCount; i++) {
+            int edge = longEdges[i];
+            int b = edge * 4;
+            if (boxes[b] <= maxX && boxes[b + 2] >= minX && boxes[b + 1] <= maxY && boxes[b + 3] >= minY) {
+                invalidate(edge);
+            }
+        }
+    }
+
+    private void invalidateObstacle(int step) {
+        double x = obstacles.minX(step);
+        double y = obstacles.minY(step);
+        invalidateArea(x, y, x + obstacles.width(step), y + obstacles.height(step));
+    }
+
+    private void putObstacle(int step) {
+        obstacles.put(step, graph.x(step), graph.y(step), width(step), height(step));
+    }
+
+    private void setCorridor(int edge, double minX, double minY, double maxX, double maxY) {
+        int b = edge * 4;
+        boxes[b] = minX;
+        boxes[b + 1] = minY;
+        boxes[b + 2] = maxX;
+        boxes[b + 3] = maxY;
+        if (maxX - minX > LONG_WIDTH || maxY - minY > LONG_HEIGHT) {
+            corridors.remove(edge);
+            addLong(edge);
+        } else {
+            dropLong(edge);
+            corridors.put(edge, minX, minY, maxX - minX, maxY - minY);
+        }
+    }
+
+    private void ensureEdge(int edge) {
+        if (edge < valid.length) return;
+        int size = Math.max(edge + 1, valid.length * 2);
+        int from = valid.length;
+        routes = Arrays.copyOf(routes, size);
+        boxes = Arrays.copyOf(boxes, size * 4);
+        valid = Arrays.copyOf(valid, size);
+        queued = Arrays.copyOf(queued, size);
+        longIndex = Arrays.copyOf(longIndex, size);
+        Arrays.fill(longIndex, from, size, -1);
+    }
+
+    private void addLong(int edge) {
+        if (longIndex[edge] >= 0) return;
+        if (longCount == longEdges.length) {
+            longEdges = Arrays.copyOf(longEdges, longCount * 2);
+        }
+        longIndex[edge] = longCount;
+        longEdges[longCount++] = edge;
+    }
+
+    private void dropLong(int edge) {
+        if (edge >= longIndex.length || longIndex[edge] < 0) return;
+        int at = longIndex[edge];
+        int last = longEdges[--longCount];
+        longEdges[at] = last;
+        longIndex[last] = at;
+        longIndex[edge] = -1;
+    }
+
+    // ============= СОБЫТИЯ ГРАФА =============
+
+    @Override
+    public void stepAdded(int step) {
+        putObstacle(step);
+        invalidateObstacle(step);
+    }
+
+    @Override
+    public void stepMoved(int step) {
+        if (obstacles.contains(step)) {
+            invalidateObstacle(step);
+        }
+        putObstacle(step);
+        invalidateObstacle(step);
+        for (int e = graph.firstOut(step); e != FlowGraph.NONE; e = graph.nextOut(e)) {
+            invalidate(e);
+        }
+        for (int e = graph.firstIn(step); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+            invalidate(e);
+        }
+    }
+
+    @Override
+    public void stepRemoved(int step) {
+        if (!obstacles.contains(step)) return;
+        invalidateObstacle(step);
+        obstacles.remove(step);
+    }
+
+    @Override
+    public void edgeAdded(int edge) {
+        invalidate(edge);
+    }
+
+    @Override
+    public void edgeRemoved(int edge, int source, int target, EdgeType type) {
+        if (edge >= valid.length) return;
+        corridors.remove(edge);
+        dropLong(edge);
+        routes[edge] = null;
+        valid[edge] = false;
+    }
+}
@@ -1,5 +1,6 @@
 package com.alensoft.automator42.model.step;
 
+import com.alensoft.automator42.model.graph.StepKind;
 import javafx.scene.control.Label;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Polygon;
@@ -51,4 +52,9 @@ public class Branch extends Step {
         noLabel.setLayoutX( w-18);
         noLabel.setLayoutY(h / 2 - 10);
     }
-}
\ No newline at end of file
+
+    @Override
+    public StepKind getKind() {
+        return StepKind.BRANCH;
+    }
+}
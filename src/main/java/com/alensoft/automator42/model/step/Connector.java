@@ -1,15 +1,18 @@
 package com.alensoft.automator42.model.step;
 
+import com.alensoft.automator42.model.graph.StepKind;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 
 public class Connector extends Step {
+    public static final int SIZE = 18;
+
     private final Circle circle;
 
     public Connector() {
         super("");
         circle = new Circle(8);
-        postConstruct(circle, Color.DARKSLATEBLUE, Color.web("#e8ecff"), 1.5, 18, 18);
+        postConstruct(circle, Color.DARKSLATEBLUE, Color.web("#e8ecff"), 1.5, SIZE, SIZE);
     }
 
     @Override
@@ -20,4 +23,9 @@ public class Connector extends Step {
         circle.setCenterX(w / 2);
         circle.setCenterY(h / 2);
     }
+
+    @Override
+    public StepKind getKind() {
+        return StepKind.CONNECTOR;
+    }
 }
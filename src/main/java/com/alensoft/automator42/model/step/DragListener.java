@@ -0,0 +1,12 @@
+package com.alensoft.automator42.model.step;
+
+/**
+ * Наблюдатель за перетаскиванием узла мышью
+ */
+public interface DragListener {
+
+    /**
+     * Кнопку отпустили и узел сдвинут; from - где он был при нажатии
+     */
+    void dragFinished(Step step, double fromX, double fromY);
+}
@@ -1,5 +1,6 @@
 package com.alensoft.automator42.model.step;
 
+import com.alensoft.automator42.model.graph.StepKind;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Ellipse;
 
@@ -23,4 +24,9 @@ public class End extends Step {
         label.setPrefWidth(w);
         layoutLabelCentered();
     }
+
+    @Override
+    public StepKind getKind() {
+        return StepKind.END;
+    }
 }
@@ -1,5 +1,6 @@
 package com.alensoft.automator42.model.step;
 
+import com.alensoft.automator42.model.graph.StepKind;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 
@@ -21,4 +22,9 @@ public class Process extends Step {
         label.setPrefWidth(getPrefWidth());
         layoutLabelCentered();
     }
+
+    @Override
+    public StepKind getKind() {
+        return StepKind.PROCESS;
+    }
 }
@@ -1,13 +1,15 @@
 package com.alensoft.automator42.model.step;
 
-import com.alensoft.automator42.model.connection.ConType;
 import com.alensoft.automator42.model.connection.Connect;
-import javafx.beans.binding.Bindings;
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.StepKind;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
 import javafx.beans.binding.ObjectBinding;
-import javafx.beans.property.ObjectProperty;
-import javafx.beans.property.SimpleObjectProperty;
-import javafx.geometry.Bounds;
+import javafx.beans.value.ObservableObjectValue;
 import javafx.geometry.Point2D;
+import javafx.scene.Scene;
 import javafx.scene.control.Label;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
@@ -19,7 +21,6 @@ import javafx.scene.text.TextAlignment;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
 
 public abstract class Step extends Pane {
     public static final int WIDTH = 120;
@@ -28,14 +29,25 @@ public abstract class Step extends Pane {
 
     protected Label label = new Label();
 
-    // Точки подключения для стрелок
-    private final ObjectProperty<Point2D> top = new SimpleObjectProperty<>();
-    private final ObjectProperty<Point2D> left = new SimpleObjectProperty<>();
-    private final ObjectProperty<Point2D> right = new SimpleObjectProperty<>();
-    private final ObjectProperty<Point2D> bottom = new SimpleObjectProperty<>();
+    // Точки подключения для стрелок: ленивые, считаются при чтении
+    private final Anchor top = new Anchor(0.5, 0);
+    private final Anchor left = new Anchor(0, 0.5);
+    private final Anchor right = new Anchor(1, 0.5);
+    private final Anchor bottom = new Anchor(0.5, 1);
+    private boolean anchorsHeld;  // внутри moveTo: пометить точки один раз в конце
+    private boolean anchorsDirty;
 
-    private final List<Connect> in = new ArrayList<>();
-    private final List<Connect> out = new ArrayList<>();
+    // Топология хранится в FlowGraph, узел - только представление своего id
+    private FlowGraph graph;
+    private int id = FlowGraph.NONE;
+
+    // Кеш соседей, действителен пока не изменилась версия узла в графе
+    private List<Step> nextSteps = List.of();
+    private List<Step> previousSteps = List.of();
+    private int nextVersion = -1;
+    private int previousVersion = -1;
+
+    private DragListener dragListener;
 
     public Step(String text) {
         label.setText(text);
@@ -49,44 +61,98 @@ public abstract class Step extends Pane {
     }
 
     private void bindAnchorPoints() {
-        top.bind(getBinding(this::getTopAnchor));
-        left.bind(getBinding(this::getLeftAnchor));
-        right.bind(getBinding(this::getRightAnchor));
-        bottom.bind(getBinding(this::getBottomAnchor));
+        // Один слушатель на все, от чего зависят точки; значения не читаются
+        InvalidationListener listener = obs -> anchorsChanged();
+        layoutXProperty().addListener(listener);
+        layoutYProperty().addListener(listener);
+        translateXProperty().addListener(listener);
+        translateYProperty().addListener(listener);
+        widthProperty().addListener(listener);
+        heightProperty().addListener(listener);
+        prefWidthProperty().addListener(listener);
+        prefHeightProperty().addListener(listener);
     }
 
-    public void updateAnchors() {
-        top.set(getTopAnchor());
-        left.set(getLeftAnchor());
-        right.set(getRightAnchor());
-        bottom.set(getBottomAnchor());
+    private void anchorsChanged() {
+        if (anchorsHeld) {
+            anchorsDirty = true;
+        } else {
+            updateAnchors();
+        }
     }
 
-    private Point2D getTopAnchor() {
-        Bounds b = localToParent(getBoundsInLocal());
-        return new Point2D(b.getMinX() + b.getWidth() / 2.0, b.getMinY());
+    /**
+     * Переместить узел. Точки подключения (а с ними и стрелки) пересчитываются
+     * один раз, а не отдельно на каждую координату.
+     */
+    public void moveTo(double x, double y) {
+        anchorsHeld = true;
+        try {
+            setLayoutX(x);
+            setLayoutY(y);
+        } finally {
+            anchorsHeld = false;
+        }
+        if (anchorsDirty) {
+            updateAnchors();
+        }
     }
 
-    private Point2D getLeftAnchor() {
-        Bounds b = localToParent(getBoundsInLocal());
-        return new Point2D(b.getMinX(), b.getMinY() + b.getHeight() / 2.0);
+    /**
+     * Пометить точки подключения устаревшими. Слушатели получают одно уведомление,
+     * пересчет - при следующем чтении точки.
+     */
+    public void updateAnchors() {
+        anchorsDirty = false;
+        top.invalidate();
+        left.invalidate();
+        right.invalidate();
+        bottom.invalidate();
     }
 
-    private Point2D getRightAnchor() {
-        Bounds b = localToParent(getBoundsInLocal());
-        return new Point2D(b.getMinX() + b.getWidth(), b.getMinY() + b.getHeight() / 2.0);
+    // До первого прохода раскладки размер еще не назначен - берем предпочтительный
+    private double anchorWidth() {
+        double width = getWidth();
+        return width > 0 ? width : getPrefWidth();
     }
 
-    private Point2D getBottomAnchor() {
-        Bounds b = localToParent(getBoundsInLocal());
-        return new Point2D(b.getMinX() + b.getWidth() / 2.0, b.getMinY() + b.getHeight());
+    private double anchorHeight() {
+        double height = getHeight();
+        return height > 0 ? height : getPrefHeight();
     }
 
-    private ObjectBinding<Point2D> getBinding(Callable<Point2D> func) {
-        return Bindings.createObjectBinding(func,
-                layoutBoundsProperty(), translateXProperty(),
-                translateYProperty(), localToParentTransformProperty(),
-                layoutXProperty(), layoutYProperty());
+    /**
+     * Точка на рамке узла в долях ширины и высоты, в координатах родителя.
+     * Считается из layoutX/Y, translate и размера, без промежуточных Bounds.
+     */
+    private final class Anchor extends ObjectBinding<Point2D> {
+        private final double fx;
+        private final double fy;
+
+        Anchor(double fx, double fy) {
+            this.fx = fx;
+            this.fy = fy;
+        }
+
+        @Override
+        protected Point2D computeValue() {
+            return new Point2D(getLayoutX() + getTranslateX() + anchorWidth() * fx,
+                    getLayoutY() + getTranslateY() + anchorHeight() * fy);
+        }
+    }
+
+    /**
+     * Новый узел-представление для вида из headless-модели (у Connector текста нет)
+     */
+    public static Step create(StepKind kind, String text) {
+        return switch (kind) {
+            case BEGIN -> new Begin(text);
+            case END -> new End(text);
+            case PROCESS -> new Process(text);
+            case BRANCH -> new Branch(text);
+            case USER_IO -> new UserIO(text);
+            case CONNECTOR -> new Connector();
+        };
     }
 
     protected void postConstruct(Shape shape, Color strokeColor, Color fillColor,
@@ -104,27 +170,80 @@ public abstract class Step extends Pane {
 
     protected abstract void resize();
 
-    public ObjectProperty<Point2D> getTop() {
+    public abstract StepKind getKind();
+
+    /**
+     * Зарегистрировать узел в графе. Позиция и текст копируются в модель.
+     */
+    public void attach(FlowGraph graph) {
+        if (this.graph != null) {
+            throw new IllegalStateException("Step is already attached: " + this);
+        }
+        this.graph = graph;
+        id = graph.addStep(getKind(), getText());
+        graph.setPosition(id, getLayoutX(), getLayoutY());
+        graph.setAttachment(id, this);
+        nextVersion = -1;
+        previousVersion = -1;
+    }
+
+    /**
+     * Удалить узел из графа (вместе с оставшимися связями)
+     */
+    public void detach() {
+        if (graph == null) return;
+        graph.removeStep(id);
+        graph = null;
+        id = FlowGraph.NONE;
+        nextSteps = List.of();
+        previousSteps = List.of();
+    }
+
+    public FlowGraph getGraph() {
+        return graph;
+    }
+
+    public int getStepId() {
+        return id;
+    }
+
+    public ObservableObjectValue<Point2D> getTop() {
         return top;
     }
 
-    public ObjectProperty<Point2D> getBottom() {
+    public ObservableObjectValue<Point2D> getBottom() {
         return bottom;
     }
 
-    public ObjectProperty<Point2D> getLeft() {
+    public ObservableObjectValue<Point2D> getLeft() {
         return left;
     }
 
-    public ObjectProperty<Point2D> getRight() {
+    public ObservableObjectValue<Point2D> getRight() {
         return right;
     }
 
+    /**
+     * Входящие соединения (снимок, в порядке создания)
+     */
     public List<Connect> in() {
+        if (graph == null) return List.of();
+        List<Connect> in = new ArrayList<>();
+        for (int e = graph.firstIn(id); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+            in.add((Connect) graph.edgeAttachment(e));
+        }
         return in;
     }
 
+    /**
+     * Исходящие соединения (снимок, в порядке создания)
+     */
     public List<Connect> out() {
+        if (graph == null) return List.of();
+        List<Connect> out = new ArrayList<>();
+        for (int e = graph.firstOut(id); e != FlowGraph.NONE; e = graph.nextOut(e)) {
+            out.add((Connect) graph.edgeAttachment(e));
+        }
         return out;
     }
 
@@ -134,24 +253,50 @@ public abstract class Step extends Pane {
 
     public void setText(String text) {
         label.setText(text);
+        if (graph != null) {
+            graph.setText(id, text);
+        }
     }
 
+    /**
+     * Перетаскивание: события мыши только запоминают, куда сдвинуть узел, а сам
+     * сдвиг (и пересчет связей узла) выполняется один раз за пульс, перед раскладкой
+     */
     private void enableDrag() {
-        final Delta dragDelta = new Delta();
+        final Drag drag = new Drag();
         setOnMousePressed((MouseEvent e) -> {
             if (e.getButton() != MouseButton.PRIMARY) return;
-            dragDelta.x = e.getX();
-            dragDelta.y = e.getY();
+            drag.x = e.getX();
+            drag.y = e.getY();
+            drag.fromX = getLayoutX();
+            drag.fromY = getLayoutY();
+            drag.start();
             toFront();
         });
         setOnMouseDragged((MouseEvent e) -> {
             if (e.getButton() != MouseButton.PRIMARY) return;
-            double nx = getLayoutX() + e.getX() - dragDelta.x;
-            double ny = getLayoutY() + e.getY() - dragDelta.y;
-            relocate(nx, ny);
+            // До пульса layoutX/Y не меняются, поэтому последнее событие дает итоговую точку
+            drag.targetX = getLayoutX() + e.getX() - drag.x;
+            drag.targetY = getLayoutY() + e.getY() - drag.y;
+            drag.schedule();
+        });
+        setOnMouseReleased((MouseEvent e) -> {
+            if (e.getButton() != MouseButton.PRIMARY) return;
+            drag.stop();
+            // Весь сдвиг от нажатия до отпускания - одно событие
+            if (dragListener != null && (getLayoutX() != drag.fromX || getLayoutY() != drag.fromY)) {
+                dragListener.dragFinished(this, drag.fromX, drag.fromY);
+            }
         });
     }
 
+    /**
+     * Кому сообщать о законченном перетаскивании (null - никому)
+     */
+    public void setDragListener(DragListener listener) {
+        this.dragListener = listener;
+    }
+
     protected void layoutLabelCentered() {
         double stepW = getPrefWidth();
         double stepH = getPrefHeight();
@@ -166,26 +311,95 @@ public abstract class Step extends Pane {
         label.setLayoutY((stepH - labelH) / 2);
     }
 
+    /**
+     * Следующие узлы (без EMPTY) в порядке типов. Неизменяемый список из кеша.
+     */
     public List<Step> getNextSteps() {
-        return out.stream()
-                .filter(c-> c.getType() != ConType.EMPTY)
-                .sorted()
-                .distinct()
-                .map(Connect::getTarget)
-                .toList();
+        if (graph == null) return List.of();
+        int version = graph.version(id);
+        if (nextVersion != version) {
+            List<Step> next = new ArrayList<>();
+            for (EdgeType type : EdgeType.values()) {
+                if (!type.isFlow()) continue;
+                for (int e = graph.firstOut(id, type); e != FlowGraph.NONE; e = graph.nextInSlot(e)) {
+                    next.add((Step) graph.attachment(graph.target(e)));
+                }
+            }
+            nextSteps = List.copyOf(next);
+            nextVersion = version;
+        }
+        return nextSteps;
     }
 
+    /**
+     * Предыдущие узлы (без EMPTY) в порядке типов. Неизменяемый список из кеша.
+     */
     public List<Step> getPreviousSteps() {
-        return in.stream()
-                .filter(c-> c.getType() != ConType.EMPTY)
-                .sorted()
-                .distinct()
-                .map(Connect::getSource)
-                .toList();
+        if (graph == null) return List.of();
+        int version = graph.version(id);
+        if (previousVersion != version) {
+            List<Step> previous = new ArrayList<>();
+            // Входящие связи не разложены по слотам: сортируем по типу проходом на каждый тип
+            for (EdgeType type : EdgeType.values()) {
+                if (!type.isFlow()) continue;
+                for (int e = graph.firstIn(id); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+                    if (graph.type(e) == type) {
+                        previous.add((Step) graph.attachment(graph.source(e)));
+                    }
+                }
+            }
+            previousSteps = List.copyOf(previous);
+            previousVersion = version;
+        }
+        return previousSteps;
     }
 
-    private static class Delta {
-        double x, y;
+    /**
+     * Слушатель пульса живет от нажатия до отпускания кнопки, а не снимается из
+     * самого пульса - иначе список слушателей сцены меняется во время обхода
+     */
+    private final class Drag implements Runnable {
+        double x, y;              // точка захвата внутри узла
+        double fromX, fromY;      // где узел был при нажатии
+        double targetX, targetY;  // куда сдвинуть в ближайший пульс
+        private boolean pending;
+        private Scene scene;
+
+        void start() {
+            stop();
+            scene = getScene();
+            if (scene != null) {
+                scene.addPreLayoutPulseListener(this);
+            }
+        }
+
+        void schedule() {
+            if (scene == null) {
+                pending = true;
+                run();
+            } else if (!pending) {
+                pending = true;
+                Platform.requestNextPulse();
+            }
+        }
+
+        void stop() {
+            run();  // последнее перемещение не должно потеряться
+            if (scene != null) {
+                scene.removePreLayoutPulseListener(this);
+                scene = null;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!pending) return;
+            pending = false;
+            moveTo(targetX, targetY);
+            if (graph != null) {
+                graph.setPosition(id, getLayoutX(), getLayoutY());
+            }
+        }
     }
 
     @Override
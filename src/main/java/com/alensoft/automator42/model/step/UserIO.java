@@ -1,5 +1,6 @@
 package com.alensoft.automator42.model.step;
 
+import com.alensoft.automator42.model.graph.StepKind;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Polygon;
 
@@ -25,4 +26,9 @@ public class UserIO extends Step {
         label.setPrefWidth(w - 20);
         layoutLabelCentered();
     }
+
+    @Override
+    public StepKind getKind() {
+        return StepKind.USER_IO;
+    }
 }
@@ -6,8 +6,12 @@ module module_name {
     requires java.compiler;
 
     exports com.alensoft.automator42.model;
+    exports com.alensoft.automator42.model.canvas;
     exports com.alensoft.automator42.model.connection;
+    exports com.alensoft.automator42.model.graph;
     exports com.alensoft.automator42.model.line;
+    exports com.alensoft.automator42.model.io;
+    exports com.alensoft.automator42.model.diff;
 
     opens com.alensoft.automator42.model to javafx.graphics;
     opens com.alensoft.automator42.model.line to javafx.graphics;
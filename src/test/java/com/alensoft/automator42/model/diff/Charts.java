@@ -0,0 +1,93 @@
+package com.alensoft.automator42.model.diff;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.StepKind;
+
+import java.util.Random;
+
+/**
+ * Случайные схемы и правки для тестов сравнения и слияния
+ */
+final class Charts {
+    private static int texts;
+
+    private Charts() {
+    }
+
+    /**
+     * Begin -> цепочка с ветвлениями -> End. unique - тексты уникальны, иначе повторяются
+     */
+    static FlowGraph chart(int length, Random random, boolean unique) {
+        FlowGraph graph = new FlowGraph();
+        int previous = graph.addStep(StepKind.BEGIN, "begin");
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(5) == 0) {
+                int branch = graph.addStep(StepKind.BRANCH, text(i, unique));
+                int yes = graph.addStep(StepKind.PROCESS, text(i, unique) + " yes");
+                int merge = graph.addStep(StepKind.CONNECTOR, text(i, unique) + " merge");
+                graph.connect(previous, branch, EdgeType.OK);
+                graph.connect(branch, yes, EdgeType.IN);
+                graph.connect(branch, merge, EdgeType.OUT);
+                graph.connect(yes, merge, EdgeType.OK);
+                previous = merge;
+            } else {
+                int step = graph.addStep(StepKind.PROCESS, text(i, unique));
+                graph.connect(previous, step, EdgeType.OK);
+                previous = step;
+            }
+        }
+        graph.connect(previous, graph.addStep(StepKind.END, "end"), EdgeType.OK);
+        return graph;
+    }
+
+    /**
+     * Вставки в цепочку, удаления из нее и смена текстов
+     */
+    static void edit(FlowGraph graph, int count, Random random) {
+        for (int i = 0; i < count; i++) {
+            int step = process(graph, random.nextInt(Math.max(1, processCount(graph))));
+            int edge = graph.firstOut(step, EdgeType.OK);
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    int next = graph.target(edge);
+                    int added = graph.addStep(StepKind.PROCESS, "new " + texts++);
+                    graph.disconnect(edge);
+                    graph.connect(step, added, EdgeType.OK);
+                    graph.connect(added, next, EdgeType.OK);
+                }
+                case 1 -> {
+                    int next = graph.target(edge);
+                    int in = graph.firstIn(step);
+                    int previous = graph.source(in);
+                    EdgeType type = graph.type(in);
+                    graph.removeStep(step);
+                    graph.connect(previous, next, type);
+                }
+                default -> graph.setText(step, "text " + texts++);
+            }
+        }
+    }
+
+    /**
+     * index-й по id узел Process
+     */
+    static int process(FlowGraph graph, int index) {
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (graph.contains(step) && graph.kind(step) == StepKind.PROCESS && index-- == 0) return step;
+        }
+        throw new IllegalArgumentException("No process step " + index);
+    }
+
+    private static int processCount(FlowGraph graph) {
+        int count = 0;
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (graph.contains(step) && graph.kind(step) == StepKind.PROCESS) count++;
+        }
+        return count;
+    }
+
+    private static String text(int i, boolean unique) {
+        return unique ? "step " + i : "step " + i % 3;
+    }
+}
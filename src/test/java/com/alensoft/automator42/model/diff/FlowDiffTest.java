@@ -0,0 +1,117 @@
+package com.alensoft.automator42.model.diff;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.StepKind;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.alensoft.automator42.model.graph.GraphAssertions.assertSameByText;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowDiffTest {
+
+    @Test
+    void identicalGraphsGiveEmptyScript() {
+        FlowGraph graph = Charts.chart(200, new Random(1), true);
+
+        assertTrue(FlowDiff.diff(graph, graph).isEmpty());
+        assertTrue(FlowDiff.diff(graph, graph.copy()).isEmpty());
+        // Та же схема, собранная заново: id совпадают, но сравниваются не они
+        assertTrue(FlowDiff.diff(graph, Charts.chart(200, new Random(1), true)).isEmpty());
+    }
+
+    @Test
+    void identicalGraphsWithRepeatedTextsGiveEmptyScript() {
+        FlowGraph graph = Charts.chart(200, new Random(2), false);
+
+        assertTrue(FlowDiff.diff(graph, graph.copy()).isEmpty());
+    }
+
+    @Test
+    void appliedScriptGivesTarget() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            FlowGraph from = Charts.chart(100 + seed * 10, random, true);
+            FlowGraph to = from.copy();
+            Charts.edit(to, 30, random);
+
+            EditScript script = FlowDiff.diff(from, to);
+            FlowGraph applied = from.copy();
+            script.apply(applied);
+
+            assertSameByText(to, applied);
+            assertTrue(FlowDiff.diff(applied, to).isEmpty(), "re-diff after apply, seed " + seed);
+        }
+    }
+
+    @Test
+    void appliedScriptGivesTargetWithRepeatedTexts() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            FlowGraph from = Charts.chart(100 + seed * 10, random, false);
+            FlowGraph to = from.copy();
+            Charts.edit(to, 30, random);
+
+            FlowGraph applied = from.copy();
+            FlowDiff.diff(from, to).apply(applied);
+
+            assertEquals(to.stepCount(), applied.stepCount());
+            assertEquals(to.edgeCount(), applied.edgeCount());
+            assertTrue(FlowDiff.diff(applied, to).isEmpty(), "re-diff after apply, seed " + seed);
+        }
+    }
+
+    @Test
+    void textChangeIsRelabel() {
+        FlowGraph from = Charts.chart(50, new Random(3), true);
+        FlowGraph to = from.copy();
+        int step = Charts.process(to, 10);
+        to.setText(step, "renamed");
+
+        EditScript script = FlowDiff.diff(from, to);
+
+        assertEquals(1, script.size(), script.toString());
+        assertEquals(EditScript.Op.RELABEL, script.op(0));
+        assertEquals(step, script.step(0));
+        assertEquals("renamed", script.text(0));
+    }
+
+    @Test
+    void comparesEdgesByPresence() {
+        // Вторую связь того же типа между парой узлов граф не создает - сравнения наличия хватает
+        FlowGraph one = new FlowGraph();
+        int begin = one.addStep(StepKind.BEGIN, "begin");
+        int end = one.addStep(StepKind.END, "end");
+        int edge = one.connect(begin, end, EdgeType.OK);
+        FlowGraph again = one.copy();
+        assertEquals(edge, again.connect(begin, end, EdgeType.OK));
+        assertEquals(1, again.edgeCount());
+        assertTrue(FlowDiff.diff(one, again).isEmpty());
+
+        // Связь того же направления другого типа - отдельная
+        FlowGraph typed = one.copy();
+        typed.connect(begin, end, EdgeType.OUT);
+        EditScript script = FlowDiff.diff(one, typed);
+        assertEquals(1, script.size(), script.toString());
+        assertEquals(EditScript.Op.CONNECT, script.op(0));
+        assertEquals(EdgeType.OUT, script.edgeType(0));
+        FlowGraph applied = one.copy();
+        script.apply(applied);
+        assertTrue(FlowDiff.diff(applied, typed).isEmpty());
+        assertEquals(EditScript.Op.DISCONNECT, FlowDiff.diff(typed, one).op(0));
+    }
+
+    @Test
+    void rejectsUnrelatedGraph() {
+        FlowGraph from = Charts.chart(50, new Random(4), true);
+        FlowGraph to = from.copy();
+        to.removeStep(Charts.process(to, 5));
+        EditScript script = FlowDiff.diff(from, to);
+
+        assertThrows(IllegalArgumentException.class, () -> script.apply(new FlowGraph()));
+    }
+}
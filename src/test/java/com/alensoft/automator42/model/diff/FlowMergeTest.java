@@ -0,0 +1,173 @@
+package com.alensoft.automator42.model.diff;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.StepKind;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.alensoft.automator42.model.graph.GraphAssertions.assertSameByText;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowMergeTest {
+
+    @Test
+    void mergesDisjointEdits() {
+        FlowGraph base = Charts.chart(50, new Random(1), true);
+        FlowGraph ours = base.copy();
+        insertAfter(ours, Charts.process(ours, 3), "ours");
+        FlowGraph theirs = base.copy();
+        theirs.setText(Charts.process(theirs, 20), "theirs");
+        remove(theirs, Charts.process(theirs, 30));
+
+        FlowMerge.Result result = FlowMerge.merge(base, ours, theirs);
+
+        assertTrue(result.isClean(), result.conflicts().toString());
+        // Те же правки по очереди дают ту же схему
+        FlowGraph expected = ours.copy();
+        expected.setText(Charts.process(base, 20), "theirs");
+        remove(expected, Charts.process(base, 30));
+        assertSameByText(expected, result.graph());
+    }
+
+    @Test
+    void sameEditOnBothSidesIsClean() {
+        FlowGraph base = Charts.chart(30, new Random(2), true);
+        FlowGraph ours = base.copy();
+        ours.setText(Charts.process(ours, 5), "same");
+        remove(ours, Charts.process(ours, 10));
+        FlowGraph theirs = ours.copy();
+
+        FlowMerge.Result result = FlowMerge.merge(base, ours, theirs);
+
+        assertTrue(result.isClean(), result.conflicts().toString());
+        assertSameByText(ours, result.graph());
+    }
+
+    @Test
+    void textConflictKeepsOurText() {
+        FlowGraph base = Charts.chart(30, new Random(3), true);
+        int step = Charts.process(base, 7);
+        FlowGraph ours = base.copy();
+        ours.setText(step, "ours");
+        FlowGraph theirs = base.copy();
+        theirs.setText(step, "theirs");
+
+        FlowMerge.Result result = FlowMerge.merge(base, ours, theirs);
+
+        assertEquals(List.of(new FlowMerge.Conflict(FlowMerge.ConflictType.TEXT, step)), result.conflicts());
+        assertEquals("ours", result.graph().text(step));
+    }
+
+    @Test
+    void removedAndEditedStepIsKept() {
+        FlowGraph base = Charts.chart(30, new Random(4), true);
+        int step = Charts.process(base, 7);
+        FlowGraph ours = base.copy();
+        remove(ours, step);
+        FlowGraph theirs = base.copy();
+        theirs.setText(step, "theirs");
+
+        FlowMerge.Result result = FlowMerge.merge(base, ours, theirs);
+
+        assertEquals(List.of(new FlowMerge.Conflict(FlowMerge.ConflictType.REMOVED_AND_EDITED, step)),
+                result.conflicts());
+        assertTrue(result.graph().contains(step));
+        assertEquals("theirs", result.graph().text(step));
+
+        // То же с другой стороны
+        result = FlowMerge.merge(base, theirs, ours);
+        assertEquals(List.of(new FlowMerge.Conflict(FlowMerge.ConflictType.REMOVED_AND_EDITED, step)),
+                result.conflicts());
+        assertTrue(result.graph().contains(step));
+    }
+
+    @Test
+    void concurrentInsertKeepsBothEdges() {
+        FlowGraph base = Charts.chart(30, new Random(5), true);
+        int step = Charts.process(base, 7);
+        FlowGraph ours = base.copy();
+        insertAfter(ours, step, "ours");
+        FlowGraph theirs = base.copy();
+        insertAfter(theirs, step, "theirs");
+
+        FlowMerge.Result result = FlowMerge.merge(base, ours, theirs);
+
+        assertEquals(List.of(new FlowMerge.Conflict(FlowMerge.ConflictType.CONCURRENT_INSERT, step)),
+                result.conflicts());
+        FlowGraph merged = result.graph();
+        int first = merged.firstOut(step, EdgeType.OK);
+        assertEquals("ours", merged.text(merged.target(first)));
+        assertEquals("theirs", merged.text(merged.target(merged.nextInSlot(first))));
+    }
+
+    @Test
+    void concurrentInsertDetectedWhenOurSideAddsSeveralEdgesToSlot() {
+        FlowGraph base = Charts.chart(30, new Random(6), true);
+        int step = Charts.process(base, 7);
+        FlowGraph ours = base.copy();
+        int x = ours.addStep(StepKind.PROCESS, "x");
+        int y = ours.addStep(StepKind.PROCESS, "y");
+        ours.connect(step, x, EdgeType.OK);
+        ours.connect(step, y, EdgeType.OK);
+        FlowGraph theirs = base.copy();
+        int z = theirs.addStep(StepKind.PROCESS, "z");
+        theirs.connect(step, z, EdgeType.OK);
+
+        FlowMerge.Result result = FlowMerge.merge(base, ours, theirs);
+
+        assertEquals(List.of(new FlowMerge.Conflict(FlowMerge.ConflictType.CONCURRENT_INSERT, step)),
+                result.conflicts());
+        assertEquals(base.edgeCount() + 3, result.graph().edgeCount());
+    }
+
+    @Test
+    void sameEdgeAddedByBothSidesIsKeptOnce() {
+        FlowGraph base = Charts.chart(30, new Random(9), true);
+        int step = Charts.process(base, 7);
+        int target = Charts.process(base, 20);
+        FlowGraph ours = base.copy();
+        ours.connect(step, target, EdgeType.OK);
+        FlowGraph theirs = ours.copy();
+
+        FlowMerge.Result result = FlowMerge.merge(base, ours, theirs);
+
+        assertTrue(result.isClean(), result.conflicts().toString());
+        assertEquals(base.edgeCount() + 1, result.graph().edgeCount());
+    }
+
+    @Test
+    void mergesScriptsDirectly() {
+        FlowGraph base = Charts.chart(40, new Random(7), true);
+        FlowGraph ours = base.copy();
+        Charts.edit(ours, 5, new Random(8));
+
+        FlowMerge.Result result = FlowMerge.merge(base, FlowDiff.diff(base, ours), FlowDiff.diff(base, base));
+
+        assertTrue(result.isClean(), result.conflicts().toString());
+        assertSameByText(ours, result.graph());
+    }
+
+    // Вставить узел в основную цепочку после step
+    private static void insertAfter(FlowGraph graph, int step, String text) {
+        int edge = graph.firstOut(step, EdgeType.OK);
+        int next = graph.target(edge);
+        int added = graph.addStep(StepKind.PROCESS, text);
+        graph.disconnect(edge);
+        graph.connect(step, added, EdgeType.OK);
+        graph.connect(added, next, EdgeType.OK);
+    }
+
+    // Удалить узел цепочки, соединив соседей
+    private static void remove(FlowGraph graph, int step) {
+        int next = graph.target(graph.firstOut(step, EdgeType.OK));
+        int in = graph.firstIn(step);
+        int previous = graph.source(in);
+        EdgeType type = graph.type(in);
+        graph.removeStep(step);
+        graph.connect(previous, next, type);
+    }
+}
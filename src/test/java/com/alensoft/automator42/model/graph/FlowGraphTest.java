@@ -0,0 +1,383 @@
+package com.alensoft.automator42.model.graph;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.alensoft.automator42.model.graph.GraphAssertions.assertSameGraph;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowGraphTest {
+
+    @Test
+    void reusesRemovedStepIds() {
+        FlowGraph graph = new FlowGraph();
+        int a = graph.addStep(StepKind.BEGIN, "a");
+        int b = graph.addStep(StepKind.PROCESS, "b");
+        int c = graph.addStep(StepKind.END, "c");
+        graph.connect(a, b, EdgeType.OK);
+        graph.connect(b, c, EdgeType.OK);
+        graph.setPosition(b, 10, 20);
+        int version = graph.version(b);
+
+        graph.removeStep(b);
+
+        assertFalse(graph.contains(b));
+        assertEquals(2, graph.stepCount());
+        assertEquals(0, graph.edgeCount());
+        assertEquals(FlowGraph.NONE, graph.firstOut(a));
+        assertEquals(FlowGraph.NONE, graph.firstIn(c));
+        assertThrows(IllegalArgumentException.class, () -> graph.kind(b));
+
+        int reused = graph.addStep(StepKind.BRANCH, "d");
+        assertEquals(b, reused);
+        assertEquals(3, graph.stepCapacity());
+        assertEquals(StepKind.BRANCH, graph.kind(reused));
+        assertEquals("d", graph.text(reused));
+        assertEquals(0, graph.x(reused));
+        assertEquals(0, graph.y(reused));
+        assertTrue(graph.version(reused) > version);
+        for (EdgeType type : EdgeType.values()) {
+            assertEquals(FlowGraph.NONE, graph.firstOut(reused, type));
+        }
+        assertEquals(FlowGraph.NONE, graph.firstOut(reused));
+        assertEquals(FlowGraph.NONE, graph.firstIn(reused));
+        assertEquals(FlowGraph.NONE, graph.find(a, reused, EdgeType.OK));
+    }
+
+    @Test
+    void keepsInsertionOrderInSlot() {
+        FlowGraph graph = new FlowGraph();
+        int source = graph.addStep(StepKind.BRANCH, "s");
+        int[] targets = new int[5];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = graph.addStep(StepKind.PROCESS, "t" + i);
+            graph.connect(source, targets[i], EdgeType.OK);
+        }
+        assertEquals(List.of(targets[0], targets[1], targets[2], targets[3], targets[4]), slot(graph, source, EdgeType.OK));
+
+        graph.disconnect(graph.find(source, targets[0], EdgeType.OK));
+        graph.disconnect(graph.find(source, targets[2], EdgeType.OK));
+        graph.disconnect(graph.find(source, targets[4], EdgeType.OK));
+        assertEquals(List.of(targets[1], targets[3]), slot(graph, source, EdgeType.OK));
+
+        graph.connect(source, targets[0], EdgeType.OK);
+        assertEquals(List.of(targets[1], targets[3], targets[0]), slot(graph, source, EdgeType.OK));
+    }
+
+    @Test
+    void ordersOutEdgesByCreationAcrossSlots() {
+        FlowGraph graph = new FlowGraph();
+        int source = graph.addStep(StepKind.BRANCH, "s");
+        int a = graph.addStep(StepKind.PROCESS, "a");
+        int b = graph.addStep(StepKind.PROCESS, "b");
+        int c = graph.addStep(StepKind.PROCESS, "c");
+        int out = graph.connect(source, a, EdgeType.OUT);
+        int empty = graph.connect(source, b, EdgeType.EMPTY);
+        int in = graph.connect(source, c, EdgeType.IN);
+        int ok = graph.connect(source, b, EdgeType.OK);
+
+        assertEquals(List.of(out, empty, in, ok), outs(graph, source));
+        // Поток идет по слотам OK, IN, OUT и пропускает EMPTY
+        List<Integer> flow = new ArrayList<>();
+        for (int e = graph.firstFlow(source); e != FlowGraph.NONE; e = graph.nextFlow(e)) {
+            flow.add(e);
+        }
+        assertEquals(List.of(ok, in, out), flow);
+        assertEquals(in, graph.firstOut(source, EdgeType.OK, EdgeType.IN));
+        assertEquals(out, graph.firstOut(source, EdgeType.OK, EdgeType.OUT));
+        assertTrue(graph.serial(out) < graph.serial(ok));
+    }
+
+    @Test
+    void connectReturnsExistingEdge() {
+        FlowGraph graph = new FlowGraph();
+        int a = graph.addStep(StepKind.PROCESS, "a");
+        int b = graph.addStep(StepKind.PROCESS, "b");
+        int edge = graph.connect(a, b, EdgeType.OK);
+        int modCount = graph.modCount();
+        List<String> events = record(graph);
+
+        assertEquals(edge, graph.connect(a, b, EdgeType.OK));
+        assertEquals(1, graph.edgeCount());
+        assertEquals(modCount, graph.modCount());
+        assertTrue(events.isEmpty());
+        assertEquals(List.of(b), slot(graph, a, EdgeType.OK));
+
+        int other = graph.connect(a, b, EdgeType.IN);
+        assertNotEquals(edge, other);
+        int back = graph.connect(b, a, EdgeType.OK);
+        assertNotEquals(edge, back);
+        assertEquals(3, graph.edgeCount());
+    }
+
+    @Test
+    void disconnectUnlinksFromAllLists() {
+        FlowGraph graph = new FlowGraph();
+        int a = graph.addStep(StepKind.BRANCH, "a");
+        int b = graph.addStep(StepKind.PROCESS, "b");
+        int c = graph.addStep(StepKind.PROCESS, "c");
+        int d = graph.addStep(StepKind.PROCESS, "d");
+        int ab = graph.connect(a, b, EdgeType.OK);
+        int ac = graph.connect(a, c, EdgeType.OK);
+        int ad = graph.connect(a, d, EdgeType.OK);
+        int cb = graph.connect(c, b, EdgeType.OK);
+        int db = graph.connect(d, b, EdgeType.IN);
+
+        // Середина каждого списка: слот и out узла a, in узла b
+        graph.disconnect(ac);
+        graph.disconnect(cb);
+
+        assertFalse(graph.containsEdge(ac));
+        assertEquals(FlowGraph.NONE, graph.find(a, c, EdgeType.OK));
+        assertEquals(List.of(b, d), slot(graph, a, EdgeType.OK));
+        assertEquals(List.of(ab, ad), outs(graph, a));
+        assertEquals(List.of(ab, db), ins(graph, b));
+        assertEquals(List.of(), ins(graph, c));
+        assertEquals(List.of(), outs(graph, c));
+        assertEquals(3, graph.edgeCount());
+        assertThrows(IllegalArgumentException.class, () -> graph.disconnect(ac));
+
+        // Голова и хвост
+        graph.disconnect(ab);
+        graph.disconnect(db);
+        assertEquals(List.of(d), slot(graph, a, EdgeType.OK));
+        assertEquals(List.of(ad), outs(graph, a));
+        assertEquals(List.of(), ins(graph, b));
+
+        // Освобожденный id переиспользуется с новым номером создания
+        int serial = graph.serial(ad);
+        int reused = graph.connect(c, d, EdgeType.OK);
+        assertTrue(reused == ab || reused == ac || reused == cb || reused == db);
+        assertTrue(graph.serial(reused) > serial);
+        assertEquals(List.of(ad, reused), ins(graph, d));
+    }
+
+    @Test
+    void keepsListsConsistentUnderRandomEdits() {
+        Random random = new Random(1);
+        FlowGraph graph = new FlowGraph(4, 4);
+        Map<Long, Integer> expected = new HashMap<>();
+        List<Integer> steps = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(10);
+            if (op < 3 || steps.size() < 2) {
+                steps.add(graph.addStep(StepKind.PROCESS, "s" + i));
+            } else if (op < 4) {
+                int step = steps.remove(random.nextInt(steps.size()));
+                graph.removeStep(step);
+                expected.keySet().removeIf(key -> key / 4 / 100_000 == step || key / 4 % 100_000 == step);
+            } else if (op < 8) {
+                int source = steps.get(random.nextInt(steps.size()));
+                int target = steps.get(random.nextInt(steps.size()));
+                if (source == target) continue;
+                EdgeType type = EdgeType.values()[random.nextInt(EdgeType.values().length)];
+                int edge = graph.connect(source, target, type);
+                Integer old = expected.putIfAbsent(key(source, target, type), edge);
+                if (old != null) {
+                    assertEquals((int) old, edge);
+                }
+            } else if (!expected.isEmpty()) {
+                long key = new ArrayList<>(expected.keySet()).get(random.nextInt(expected.size()));
+                graph.disconnect(expected.remove(key));
+            }
+        }
+
+        assertEquals(steps.size(), graph.stepCount());
+        assertEquals(expected.size(), graph.edgeCount());
+        int outs = 0;
+        int ins = 0;
+        int slots = 0;
+        for (int step : steps) {
+            for (int e : outs(graph, step)) {
+                assertEquals(step, graph.source(e));
+                assertEquals((int) expected.get(key(step, graph.target(e), graph.type(e))), e);
+                outs++;
+            }
+            for (int e : ins(graph, step)) {
+                assertEquals(step, graph.target(e));
+                ins++;
+            }
+            for (EdgeType type : EdgeType.values()) {
+                int previous = Integer.MIN_VALUE;
+                for (int e = graph.firstOut(step, type); e != FlowGraph.NONE; e = graph.nextInSlot(e)) {
+                    assertEquals(type, graph.type(e));
+                    assertTrue(graph.serial(e) > previous, "slot must keep creation order");
+                    previous = graph.serial(e);
+                    slots++;
+                }
+            }
+        }
+        assertEquals(expected.size(), outs);
+        assertEquals(expected.size(), ins);
+        assertEquals(expected.size(), slots);
+        assertSameGraph(graph, graph.copy());
+    }
+
+    @Test
+    void copyIsEqualAndIndependent() {
+        FlowGraph graph = new FlowGraph();
+        int a = graph.addStep(StepKind.BEGIN, "a");
+        int b = graph.addStep(StepKind.PROCESS, null);
+        int c = graph.addStep(StepKind.END, "c");
+        graph.connect(a, b, EdgeType.OK);
+        graph.connect(b, c, EdgeType.OK);
+        graph.connect(a, c, EdgeType.EMPTY);
+        graph.setPosition(b, 1.5, -2);
+        graph.setAttachment(b, "view");
+        graph.addListener(new GraphListener() {
+            @Override
+            public void stepAdded(int step) {
+                throw new AssertionError("listeners must not be copied");
+            }
+        });
+
+        FlowGraph copy = graph.copy();
+
+        assertSameGraph(graph, copy);
+        assertEquals(graph.modCount(), copy.modCount());
+        assertNull(copy.attachment(b));
+        assertEquals(graph.find(b, c, EdgeType.OK), copy.find(b, c, EdgeType.OK));
+
+        int added = copy.addStep(StepKind.PROCESS, "d");
+        copy.connect(c, added, EdgeType.OK);
+        copy.removeStep(a);
+        copy.setText(b, "changed");
+        assertTrue(graph.contains(a));
+        assertEquals(3, graph.stepCount());
+        assertEquals(3, graph.edgeCount());
+        assertNull(graph.text(b));
+        assertEquals(FlowGraph.NONE, graph.firstOut(c));
+    }
+
+    @Test
+    void notifiesListenersInOrder() {
+        FlowGraph graph = new FlowGraph();
+        List<String> events = record(graph);
+        int a = graph.addStep(StepKind.BEGIN, "a");
+        int b = graph.addStep(StepKind.PROCESS, "b");
+        int c = graph.addStep(StepKind.END, "c");
+        int ab = graph.connect(a, b, EdgeType.OK);
+        int bc = graph.connect(b, c, EdgeType.OK);
+        graph.setPosition(b, 1, 2);
+        graph.setText(b, "x");
+        graph.removeStep(b);
+
+        assertEquals(List.of(
+                "stepAdded " + a, "stepAdded " + b, "stepAdded " + c,
+                "edgeAdded " + ab, "edgeAdded " + bc,
+                "stepMoved " + b, "textChanged " + b,
+                // Сначала исходящие, потом входящие, узел - последним
+                "edgeRemoved " + bc + " " + b + "->" + c + " OK",
+                "edgeRemoved " + ab + " " + a + "->" + b + " OK",
+                "stepRemoved " + b), events);
+    }
+
+    @Test
+    void stopsNotifyingRemovedListener() {
+        FlowGraph graph = new FlowGraph();
+        List<String> first = new ArrayList<>();
+        GraphListener listener = new GraphListener() {
+            @Override
+            public void stepAdded(int step) {
+                first.add("stepAdded " + step);
+            }
+        };
+        graph.addListener(listener);
+        List<String> second = record(graph);
+        graph.addStep(StepKind.BEGIN, "a");
+        graph.removeListener(listener);
+        graph.addStep(StepKind.END, "b");
+
+        assertEquals(List.of("stepAdded 0"), first);
+        assertEquals(List.of("stepAdded 0", "stepAdded 1"), second);
+    }
+
+    @Test
+    void rejectsMisuse() {
+        FlowGraph graph = new FlowGraph();
+        int a = graph.addStep(StepKind.BEGIN, "a");
+        int b = graph.addStep(StepKind.END, "b");
+
+        assertThrows(IllegalArgumentException.class, () -> graph.addStep(null, "x"));
+        assertThrows(IllegalArgumentException.class, () -> graph.connect(a, a, EdgeType.OK));
+        assertThrows(IllegalArgumentException.class, () -> graph.connect(a, b, null));
+        assertThrows(IllegalArgumentException.class, () -> graph.connect(a, 7, EdgeType.OK));
+        assertThrows(IllegalArgumentException.class, () -> graph.disconnect(0));
+        assertThrows(IllegalArgumentException.class, () -> graph.removeStep(-1));
+        assertEquals(FlowGraph.NONE, graph.find(a, 7, EdgeType.OK));
+    }
+
+    private static List<Integer> slot(FlowGraph graph, int step, EdgeType type) {
+        List<Integer> targets = new ArrayList<>();
+        for (int e = graph.firstOut(step, type); e != FlowGraph.NONE; e = graph.nextInSlot(e)) {
+            targets.add(graph.target(e));
+        }
+        return targets;
+    }
+
+    private static List<Integer> outs(FlowGraph graph, int step) {
+        List<Integer> edges = new ArrayList<>();
+        for (int e = graph.firstOut(step); e != FlowGraph.NONE; e = graph.nextOut(e)) {
+            edges.add(e);
+        }
+        return edges;
+    }
+
+    private static List<Integer> ins(FlowGraph graph, int step) {
+        List<Integer> edges = new ArrayList<>();
+        for (int e = graph.firstIn(step); e != FlowGraph.NONE; e = graph.nextIn(e)) {
+            edges.add(e);
+        }
+        return edges;
+    }
+
+    private static long key(int source, int target, EdgeType type) {
+        return ((long) source * 100_000 + target) * 4 + type.ordinal();
+    }
+
+    private static List<String> record(FlowGraph graph) {
+        List<String> events = new ArrayList<>();
+        graph.addListener(new GraphListener() {
+            @Override
+            public void stepAdded(int step) {
+                events.add("stepAdded " + step);
+            }
+
+            @Override
+            public void stepRemoved(int step) {
+                events.add("stepRemoved " + step);
+            }
+
+            @Override
+            public void edgeAdded(int edge) {
+                events.add("edgeAdded " + edge);
+            }
+
+            @Override
+            public void edgeRemoved(int edge, int source, int target, EdgeType type) {
+                events.add("edgeRemoved " + edge + " " + source + "->" + target + " " + type);
+            }
+
+            @Override
+            public void stepMoved(int step) {
+                events.add("stepMoved " + step);
+            }
+
+            @Override
+            public void textChanged(int step) {
+                events.add("textChanged " + step);
+            }
+        });
+        return events;
+    }
+}
@@ -0,0 +1,113 @@
+package com.alensoft.automator42.model.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Сравнение графов по содержимому: узлы - по порядку id (сами id могут отличаться,
+ * например после удалений), связи - по порядку создания. Если порядок id не
+ * сохраняется (переиспользование id, сжатие), узлы сопоставляются по тексту.
+ */
+public final class GraphAssertions {
+
+    private GraphAssertions() {
+    }
+
+    public static void assertSameGraph(FlowGraph expected, FlowGraph actual) {
+        assertEquals(expected.stepCount(), actual.stepCount(), "step count");
+        assertEquals(expected.edgeCount(), actual.edgeCount(), "edge count");
+        int[] expectedSteps = steps(expected);
+        int[] actualSteps = steps(actual);
+        int[] expectedRanks = ranks(expected, expectedSteps);
+        int[] actualRanks = ranks(actual, actualSteps);
+        for (int i = 0; i < expectedSteps.length; i++) {
+            int e = expectedSteps[i];
+            int a = actualSteps[i];
+            assertEquals(expected.kind(e), actual.kind(a), "kind of step " + i);
+            assertEquals(expected.text(e), actual.text(a), "text of step " + i);
+            assertEquals(expected.x(e), actual.x(a), "x of step " + i);
+            assertEquals(expected.y(e), actual.y(a), "y of step " + i);
+        }
+        int[] expectedEdges = edgesInOrder(expected);
+        int[] actualEdges = edgesInOrder(actual);
+        for (int i = 0; i < expectedEdges.length; i++) {
+            int e = expectedEdges[i];
+            int a = actualEdges[i];
+            assertEquals(expectedRanks[expected.source(e)], actualRanks[actual.source(a)], "source of edge " + i);
+            assertEquals(expectedRanks[expected.target(e)], actualRanks[actual.target(a)], "target of edge " + i);
+            assertEquals(expected.type(e), actual.type(a), "type of edge " + i);
+        }
+    }
+
+    /**
+     * Сравнить графы с уникальными текстами узлов: вид, позиция и исходящие связи
+     * каждого узла в порядке создания
+     */
+    public static void assertSameByText(FlowGraph expected, FlowGraph actual) {
+        assertEquals(expected.stepCount(), actual.stepCount(), "step count");
+        assertEquals(expected.edgeCount(), actual.edgeCount(), "edge count");
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    /**
+     * Текст узла -> вид, позиция и исходящие связи (тип и текст цели) в порядке создания
+     */
+    public static Map<String, String> describe(FlowGraph graph) {
+        Map<String, String> steps = new HashMap<>();
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (!graph.contains(step)) continue;
+            List<String> edges = new ArrayList<>();
+            for (int edge = graph.firstOut(step); edge != FlowGraph.NONE; edge = graph.nextOut(edge)) {
+                edges.add(graph.type(edge) + "->" + graph.text(graph.target(edge)));
+            }
+            String old = steps.put(graph.text(step),
+                    graph.kind(step) + " (" + graph.x(step) + ", " + graph.y(step) + ") " + edges);
+            assertEquals(null, old, "texts must be unique: " + graph.text(step));
+        }
+        return steps;
+    }
+
+    /**
+     * Живые узлы в порядке id
+     */
+    public static int[] steps(FlowGraph graph) {
+        int[] steps = new int[graph.stepCount()];
+        int count = 0;
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (graph.contains(step)) steps[count++] = step;
+        }
+        return steps;
+    }
+
+    /**
+     * Живые связи в порядке создания
+     */
+    public static int[] edgesInOrder(FlowGraph graph) {
+        long[] order = new long[graph.edgeCount()];
+        int count = 0;
+        for (int edge = 0; edge < graph.edgeCapacity(); edge++) {
+            if (graph.containsEdge(edge)) {
+                order[count++] = (long) graph.serial(edge) << 32 | edge;
+            }
+        }
+        Arrays.sort(order);
+        int[] edges = new int[count];
+        for (int i = 0; i < count; i++) {
+            edges[i] = (int) order[i];
+        }
+        return edges;
+    }
+
+    private static int[] ranks(FlowGraph graph, int[] steps) {
+        int[] ranks = new int[graph.stepCapacity()];
+        for (int i = 0; i < steps.length; i++) {
+            ranks[steps[i]] = i;
+        }
+        return ranks;
+    }
+}
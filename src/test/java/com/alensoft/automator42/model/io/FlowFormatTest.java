@@ -0,0 +1,168 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.StepKind;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.alensoft.automator42.model.graph.GraphAssertions.assertSameGraph;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FlowFormatTest {
+
+    @Test
+    void roundTripsMixedIntegralAndFractionalCoordinates() throws IOException {
+        FlowGraph graph = new FlowGraph();
+        double[][] points = {
+                {0, 0}, {2.5, -3.75}, {7, 10}, {-1.5, 100}, {-8, -3}, {-8.25, 4},
+                {1e12, -1e12}, {0.1, 0.2}, {3, 3}, {-0.0, 5}, {Double.POSITIVE_INFINITY, Double.NaN}, {-2, 1}
+        };
+        for (double[] point : points) {
+            int id = graph.addStep(StepKind.PROCESS, "p");
+            graph.setPosition(id, point[0], point[1]);
+        }
+
+        FlowGraph read = roundTrip(graph);
+
+        assertSameGraph(graph, read);
+        // -0.0 == 0.0, поэтому знак проверяется по битам
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(read.x(9)));
+    }
+
+    @Test
+    void roundTripsNullAndRepeatedTexts() throws IOException {
+        FlowGraph graph = new FlowGraph();
+        String[] texts = {null, "a", "a", null, "Старт", "", "a", "Старт", "", "ok\n\"quoted\"", null};
+        for (String text : texts) {
+            graph.addStep(StepKind.PROCESS, text);
+        }
+
+        assertSameGraph(graph, roundTrip(graph));
+    }
+
+    @Test
+    void keepsEdgeCreationOrderAndSkipsRemovedSteps() throws IOException {
+        FlowGraph graph = new FlowGraph();
+        int begin = graph.addStep(StepKind.BEGIN, "begin");
+        int removed = graph.addStep(StepKind.PROCESS, "removed");
+        int branch = graph.addStep(StepKind.BRANCH, "branch");
+        int yes = graph.addStep(StepKind.PROCESS, "yes");
+        int no = graph.addStep(StepKind.PROCESS, "no");
+        int end = graph.addStep(StepKind.END, "end");
+        // Связи создаются не в порядке id: порядок задает обход слотов
+        graph.connect(no, end, EdgeType.OK);
+        graph.connect(branch, no, EdgeType.OUT);
+        graph.connect(begin, branch, EdgeType.OK);
+        graph.connect(branch, yes, EdgeType.IN);
+        graph.connect(yes, end, EdgeType.OK);
+        graph.connect(removed, end, EdgeType.OK);
+        graph.removeStep(removed);
+        // Пересозданная связь становится последней
+        graph.disconnect(graph.find(branch, no, EdgeType.OUT));
+        graph.connect(branch, no, EdgeType.OUT);
+
+        FlowGraph read = roundTrip(graph);
+
+        assertSameGraph(graph, read);
+        int readBranch = 1;
+        int first = read.firstOut(readBranch);
+        assertEquals(EdgeType.IN, read.type(first));
+        assertEquals(EdgeType.OUT, read.type(read.nextOut(first)));
+    }
+
+    @Test
+    void streamsIntoSink() throws IOException {
+        FlowGraph graph = sample();
+        FlowGraph read = new FlowGraph();
+
+        FlowFormat.read(new ByteArrayInputStream(write(graph)), FlowSink.of(read));
+
+        assertSameGraph(graph, read);
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        byte[] file = write(sample());
+        for (int length = 0; length < file.length; length++) {
+            byte[] truncated = Arrays.copyOf(file, length);
+            assertThrows(IOException.class, () -> FlowFormat.read(new ByteArrayInputStream(truncated)),
+                    "prefix of " + length + " bytes");
+        }
+    }
+
+    @Test
+    void rejectsCorruptStringLength() {
+        int step = FlowFormat.STEP | StepKind.PROCESS.ordinal();
+        byte[][] files = {
+                file(step, FlowFormat.TEXT_NEW, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F, 0, 0),
+                file(step, FlowFormat.TEXT_NEW, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 'a', 'b', 'c'),
+                file(step, FlowFormat.TEXT_NEW, 0x80, 0x80, 0x08, 'a')
+        };
+        for (byte[] file : files) {
+            assertThrows(IOException.class, () -> FlowFormat.read(new ByteArrayInputStream(file)),
+                    Arrays.toString(file));
+            assertThrows(IOException.class, () -> FlowFormat.read(new ByteArrayInputStream(file), FlowSink.of(new FlowGraph())),
+                    Arrays.toString(file));
+        }
+    }
+
+    @Test
+    void treatsSizeHintOnlyAsPresize() throws IOException {
+        byte[] huge = file(FlowFormat.SIZE, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 0xFF, 0xFF, 0xFF, 0xFF, 0x07,
+                FlowFormat.END);
+        assertEquals(0, FlowFormat.read(new ByteArrayInputStream(huge)).stepCount());
+        FlowFormat.read(new ByteArrayInputStream(huge), FlowSink.of(new FlowGraph()));
+
+        byte[] truncated = Arrays.copyOf(huge, huge.length - 1);
+        assertThrows(IOException.class, () -> FlowFormat.read(new ByteArrayInputStream(truncated)));
+
+        byte[] negative = file(FlowFormat.SIZE, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F, 0, FlowFormat.END);
+        assertThrows(IOException.class, () -> FlowFormat.read(new ByteArrayInputStream(negative)));
+    }
+
+    @Test
+    void rejectsForeignFile() {
+        byte[] file = "A42Xjunk".getBytes();
+        assertThrows(IOException.class, () -> FlowFormat.read(new ByteArrayInputStream(file)));
+    }
+
+    private static FlowGraph sample() {
+        FlowGraph graph = new FlowGraph();
+        int previous = graph.addStep(StepKind.BEGIN, "begin");
+        for (int i = 0; i < 50; i++) {
+            int step = graph.addStep(i % 5 == 0 ? StepKind.BRANCH : StepKind.PROCESS, "step " + i % 7);
+            graph.setPosition(step, i * 10, i % 3 == 0 ? i * 1.5 : i * 20);
+            graph.connect(previous, step, EdgeType.OK);
+            previous = step;
+        }
+        graph.connect(previous, graph.addStep(StepKind.END, null), EdgeType.OK);
+        return graph;
+    }
+
+    private static byte[] write(FlowGraph graph) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FlowFormat.write(graph, out);
+        return out.toByteArray();
+    }
+
+    private static FlowGraph roundTrip(FlowGraph graph) throws IOException {
+        return FlowFormat.read(new ByteArrayInputStream(write(graph)));
+    }
+
+    // Заголовок версии 1 и дальше байты как есть
+    private static byte[] file(int... bytes) {
+        byte[] file = new byte[FlowFormat.MAGIC.length + 1 + bytes.length];
+        System.arraycopy(FlowFormat.MAGIC, 0, file, 0, FlowFormat.MAGIC.length);
+        file[FlowFormat.MAGIC.length] = FlowFormat.VERSION;
+        for (int i = 0; i < bytes.length; i++) {
+            file[FlowFormat.MAGIC.length + 1 + i] = (byte) bytes[i];
+        }
+        return file;
+    }
+}
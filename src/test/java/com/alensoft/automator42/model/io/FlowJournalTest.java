@@ -0,0 +1,282 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.StepKind;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static com.alensoft.automator42.model.graph.GraphAssertions.assertSameByText;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FlowJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private int texts;
+
+    @Test
+    void recoversLiveGraph() throws IOException {
+        FlowGraph graph = chain(20);
+        try (FlowJournal journal = new FlowJournal(graph, directory)) {
+            edit(graph, 200);
+            journal.sync();
+        }
+
+        assertSameByText(graph, FlowJournal.recover(directory));
+    }
+
+    @Test
+    void commitsSingleEditWithoutSync() throws IOException, InterruptedException {
+        FlowGraph graph = chain(1);
+        try (FlowJournal journal = new FlowJournal(graph, directory)) {
+            // Дать фоновому потоку записать снимок и уснуть без работы
+            journal.sync();
+            Thread.sleep(FlowJournal.COMMIT_INTERVAL_MILLIS * 5);
+            graph.addStep(StepKind.PROCESS, "added");
+            // Фиксация должна успеть за несколько интервалов, sync не вызываем
+            long deadline = System.nanoTime() + FlowJournal.COMMIT_INTERVAL_MILLIS * 50 * 1_000_000;
+            FlowGraph recovered = FlowJournal.recover(directory);
+            while (recovered.stepCount() < graph.stepCount() && System.nanoTime() < deadline) {
+                Thread.sleep(FlowJournal.COMMIT_INTERVAL_MILLIS);
+                recovered = FlowJournal.recover(directory);
+            }
+            assertSameByText(graph, recovered);
+        }
+    }
+
+    @Test
+    void recoversWithoutJournalOrDirectory() throws IOException {
+        assertNull(FlowJournal.recover(directory.resolve("missing")));
+        assertNull(FlowJournal.recover(directory));
+
+        FlowGraph graph = chain(5);
+        new FlowJournal(graph, directory).close();
+        assertSameByText(graph, FlowJournal.recover(directory));
+    }
+
+    @Test
+    void dropsTruncatedLastFrame() throws IOException {
+        FlowGraph graph = chain(20);
+        FlowGraph synced;
+        long syncedSize;
+        try (FlowJournal journal = new FlowJournal(graph, directory)) {
+            edit(graph, 100);
+            journal.sync();
+            synced = graph.copy();
+            syncedSize = Files.size(log());
+            // Одна запись - один кадр
+            graph.setText(first(graph), text());
+            journal.sync();
+        }
+        long fullSize = Files.size(log());
+        assertSameByText(graph, FlowJournal.recover(directory));
+
+        // Любой обрыв последнего кадра, в том числе внутри его длины и CRC
+        for (long size = fullSize - 1; size >= syncedSize; size--) {
+            try (FileChannel channel = FileChannel.open(log(), StandardOpenOption.WRITE)) {
+                channel.truncate(size);
+            }
+            assertSameByText(synced, FlowJournal.recover(directory));
+        }
+    }
+
+    @Test
+    void dropsFrameWithBadChecksum() throws IOException {
+        FlowGraph graph = chain(20);
+        FlowGraph synced;
+        try (FlowJournal journal = new FlowJournal(graph, directory)) {
+            edit(graph, 100);
+            journal.sync();
+            synced = graph.copy();
+            graph.setText(first(graph), text());
+            journal.sync();
+        }
+        long fullSize = Files.size(log());
+
+        // Последний байт записи
+        overwrite(fullSize - 1, (byte) ~read(fullSize - 1));
+        assertSameByText(synced, FlowJournal.recover(directory));
+    }
+
+    @Test
+    void dropsFrameWithGarbageLength() throws IOException {
+        FlowGraph graph = chain(20);
+        FlowGraph synced;
+        long syncedSize;
+        try (FlowJournal journal = new FlowJournal(graph, directory)) {
+            edit(graph, 100);
+            journal.sync();
+            synced = graph.copy();
+            syncedSize = Files.size(log());
+            graph.setText(first(graph), text());
+            journal.sync();
+        }
+
+        // Длина кадра почти 2 ГБ: кадр не влезает в файл, память под него не выделяется
+        ByteBuffer length = ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE - 8).flip();
+        try (FileChannel channel = FileChannel.open(log(), StandardOpenOption.WRITE)) {
+            channel.write(length, syncedSize);
+        }
+        assertSameByText(synced, FlowJournal.recover(directory));
+
+        length = ByteBuffer.allocate(4).putInt(-1).flip();
+        try (FileChannel channel = FileChannel.open(log(), StandardOpenOption.WRITE)) {
+            channel.write(length, syncedSize);
+        }
+        assertSameByText(synced, FlowJournal.recover(directory));
+    }
+
+    @Test
+    void recoversAfterCompactionMidSession() throws IOException {
+        FlowGraph graph = chain(30);
+        try (FlowJournal journal = new FlowJournal(graph, directory)) {
+            edit(graph, 150);
+            journal.sync();
+            // После удалений у графа дыры в id, а в снимке номера идут подряд
+            journal.compact();
+            edit(graph, 150);
+            journal.sync();
+        }
+
+        assertEquals(2, files().size(), "one snapshot and its journal: " + files());
+        assertSameByText(graph, FlowJournal.recover(directory));
+    }
+
+    @Test
+    void remapsReusedStepIds() throws IOException {
+        FlowGraph graph = chain(10);
+        try (FlowJournal journal = new FlowJournal(graph, directory)) {
+            int removed = first(graph);
+            int next = graph.target(graph.firstOut(removed));
+            graph.removeStep(removed);
+            int reused = graph.addStep(StepKind.PROCESS, text());
+            assertEquals(removed, reused, "graph reuses the freed id");
+            graph.connect(reused, next, EdgeType.OK);
+            graph.setText(reused, text());
+            graph.setPosition(reused, 7.5, -3);
+
+            journal.compact();
+            int again = graph.target(graph.firstOut(reused));
+            graph.removeStep(again);
+            int reusedAfterCompact = graph.addStep(StepKind.BRANCH, text());
+            assertEquals(again, reusedAfterCompact);
+            graph.connect(reused, reusedAfterCompact, EdgeType.OK);
+            graph.setPosition(reusedAfterCompact, 1, 2);
+            journal.sync();
+        }
+
+        assertSameByText(graph, FlowJournal.recover(directory));
+    }
+
+    @Test
+    void recoveredGraphContinuesJournal() throws IOException {
+        FlowGraph graph = chain(20);
+        try (FlowJournal journal = new FlowJournal(graph, directory)) {
+            edit(graph, 100);
+        }
+        FlowGraph recovered = FlowJournal.recover(directory);
+        try (FlowJournal journal = new FlowJournal(recovered, directory)) {
+            edit(recovered, 100);
+        }
+
+        assertSameByText(recovered, FlowJournal.recover(directory));
+    }
+
+    // Цепочка Begin -> Process... -> End с уникальными текстами
+    private FlowGraph chain(int length) {
+        FlowGraph graph = new FlowGraph();
+        int previous = graph.addStep(StepKind.BEGIN, text());
+        for (int i = 0; i < length; i++) {
+            int step = graph.addStep(StepKind.PROCESS, text());
+            graph.setPosition(step, i, i * 60);
+            graph.connect(previous, step, EdgeType.OK);
+            previous = step;
+        }
+        graph.connect(previous, graph.addStep(StepKind.END, text()), EdgeType.OK);
+        return graph;
+    }
+
+    // Детерминированная смесь правок: вставки, удаления, связи, тексты, сдвиги
+    private void edit(FlowGraph graph, int count) {
+        Random random = new Random(texts);
+        for (int i = 0; i < count; i++) {
+            int roll = random.nextInt(100);
+            int step = any(graph, random);
+            switch (roll / 20) {
+                case 0 -> {
+                    int added = graph.addStep(StepKind.PROCESS, text());
+                    graph.connect(step, added, EdgeType.OK);
+                }
+                case 1 -> {
+                    if (graph.kind(step) == StepKind.PROCESS) graph.removeStep(step);
+                }
+                case 2 -> {
+                    int edge = graph.firstOut(step);
+                    int target = any(graph, random);
+                    if (edge != FlowGraph.NONE) graph.disconnect(edge);
+                    else if (target != step) graph.connect(step, target, EdgeType.OUT);
+                }
+                case 3 -> graph.setText(step, text());
+                default -> graph.setPosition(step, roll * 1.5, -roll);
+            }
+        }
+    }
+
+    private static int any(FlowGraph graph, Random random) {
+        int skip = random.nextInt(graph.stepCount());
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (graph.contains(step) && skip-- == 0) return step;
+        }
+        throw new IllegalStateException();
+    }
+
+    private static int first(FlowGraph graph) {
+        for (int step = 0; step < graph.stepCapacity(); step++) {
+            if (graph.contains(step) && graph.kind(step) == StepKind.PROCESS) return step;
+        }
+        throw new IllegalStateException("No process step");
+    }
+
+    private String text() {
+        return "step " + texts++;
+    }
+
+    private Path log() throws IOException {
+        return files().stream()
+                .filter(path -> path.getFileName().toString().endsWith(FlowJournal.LOG_SUFFIX))
+                .findFirst().orElseThrow();
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.toList();
+        }
+    }
+
+    private byte read(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        try (FileChannel channel = FileChannel.open(log(), StandardOpenOption.READ)) {
+            channel.read(buffer, position);
+        }
+        return buffer.get(0);
+    }
+
+    private void overwrite(long position, byte value) throws IOException {
+        try (FileChannel channel = FileChannel.open(log(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{value}), position);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.StepKind;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static com.alensoft.automator42.model.graph.GraphAssertions.assertSameGraph;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowJsonTest {
+
+    @Test
+    void roundTripsGraph() throws IOException {
+        FlowGraph graph = new FlowGraph();
+        int begin = graph.addStep(StepKind.BEGIN, "Старт");
+        int removed = graph.addStep(StepKind.PROCESS, "removed");
+        int branch = graph.addStep(StepKind.BRANCH, "x > \"0\"\n?");
+        int yes = graph.addStep(StepKind.USER_IO, null);
+        int no = graph.addStep(StepKind.CONNECTOR, "");
+        int end = graph.addStep(StepKind.END, "Конец 😀");
+        graph.setPosition(branch, 2.5, -130);
+        graph.setPosition(yes, -0.125, 1e9);
+        graph.connect(branch, no, EdgeType.OUT);
+        graph.connect(begin, branch, EdgeType.OK);
+        graph.connect(branch, yes, EdgeType.IN);
+        graph.connect(yes, end, EdgeType.OK);
+        graph.connect(no, end, EdgeType.OK);
+        graph.connect(branch, no, EdgeType.EMPTY);
+        graph.removeStep(removed);
+
+        assertSameGraph(graph, FlowJson.read(new StringReader(write(graph))));
+    }
+
+    @Test
+    void skipsUnknownFields() throws IOException {
+        FlowGraph graph = FlowJson.read(new StringReader("""
+                {"format": "automator42-flowchart", "version": 1,
+                 "meta": {"author": "x", "tags": ["a", {"deep": [1, 2, {"x": null}]}]},
+                 "steps": [{"id": 10, "color": [1, 2], "type": "Begin", "text": "b", "x": 5, "y": 6},
+                           {"id": -3, "type": "End", "extra": {"a": {}}}],
+                 "connections": [{"source": 10, "target": -3, "type": "OK", "style": {"dashed": true}}],
+                 "trailer": [[], {}]}
+                """));
+
+        assertEquals(2, graph.stepCount());
+        assertEquals(1, graph.edgeCount());
+        int edge = graph.firstOut(0);
+        assertEquals(1, graph.target(edge));
+        assertEquals(EdgeType.OK, graph.type(edge));
+        assertEquals(5.0, graph.x(0));
+        assertEquals(6.0, graph.y(0));
+        assertNull(graph.text(1));
+    }
+
+    @Test
+    void rejectsConnectionsBeforeSteps() {
+        assertRejected("""
+                {"format": "automator42-flowchart", "connections": [],
+                 "steps": [{"id": 0, "type": "Begin"}]}
+                """);
+    }
+
+    @Test
+    void rejectsDuplicateIds() {
+        assertRejected("""
+                {"steps": [{"id": 1, "type": "Begin"}, {"id": 1, "type": "End"}]}
+                """);
+    }
+
+    @Test
+    void rejectsTrailingGarbage() {
+        assertRejected("{\"steps\": []} {}");
+        assertRejected("{\"steps\": []},");
+    }
+
+    @Test
+    void rejectsInvalidDocuments() {
+        assertRejected("{\"format\": \"other\"}");
+        assertRejected("{\"version\": 2}");
+        assertRejected("{\"steps\": [{\"type\": \"Begin\"}]}");
+        assertRejected("{\"steps\": [{\"id\": 0, \"type\": \"Loop\"}]}");
+        assertRejected("{\"steps\": [{\"id\": 0, \"type\": \"Begin\"}],"
+                + " \"connections\": [{\"source\": 0, \"target\": 1, \"type\": \"OK\"}]}");
+        assertRejected("{\"steps\": [{\"id\": 0, \"type\": \"Begin\"}],"
+                + " \"connections\": [{\"source\": 0, \"target\": 0, \"type\": \"SIDE\"}]}");
+        assertRejected("{\"steps\": [{\"id\": 0, \"type\": \"Begin\"}],"
+                + " \"connections\": [{\"source\": 0, \"target\": 0, \"type\": \"OK\"}]}");
+        assertRejected("{\"steps\": [");
+    }
+
+    @Test
+    void rejectsNonFinitePositionBeforeWriting() {
+        FlowGraph graph = new FlowGraph();
+        graph.addStep(StepKind.BEGIN, "b");
+        int step = graph.addStep(StepKind.PROCESS, "p");
+        graph.setPosition(step, Double.NaN, 0);
+        StringWriter out = new StringWriter();
+
+        assertThrows(IllegalArgumentException.class, () -> FlowJson.write(graph, out));
+        assertTrue(out.toString().isEmpty());
+    }
+
+    private static String write(FlowGraph graph) throws IOException {
+        StringWriter out = new StringWriter();
+        FlowJson.write(graph, out);
+        return out.toString();
+    }
+
+    private static void assertRejected(String document) {
+        assertThrows(IOException.class, () -> FlowJson.read(new StringReader(document)), document);
+    }
+}
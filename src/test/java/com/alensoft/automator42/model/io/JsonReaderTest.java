@@ -0,0 +1,153 @@
+package com.alensoft.automator42.model.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonReaderTest {
+
+    @Test
+    void readsEscapes() throws IOException {
+        JsonReader json = reader("[\"q\\\" b\\\\ s\\/ \\b\\f\\n\\r\\t\"]");
+        json.beginArray();
+        assertEquals("q\" b\\ s/ \b\f\n\r\t", json.nextString());
+        json.endArray();
+        assertEquals(JsonReader.Token.END_DOCUMENT, json.peek());
+    }
+
+    @Test
+    void readsUnicodeEscapesAndRawUnicode() throws IOException {
+        JsonReader json = reader("[\"\\u0410\\u0431\\u00e9\", \"\\ud83d\\ude00\", \"Шаг 😀\"]");
+        json.beginArray();
+        assertEquals("Абé", json.nextString());
+        assertEquals("😀", json.nextString());
+        assertEquals("Шаг 😀", json.nextString());
+        json.endArray();
+    }
+
+    @Test
+    void rejectsMalformedEscapes() {
+        assertThrows(IOException.class, () -> readString("[\"\\x\"]"));
+        assertThrows(IOException.class, () -> readString("[\"\\u12G4\"]"));
+        assertThrows(IOException.class, () -> readString("[\"\\u12\"]"));
+        assertThrows(IOException.class, () -> readString("[\"raw\ttab\"]"));
+        assertThrows(IOException.class, () -> readString("[\"unterminated"));
+    }
+
+    @Test
+    void readsNumbersAndLiterals() throws IOException {
+        JsonReader json = reader("[0, -12, 2.5e3, -0.125, true, false, null]");
+        json.beginArray();
+        assertEquals(0, json.nextInt());
+        assertEquals(-12, json.nextInt());
+        assertEquals(2500.0, json.nextDouble());
+        assertEquals(-0.125, json.nextDouble());
+        assertTrue(json.nextBoolean());
+        assertFalse(json.nextBoolean());
+        json.nextNull();
+        assertFalse(json.hasNext());
+        json.endArray();
+    }
+
+    @Test
+    void rejectsMalformedNumbers() {
+        assertThrows(IOException.class, () -> readNumber("[01]"));
+        assertThrows(IOException.class, () -> readNumber("[1.]"));
+        assertThrows(IOException.class, () -> readNumber("[-]"));
+        assertThrows(IOException.class, () -> readNumber("[1e]"));
+        assertThrows(IOException.class, () -> {
+            JsonReader json = reader("[1.5]");
+            json.beginArray();
+            json.nextInt();
+        });
+    }
+
+    @Test
+    void skipsNestedValues() throws IOException {
+        JsonReader json = reader("{\"skip\": {\"a\": [1, {\"b\": [[], {}]}, \"]}\"], \"c\": null}, \"keep\": 7}");
+        json.beginObject();
+        assertEquals("skip", json.nextName());
+        json.skipValue();
+        assertEquals("keep", json.nextName());
+        assertEquals(7, json.nextInt());
+        json.endObject();
+        assertEquals(JsonReader.Token.END_DOCUMENT, json.peek());
+    }
+
+    @Test
+    void rejectsTrailingGarbage() throws IOException {
+        JsonReader json = reader("{} x");
+        json.beginObject();
+        json.endObject();
+        assertThrows(IOException.class, json::peek);
+    }
+
+    @Test
+    void rejectsStructuralErrors() {
+        assertThrows(IOException.class, () -> skip("{\"a\" 1}"));
+        assertThrows(IOException.class, () -> skip("[1 2]"));
+        assertThrows(IOException.class, () -> skip("{\"a\": 1,}"));
+        assertThrows(IOException.class, () -> skip("[1, 2"));
+        assertThrows(IOException.class, () -> skip("{\"a\": tru}"));
+    }
+
+    @Test
+    void writerOutputReadsBack() throws IOException {
+        String text = "\"quoted\" \\ / \n\r\t\b\f \u0001 \u2028\u2029 Шаг 😀";
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        writer.name("text").value(text);
+        writer.name("numbers").beginArray().value(3).value(-0.0).value(1e-7).value(Long.MAX_VALUE).endArray();
+        writer.endObject();
+        writer.flush();
+
+        JsonReader json = reader(out.toString());
+        json.beginObject();
+        assertEquals("text", json.nextName());
+        assertEquals(text, json.nextString());
+        assertEquals("numbers", json.nextName());
+        json.beginArray();
+        assertEquals(3, json.nextInt());
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(json.nextDouble()));
+        assertEquals(1e-7, json.nextDouble());
+        assertEquals((double) Long.MAX_VALUE, json.nextDouble());
+        json.endArray();
+        json.endObject();
+        assertEquals(JsonReader.Token.END_DOCUMENT, json.peek());
+    }
+
+    @Test
+    void writerRejectsNonFiniteNumbers() {
+        JsonWriter writer = new JsonWriter(new StringWriter());
+        assertThrows(IllegalArgumentException.class, () -> writer.value(Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> writer.value(Double.NEGATIVE_INFINITY));
+    }
+
+    private static JsonReader reader(String text) {
+        return new JsonReader(new StringReader(text));
+    }
+
+    private static void readString(String text) throws IOException {
+        JsonReader json = reader(text);
+        json.beginArray();
+        json.nextString();
+    }
+
+    private static void readNumber(String text) throws IOException {
+        JsonReader json = reader(text);
+        json.beginArray();
+        json.nextDouble();
+    }
+
+    private static void skip(String text) throws IOException {
+        reader(text).skipValue();
+    }
+}
@@ -0,0 +1,239 @@
+package com.alensoft.automator42.model.io;
+
+import com.alensoft.automator42.model.graph.EdgeType;
+import com.alensoft.automator42.model.graph.FlowGraph;
+import com.alensoft.automator42.model.graph.IntQueue;
+import com.alensoft.automator42.model.graph.StepKind;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.alensoft.automator42.model.graph.GraphAssertions.assertSameByText;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedFlowFileTest {
+    private static final double PAGE_WIDTH = 100;
+    private static final double PAGE_HEIGHT = 50;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsThroughGraph() throws IOException {
+        FlowGraph graph = scattered(300, new Random(1));
+        Path path = directory.resolve("chart.a42m");
+        MappedFlowFile.write(graph, path, PAGE_WIDTH, PAGE_HEIGHT);
+
+        try (MappedFlowFile file = MappedFlowFile.open(path)) {
+            assertEquals(graph.stepCount(), file.stepCount());
+            assertEquals(graph.edgeCount(), file.edgeCount());
+            // Id в файле другие: сравнение по уникальным текстам
+            assertSameByText(graph, file.toGraph());
+        }
+    }
+
+    @Test
+    void keepsInEdgesAndTexts() throws IOException {
+        FlowGraph graph = scattered(200, new Random(2));
+        graph.setText(7, null);
+        graph.setText(8, "repeated");
+        graph.setText(9, "repeated");
+        graph.setText(10, "кириллица 😀");
+        Path path = directory.resolve("chart.a42m");
+        MappedFlowFile.write(graph, path, PAGE_WIDTH, PAGE_HEIGHT);
+
+        try (MappedFlowFile file = MappedFlowFile.open(path)) {
+            int[] graphIds = graphIds(graph, file);
+            Map<Integer, Integer> fileIds = new HashMap<>();
+            for (int step = 0; step < graphIds.length; step++) {
+                fileIds.put(graphIds[step], step);
+            }
+            for (int step = 0; step < file.stepCount(); step++) {
+                int id = graphIds[step];
+                assertEquals(graph.text(id), file.text(step));
+                assertEquals(graph.kind(id), file.kind(step));
+                int i = 0;
+                for (int e = graph.firstIn(id); e != FlowGraph.NONE; e = graph.nextIn(e), i++) {
+                    assertEquals((int) fileIds.get(graph.source(e)), file.inSource(step, i));
+                    assertEquals(graph.type(e), file.inType(step, i));
+                }
+                assertEquals(i, file.inDegree(step));
+            }
+        }
+    }
+
+    @Test
+    void findsPagesLikeBruteForce() throws IOException {
+        Random random = new Random(3);
+        FlowGraph graph = scattered(500, random);
+        Path path = directory.resolve("chart.a42m");
+        MappedFlowFile.write(graph, path, PAGE_WIDTH, PAGE_HEIGHT);
+
+        try (MappedFlowFile file = MappedFlowFile.open(path)) {
+            int[] rows = new int[file.pageCount()];
+            int[] cols = new int[file.pageCount()];
+            for (int page = 0; page < file.pageCount(); page++) {
+                int first = file.firstStep(page);
+                rows[page] = (int) Math.floor(file.y(first) / PAGE_HEIGHT);
+                cols[page] = (int) Math.floor(file.x(first) / PAGE_WIDTH);
+                if (page > 0) {
+                    assertTrue(rows[page - 1] < rows[page] || rows[page - 1] == rows[page] && cols[page - 1] < cols[page],
+                            "pages must be sorted by (row, col)");
+                }
+                for (int step = first; step < first + file.pageSize(page); step++) {
+                    assertEquals(page, file.pageOf(step));
+                    assertEquals(rows[page], (int) Math.floor(file.y(step) / PAGE_HEIGHT));
+                    assertEquals(cols[page], (int) Math.floor(file.x(step) / PAGE_WIDTH));
+                }
+            }
+
+            IntQueue found = new IntQueue();
+            for (int query = 0; query < 500; query++) {
+                double minX = random.nextDouble() * 2000 - 1000;
+                double minY = random.nextDouble() * 1000 - 500;
+                double maxX = minX + random.nextDouble() * 600;
+                double maxY = minY + random.nextDouble() * 300;
+                found.clear();
+                file.findPages(minX, minY, maxX, maxY, found);
+                int[] actual = new int[found.size()];
+                for (int i = 0; i < actual.length; i++) {
+                    actual[i] = found.poll();
+                }
+                Arrays.sort(actual);
+
+                int[] expected = new int[file.pageCount()];
+                int count = 0;
+                for (int page = 0; page < file.pageCount(); page++) {
+                    if (rows[page] >= Math.floor(minY / PAGE_HEIGHT) && rows[page] <= Math.floor(maxY / PAGE_HEIGHT)
+                            && cols[page] >= Math.floor(minX / PAGE_WIDTH) && cols[page] <= Math.floor(maxX / PAGE_WIDTH)) {
+                        expected[count++] = page;
+                    }
+                }
+                assertEquals(Arrays.toString(Arrays.copyOf(expected, count)), Arrays.toString(actual),
+                        minX + ", " + minY + " - " + maxX + ", " + maxY);
+            }
+        }
+    }
+
+    @Test
+    void opensEmptyGraph() throws IOException {
+        Path path = directory.resolve("empty.a42m");
+        MappedFlowFile.write(new FlowGraph(), path);
+
+        try (MappedFlowFile file = MappedFlowFile.open(path)) {
+            assertEquals(0, file.stepCount());
+            assertEquals(0, file.pageCount());
+            IntQueue found = new IntQueue();
+            file.findPages(-1e9, -1e9, 1e9, 1e9, found);
+            assertTrue(found.isEmpty());
+        }
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        FlowGraph graph = scattered(50, new Random(4));
+        Path path = directory.resolve("chart.a42m");
+        MappedFlowFile.write(graph, path, PAGE_WIDTH, PAGE_HEIGHT);
+        byte[] bytes = Files.readAllBytes(path);
+
+        Path truncated = directory.resolve("truncated.a42m");
+        for (int length = 0; length < bytes.length; length += Math.max(1, length / 8)) {
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> MappedFlowFile.open(truncated).close(),
+                    "prefix of " + length + " bytes");
+        }
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> MappedFlowFile.open(truncated).close());
+    }
+
+    @Test
+    void rejectsBadHeader() throws IOException {
+        Path path = directory.resolve("chart.a42m");
+        MappedFlowFile.write(scattered(10, new Random(5)), path);
+
+        assertRejected(path, 0, 'X');
+        assertRejected(path, 4, MappedFlowFile.VERSION + 1);
+        assertRejected(path, 8, -1);
+        assertRejected(path, 12, -1);
+        assertRejected(path, 16, -1);
+        assertRejected(path, 16, Integer.MAX_VALUE);
+        assertRejectedDouble(path, 24, 0);
+        assertRejectedDouble(path, 32, Double.NaN);
+    }
+
+    // Узлы, разбросанные по положительным и отрицательным координатам, с уникальными текстами
+    private static FlowGraph scattered(int count, Random random) {
+        FlowGraph graph = new FlowGraph();
+        for (int i = 0; i < count; i++) {
+            int step = graph.addStep(i == 0 ? StepKind.BEGIN : StepKind.values()[1 + random.nextInt(3)], "step " + i);
+            graph.setPosition(step, random.nextInt(1600) - 800 + (i % 3 == 0 ? 0.5 : 0),
+                    random.nextInt(800) - 400);
+        }
+        for (int i = 0; i < count * 2; i++) {
+            int source = random.nextInt(count);
+            int target = random.nextInt(count);
+            if (source != target) {
+                graph.connect(source, target, EdgeType.values()[random.nextInt(EdgeType.values().length)]);
+            }
+        }
+        // Удаленные узлы оставляют дыры в id графа
+        graph.removeStep(count / 2);
+        graph.removeStep(count / 3);
+        return graph;
+    }
+
+    // Id графа для каждого узла файла: файл упорядочен по (row, col) страницы, внутри - по id графа
+    private static int[] graphIds(FlowGraph graph, MappedFlowFile file) {
+        Integer[] ids = new Integer[graph.stepCount()];
+        int count = 0;
+        for (int id = 0; id < graph.stepCapacity(); id++) {
+            if (graph.contains(id)) {
+                ids[count++] = id;
+            }
+        }
+        Arrays.sort(ids, Comparator.<Integer>comparingDouble(id -> Math.floor(graph.y(id) / PAGE_HEIGHT))
+                .thenComparingDouble(id -> Math.floor(graph.x(id) / PAGE_WIDTH))
+                .thenComparingInt(id -> id));
+        int[] result = new int[count];
+        for (int step = 0; step < count; step++) {
+            result[step] = ids[step];
+            assertEquals(graph.x(result[step]), file.x(step));
+            assertEquals(graph.y(result[step]), file.y(step));
+        }
+        return result;
+    }
+
+    private void assertRejected(Path source, int offset, int value) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value);
+        assertRejected(source, offset, bytes);
+    }
+
+    private void assertRejectedDouble(Path source, int offset, double value) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putDouble(0, value);
+        assertRejected(source, offset, bytes);
+    }
+
+    private void assertRejected(Path source, int offset, ByteBuffer bytes) throws IOException {
+        Path corrupt = directory.resolve("corrupt.a42m");
+        Files.copy(source, corrupt, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel channel = FileChannel.open(corrupt, StandardOpenOption.WRITE)) {
+            channel.write(bytes, offset);
+        }
+        assertThrows(IOException.class, () -> MappedFlowFile.open(corrupt).close(), "header offset " + offset);
+    }
+}